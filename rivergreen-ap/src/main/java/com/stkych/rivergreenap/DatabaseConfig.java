@@ -4,7 +4,12 @@ package com.stkych.rivergreenap;
  * Configuration values for connecting to the database.
  */
 public class DatabaseConfig {
-    public static final String DB_URL = "jdbc:mysql://rgserver:3306/opendental?useSSL=false&allowPublicKeyRetrieval=true&serverTimezone=UTC";
+    /**
+     * The database's JDBC URL. The {@code rivergreen.dbUrl} system property replaces it, so build-time runs
+     * such as the startup image's training run can point at a database that is certain not to be OpenDental's.
+     */
+    public static final String DB_URL = System.getProperty("rivergreen.dbUrl",
+            "jdbc:mysql://rgserver:3306/opendental?useSSL=false&allowPublicKeyRetrieval=true&serverTimezone=UTC");
     public static final String DB_USER = "root";
     public static final String DB_PASSWORD = "password";
 }
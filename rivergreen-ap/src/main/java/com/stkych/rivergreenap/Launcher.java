@@ -1,18 +1,49 @@
 package com.stkych.rivergreenap;
 
+import com.stkych.rivergreenap.diagnostics.StartupTimeline;
+import com.stkych.rivergreenap.headless.AutoPriorityDaemon;
+import com.stkych.rivergreenap.headless.RevertRun;
+
+import java.util.Arrays;
+
 /**
  * Launcher class for the RiverGreen application.
  * This class serves as the entry point for the executable JAR.
- * It delegates to the JavaFX application class.
+ * It delegates to the JavaFX application class, or to a headless mode when one is requested.
  */
 public class Launcher {
     /**
      * Main method that serves as the entry point for the executable JAR.
-     * Delegates to the JavaFX application class.
+     * {@code --daemon} starts the headless auto-prioritization daemon,
+     * {@code --revert} and {@code --list-runs} work with the change journal.
+     * Anything else opens a patient: in the already running instance if there is one (see {@link SingleInstance}),
+     * otherwise by starting the JavaFX application. Launches timed by the startup benchmark always start a new instance.
      *
      * @param args Command line arguments to pass to the JavaFX application
      */
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("--daemon")) {
+            AutoPriorityDaemon.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && (args[0].equals("--revert") || args[0].equals("--list-runs"))) {
+            RevertRun.main(args);
+            return;
+        }
+        if (!StartupTimeline.isProbe() && SingleInstance.handOff(parsePatientNumber(args))) {
+            return;
+        }
         RiverGreenApplication.main(args);
     }
-}
\ No newline at end of file
+
+    private static Integer parsePatientNumber(String[] args) {
+        if (args.length == 0) {
+            return null;
+        }
+        try {
+            return Integer.parseInt(args[0]);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -1,10 +1,25 @@
 package com.stkych.rivergreenap;
 
+import com.stkych.rivergreenap.db.ChangeJournal;
+import com.stkych.rivergreenap.db.PatientPlanCache;
+import com.stkych.rivergreenap.db.WriteBehindQueue;
+import com.stkych.rivergreenap.diagnostics.StartupTimeline;
+import com.stkych.rivergreenap.engine.RulesetEditLog;
+import com.stkych.rivergreenap.engine.RulesetRepository;
+import com.stkych.rivergreenap.engine.RulesetWatcher;
+import com.stkych.rivergreenap.util.BackgroundTasks;
 import com.stkych.rivergreenap.util.FileUtils;
+import com.stkych.rivergreenap.util.LruCache;
+import javafx.animation.PauseTransition;
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.stage.Stage;
+import javafx.stage.WindowEvent;
+import javafx.util.Duration;
 
 import java.io.IOException;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -17,6 +32,12 @@ public class RiverGreenApplication extends Application {
     private static int patientNumber = -1; // Default value
     private static final Logger LOGGER = Logger.getLogger(RiverGreenApplication.class.getName());
 
+    // How long an instance stays resident with its window closed, waiting for the next launch
+    private static final double RESIDENT_HOURS = 12;
+
+    // How long stopping waits for a save still running before closing the rest; the save itself still finishes
+    private static final long SAVE_WAIT_SECONDS = 120;
+
     /**
      * Starts the application.
      * Initializes the SceneSwitcher and loads the main scene.
@@ -26,9 +47,21 @@ public class RiverGreenApplication extends Application {
      */
     @Override
     public void start(Stage stage) throws IOException {
+        StartupTimeline.mark(StartupTimeline.Phase.APPLICATION_START);
+
         // Migrate ruleset files from the current directory to the ruleset directory
         FileUtils.migrateRulesetFiles();
 
+        // One run covers every patient handed to this window, so it is not named after the first
+        ChangeJournal.setSessionLabel("interactive");
+
+        // Write any edits journaled by a previous session that did not get to save them,
+        // and drop cached plans as edits are written
+        WriteBehindQueue.getInstance().addFlushListener(PatientPlanCache.getInstance()::written);
+
+        // Reload ruleset files as they are added or edited
+        RulesetWatcher.getInstance().start();
+
         if (patientNumber != -1) {
             // Initialize the SceneSwitcher with the primary stage
             SceneSwitcher.getInstance().initialize(stage);
@@ -36,6 +69,22 @@ public class RiverGreenApplication extends Application {
             SceneSwitcher.getInstance().putData("patientNumber", patientNumber);
             // Switch to the main scene (using the new GUI)
             SceneSwitcher.getInstance().switchScene("main", "RiverGreen Dental Application");
+            StartupTimeline.mark(StartupTimeline.Phase.WINDOW_SHOWN);
+            // Load the other windows while the user looks at the plan, reading their rulesets in the background
+            SceneSwitcher.getInstance().preload(() -> RulesetRepository.getInstance().snapshot(), "ruleset", "ruleset_config");
+
+            // A launch timed by the startup benchmark reports its first frame and exits
+            if (StartupTimeline.isProbe()) {
+                StartupTimeline.reportFirstFrame(stage.getScene());
+                return;
+            }
+            // Add this launch to the startup history shown in the About dialog
+            StartupTimeline.recordFirstFrame(stage.getScene());
+
+            // Later launches from OpenDental hand their patient to this instance instead of starting another
+            if (SingleInstance.listen(handedOff -> Platform.runLater(() -> openHandedOffPatient(handedOff)))) {
+                keepResident(stage);
+            }
         } else {
             // Display a simple error alert instead of loading an error scene
             javafx.scene.control.Alert alert = new javafx.scene.control.Alert(javafx.scene.control.Alert.AlertType.ERROR);
@@ -48,6 +97,77 @@ public class RiverGreenApplication extends Application {
 
     }
 
+    /**
+     * Shows a patient launched from OpenDental while this instance was running.
+     *
+     * @param handedOff The patient number, or -1 to only bring the window forward
+     */
+    private void openHandedOffPatient(int handedOff) {
+        LOGGER.info(handedOff >= 0 ? "Opening patient " + handedOff + " from another launch" : "Showing window for another launch");
+        SceneSwitcher.getInstance().bringToFront();
+        if (handedOff < 0) {
+            return;
+        }
+        // Unsaved edits to the patient on screen are saved or discarded by the user first
+        SceneSwitcher.getInstance().whenLeft("main", () -> {
+            try {
+                SceneSwitcher.getInstance().putData("patientNumber", handedOff);
+                SceneSwitcher.getInstance().switchScene("main", "RiverGreen Dental Application");
+                SceneSwitcher.getInstance().bringToFront();
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Failed to open patient " + handedOff, e);
+            }
+        });
+    }
+
+    /**
+     * Keeps the process running when its window is closed, so the next launch opens in the warm instance.
+     * An instance left closed for {@link #RESIDENT_HOURS} hours exits. Closing the window no longer
+     * exits, so it writes the pending write-behind edits and compacts the ruleset edit logs instead;
+     * the resident process may be ended without {@link #stop()}, e.g. when the user logs off.
+     *
+     * @param stage The main window
+     */
+    private void keepResident(Stage stage) {
+        Platform.setImplicitExit(false);
+        PauseTransition residentTimeout = new PauseTransition(Duration.hours(RESIDENT_HOURS));
+        residentTimeout.setOnFinished(event -> {
+            LOGGER.info("No launches for " + RESIDENT_HOURS + " hours, exiting");
+            Platform.exit();
+        });
+        stage.addEventHandler(WindowEvent.WINDOW_HIDDEN, event -> {
+            residentTimeout.playFromStart();
+            RulesetEditLog.compactAll();
+            BackgroundTasks.writeExecutor().execute(() -> {
+                try {
+                    WriteBehindQueue.getInstance().flush();
+                } catch (SQLException | RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "Pending edits could not be written; they will be retried", e);
+                }
+            });
+        });
+        stage.addEventHandler(WindowEvent.WINDOW_SHOWN, event -> residentTimeout.stop());
+    }
+
+    /**
+     * Stops accepting launches, waits for saves still running, writes any pending write-behind and ruleset edits, logs the conversion cache
+     * statistics and closes the change journal before the application exits.
+     */
+    @Override
+    public void stop() {
+        SingleInstance.close();
+        if (!BackgroundTasks.awaitWrites(SAVE_WAIT_SECONDS, TimeUnit.SECONDS)) {
+            LOGGER.warning("A save is still running after " + SAVE_WAIT_SECONDS + " seconds; the process exits when it ends");
+        }
+        RulesetWatcher.getInstance().stop();
+        RulesetEditLog.compactAll();
+        for (LruCache<?, ?> cache : LruCache.all()) {
+            LOGGER.info("Conversion cache " + cache);
+        }
+        WriteBehindQueue.getInstance().close();
+        ChangeJournal.closeSession();
+    }
+
     /**
      * Main method to launch the application.
      * Patient number should be the first argument.
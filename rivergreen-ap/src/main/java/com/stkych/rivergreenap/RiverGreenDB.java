@@ -1,15 +1,31 @@
 package com.stkych.rivergreenap;
 
+import com.stkych.rivergreenap.db.ChangeJournal;
+import com.stkych.rivergreenap.diagnostics.DatabaseCallEvent;
+import com.stkych.rivergreenap.model.PlannedProcedure;
 import com.stkych.rivergreenap.model.TreatmentPlanProcedure;
+import com.stkych.rivergreenap.util.PriorityOrder;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ObjIntConsumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -19,6 +35,84 @@ import java.util.logging.Logger;
  */
 public class RiverGreenDB {
     private static final Logger LOGGER = Logger.getLogger(RiverGreenDB.class.getName());
+
+    // MySQL error codes that indicate the transaction lost a lock race and can be retried
+    private static final int MYSQL_DEADLOCK = 1213;
+    private static final int MYSQL_LOCK_WAIT_TIMEOUT = 1205;
+    private static final int MAX_LOCK_RETRIES = 5;
+    private static final long BASE_BACKOFF_MILLIS = 50;
+    private static final long MAX_BACKOFF_MILLIS = 2000;
+    private static final AtomicLong LOCK_RETRY_COUNT = new AtomicLong();
+
+    // Resolve a definition name parameter to its DefNum; unknown names and NULL resolve to 0
+    private static final String PRIORITY_DEFNUM_SQL =
+            "COALESCE((SELECT DefNum FROM definition WHERE ItemName = ? AND Category = 20 LIMIT 1), 0)";
+    private static final String DIAGNOSIS_DEFNUM_SQL =
+            "COALESCE((SELECT DefNum FROM definition WHERE ItemName = ? AND Category = 16 LIMIT 1), 0)";
+    // Largest IN list used when reading back values for the change journal
+    private static final int SNAPSHOT_CHUNK_SIZE = 1000;
+
+    // Procedures with their code, description, priority and diagnosis names; callers append the WHERE clause
+    private static final String PLANNED_PROCEDURE_SQL =
+            "SELECT pl.*, pc.ProcCode, pc.Descript, d1.ItemName AS PriorityName, d2.ItemName AS DiagnosisName FROM procedurelog pl " +
+            "LEFT JOIN procedurecode pc ON pl.CodeNum = pc.CodeNum " +
+            "LEFT JOIN definition d1 ON pl.Priority = d1.DefNum " +
+            "LEFT JOIN definition d2 ON pl.Dx = d2.DefNum ";
+
+    // Priority and Dx DefNums of procedures, read before and after a write for the change journal
+    private record DefNumSnapshot(Map<Integer, long[]> before, Map<Integer, long[]> after, int updated) {
+    }
+
+    // A parameterized update statement of a journaled write
+    private record Update(String sql, List<Object> params) {
+    }
+
+    /**
+     * Plans the statements of a journaled write from the values its procedures have once locked.
+     */
+    @FunctionalInterface
+    private interface JournaledPlan {
+        /**
+         * @param conn The write's connection
+         * @param current {Priority, Dx} DefNums keyed by ProcNum, locked until the write commits
+         * @return The procedurelog update first, then any treatplanattach update; empty to write nothing
+         */
+        List<Update> plan(Connection conn, Map<Integer, long[]> current) throws SQLException;
+    }
+
+    /**
+     * Outcome of a write that only changes values that are still what the caller expects.
+     *
+     * @param updated The number of procedurelog rows updated
+     * @param conflicts The procedures with a value that had changed and was left alone, in ascending order
+     */
+    public record GuardedWrite(int updated, List<Integer> conflicts) {
+    }
+
+    /**
+     * Receives progress updates while a list of queries is executed.
+     */
+    @FunctionalInterface
+    public interface ProgressListener {
+        /**
+         * Called after each query has been attempted.
+         *
+         * @param completed The number of queries attempted so far
+         * @param total The total number of queries
+         */
+        void onProgress(int completed, int total);
+    }
+
+    /**
+     * A unit of JDBC work that may be retried.
+     *
+     * @param <T> The result type
+     */
+    @FunctionalInterface
+    public interface SqlWork<T> {
+        T run() throws SQLException;
+    }
+
     /**
      * Gets a connection to the MySQL database using the provided credentials.
      *
@@ -29,6 +123,7 @@ public class RiverGreenDB {
      * @throws SQLException If a database error occurs
      */
     public static Connection getConnection(String dbUrl, String dbUser, String dbPassword) throws SQLException {
+        DatabaseCallEvent event = DatabaseCallEvent.start("getConnection");
         try {
             // Explicitly load the MySQL JDBC driver
             Class.forName("com.mysql.cj.jdbc.Driver");
@@ -41,6 +136,8 @@ public class RiverGreenDB {
         } catch (SQLException e) {
             LOGGER.log(Level.SEVERE, "Database connection error", e);
             throw e;
+        } finally {
+            event.finish();
         }
     }
 
@@ -69,77 +166,180 @@ public class RiverGreenDB {
             String dbUrl,
             String dbUser,
             String dbPassword) throws SQLException {
+        List<PlannedProcedure> planned = getPlannedProcedures(patientNumber, dbUrl, dbUser, dbPassword);
+        List<TreatmentPlanProcedure> procedures = new ArrayList<>(planned.size());
+        for (PlannedProcedure procedure : planned) {
+            procedures.add(procedure.toFx());
+        }
+        return procedures;
+    }
+
+    /**
+     * Retrieves procedures for a patient's treatment plans in the compact form used by the headless modes.
+     *
+     * @param patientNumber The patient number
+     * @param dbUrl The JDBC URL of the database
+     * @param dbUser The database username
+     * @param dbPassword The database password
+     * @return The procedures, in the order the database returns them
+     * @throws SQLException If a database error occurs
+     */
+    public static @NotNull List<PlannedProcedure> getPlannedProcedures(
+            int patientNumber,
+            String dbUrl,
+            String dbUser,
+            String dbPassword) throws SQLException {
         // Create a list to hold the procedures for the patient
-        List<TreatmentPlanProcedure> procedures = new ArrayList<>();
-
-        // SQL Query retrieves:
-        // - Tooth number
-        // - Surface involved
-        // - Procedure code (returns equivalent string)
-        // - Diagnosis (returns equivalent string)
-        // - Priority (returns equivalent string)
-        // - Fee
-        String sql = "SELECT pl.*, pc.ProcCode, pc.Descript, d1.ItemName AS PriorityName, d2.ItemName AS DiagnosisName FROM procedurelog pl " +
-                "LEFT JOIN procedurecode pc ON pl.CodeNum = pc.CodeNum " +
-                "LEFT JOIN definition d1 ON pl.Priority = d1.DefNum " +
-                "LEFT JOIN definition d2 ON pl.Dx = d2.DefNum " +
+        List<PlannedProcedure> procedures = new ArrayList<>();
+
+        String sql = PLANNED_PROCEDURE_SQL +
                 "WHERE pl.ProcNum IN " +
                 "(SELECT ProcNum FROM treatplanattach WHERE TreatPlanNum IN " +
                 "(SELECT TreatPlanNum FROM treatplan WHERE PatNum = ? AND TPStatus = 1))";
 
         // connection
+        DatabaseCallEvent event = DatabaseCallEvent.start("getPlannedProcedures");
         try (Connection conn = getConnection(dbUrl, dbUser, dbPassword);
              PreparedStatement stmt = conn.prepareStatement(sql)) {
             stmt.setInt(1, patientNumber);
             try (ResultSet rs = stmt.executeQuery()) {
                 while (rs.next()) {
-                    // Extract data from the result set
-                    String toothNum = rs.getString("ToothNum");
-                    String surface = rs.getString("Surf");
-                    String procCode = rs.getString("ProcCode");
-                    String description = rs.getString("Descript");
-                    double fee = rs.getDouble("ProcFee");
-                    int priorityNum = rs.getInt("Priority");
-                    int procNum = rs.getInt("ProcNum");
-                    String priority;
-
-                    // Handle case where priority == 0
-                    if (priorityNum == 0) {
-                        priority = "None";
-                    } else {
-                        // Get the priority name from the result set
-                        priority = rs.getString("PriorityName");
-                        // If priority name is null, use "No priority" instead
-                        if (priority == null) {
-                            priority = "None";
-                        }
-                    }
+                    procedures.add(plannedProcedure(rs));
+                }
+            }
+        } finally {
+            event.rows = procedures.size();
+            event.finish();
+        }
 
-                    // Get the diagnosis from the result set
-                    int dxNum = rs.getInt("Dx");
-                    String diagnosis;
-
-                    // Handle case where Dx is 0
-                    if (dxNum == 0) {
-                        diagnosis = "No diagnosis";
-                    } else {
-                        // Get the diagnosis name from the result set
-                        diagnosis = rs.getString("DiagnosisName");
-                        // If diagnosis name is null, use the original Dx value as default
-                        if (diagnosis == null) {
-                            diagnosis = String.valueOf(dxNum);
-                        }
-                    }
+        return procedures;
+    }
+
+    /**
+     * A cheap fingerprint of a patient's treatment plan: it changes whenever a procedure on the plan
+     * is added, removed or modified, since OpenDental stamps every procedurelog change.
+     *
+     * @param procedureCount The number of procedures on the patient's active treatment plans
+     * @param lastChanged The newest DateTStamp among them, or null if there are none
+     */
+    public record PlanStamp(int procedureCount, Timestamp lastChanged) {
+    }
+
+    /**
+     * Reads the fingerprint of a patient's treatment plan, to tell whether a plan loaded earlier is still current.
+     *
+     * @param patientNumber The patient number
+     * @return The plan's fingerprint
+     * @throws SQLException If a database error occurs
+     */
+    public static @NotNull PlanStamp getPlanStamp(int patientNumber) throws SQLException {
+        String sql = "SELECT COUNT(*), MAX(DateTStamp) FROM procedurelog " +
+                "WHERE ProcNum IN " +
+                "(SELECT ProcNum FROM treatplanattach WHERE TreatPlanNum IN " +
+                "(SELECT TreatPlanNum FROM treatplan WHERE PatNum = ? AND TPStatus = 1))";
+
+        DatabaseCallEvent event = DatabaseCallEvent.start("getPlanStamp");
+        try (Connection conn = getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, patientNumber);
+            try (ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                event.rows = 1;
+                return new PlanStamp(rs.getInt(1), rs.getTimestamp(2));
+            }
+        } finally {
+            event.finish();
+        }
+    }
 
-                    // Create a new TreatmentPlanProcedure object, add it to the list
-                    TreatmentPlanProcedure procedure = new TreatmentPlanProcedure(
-                            priority, toothNum, surface, procCode, diagnosis, description, fee, procNum);
-                    procedures.add(procedure);
+    /**
+     * Retrieves the procedures of every patient's active treatment plans, for practice-wide runs.
+     *
+     * @return The procedures keyed by patient number, in ascending patient number order
+     * @throws SQLException If a database error occurs
+     */
+    public static @NotNull Map<Integer, List<PlannedProcedure>> getAllPlannedProcedures() throws SQLException {
+        Map<Integer, List<PlannedProcedure>> plans = new LinkedHashMap<>();
+        forEachPlannedProcedure((procedure, patientNumber) ->
+                plans.computeIfAbsent(patientNumber, patient -> new ArrayList<>()).add(procedure));
+        return plans;
+    }
+
+    /**
+     * Reads the procedures of every patient's active treatment plans one at a time, without holding
+     * them all in memory: the result is streamed from the server row by row.
+     *
+     * @param action Called with each procedure and its patient number, in ascending patient number order
+     * @return The number of procedures read
+     * @throws SQLException If a database error occurs
+     */
+    public static int forEachPlannedProcedure(ObjIntConsumer<PlannedProcedure> action) throws SQLException {
+        String sql = PLANNED_PROCEDURE_SQL +
+                "WHERE pl.ProcNum IN " +
+                "(SELECT ProcNum FROM treatplanattach WHERE TreatPlanNum IN " +
+                "(SELECT TreatPlanNum FROM treatplan WHERE TPStatus = 1)) " +
+                "ORDER BY pl.PatNum";
+
+        DatabaseCallEvent event = DatabaseCallEvent.start("getAllPlannedProcedures");
+        try (Connection conn = getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            // Connector/J streams a forward-only result with this fetch size instead of reading all of it first
+            stmt.setFetchSize(Integer.MIN_VALUE);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    action.accept(plannedProcedure(rs), rs.getInt("PatNum"));
+                    event.rows++;
                 }
             }
+            return event.rows;
+        } finally {
+            event.finish();
         }
+    }
 
-        return procedures;
+    /**
+     * Reads the procedure at the result set's current row, as selected by {@link #PLANNED_PROCEDURE_SQL}.
+     */
+    private static PlannedProcedure plannedProcedure(ResultSet rs) throws SQLException {
+        // Extract data from the result set
+        String toothNum = rs.getString("ToothNum");
+        String surface = rs.getString("Surf");
+        String procCode = rs.getString("ProcCode");
+        String description = rs.getString("Descript");
+        double fee = rs.getDouble("ProcFee");
+        int priorityNum = rs.getInt("Priority");
+        int procNum = rs.getInt("ProcNum");
+        String priority;
+
+        // Handle case where priority == 0
+        if (priorityNum == 0) {
+            priority = "None";
+        } else {
+            // Get the priority name from the result set
+            priority = rs.getString("PriorityName");
+            // If priority name is null, use "No priority" instead
+            if (priority == null) {
+                priority = "None";
+            }
+        }
+
+        // Get the diagnosis from the result set
+        int dxNum = rs.getInt("Dx");
+        String diagnosis;
+
+        // Handle case where Dx is 0
+        if (dxNum == 0) {
+            diagnosis = "No diagnosis";
+        } else {
+            // Get the diagnosis name from the result set
+            diagnosis = rs.getString("DiagnosisName");
+            // If diagnosis name is null, use the original Dx value as default
+            if (diagnosis == null) {
+                diagnosis = String.valueOf(dxNum);
+            }
+        }
+
+        return new PlannedProcedure(procNum, priority, toothNum, surface, procCode, diagnosis, description, fee);
     }
 
     /**
@@ -149,6 +349,13 @@ public class RiverGreenDB {
         return getProceduresForPatient(patientNumber, DatabaseConfig.DB_URL, DatabaseConfig.DB_USER, DatabaseConfig.DB_PASSWORD);
     }
 
+    /**
+     * Retrieves procedures for a patient's treatment plans in compact form using default database credentials.
+     */
+    public static @NotNull List<PlannedProcedure> getPlannedProcedures(int patientNumber) throws SQLException {
+        return getPlannedProcedures(patientNumber, DatabaseConfig.DB_URL, DatabaseConfig.DB_USER, DatabaseConfig.DB_PASSWORD);
+    }
+
     /**
      * Retrieves procedures for a patient's treatment plans and returns them as an ObservableList.
      * This is a convenience method for JavaFX UI components.
@@ -172,7 +379,8 @@ public class RiverGreenDB {
 
     /**
      * Retrieves all priorities from the database.
-     * This method queries the definition table for all priority definitions.
+     * This method queries the definition table for all priority definitions, in the order they are
+     * listed in OpenDental, and makes that order the current {@link PriorityOrder}.
      *
      * @return A list of priority names
      * @throws SQLException If a database error occurs
@@ -184,10 +392,11 @@ public class RiverGreenDB {
         // SQL Query to retrieve all priorities from the definition table
         // The definition table contains various types of definitions, including priorities
         // We filter for the category that contains priorities (Category = 20)
-        // Order by DefNum to get priorities in their internal database order (least to greatest)
-        String sql = "SELECT * FROM definition WHERE Category = 20 ORDER BY DefNum";
+        // Order by ItemOrder, the order set in OpenDental's Definitions window; DefNum breaks ties
+        String sql = "SELECT * FROM definition WHERE Category = 20 ORDER BY ItemOrder, DefNum";
 
         // Execute the query
+        DatabaseCallEvent event = DatabaseCallEvent.start("getAllPriorities");
         try (Connection conn = getConnection(dbUrl, dbUser, dbPassword);
              PreparedStatement stmt = conn.prepareStatement(sql);
              ResultSet rs = stmt.executeQuery()) {
@@ -198,8 +407,12 @@ public class RiverGreenDB {
                     priorities.add(priorityName);
                 }
             }
+        } finally {
+            event.rows = priorities.size();
+            event.finish();
         }
 
+        PriorityOrder.setDefinitions(priorities);
         return priorities;
     }
 
@@ -246,6 +459,7 @@ public class RiverGreenDB {
         String sql = "SELECT * FROM definition WHERE Category = 16";
 
         // Execute the query
+        DatabaseCallEvent event = DatabaseCallEvent.start("getAllDiagnoses");
         try (Connection conn = getConnection(dbUrl, dbUser, dbPassword);
              PreparedStatement stmt = conn.prepareStatement(sql);
              ResultSet rs = stmt.executeQuery()) {
@@ -256,6 +470,9 @@ public class RiverGreenDB {
                     diagnoses.add(diagnosisName);
                 }
             }
+        } finally {
+            event.rows = diagnoses.size();
+            event.finish();
         }
 
         return diagnoses;
@@ -302,6 +519,7 @@ public class RiverGreenDB {
         String sql = "SELECT LName, FName, MiddleI FROM patient WHERE PatNum = ?";
 
         // Execute the query
+        DatabaseCallEvent event = DatabaseCallEvent.start("getPatientFullName");
         try (Connection conn = getConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
 
@@ -309,6 +527,7 @@ public class RiverGreenDB {
 
             try (ResultSet rs = stmt.executeQuery()) {
                 if (rs.next()) {
+                    event.rows = 1;
                     String lastName = rs.getString("LName");
                     String firstName = rs.getString("FName");
                     String middleInitial = rs.getString("MiddleI");
@@ -340,11 +559,48 @@ public class RiverGreenDB {
                     }
                 }
             }
+        } finally {
+            event.finish();
         }
 
         return fullName;
     }
 
+    /**
+     * Retrieves the patients with scheduled appointments later today, in appointment order.
+     * Used to load the treatment plans the front desk is likely to open next.
+     *
+     * @param limit The most patients returned
+     * @return The patient numbers, without duplicates
+     * @throws SQLException If a database error occurs
+     */
+    public static @NotNull List<Integer> getPatientsScheduledLaterToday(int limit) throws SQLException {
+        List<Integer> patients = new ArrayList<>();
+
+        // AptStatus 1 is Scheduled; appointments already under way are included until they end
+        String sql = "SELECT PatNum FROM appointment " +
+                "WHERE AptStatus = 1 AND AptDateTime >= CURDATE() AND AptDateTime < CURDATE() + INTERVAL 1 DAY " +
+                "AND AptDateTime + INTERVAL CHAR_LENGTH(Pattern) * 5 MINUTE >= NOW() " +
+                "ORDER BY AptDateTime";
+
+        DatabaseCallEvent event = DatabaseCallEvent.start("getPatientsScheduledLaterToday");
+        try (Connection conn = getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql);
+             ResultSet rs = stmt.executeQuery()) {
+            while (rs.next() && patients.size() < limit) {
+                int patientNumber = rs.getInt("PatNum");
+                if (!patients.contains(patientNumber)) {
+                    patients.add(patientNumber);
+                }
+            }
+        } finally {
+            event.rows = patients.size();
+            event.finish();
+        }
+
+        return patients;
+    }
+
     /**
      * Updates treatment plan procedures for a patient.
      * This method generates SQL queries based on the procedure data and executes them within a transaction.
@@ -353,8 +609,42 @@ public class RiverGreenDB {
      * @param procedures The list of procedures to update
      * @return A Map containing execution results: success count, failure count, error messages, and generated SQL queries
      */
-    @SuppressWarnings("t")
     public static Map<String, Object> updateTreatmentPlanProcedures(int patientNumber, List<TreatmentPlanProcedure> procedures) {
+        return updateTreatmentPlanProcedures(patientNumber, procedures, null);
+    }
+
+    /**
+     * Updates treatment plan procedures for a patient, reporting progress as queries complete.
+     * Procedures are written in ascending ProcNum order so concurrent writers acquire row locks
+     * in the same order, which keeps deadlocks on procedurelog rare.
+     *
+     * @param patientNumber The patient number
+     * @param procedures The list of procedures to update
+     * @param progressListener Receives progress after each query, or null
+     * @return A Map containing execution results: success count, failure count, error messages, and generated SQL queries
+     */
+    public static Map<String, Object> updateTreatmentPlanProcedures(int patientNumber,
+                                                                    List<TreatmentPlanProcedure> procedures,
+                                                                    ProgressListener progressListener) {
+        DatabaseCallEvent event = DatabaseCallEvent.start("updateTreatmentPlanProcedures");
+        try {
+            Map<String, Object> results = writeTreatmentPlanProcedures(patientNumber, procedures, progressListener);
+            if (results.get("successCount") instanceof Integer successCount) {
+                event.rows = successCount;
+            }
+            return results;
+        } finally {
+            event.finish();
+        }
+    }
+
+    /**
+     * Writes the procedures for {@link #updateTreatmentPlanProcedures(int, List, ProgressListener)}.
+     */
+    @SuppressWarnings("t")
+    private static Map<String, Object> writeTreatmentPlanProcedures(int patientNumber,
+                                                                    List<TreatmentPlanProcedure> procedures,
+                                                                    ProgressListener progressListener) {
         // Check database connection and permissions
         try (Connection conn = getConnection()) {
             try (Statement stmt = conn.createStatement()) {
@@ -387,9 +677,16 @@ public class RiverGreenDB {
 
         // Create a list to hold the SQL queries
         List<String> sqlQueries = new ArrayList<>();
+        // Each procedurelog update journals the values it overwrites, so the save can be reverted;
+        // this holds the procedure each query updates, or null for the treatplanattach updates
+        List<Integer> journaledProcNums = new ArrayList<>();
+
+        // Order by ProcNum so every writer locks procedurelog rows in the same sequence
+        List<TreatmentPlanProcedure> orderedProcedures = new ArrayList<>(procedures);
+        orderedProcedures.sort(Comparator.comparingInt(TreatmentPlanProcedure::getProcedureNumber));
 
         // Generate SQL update queries for each procedure
-        for (TreatmentPlanProcedure procedure : procedures) {
+        for (TreatmentPlanProcedure procedure : orderedProcedures) {
             try {
                 // Get the procedure number (primary key)
                 int procNum = procedure.getProcedureNumber();
@@ -455,6 +752,7 @@ public class RiverGreenDB {
                 // Add the procedurelog update query to the list
                 String finalQuery = queryBuilder.toString();
                 sqlQueries.add(finalQuery);
+                journaledProcNums.add(procNum);
 
                 // Create an update query for treatplanattach
                 // This ensures that the procedure is properly linked to the treatment plan
@@ -477,6 +775,7 @@ public class RiverGreenDB {
                 // Add the treatplanattach update query to the list
                 String tpaFinalQuery = tpaQueryBuilder.toString();
                 sqlQueries.add(tpaFinalQuery);
+                journaledProcNums.add(null);
 
             } catch (Exception e) {
                 LOGGER.log(Level.WARNING, "Error generating SQL for procedure", e);
@@ -490,7 +789,7 @@ public class RiverGreenDB {
         }
 
         // Execute the queries and get the results
-        Map<String, Object> results = executeUpdateQueries(sqlQueries);
+        Map<String, Object> results = executeUpdateQueries(sqlQueries, journaledProcNums, progressListener);
 
         // Add the generated SQL queries to the results
         results.put("sqlQueries", sqlQueries);
@@ -520,7 +819,35 @@ public class RiverGreenDB {
      * @return A Map containing execution results: success count, failure count, and error messages
      */
     public static Map<String, Object> executeUpdateQueries(List<String> sqlQueries) {
-    Map<String, Object> results = new HashMap<>();
+        return executeUpdateQueries(sqlQueries, null);
+    }
+
+    /**
+     * Executes a list of SQL update queries with individual transactions, reporting progress.
+     * Queries that fail with a MySQL deadlock (1213) or lock wait timeout (1205) are retried
+     * with jittered exponential backoff before being counted as failures.
+     *
+     * @param sqlQueries The list of SQL update queries to execute
+     * @param progressListener Receives progress after each query, or null
+     * @return A Map containing execution results: success count, failure count, and error messages
+     */
+    public static Map<String, Object> executeUpdateQueries(List<String> sqlQueries, ProgressListener progressListener) {
+        return executeUpdateQueries(sqlQueries, null, progressListener);
+    }
+
+    /**
+     * Executes a list of SQL update queries with individual transactions, journaling the Priority and
+     * Dx values that each query overwrites. The procedure's row is locked and read before the query and
+     * read again after it, in the query's transaction, so a concurrent edit is never journaled as ours.
+     *
+     * @param sqlQueries The list of SQL update queries to execute
+     * @param journaledProcNums The procedure each query updates in procedurelog, with null for
+     *                          queries that change no journaled column; null to journal nothing
+     * @param progressListener Receives progress after each query, or null
+     * @return A Map containing execution results: success count, failure count, and error messages
+     */
+    private static Map<String, Object> executeUpdateQueries(List<String> sqlQueries, List<Integer> journaledProcNums,
+                                                            ProgressListener progressListener) {
     List<String> errorMessages = new ArrayList<>();
     int successCount = 0;
     int failureCount = 0;
@@ -530,34 +857,50 @@ public class RiverGreenDB {
         return createResultMap(0, 0, errorMessages, "No queries to execute");
     }
 
+    int total = sqlQueries.size();
+    DatabaseCallEvent event = DatabaseCallEvent.start("executeUpdateQueries");
     Connection conn = null;
     try {
         conn = getConnection();
         conn.setAutoCommit(false);  // Start transaction mode
 
-        for (int i = 0; i < sqlQueries.size(); i++) {
+        for (int i = 0; i < total; i++) {
             String sql = sqlQueries.get(i);
 
             // Skip empty queries
             if (sql == null || sql.trim().isEmpty()) {
                 failureCount++;
                 errorMessages.add("Query " + (i + 1) + " is empty");
-                continue;
+            } else {
+                Connection txConn = conn;
+                Integer procNum = journaledProcNums != null ? journaledProcNums.get(i) : null;
+                try {
+                    // Each query commits on its own; lock contention is retried before giving up
+                    DefNumSnapshot snapshot = withLockRetry(txConn, () -> {
+                        Map<Integer, long[]> before = procNum != null ? readDefNums(txConn, List.of(procNum)) : null;
+                        int updated;
+                        try (Statement stmt = txConn.createStatement()) {
+                            updated = stmt.executeUpdate(sql);
+                        }
+                        return procNum != null ? new DefNumSnapshot(before, readDefNums(txConn, List.of(procNum)), updated) : null;
+                    });
+                    if (snapshot != null) {
+                        journalChanges(snapshot.before(), snapshot.after());
+                    }
+                    successCount++;
+                } catch (SQLException e) {
+                    errorMessages.add("Query " + (i + 1) + ": " + e.getMessage());
+                    failureCount++;
+                }
             }
 
-            try (Statement stmt = conn.createStatement()) {
-                int rowsAffected = stmt.executeUpdate(sql);
-                conn.commit();  // Commit each successful query
-                successCount++;
-            } catch (SQLException e) {
-                conn.rollback();  // Rollback failed query
-                errorMessages.add("Query " + (i + 1) + ": " + e.getMessage());
-                failureCount++;
+            if (progressListener != null) {
+                progressListener.onProgress(i + 1, total);
             }
         }
     } catch (SQLException e) {
         errorMessages.add("Database connection error: " + e.getMessage());
-        return createResultMap(0, sqlQueries.size(), errorMessages, "connection_error");
+        return createResultMap(successCount, total - successCount, errorMessages, "connection_error");
     } finally {
         if (conn != null) {
             try {
@@ -567,12 +910,93 @@ public class RiverGreenDB {
                 // Silently handle connection closing errors
             }
         }
+        event.rows = successCount;
+        event.finish();
     }
 
     String status = determineStatus(successCount, failureCount);
     return createResultMap(successCount, failureCount, errorMessages, status);
 }
 
+/**
+ * Runs a unit of work inside the current transaction of {@code conn} and commits it.
+ * If MySQL reports a deadlock (1213) or a lock wait timeout (1205), the transaction is rolled back
+ * and the work is retried after a jittered exponential backoff, up to {@value #MAX_LOCK_RETRIES} times.
+ * Any other error rolls back and is rethrown immediately.
+ * The connection must have auto-commit disabled.
+ *
+ * @param conn The connection to run the work on
+ * @param work The work to run
+ * @param <T> The result type of the work
+ * @return The result of the work
+ * @throws SQLException If the work fails with a non-retryable error or retries are exhausted
+ */
+public static <T> T withLockRetry(Connection conn, SqlWork<T> work) throws SQLException {
+    int attempt = 0;
+    while (true) {
+        try {
+            T result = work.run();
+            conn.commit();
+            return result;
+        } catch (SQLException e) {
+            conn.rollback();
+            if (!isLockContention(e) || attempt >= MAX_LOCK_RETRIES) {
+                throw e;
+            }
+            long delay = backoffMillis(attempt++);
+            LOCK_RETRY_COUNT.incrementAndGet();
+            LOGGER.fine("Lock contention (" + e.getErrorCode() + "), retry " + attempt + " in " + delay + " ms");
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting to retry", e);
+            }
+        }
+    }
+}
+
+/**
+ * Checks whether an exception (or any chained exception) is a MySQL deadlock or lock wait timeout.
+ *
+ * @param e The exception to inspect
+ * @return true if retrying the transaction may succeed
+ */
+static boolean isLockContention(SQLException e) {
+    for (Throwable t = e; t != null; t = t.getCause()) {
+        if (t instanceof SQLException sqlException) {
+            for (SQLException next = sqlException; next != null; next = next.getNextException()) {
+                int code = next.getErrorCode();
+                if (code == MYSQL_DEADLOCK || code == MYSQL_LOCK_WAIT_TIMEOUT || "40001".equals(next.getSQLState())) {
+                    return true;
+                }
+            }
+        }
+    }
+    return false;
+}
+
+/**
+ * Computes the backoff before a retry: exponential in the attempt number, capped,
+ * with "equal jitter" so concurrent writers do not retry in lockstep.
+ *
+ * @param attempt The zero-based retry attempt
+ * @return The delay in milliseconds
+ */
+private static long backoffMillis(int attempt) {
+    long ceiling = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min(attempt, 16));
+    return ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+}
+
+/**
+ * Gets the number of lock-contention retries performed since startup.
+ *
+ * @return The retry count
+ */
+public static long getLockRetryCount() {
+    return LOCK_RETRY_COUNT.get();
+}
+
 private static Map<String, Object> createResultMap(int successCount, int failureCount, 
                                                  List<String> errorMessages, String status) {
     Map<String, Object> results = new HashMap<>();
@@ -604,17 +1028,21 @@ public static String getProcedureCodeDescription(String procedureCode) throws SQ
     String description = "";
     String sql = "SELECT Descript FROM procedurecode WHERE ProcCode = ?";
 
+    DatabaseCallEvent event = DatabaseCallEvent.start("getProcedureCodeDescription");
     try (Connection conn = getConnection();
          PreparedStatement stmt = conn.prepareStatement(sql)) {
         stmt.setString(1, procedureCode);
         try (ResultSet rs = stmt.executeQuery()) {
             if (rs.next()) {
+                event.rows = 1;
                 description = rs.getString("Descript");
                 if (description == null) {
                     description = "";
                 }
             }
         }
+    } finally {
+        event.finish();
     }
 
     return description;
@@ -635,6 +1063,7 @@ public static @NotNull List<String> getAllProcedureCodes() throws SQLException {
     String sql = "SELECT ProcCode FROM procedurecode ORDER BY ProcCode";
 
     // Execute the query
+    DatabaseCallEvent event = DatabaseCallEvent.start("getAllProcedureCodes");
     try (Connection conn = getConnection();
          PreparedStatement stmt = conn.prepareStatement(sql);
          ResultSet rs = stmt.executeQuery()) {
@@ -645,6 +1074,9 @@ public static @NotNull List<String> getAllProcedureCodes() throws SQLException {
                 procedureCodes.add(procCode);
             }
         }
+    } finally {
+        event.rows = procedureCodes.size();
+        event.finish();
     }
 
     return procedureCodes;
@@ -664,4 +1096,636 @@ public static ObservableList<String> getAllProcedureCodesObservable() throws SQL
     observableProcedureCodes.addAll(procedureCodes);
     return observableProcedureCodes;
 }
+
+/**
+ * A treatment-planned procedure that was created or modified after a watermark.
+ *
+ * @param procNum The procedure number
+ * @param patientNumber The patient the procedure belongs to
+ * @param dateTStamp The procedure's last modification time
+ */
+public record ChangedProcedure(int procNum, int patientNumber, Timestamp dateTStamp) {
+}
+
+/**
+ * Retrieves treatment-planned procedures (ProcStatus = 1) created or modified after a watermark.
+ * The watermark is the pair (DateTStamp, ProcNum) of the last procedure already processed,
+ * so procedures sharing a timestamp are neither skipped nor returned twice.
+ * Results are ordered by the same pair, so the last row is the next watermark.
+ *
+ * @param since The DateTStamp of the watermark
+ * @param afterProcNum The ProcNum of the watermark
+ * @param limit The maximum number of rows to return
+ * @return The changed procedures in watermark order
+ * @throws SQLException If a database error occurs
+ */
+public static @NotNull List<ChangedProcedure> getChangedTreatmentPlanProcedures(Timestamp since, int afterProcNum, int limit)
+        throws SQLException {
+    List<ChangedProcedure> changes = new ArrayList<>();
+
+    String sql = "SELECT ProcNum, PatNum, DateTStamp FROM procedurelog " +
+            "WHERE ProcStatus = 1 AND (DateTStamp > ? OR (DateTStamp = ? AND ProcNum > ?)) " +
+            "ORDER BY DateTStamp, ProcNum LIMIT ?";
+
+    DatabaseCallEvent event = DatabaseCallEvent.start("getChangedTreatmentPlanProcedures");
+    try (Connection conn = getConnection();
+         PreparedStatement stmt = conn.prepareStatement(sql)) {
+        stmt.setTimestamp(1, since);
+        stmt.setTimestamp(2, since);
+        stmt.setInt(3, afterProcNum);
+        stmt.setInt(4, limit);
+        try (ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                changes.add(new ChangedProcedure(rs.getInt("ProcNum"), rs.getInt("PatNum"), rs.getTimestamp("DateTStamp")));
+            }
+        }
+    } finally {
+        event.rows = changes.size();
+        event.finish();
+    }
+
+    return changes;
+}
+
+/**
+ * Retrieves procedures of any status created or modified after a watermark, in watermark order.
+ * Unlike {@link #getChangedTreatmentPlanProcedures}, this also returns procedures that were completed
+ * or deleted, so a copy of the treatment plans can drop them.
+ *
+ * @param since The DateTStamp of the watermark
+ * @param afterProcNum The ProcNum of the watermark
+ * @param limit The maximum number of rows to return
+ * @return The changed procedures in watermark order
+ * @throws SQLException If a database error occurs
+ */
+public static @NotNull List<ChangedProcedure> getChangedProcedures(Timestamp since, int afterProcNum, int limit)
+        throws SQLException {
+    List<ChangedProcedure> changes = new ArrayList<>();
+
+    String sql = "SELECT ProcNum, PatNum, DateTStamp FROM procedurelog " +
+            "WHERE DateTStamp > ? OR (DateTStamp = ? AND ProcNum > ?) " +
+            "ORDER BY DateTStamp, ProcNum LIMIT ?";
+
+    DatabaseCallEvent event = DatabaseCallEvent.start("getChangedProcedures");
+    try (Connection conn = getConnection();
+         PreparedStatement stmt = conn.prepareStatement(sql)) {
+        stmt.setTimestamp(1, since);
+        stmt.setTimestamp(2, since);
+        stmt.setInt(3, afterProcNum);
+        stmt.setInt(4, limit);
+        try (ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                changes.add(new ChangedProcedure(rs.getInt("ProcNum"), rs.getInt("PatNum"), rs.getTimestamp("DateTStamp")));
+            }
+        }
+    } finally {
+        event.rows = changes.size();
+        event.finish();
+    }
+
+    return changes;
+}
+
+/**
+ * Retrieves procedures whose change falls in a window ending at a watermark, in watermark order.
+ * A row is stamped when it is written but only seen once its transaction commits, so a row can
+ * appear behind a watermark that has already passed its DateTStamp; reading the window behind the
+ * watermark again finds such rows. The caller skips the rows it has already processed (see
+ * {@link com.stkych.rivergreenap.db.LateChangeFilter}).
+ *
+ * @param from The start of the window, inclusive
+ * @param until The DateTStamp of the watermark
+ * @param untilProcNum The ProcNum of the watermark, which is included
+ * @param treatmentPlannedOnly Whether to return only treatment-planned procedures (ProcStatus = 1)
+ * @return The procedures in the window
+ * @throws SQLException If a database error occurs
+ */
+public static @NotNull List<ChangedProcedure> getProceduresChangedBefore(Timestamp from, Timestamp until, int untilProcNum,
+                                                                         boolean treatmentPlannedOnly) throws SQLException {
+    List<ChangedProcedure> changes = new ArrayList<>();
+
+    String sql = "SELECT ProcNum, PatNum, DateTStamp FROM procedurelog " +
+            "WHERE " + (treatmentPlannedOnly ? "ProcStatus = 1 AND " : "") +
+            "DateTStamp >= ? AND (DateTStamp < ? OR (DateTStamp = ? AND ProcNum <= ?)) " +
+            "ORDER BY DateTStamp, ProcNum";
+
+    DatabaseCallEvent event = DatabaseCallEvent.start("getProceduresChangedBefore");
+    try (Connection conn = getConnection();
+         PreparedStatement stmt = conn.prepareStatement(sql)) {
+        stmt.setTimestamp(1, from);
+        stmt.setTimestamp(2, until);
+        stmt.setTimestamp(3, until);
+        stmt.setInt(4, untilProcNum);
+        try (ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                changes.add(new ChangedProcedure(rs.getInt("ProcNum"), rs.getInt("PatNum"), rs.getTimestamp("DateTStamp")));
+            }
+        }
+    } finally {
+        event.rows = changes.size();
+        event.finish();
+    }
+
+    return changes;
+}
+
+/**
+ * Retrieves the most recently created or modified procedure of any status.
+ * Read before loading every plan, it is the watermark from which later changes are picked up.
+ *
+ * @return The latest change, or null if procedurelog is empty
+ * @throws SQLException If a database error occurs
+ */
+public static @Nullable ChangedProcedure getLatestProcedureChange() throws SQLException {
+    String sql = "SELECT ProcNum, PatNum, DateTStamp FROM procedurelog ORDER BY DateTStamp DESC, ProcNum DESC LIMIT 1";
+
+    DatabaseCallEvent event = DatabaseCallEvent.start("getLatestProcedureChange");
+    try (Connection conn = getConnection();
+         PreparedStatement stmt = conn.prepareStatement(sql);
+         ResultSet rs = stmt.executeQuery()) {
+        if (rs.next()) {
+            event.rows = 1;
+            return new ChangedProcedure(rs.getInt("ProcNum"), rs.getInt("PatNum"), rs.getTimestamp("DateTStamp"));
+        }
+    } finally {
+        event.finish();
+    }
+    return null;
+}
+
+/**
+ * Writes only the priority of the given procedures, as one batched transaction.
+ * Rows are written in ascending ProcNum order and the batch is retried on lock contention.
+ * A priority of "None" (or empty) clears the priority.
+ *
+ * @param procedures The procedures whose priority should be written
+ * @return The number of procedurelog rows updated
+ * @throws SQLException If the batch cannot be written
+ */
+public static int updateProcedurePriorities(List<PlannedProcedure> procedures) throws SQLException {
+    return updateProcedurePriorities(procedures, null);
+}
+
+/**
+ * Writes only the priority of the given procedures, as one batched transaction, and reports the
+ * DateTStamp each row was left with, read in the write's transaction. A change stream reader can
+ * use them to recognize its own writes when they come back.
+ *
+ * @param procedures The procedures whose priority should be written
+ * @param written Receives each written procedure with its DateTStamp after the write, or null
+ * @return The number of procedurelog rows updated
+ * @throws SQLException If the batch cannot be written
+ */
+public static int updateProcedurePriorities(List<PlannedProcedure> procedures, List<ChangedProcedure> written)
+        throws SQLException {
+    if (procedures == null || procedures.isEmpty()) {
+        return 0;
+    }
+
+    List<PlannedProcedure> ordered = new ArrayList<>(procedures);
+    ordered.sort(Comparator.comparingInt(PlannedProcedure::procedureNumber));
+
+    String procedureSql = "UPDATE procedurelog SET Priority = " + PRIORITY_DEFNUM_SQL + " WHERE ProcNum = ?";
+    String attachSql = "UPDATE treatplanattach SET Priority = " + PRIORITY_DEFNUM_SQL + " WHERE ProcNum = ?";
+
+    List<Integer> procNums = new ArrayList<>();
+    for (PlannedProcedure procedure : ordered) {
+        procNums.add(procedure.procedureNumber());
+    }
+
+    // Read again by every attempt, so only the committed one's stamps are reported
+    List<ChangedProcedure> stamps = new ArrayList<>();
+    DatabaseCallEvent event = DatabaseCallEvent.start("updateProcedurePriorities");
+    try (Connection conn = getConnection()) {
+        conn.setAutoCommit(false);
+        DefNumSnapshot snapshot = withLockRetry(conn, () -> {
+            Map<Integer, long[]> before = readDefNums(conn, procNums);
+            int updated = 0;
+            try (PreparedStatement procedureStmt = conn.prepareStatement(procedureSql);
+                 PreparedStatement attachStmt = conn.prepareStatement(attachSql)) {
+                for (PlannedProcedure procedure : ordered) {
+                    String priorityName = definitionName(procedure.priority(), "None");
+                    procedureStmt.setString(1, priorityName);
+                    procedureStmt.setInt(2, procedure.procedureNumber());
+                    procedureStmt.addBatch();
+                    attachStmt.setString(1, priorityName);
+                    attachStmt.setInt(2, procedure.procedureNumber());
+                    attachStmt.addBatch();
+                }
+                for (int count : procedureStmt.executeBatch()) {
+                    updated += Math.max(count, 0);
+                }
+                attachStmt.executeBatch();
+            }
+            if (written != null) {
+                stamps.clear();
+                stamps.addAll(readStamps(conn, procNums));
+            }
+            return new DefNumSnapshot(before, readDefNums(conn, procNums), updated);
+        });
+        journalChanges(snapshot.before(), snapshot.after());
+        if (written != null) {
+            written.addAll(stamps);
+        }
+        event.rows = snapshot.updated();
+        return snapshot.updated();
+    } finally {
+        event.finish();
+    }
+}
+
+/**
+ * Writes coalesced priority and diagnosis edits, each only where the procedure still has the value
+ * the edit was made over. An edit whose procedure was changed since, for example in OpenDental, is
+ * left out and the procedure is reported as a conflict. The rows are locked and compared in the
+ * write's transaction.
+ * All procedurelog changes go out as a single UPDATE using CASE on ProcNum, with a matching
+ * single UPDATE of treatplanattach for priorities, in one transaction retried on lock contention.
+ * "None" priorities and "No diagnosis" clear the column.
+ *
+ * @param priorities {priority name the edit was made over, new priority name} keyed by ProcNum
+ * @param diagnoses {diagnosis name the edit was made over, new diagnosis name} keyed by ProcNum
+ * @return The number of procedurelog rows updated and the procedures left alone
+ * @throws SQLException If the edits cannot be written
+ */
+public static GuardedWrite updateProcedureEdits(Map<Integer, String[]> priorities, Map<Integer, String[]> diagnoses)
+        throws SQLException {
+    TreeSet<Integer> procNums = new TreeSet<>(priorities.keySet());
+    procNums.addAll(diagnoses.keySet());
+    if (procNums.isEmpty()) {
+        return new GuardedWrite(0, List.of());
+    }
+
+    TreeSet<Integer> conflicts = new TreeSet<>();
+    DatabaseCallEvent event = DatabaseCallEvent.start("updateProcedureEdits");
+    try {
+        event.rows = executeJournaled(procNums, (conn, current) -> {
+            // Planned again on every retry, from the values locked by that attempt
+            conflicts.clear();
+            Map<Long, String> names = readDefinitionNames(conn);
+            TreeMap<Integer, String> priorityEdits = guardedEdits(priorities, current, 0, names, "None", conflicts);
+            TreeMap<Integer, String> diagnosisEdits = guardedEdits(diagnoses, current, 1, names, "No diagnosis", conflicts);
+            return editUpdates(priorityEdits, diagnosisEdits);
+        });
+        return new GuardedWrite(event.rows, List.copyOf(conflicts));
+    } finally {
+        event.finish();
+    }
+}
+
+/**
+ * Picks the edits to write in one column: those whose procedure still has the value they were made over.
+ *
+ * @param edits {base name, new name} keyed by ProcNum
+ * @param current The locked {Priority, Dx} values keyed by ProcNum
+ * @param column 0 for Priority, 1 for Dx
+ * @param names Definition names keyed by DefNum
+ * @param emptyValue The name shown for an empty column
+ * @param conflicts Receives the procedures whose value changed since
+ */
+private static TreeMap<Integer, String> guardedEdits(Map<Integer, String[]> edits, Map<Integer, long[]> current,
+                                                     int column, Map<Long, String> names, String emptyValue,
+                                                     Set<Integer> conflicts) {
+    TreeMap<Integer, String> kept = new TreeMap<>();
+    for (Map.Entry<Integer, String[]> edit : edits.entrySet()) {
+        long[] now = current.get(edit.getKey());
+        if (now == null) {
+            conflicts.add(edit.getKey());
+            continue;
+        }
+        // Values without a definition are shown, and so edited over, as empty
+        String nowName = names.get(now[column]);
+        String base = definitionName(edit.getValue()[0], emptyValue);
+        String value = definitionName(edit.getValue()[1], emptyValue);
+        if (Objects.equals(nowName, base)) {
+            kept.put(edit.getKey(), edit.getValue()[1]);
+        } else if (!Objects.equals(nowName, value)) {
+            conflicts.add(edit.getKey());
+        }
+    }
+    return kept;
+}
+
+/**
+ * Reads the names of the priority and diagnosis definitions.
+ *
+ * @return ItemName keyed by DefNum
+ */
+private static Map<Long, String> readDefinitionNames(Connection conn) throws SQLException {
+    Map<Long, String> names = new HashMap<>();
+    try (Statement stmt = conn.createStatement();
+         ResultSet rs = stmt.executeQuery("SELECT DefNum, ItemName FROM definition WHERE Category IN (16, 20)")) {
+        while (rs.next()) {
+            names.put(rs.getLong("DefNum"), rs.getString("ItemName"));
+        }
+    }
+    return names;
+}
+
+/**
+ * Builds the updates that write edits by definition name, setting the treatplanattach priority to match.
+ */
+private static List<Update> editUpdates(TreeMap<Integer, String> priorityEdits, TreeMap<Integer, String> diagnosisEdits) {
+    TreeSet<Integer> procNums = new TreeSet<>(priorityEdits.keySet());
+    procNums.addAll(diagnosisEdits.keySet());
+    if (procNums.isEmpty()) {
+        return List.of();
+    }
+
+    List<Object> procedureParams = new ArrayList<>();
+    StringBuilder procedureSql = new StringBuilder("UPDATE procedurelog SET ");
+    if (!priorityEdits.isEmpty()) {
+        appendCase(procedureSql, procedureParams, "Priority", PRIORITY_DEFNUM_SQL, priorityEdits, "None");
+    }
+    if (!diagnosisEdits.isEmpty()) {
+        if (!priorityEdits.isEmpty()) {
+            procedureSql.append(", ");
+        }
+        appendCase(procedureSql, procedureParams, "Dx", DIAGNOSIS_DEFNUM_SQL, diagnosisEdits, "No diagnosis");
+    }
+    appendInList(procedureSql, procedureParams, procNums);
+
+    List<Update> updates = new ArrayList<>();
+    updates.add(new Update(procedureSql.toString(), procedureParams));
+    if (!priorityEdits.isEmpty()) {
+        List<Object> attachParams = new ArrayList<>();
+        StringBuilder attachSql = new StringBuilder("UPDATE treatplanattach SET ");
+        appendCase(attachSql, attachParams, "Priority", PRIORITY_DEFNUM_SQL, priorityEdits, "None");
+        appendInList(attachSql, attachParams, priorityEdits.keySet());
+        updates.add(new Update(attachSql.toString(), attachParams));
+    }
+    return updates;
+}
+
+/**
+ * Restores priority and diagnosis DefNums, as recorded in the change journal, where the procedure
+ * still has the value the journaled run left. A value changed since, for example by someone editing
+ * the procedure in OpenDental after the run, is left alone and the procedure is reported as a conflict.
+ * The rows are locked and compared in the restore's transaction, which also sets the treatplanattach
+ * priority of each procedure to its restored procedurelog priority. The restore is itself journaled,
+ * so it can be reverted in turn.
+ *
+ * @param priorities {value the run left, value to restore} Priority DefNums keyed by ProcNum
+ * @param diagnoses {value the run left, value to restore} Dx DefNums keyed by ProcNum
+ * @return The number of procedurelog rows updated and the procedures left alone
+ * @throws SQLException If the values cannot be written
+ */
+public static GuardedWrite restoreProcedureDefNums(Map<Integer, long[]> priorities, Map<Integer, long[]> diagnoses)
+        throws SQLException {
+    TreeSet<Integer> procNums = new TreeSet<>(priorities.keySet());
+    procNums.addAll(diagnoses.keySet());
+    if (procNums.isEmpty()) {
+        return new GuardedWrite(0, List.of());
+    }
+
+    TreeSet<Integer> conflicts = new TreeSet<>();
+    DatabaseCallEvent event = DatabaseCallEvent.start("restoreProcedureDefNums");
+    try {
+        event.rows = executeJournaled(procNums, (conn, current) -> {
+            // Planned again on every retry, from the values locked by that attempt
+            conflicts.clear();
+            TreeMap<Integer, Long> priorityValues = guardedValues(priorities, current, 0, conflicts);
+            TreeMap<Integer, Long> diagnosisValues = guardedValues(diagnoses, current, 1, conflicts);
+            return defNumUpdates(priorityValues, diagnosisValues);
+        });
+        return new GuardedWrite(event.rows, List.copyOf(conflicts));
+    } finally {
+        event.finish();
+    }
+}
+
+/**
+ * Picks the values to restore in one column: those whose procedure still has the expected value.
+ *
+ * @param values {expected, restored} keyed by ProcNum
+ * @param current The locked {Priority, Dx} values keyed by ProcNum
+ * @param column 0 for Priority, 1 for Dx
+ * @param conflicts Receives the procedures whose value changed since
+ */
+private static TreeMap<Integer, Long> guardedValues(Map<Integer, long[]> values, Map<Integer, long[]> current,
+                                                    int column, Set<Integer> conflicts) {
+    TreeMap<Integer, Long> restored = new TreeMap<>();
+    for (Map.Entry<Integer, long[]> entry : values.entrySet()) {
+        long[] now = current.get(entry.getKey());
+        long expected = entry.getValue()[0];
+        long value = entry.getValue()[1];
+        if (now != null && now[column] == expected) {
+            restored.put(entry.getKey(), value);
+        } else if (now == null || now[column] != value) {
+            conflicts.add(entry.getKey());
+        }
+    }
+    return restored;
+}
+
+/**
+ * Builds the updates that write DefNums directly, setting the treatplanattach priority to match.
+ */
+private static List<Update> defNumUpdates(TreeMap<Integer, Long> priorityValues, TreeMap<Integer, Long> diagnosisValues) {
+    TreeSet<Integer> procNums = new TreeSet<>(priorityValues.keySet());
+    procNums.addAll(diagnosisValues.keySet());
+    if (procNums.isEmpty()) {
+        return List.of();
+    }
+
+    List<Object> procedureParams = new ArrayList<>();
+    StringBuilder procedureSql = new StringBuilder("UPDATE procedurelog SET ");
+    if (!priorityValues.isEmpty()) {
+        appendValueCase(procedureSql, procedureParams, "Priority", priorityValues);
+    }
+    if (!diagnosisValues.isEmpty()) {
+        if (!priorityValues.isEmpty()) {
+            procedureSql.append(", ");
+        }
+        appendValueCase(procedureSql, procedureParams, "Dx", diagnosisValues);
+    }
+    appendInList(procedureSql, procedureParams, procNums);
+
+    List<Update> updates = new ArrayList<>();
+    updates.add(new Update(procedureSql.toString(), procedureParams));
+    if (!priorityValues.isEmpty()) {
+        List<Object> attachParams = new ArrayList<>();
+        StringBuilder attachSql = new StringBuilder("UPDATE treatplanattach SET ");
+        appendValueCase(attachSql, attachParams, "Priority", priorityValues);
+        appendInList(attachSql, attachParams, priorityValues.keySet());
+        updates.add(new Update(attachSql.toString(), attachParams));
+    }
+    return updates;
+}
+
+/**
+ * Runs a journaled write in one transaction. The procedures' rows are locked and read first, the
+ * plan decides the statements from those values, and the rows are read again before committing;
+ * the values that changed are journaled after the commit.
+ *
+ * @param procNums The procedures the write may change
+ * @param plan Plans the statements; the first updates procedurelog
+ * @return The number of procedurelog rows updated
+ */
+private static int executeJournaled(Collection<Integer> procNums, JournaledPlan plan) throws SQLException {
+    try (Connection conn = getConnection()) {
+        conn.setAutoCommit(false);
+        DefNumSnapshot snapshot = withLockRetry(conn, () -> {
+            Map<Integer, long[]> before = readDefNums(conn, procNums);
+            List<Update> updates = plan.plan(conn, before);
+            if (updates.isEmpty()) {
+                return new DefNumSnapshot(before, before, 0);
+            }
+            int updated = 0;
+            for (int i = 0; i < updates.size(); i++) {
+                try (PreparedStatement stmt = conn.prepareStatement(updates.get(i).sql())) {
+                    bindParams(stmt, updates.get(i).params());
+                    int count = stmt.executeUpdate();
+                    if (i == 0) {
+                        updated = count;
+                    }
+                }
+            }
+            return new DefNumSnapshot(before, readDefNums(conn, procNums), updated);
+        });
+        journalChanges(snapshot.before(), snapshot.after());
+        return snapshot.updated();
+    }
+}
+
+/**
+ * Reads the Priority and Dx DefNums of procedures, locking their rows until the transaction ends so
+ * nobody else can change them between this read and the write.
+ *
+ * @param conn The write's connection, with auto-commit disabled
+ * @param procNums The procedure numbers
+ * @return {Priority, Dx} keyed by ProcNum
+ * @throws SQLException If the values cannot be read
+ */
+private static Map<Integer, long[]> readDefNums(Connection conn, Collection<Integer> procNums) throws SQLException {
+    Map<Integer, long[]> values = new HashMap<>();
+    List<Integer> all = new ArrayList<>(procNums);
+    for (int start = 0; start < all.size(); start += SNAPSHOT_CHUNK_SIZE) {
+        List<Integer> chunk = all.subList(start, Math.min(start + SNAPSHOT_CHUNK_SIZE, all.size()));
+        List<Object> params = new ArrayList<>();
+        StringBuilder sql = new StringBuilder("SELECT ProcNum, Priority, Dx FROM procedurelog");
+        appendInList(sql, params, chunk);
+        sql.append(" FOR UPDATE");
+        try (PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
+            bindParams(stmt, params);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    values.put(rs.getInt("ProcNum"), new long[] {rs.getLong("Priority"), rs.getLong("Dx")});
+                }
+            }
+        }
+    }
+    return values;
+}
+
+/**
+ * Reads the patient and DateTStamp of procedures inside a write's transaction.
+ *
+ * @param conn The write's connection, with auto-commit disabled
+ * @param procNums The procedure numbers
+ * @return The procedures with their current DateTStamp
+ * @throws SQLException If the values cannot be read
+ */
+private static List<ChangedProcedure> readStamps(Connection conn, List<Integer> procNums) throws SQLException {
+    List<ChangedProcedure> stamps = new ArrayList<>();
+    for (int start = 0; start < procNums.size(); start += SNAPSHOT_CHUNK_SIZE) {
+        List<Integer> chunk = procNums.subList(start, Math.min(start + SNAPSHOT_CHUNK_SIZE, procNums.size()));
+        List<Object> params = new ArrayList<>();
+        StringBuilder sql = new StringBuilder("SELECT ProcNum, PatNum, DateTStamp FROM procedurelog");
+        appendInList(sql, params, chunk);
+        try (PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
+            bindParams(stmt, params);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    stamps.add(new ChangedProcedure(rs.getInt("ProcNum"), rs.getInt("PatNum"), rs.getTimestamp("DateTStamp")));
+                }
+            }
+        }
+    }
+    return stamps;
+}
+
+/**
+ * Appends the values that differ between two snapshots to this process's change journal.
+ * Journal errors are logged and never fail a write that has already been committed.
+ */
+private static void journalChanges(Map<Integer, long[]> before, Map<Integer, long[]> after) {
+    try {
+        ChangeJournal journal = null;
+        for (Map.Entry<Integer, long[]> entry : new TreeMap<>(after).entrySet()) {
+            long[] old = before.get(entry.getKey());
+            long[] now = entry.getValue();
+            if (old == null) {
+                continue;
+            }
+            if (old[0] != now[0] || old[1] != now[1]) {
+                journal = journal != null ? journal : ChangeJournal.session();
+            }
+            if (old[0] != now[0]) {
+                journal.append(entry.getKey(), ChangeJournal.Column.PRIORITY, old[0], now[0]);
+            }
+            if (old[1] != now[1]) {
+                journal.append(entry.getKey(), ChangeJournal.Column.DIAGNOSIS, old[1], now[1]);
+            }
+        }
+        if (journal != null) {
+            journal.force();
+        }
+    } catch (IOException | RuntimeException e) {
+        LOGGER.log(Level.WARNING, "Could not write the change journal", e);
+    }
+}
+
+/**
+ * Maps a display value to the definition name to look up, or null for the "empty" value.
+ */
+private static String definitionName(String value, String emptyValue) {
+    // No definition is named NULL, so the empty value resolves to 0
+    return value == null || value.isEmpty() || value.equals(emptyValue) ? null : value;
+}
+
+private static void appendCase(StringBuilder sql, List<Object> params, String column, String valueSql,
+                               Map<Integer, String> edits, String emptyValue) {
+    sql.append(column).append(" = CASE ProcNum");
+    for (Map.Entry<Integer, String> edit : edits.entrySet()) {
+        sql.append(" WHEN ? THEN ").append(valueSql);
+        params.add(edit.getKey());
+        params.add(definitionName(edit.getValue(), emptyValue));
+    }
+    sql.append(" ELSE ").append(column).append(" END");
+}
+
+private static void appendValueCase(StringBuilder sql, List<Object> params, String column, Map<Integer, Long> values) {
+    sql.append(column).append(" = CASE ProcNum");
+    for (Map.Entry<Integer, Long> value : values.entrySet()) {
+        sql.append(" WHEN ? THEN ?");
+        params.add(value.getKey());
+        params.add(value.getValue());
+    }
+    sql.append(" ELSE ").append(column).append(" END");
+}
+
+private static void appendInList(StringBuilder sql, List<Object> params, Collection<Integer> procNums) {
+    sql.append(" WHERE ProcNum IN (");
+    boolean first = true;
+    for (Integer procNum : procNums) {
+        sql.append(first ? "?" : ", ?");
+        params.add(procNum);
+        first = false;
+    }
+    sql.append(")");
+}
+
+private static void bindParams(PreparedStatement stmt, List<Object> params) throws SQLException {
+    for (int i = 0; i < params.size(); i++) {
+        Object param = params.get(i);
+        if (param instanceof Integer number) {
+            stmt.setInt(i + 1, number);
+        } else if (param instanceof Long number) {
+            stmt.setLong(i + 1, number);
+        } else {
+            stmt.setString(i + 1, (String) param);
+        }
+    }
+}
 }
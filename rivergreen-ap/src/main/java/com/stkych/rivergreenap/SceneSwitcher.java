@@ -1,25 +1,107 @@
 package com.stkych.rivergreenap;
 
+import com.stkych.rivergreenap.diagnostics.SceneSwitchEvent;
+import com.stkych.rivergreenap.util.BackgroundTasks;
+import com.stkych.rivergreenap.util.FxPulse;
+import javafx.application.Platform;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
 import javafx.stage.Stage;
+import javafx.stage.Window;
 
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Utility class for handling scene transitions in the application.
  * Provides methods for loading and switching between scenes
  * and supports passing data between scenes.
+ * <p>
+ * Scenes whose controller implements {@link ShowHandler} are loaded once and kept: switching back
+ * to them reuses the scene and its controller and calls {@link ShowHandler#onShow} instead of
+ * parsing the FXML and running the controller's initialization again. Other scenes, such as
+ * dialogs that return a result, are loaded fresh every time. Kept scenes can be loaded ahead of
+ * time with {@link #preload}.
  */
 public final class SceneSwitcher {
+    private static final Logger LOGGER = Logger.getLogger(SceneSwitcher.class.getName());
     private static final String FXML_PATH = "/com/stkych/rivergreenap/";
     private static final SceneSwitcher INSTANCE = new SceneSwitcher();
     private Stage primaryStage;
     private final Map<String, Object> dataCache = new HashMap<>();
 
+    // Kept scenes by FXML file; only used on the JavaFX application thread
+    private final Map<String, LoadedScene> scenes = new HashMap<>();
+
+    /**
+     * Implemented by controllers whose scene is kept and shown again instead of being reloaded.
+     */
+    public interface ShowHandler {
+        /**
+         * Called on the JavaFX application thread each time the scene is shown, including the first time,
+         * after {@code initialize}. Brings the scene up to date with the shared data, e.g. shows the
+         * patient in {@code patientNumber} if it differs from the one on screen.
+         *
+         * @param data The data passed between scenes (see {@link #putData}); read-only
+         */
+        void onShow(Map<String, Object> data);
+    }
+
+    /**
+     * Implemented by kept controllers holding edits that replacing the shared data would lose.
+     */
+    public interface LeaveGuard {
+        /**
+         * Called on the JavaFX application thread before the shared data the scene shows is replaced,
+         * e.g. when OpenDental opens another patient. Lets the user save or discard unsaved edits.
+         *
+         * @param proceed Run once the edits are saved or discarded; never run if the user stays
+         */
+        void confirmLeave(Runnable proceed);
+    }
+
+    private static final class LoadedScene {
+        private final Parent root;
+        private final Object controller;
+        private Scene scene;
+
+        LoadedScene(Parent root, Object controller) {
+            this.root = root;
+            this.controller = controller;
+        }
+
+        Parent root() {
+            return root;
+        }
+
+        Object controller() {
+            return controller;
+        }
+
+        boolean isKept() {
+            return controller instanceof ShowHandler;
+        }
+
+        /**
+         * Gets the scene of a kept root, created with the given size the first time.
+         */
+        Scene scene(double width, double height) {
+            if (scene == null) {
+                scene = new Scene(root, width, height);
+            }
+            return scene;
+        }
+    }
+
     private SceneSwitcher() {
     }
 
@@ -32,36 +114,159 @@ public final class SceneSwitcher {
     }
 
     public Parent loadFXML(String fxmlFile) throws IOException {
-         String resourcePath = FXML_PATH + fxmlFile + ".fxml";
+        return load(fxmlFile).root();
+    }
+
+    private LoadedScene load(String fxmlFile) throws IOException {
+        String resourcePath = FXML_PATH + fxmlFile + ".fxml";
         FXMLLoader fxmlLoader = new FXMLLoader(SceneSwitcher.class.getResource(resourcePath));
         if (fxmlLoader.getLocation() == null) {
             throw new IOException("Cannot find FXML file: " + resourcePath);
         }
-        return fxmlLoader.load();
+        Parent root = fxmlLoader.load();
+        return new LoadedScene(root, fxmlLoader.getController());
+    }
+
+    /**
+     * Gets a kept scene, or loads the scene, keeping it if its controller is a {@link ShowHandler}.
+     */
+    private LoadedScene obtain(String fxmlFile) throws IOException {
+        LoadedScene loaded = scenes.get(fxmlFile);
+        if (loaded != null) {
+            return loaded;
+        }
+
+        loaded = load(fxmlFile);
+        if (loaded.isKept()) {
+            scenes.put(fxmlFile, loaded);
+        }
+        return loaded;
+    }
+
+    private void notifyShown(LoadedScene loaded) {
+        if (loaded.controller() instanceof ShowHandler handler) {
+            handler.onShow(Collections.unmodifiableMap(dataCache));
+        }
+    }
+
+    /**
+     * Loads scenes ahead of the first switch to them, so it is immediate, without delaying the main
+     * window. The data the scenes show is prefetched on a worker thread first. The scenes themselves
+     * are built on the JavaFX application thread, since their controllers set up controls and
+     * register listeners, once the main window has rendered its next frame, one scene per event so
+     * input is handled in between. Scenes already loaded are skipped; scenes whose controller is not
+     * a {@link ShowHandler} are loaded and dropped, which only loads their classes.
+     * Must be called on the JavaFX application thread, after the main window is shown.
+     *
+     * @param prefetch Reads the scenes' data into shared caches on a worker thread, or null
+     * @param fxmlFiles The FXML files, without the extension
+     */
+    public void preload(Runnable prefetch, String... fxmlFiles) {
+        Deque<String> pending = new ArrayDeque<>(List.of(fxmlFiles));
+        Scene mainScene = primaryStage.getScene();
+        CompletableFuture.runAsync(prefetch != null ? prefetch : () -> {
+        }, BackgroundTasks.executor()).whenComplete((ignored, error) -> {
+            if (error != null) {
+                LOGGER.log(Level.WARNING, "Prefetching data for " + pending + " failed", error);
+            }
+            FxPulse.afterNextPulse(mainScene, () -> preloadNext(pending));
+        });
+    }
+
+    private void preloadNext(Deque<String> pending) {
+        String fxmlFile = pending.poll();
+        if (fxmlFile == null) {
+            return;
+        }
+        if (!scenes.containsKey(fxmlFile)) {
+            try {
+                LoadedScene loaded = load(fxmlFile);
+                if (loaded.isKept()) {
+                    scenes.put(fxmlFile, loaded);
+                }
+                LOGGER.fine("Preloaded " + fxmlFile);
+            } catch (IOException | RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Preloading " + fxmlFile + " failed; it is loaded when first shown", e);
+            }
+        }
+        Platform.runLater(() -> preloadNext(pending));
     }
 
     public void switchScene(String fxmlFile, String title, double width, double height) throws IOException {
-        Parent root = loadFXML(fxmlFile);
-        Scene scene = new Scene(root, width, height);
+        SceneSwitchEvent event = new SceneSwitchEvent();
+        event.begin();
+        event.scene = fxmlFile;
+        event.reused = scenes.containsKey(fxmlFile);
+
+        LoadedScene loaded = obtain(fxmlFile);
+        Scene scene = loaded.isKept() ? loaded.scene(width, height) : new Scene(loaded.root(), width, height);
+        notifyShown(loaded);
         primaryStage.setTitle(title);
-        primaryStage.setScene(scene);
+        if (primaryStage.getScene() != scene) {
+            primaryStage.setScene(scene);
+        }
+        primaryStage.show();
+        event.commit();
+    }
+
+    /**
+     * Runs an action that replaces the data a kept scene shows, once its controller has let the user
+     * save or discard unsaved edits. Runs it at once if the scene is not loaded or has nothing to lose.
+     *
+     * @param fxmlFile The kept scene, without the extension
+     * @param proceed The action
+     */
+    public void whenLeft(String fxmlFile, Runnable proceed) {
+        LoadedScene loaded = scenes.get(fxmlFile);
+        if (loaded != null && loaded.controller() instanceof LeaveGuard guard) {
+            guard.confirmLeave(proceed);
+        } else {
+            proceed.run();
+        }
+    }
+
+    /**
+     * Shows the main window if it was closed or minimized and brings it in front of other windows.
+     */
+    public void bringToFront() {
+        primaryStage.setIconified(false);
         primaryStage.show();
+        primaryStage.toFront();
+        primaryStage.requestFocus();
     }
 
     public void switchScene(String fxmlFile, String title) throws IOException {
         switchScene(fxmlFile, title, 1100, 800);
     }
 
+    /**
+     * Shows a scene in a popup window.
+     * A kept scene keeps its window: showing it again re-shows and focuses that window.
+     *
+     * @return The scene's controller
+     */
     public Object showPopup(String fxmlFile, String title, double width, double height) throws IOException {
-        String resourcePath = FXML_PATH + fxmlFile + ".fxml";
-        FXMLLoader fxmlLoader = new FXMLLoader(SceneSwitcher.class.getResource(resourcePath));
-        Parent root = fxmlLoader.load();
-        Scene scene = new Scene(root, width, height);
-        Stage popupStage = new Stage();
+        SceneSwitchEvent event = new SceneSwitchEvent();
+        event.begin();
+        event.scene = fxmlFile;
+        event.popup = true;
+        event.reused = scenes.containsKey(fxmlFile);
+
+        LoadedScene loaded = obtain(fxmlFile);
+        Stage popupStage;
+        Window window = loaded.isKept() ? loaded.scene(width, height).getWindow() : null;
+        if (window instanceof Stage keptStage) {
+            popupStage = keptStage;
+        } else {
+            popupStage = new Stage();
+            popupStage.setScene(loaded.isKept() ? loaded.scene(width, height) : new Scene(loaded.root(), width, height));
+        }
+        notifyShown(loaded);
         popupStage.setTitle(title);
-        popupStage.setScene(scene);
         popupStage.show();
-        return fxmlLoader.getController();
+        popupStage.toFront();
+        event.commit();
+        return loaded.controller();
     }
 
     public Object showPopup(String fxmlFile, String title) throws IOException {
@@ -0,0 +1,224 @@
+package com.stkych.rivergreenap;
+
+import com.stkych.rivergreenap.util.BackgroundTasks;
+import com.stkych.rivergreenap.util.FileUtils;
+
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.IntConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps one application instance per user and hands patients opened from OpenDental to it.
+ * <p>
+ * The running instance listens on a Unix domain socket in the application data directory
+ * (supported on Windows 10 and later as well). A new launch first tries to connect to it; if that
+ * works it sends the patient number and exits without starting JavaFX or loading the database
+ * driver, and the running instance shows the patient in its warm window. If no instance answers,
+ * the launch starts normally and becomes the listening instance.
+ * <p>
+ * Protocol: one line from the launcher, {@code OPEN <PatNum>} or {@code SHOW}, answered with {@code OK}.
+ */
+public final class SingleInstance {
+
+    private static final Logger LOGGER = Logger.getLogger(SingleInstance.class.getName());
+
+    private static final String SOCKET_FILE = "instance.sock";
+
+    // A running instance answers at once; after this the launcher gives up and starts on its own
+    private static final long REPLY_TIMEOUT_MILLIS = 2000;
+
+    // Longest request line read, so a stray client cannot make the listener buffer without bound
+    private static final int MAX_REQUEST_LENGTH = 64;
+
+    // A launcher sends its request as soon as it connects; a client that does not is dropped after this,
+    // so it does not keep its thread
+    private static final long REQUEST_TIMEOUT_MILLIS = 2000;
+
+    private static ServerSocketChannel server;
+
+    private SingleInstance() {
+    }
+
+    /**
+     * Hands a launch over to the running instance, if there is one.
+     *
+     * @param patientNumber The patient to open, or null to just bring the window forward
+     * @return True if the running instance accepted it and this process should exit
+     */
+    public static boolean handOff(Integer patientNumber) {
+        Path socket = socketPath();
+        if (!Files.exists(socket)) {
+            return false;
+        }
+
+        String request = patientNumber != null ? "OPEN " + patientNumber : "SHOW";
+        try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+            channel.write(StandardCharsets.UTF_8.encode(request + "\n"));
+            String reply = readLine(channel, REPLY_TIMEOUT_MILLIS);
+            if (reply == null) {
+                LOGGER.warning("Running instance did not answer, starting a new one");
+            }
+            return "OK".equals(reply);
+        } catch (IOException e) {
+            // No instance is listening; the socket file is left over from one that did not exit cleanly
+            LOGGER.log(Level.FINE, "No running instance to hand off to", e);
+            return false;
+        }
+    }
+
+    /**
+     * Reads one line of at most {@link #MAX_REQUEST_LENGTH} bytes, giving up after a timeout so a peer
+     * that connects and sends nothing cannot hold the reader. Leaves the channel non-blocking.
+     *
+     * @return The line without its newline, or null if it did not arrive in time
+     */
+    private static String readLine(SocketChannel channel, long timeoutMillis) throws IOException {
+        channel.configureBlocking(false);
+        try (Selector selector = Selector.open()) {
+            channel.register(selector, SelectionKey.OP_READ);
+            ByteBuffer line = ByteBuffer.allocate(MAX_REQUEST_LENGTH);
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            while (line.hasRemaining()) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return null;
+                }
+                selector.select(remaining);
+                selector.selectedKeys().clear();
+                if (channel.read(line) < 0 || containsNewline(line)) {
+                    break;
+                }
+            }
+            line.flip();
+            return StandardCharsets.UTF_8.decode(line).toString().trim();
+        }
+    }
+
+    private static boolean containsNewline(ByteBuffer buffer) {
+        for (int i = 0; i < buffer.position(); i++) {
+            if (buffer.get(i) == '\n') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Starts accepting hand-offs from later launches.
+     * The handler is called on a background thread and must pass the work to the JavaFX thread itself.
+     *
+     * @param handler Receives the patient number to open, or -1 to bring the window forward
+     * @return True if this process is now the listening instance
+     */
+    public static synchronized boolean listen(IntConsumer handler) {
+        if (server != null) {
+            return true;
+        }
+
+        Path socket = socketPath();
+        try {
+            // Remove a socket file left by an instance that did not exit cleanly; a live one would have answered
+            if (Files.exists(socket) && !handOff(null)) {
+                Files.delete(socket);
+            }
+            ServerSocketChannel channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            channel.bind(UnixDomainSocketAddress.of(socket));
+            server = channel;
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not listen for other launches; each launch will open its own window", e);
+            return false;
+        }
+
+        ServerSocketChannel listening = server;
+        Thread acceptor = BackgroundTasks.daemonThreadFactory("rivergreen-instance").newThread(() -> accept(listening, handler));
+        acceptor.start();
+        LOGGER.info("Listening for launches on " + socket);
+        return true;
+    }
+
+    private static void accept(ServerSocketChannel channel, IntConsumer handler) {
+        ThreadFactory clientThreads = BackgroundTasks.daemonThreadFactory("rivergreen-instance-client");
+        while (channel.isOpen()) {
+            try {
+                SocketChannel client = channel.accept();
+                // Each launch is served on its own thread, so a client that sends nothing holds up nobody
+                clientThreads.newThread(() -> serve(client, handler)).start();
+            } catch (IOException e) {
+                if (channel.isOpen()) {
+                    LOGGER.log(Level.WARNING, "Failed to accept a launch", e);
+                }
+            }
+        }
+    }
+
+    private static void serve(SocketChannel channel, IntConsumer handler) {
+        try (SocketChannel client = channel) {
+            String request = readLine(client, REQUEST_TIMEOUT_MILLIS);
+            if (request == null) {
+                LOGGER.warning("Dropping a launcher connection that sent no request");
+                return;
+            }
+            int patientNumber = parseRequest(request);
+            if (patientNumber != Integer.MIN_VALUE) {
+                handler.accept(patientNumber);
+                ByteBuffer reply = StandardCharsets.UTF_8.encode("OK\n");
+                while (reply.hasRemaining()) {
+                    client.write(reply);
+                }
+            } else {
+                LOGGER.warning("Ignoring unknown request from launcher: " + request);
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to handle a launch", e);
+        }
+    }
+
+    /**
+     * @return The patient number, -1 for SHOW, or Integer.MIN_VALUE if the request is not understood
+     */
+    private static int parseRequest(String request) {
+        if (request.equals("SHOW")) {
+            return -1;
+        }
+        if (request.startsWith("OPEN ")) {
+            try {
+                return Integer.parseInt(request.substring(5).trim());
+            } catch (NumberFormatException e) {
+                return Integer.MIN_VALUE;
+            }
+        }
+        return Integer.MIN_VALUE;
+    }
+
+    /**
+     * Stops listening and removes the socket file, so the next launch starts a new instance.
+     */
+    public static synchronized void close() {
+        if (server == null) {
+            return;
+        }
+        try {
+            server.close();
+            Files.deleteIfExists(socketPath());
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to remove instance socket", e);
+        }
+        server = null;
+    }
+
+    private static Path socketPath() {
+        return FileUtils.getAppDataDirectory().toPath().resolve(SOCKET_FILE);
+    }
+}
@@ -0,0 +1,59 @@
+package com.stkych.rivergreenap.controller;
+
+import com.stkych.rivergreenap.diagnostics.StartupTimeline;
+import javafx.scene.control.Alert;
+import javafx.scene.control.Label;
+import javafx.scene.control.TextArea;
+import javafx.scene.layout.GridPane;
+
+/**
+ * The Help menu's About dialog, shared by the windows that have it.
+ */
+final class AboutDialog {
+
+    private AboutDialog() {
+    }
+
+    /**
+     * Shows the dialog and waits until it is closed.
+     */
+    static void show() {
+        // Create an alert dialog
+        Alert alert = new Alert(Alert.AlertType.INFORMATION);
+        alert.setTitle("About RiverGreen Dental Application");
+        alert.setHeaderText("RiverGreen Dental Application");
+        alert.setContentText("Version 1.0\n\nA dental treatment planning application for automating procedure priorities.");
+
+        // Add more detailed information in an expandable area
+        Label label = new Label("Additional Information:");
+        TextArea textArea = new TextArea(
+            "RiverGreen Dental Application\n" +
+            "Version 1.0\n\n" +
+            "This application helps dental professionals manage treatment plans by automatically prioritizing procedures based on configurable rulesets.\n\n" +
+            "Features:\n" +
+            "- Patient-specific treatment plans\n" +
+            "- Configurable priority rulesets\n" +
+            "- Drag-and-drop procedure reordering\n" +
+            "- Database integration\n\n" +
+            "© 2025 RiverGreen Dental"
+        );
+        // How long this workstation takes to open the main window, to spot regressions and slow machines
+        String startup = StartupTimeline.summary();
+        if (startup != null) {
+            textArea.appendText("\n\n" + startup);
+        }
+        textArea.setEditable(false);
+        textArea.setWrapText(true);
+        textArea.setPrefHeight(200);
+
+        GridPane expContent = new GridPane();
+        expContent.setMaxWidth(Double.MAX_VALUE);
+        expContent.add(label, 0, 0);
+        expContent.add(textArea, 0, 1);
+
+        alert.getDialogPane().setExpandableContent(expContent);
+        alert.getDialogPane().setExpanded(true);
+
+        alert.showAndWait();
+    }
+}
@@ -7,14 +7,16 @@ import java.util.logging.Logger;
 
 import java.io.IOException;
 import java.net.URL;
+import java.util.Map;
 import java.util.ResourceBundle;
 
 /**
  * Base abstract class for all controllers in the application.
  * Provides common functionality and ensures a consistent approach across all controllers.
- * Implements Initializable to provide a standard initialization method.
+ * Implements Initializable to provide a standard initialization method, and
+ * SceneSwitcher.ShowHandler so the scene is kept and refreshed rather than reloaded when shown again.
  */
-public abstract class Controller implements Initializable {
+public abstract class Controller implements Initializable, SceneSwitcher.ShowHandler {
     private static final Logger LOGGER = Logger.getLogger(Controller.class.getName());
 
     /**
@@ -29,6 +31,17 @@ public abstract class Controller implements Initializable {
         // Default implementation - can be overridden by subclasses
     }
 
+    /**
+     * Refreshes the scene each time it is shown.
+     * Setup that only needs to happen once belongs in {@link #initialize}.
+     *
+     * @param data The data passed between scenes
+     */
+    @Override
+    public void onShow(Map<String, Object> data) {
+        // Default implementation - can be overridden by subclasses
+    }
+
     /**
      * Closes the current window (popup).
      * This is useful for controllers that are displayed in popup windows.
@@ -4,16 +4,26 @@ import com.stkych.rivergreenap.RiverGreenDB;
 import com.stkych.rivergreenap.DatabaseConfig;
 import com.stkych.rivergreenap.SceneSwitcher;
 import com.stkych.rivergreenap.controller.cells.TreatmentPlanProcedureCellFactory;
-import com.stkych.rivergreenap.model.RulesetItem;
+import com.stkych.rivergreenap.db.PatientPlanCache;
+import com.stkych.rivergreenap.db.WriteBehindQueue;
+import com.stkych.rivergreenap.diagnostics.StartupTimeline;
+import com.stkych.rivergreenap.engine.CompiledRuleset;
+import com.stkych.rivergreenap.engine.RulesetEngine;
+import com.stkych.rivergreenap.engine.RulesetRepository;
+import com.stkych.rivergreenap.engine.RulesetWatcher;
 import com.stkych.rivergreenap.model.TreatmentPlanProcedure;
+import com.stkych.rivergreenap.util.BackgroundTasks;
 import com.stkych.rivergreenap.util.FileUtils;
 import com.stkych.rivergreenap.util.ExecutionLogger;
-import com.stkych.rivergreenap.util.TeethNotationUtil;
-import com.stkych.rivergreenap.util.DentalCodeUtil;
+import com.stkych.rivergreenap.util.PriorityOrder;
+import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
+import javafx.concurrent.Task;
+import javafx.event.Event;
 import javafx.fxml.FXML;
 import javafx.geometry.Insets;
+import javafx.scene.Scene;
 import javafx.scene.control.*;
 import javafx.scene.control.Button;
 import javafx.scene.control.CheckBox;
@@ -27,12 +37,12 @@ import javafx.scene.input.DragEvent;
 import javafx.scene.input.Dragboard;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.input.TransferMode;
-import javafx.scene.layout.GridPane;
+import javafx.scene.layout.VBox;
+import javafx.stage.Modality;
 import javafx.stage.Stage;
+import javafx.stage.WindowEvent;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.net.URL;
 import java.sql.Connection;
@@ -40,19 +50,29 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.logging.Logger;
 import java.util.logging.Level;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.ResourceBundle;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * Controller for the main.fxml scene of the application.
  * This is an iteration of the MainController with UI changes.
  */
-public class ControllerMain extends Controller {
+public class ControllerMain extends Controller implements SceneSwitcher.LeaveGuard {
 
     private static final Logger LOGGER = Logger.getLogger(ControllerMain.class.getName());
 
@@ -84,28 +104,59 @@ public class ControllerMain extends Controller {
     @FXML
     private CheckBox applyToNAOnlyCheckBox;
 
+    @FXML
+    private CheckMenuItem writeBehindMenuItem;
+
+    @FXML
+    private CheckMenuItem recordingMenuItem;
+
     private ObservableList<TreatmentPlanProcedure> procedures = FXCollections.observableArrayList();
 
     // Store a copy of the initial data for reset functionality
     private List<TreatmentPlanProcedure> initialProcedures = new ArrayList<>();
 
-    private final Map<String, List<RulesetItem>> rulesets = new HashMap<>();
+    // Procedures whose priority a ruleset changed; in write-behind mode these wait for 'Ok'
+    private final Set<Integer> rulesetChanges = new HashSet<>();
+
+    // Priority and diagnosis of each shown procedure as last loaded or saved, to tell unsaved edits
+    private final Map<Integer, List<String>> savedValues = new HashMap<>();
+
+    // Shared, immutable snapshot from the ruleset repository
+    private SortedMap<String, RulesetRepository.Ruleset> rulesets = Collections.emptySortedMap();
     private String currentRuleset = "";
 
+    // The patient whose procedures are in the list, or null if none loaded
+    private Integer shownPatientNumber;
+    // Counts openPatient calls, so a plan that arrives after the user moved on is dropped
+    private int patientRequest;
+
+    // Most patients from today's schedule whose plans are prefetched
+    private static final int SCHEDULED_PREFETCH_LIMIT = 8;
+
     /**
      * Initializes the controller after the root element has been completely processed.
-     * Sets up the list views, retrieves patient data, and loads procedures if available.
+     * Sets up the list views, the priority and diagnosis lists and the rulesets.
+     * The window is kept between scene switches, so this runs once; see {@link #onShow}.
      *
      * @param location The URL location used to resolve relative paths for the root object, or null if not known.
      * @param resources The ResourceBundle used to localize the root object, or null if not applicable.
      */
     @Override
     public void initialize(URL location, ResourceBundle resources) {
+        // The loader calls this once it has built the scene graph
+        StartupTimeline.mark(StartupTimeline.Phase.FXML_LOADED);
+
         // Initialize the list view with the procedures list
         listView.setItems(procedures);
 
+        // Keep the write-behind setting across scene switches
+        if (writeBehindMenuItem != null) {
+            writeBehindMenuItem.setSelected(Boolean.TRUE.equals(SceneSwitcher.getInstance().getData("writeBehindEnabled")));
+        }
+
         // Set the cell factory for the list view to use the custom cell factory
-        listView.setCellFactory(new TreatmentPlanProcedureCellFactory());
+        // Cells show the selected ruleset's matching rules when hovered
+        listView.setCellFactory(new TreatmentPlanProcedureCellFactory(this::getSelectedRuleset));
 
         // Enable multiple selection
         listView.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
@@ -135,52 +186,151 @@ public class ControllerMain extends Controller {
         setupPriorityListView();
 
         setupDiagnosisListView();
+        StartupTimeline.mark(StartupTimeline.Phase.LIST_VIEWS_READY);
 
         // Load rulesets and set up the ruleset selection menu
         loadRulesets();
+        StartupTimeline.mark(StartupTimeline.Phase.RULESETS_LOADED);
+
+        // Pick up ruleset files added or edited while this window is open
+        RulesetWatcher.getInstance().addListener("main",
+                (name, ruleset) -> Platform.runLater(() -> onRulesetChanged(name, ruleset)));
+
+        // A resident instance keeps this window after it is closed; reopening it loads the patient afresh
+        listView.sceneProperty().addListener((observable, oldScene, newScene) -> {
+            if (newScene != null) {
+                newScene.windowProperty().addListener((windowObservable, oldWindow, newWindow) -> {
+                    if (newWindow != null) {
+                        newWindow.addEventHandler(WindowEvent.WINDOW_HIDDEN, event -> closePatient());
+                    }
+                });
+            }
+        });
+        StartupTimeline.mark(StartupTimeline.Phase.CONTROLLER_INITIALIZED);
+
+        // The patient is loaded by onShow, which runs after this and whenever the window is shown again
+    }
+
+    /**
+     * Shows the patient in the shared {@code patientNumber} when it is not the one already shown.
+     * Returning from the ruleset window to the same patient keeps the list and any unsaved edits.
+     *
+     * @param data The data passed between scenes
+     */
+    @Override
+    public void onShow(Map<String, Object> data) {
+        RecordingMenu.sync(recordingMenuItem);
+        Integer patientNumber = (Integer) data.get("patientNumber");
+        if (patientNumber == null || !patientNumber.equals(shownPatientNumber)) {
+            openPatient(patientNumber);
+        }
+    }
+
+    /**
+     * Shows another patient in this window, replacing only the procedures and the name.
+     * The priority and diagnosis lists and the rulesets are kept. The plan is taken from the
+     * {@link PatientPlanCache} when it was prefetched, otherwise loaded on a worker thread while the
+     * window shows an empty plan. The patient shown before is loaded again in the background so
+     * going back to them is fast, and patients scheduled later today are prefetched.
+     *
+     * @param patientNumber The patient, or null to show an empty plan
+     */
+    public void openPatient(Integer patientNumber) {
+        int request = ++patientRequest;
+        if (shownPatientNumber != null && !shownPatientNumber.equals(patientNumber)) {
+            PatientPlanCache.getInstance().prefetchRevisit(shownPatientNumber, shownProcedureNumbers());
+        }
+        shownPatientNumber = null;
+        listView.getSelectionModel().clearSelection();
+
+        if (patientNumber == null) {
+            LOGGER.info("No patient number found");
+            showHeaderOnly();
+            return;
+        }
+
+        CompletableFuture<PatientPlanCache.PatientPlan> plan = PatientPlanCache.getInstance().take(patientNumber);
+        if (plan.isDone()) {
+            // Prefetched: show it without waiting for another pulse
+            showPlan(request, patientNumber, plan);
+        } else {
+            showHeaderOnly();
+            patientNameLabel.setText("Loading patient #" + patientNumber + "...");
+            plan.whenComplete((loaded, error) -> Platform.runLater(() -> showPlan(request, patientNumber, plan)));
+        }
+    }
+
+    /**
+     * Forgets the shown patient without clearing the list, so the next {@link #onShow} loads the
+     * patient again, and reloads them in the background in case they are opened again.
+     */
+    private void closePatient() {
+        if (shownPatientNumber != null) {
+            PatientPlanCache.getInstance().prefetchRevisit(shownPatientNumber, shownProcedureNumbers());
+            shownPatientNumber = null;
+        }
+    }
+
+    private List<Integer> shownProcedureNumbers() {
+        List<Integer> procNums = new ArrayList<>();
+        for (int i = 1; i < procedures.size(); i++) {
+            procNums.add(procedures.get(i).getProcedureNumber());
+        }
+        return procNums;
+    }
 
+    /**
+     * Starts loading patients' plans so opening them later is immediate.
+     *
+     * @param patientNumbers The patients
+     */
+    public void prefetchPatients(Collection<Integer> patientNumbers) {
+        for (Integer patientNumber : patientNumbers) {
+            PatientPlanCache.getInstance().prefetch(patientNumber);
+        }
+    }
+
+    /**
+     * Shows a loaded plan, unless another patient was opened since it was requested.
+     */
+    private void showPlan(int request, int patientNumber, CompletableFuture<PatientPlanCache.PatientPlan> plan) {
+        if (request != patientRequest) {
+            return;
+        }
+
+        PatientPlanCache.PatientPlan loaded;
         try {
-            // Get the patient number from the data cache
-            Integer patientNumber = (Integer) SceneSwitcher.getInstance().getData("patientNumber");
-
-            if (patientNumber != null) {
-                // Load procedures for the patient using the RiverGreenDB class
-                loadProceduresForPatient(patientNumber);
-
-                // Get and set the patient's full name
-                try {
-                    String patientFullName = RiverGreenDB.getPatientFullName(patientNumber);
-                    patientNameLabel.setText(patientFullName);
-
-                    // Adjust font size based on text length
-                    adjustLabelFontSize(patientNameLabel, patientFullName);
-                } catch (SQLException e) {
-                    // If there's an error getting the full name, fall back to just the patient number
-                    patientNameLabel.setText("Patient #" + patientNumber);
-                    LOGGER.log(Level.WARNING, "Error getting patient full name", e);
-                }
-            } else {
-                LOGGER.info("No patient number found");
-                // Create an empty observable list with just the header
-                procedures = FXCollections.observableArrayList();
-                // Add the header item
-                TreatmentPlanProcedure headerItem = new TreatmentPlanProcedure(
-                    "Priority", "Tth", "Surf", "Code", "Diagnosis", "Description", 0.0, 0);
-                procedures.add(headerItem);
-                // Set the items in the list view
-                listView.setItems(procedures);
-            }
-        } catch (SQLException e) {
-            handleError(e);
+            loaded = plan.join();
+        } catch (CompletionException e) {
+            handleError(e.getCause() instanceof Exception cause ? cause : e);
             // If there's an error, still add the header so the UI is usable
             LOGGER.log(Level.WARNING, "Error loading procedures, adding header only");
-            procedures = FXCollections.observableArrayList();
-            // Add the header item
-            TreatmentPlanProcedure headerItem = new TreatmentPlanProcedure(
-                "Priority", "Tth", "Surf", "Code", "Diagnosis", "Description", 0.0, 0);
-            procedures.add(headerItem);
-            listView.setItems(procedures);
+            showHeaderOnly();
+            patientNameLabel.setText("Patient #" + patientNumber);
+            return;
         }
+
+        showProcedures(loaded.procedures());
+        shownPatientNumber = patientNumber;
+
+        // If there was an error getting the full name, fall back to just the patient number
+        String patientFullName = loaded.fullName() != null ? loaded.fullName() : "Patient #" + patientNumber;
+        patientNameLabel.setText(patientFullName);
+        // Adjust font size based on text length
+        adjustLabelFontSize(patientNameLabel, patientFullName);
+
+        PatientPlanCache.getInstance().prefetchSchedule(SCHEDULED_PREFETCH_LIMIT);
+    }
+
+    private void showHeaderOnly() {
+        procedures.setAll(newHeaderItem());
+        initialProcedures.clear();
+        rulesetChanges.clear();
+        savedValues.clear();
+    }
+
+    private static TreatmentPlanProcedure newHeaderItem() {
+        return new TreatmentPlanProcedure("Priority", "Tth", "Surf", "Code", "Diagnosis", "Description", 0.0, 0);
     }
 
     /**
@@ -191,23 +341,29 @@ public class ControllerMain extends Controller {
      * @throws SQLException If a database error occurs during the data retrieval process
      */
     private void loadProceduresForPatient(int patientNumber) throws SQLException {
-        // Get procedures for the patient using the RiverGreenDB class
-        ObservableList<TreatmentPlanProcedure> loadedProcedures = RiverGreenDB.getProceduresForPatientObservable(
-            patientNumber,
-            DatabaseConfig.DB_URL,
-            DatabaseConfig.DB_USER,
-            DatabaseConfig.DB_PASSWORD);
+        showProcedures(RiverGreenDB.getProceduresForPatient(patientNumber));
+    }
+
+    /**
+     * Puts loaded procedures into the list with a single change, sorted by priority after the header.
+     * Procedures already in the list with the same values keep their items, so reloading a patient
+     * only replaces the rows that changed.
+     *
+     * @param loadedProcedures The procedures, without a header item
+     */
+    private void showProcedures(List<TreatmentPlanProcedure> loadedProcedures) {
+        Map<Integer, TreatmentPlanProcedure> current = new HashMap<>();
+        for (int i = 1; i < procedures.size(); i++) {
+            current.put(procedures.get(i).getProcedureNumber(), procedures.get(i));
+        }
 
         // Create a new list with the header item at the beginning
         ObservableList<TreatmentPlanProcedure> proceduresWithHeader = FXCollections.observableArrayList();
-
-        // Add the header item
-        TreatmentPlanProcedure headerItem = new TreatmentPlanProcedure(
-            "Priority", "Tth", "Surf", "Code", "Diagnosis", "Description", 0.0, 0);
-        proceduresWithHeader.add(headerItem);
-
-        // Add all the loaded procedures
-        proceduresWithHeader.addAll(loadedProcedures);
+        proceduresWithHeader.add(procedures.isEmpty() ? newHeaderItem() : procedures.get(0));
+        for (TreatmentPlanProcedure loaded : loadedProcedures) {
+            TreatmentPlanProcedure existing = current.get(loaded.getProcedureNumber());
+            proceduresWithHeader.add(existing != null && sameValues(existing, loaded) ? existing : loaded);
+        }
 
         // Sort the procedures by priority (preserving the header at the top)
         sortTreatmentPlanProceduresByPriority(proceduresWithHeader);
@@ -217,6 +373,8 @@ public class ControllerMain extends Controller {
 
         // Store a deep copy of the initial data for reset functionality
         initialProcedures.clear();
+        rulesetChanges.clear();
+        rememberSaved(proceduresWithHeader.subList(1, proceduresWithHeader.size()));
         for (TreatmentPlanProcedure procedure : proceduresWithHeader) {
             // Create a new TreatmentPlanProcedure with the same values
             TreatmentPlanProcedure copy = new TreatmentPlanProcedure(
@@ -233,6 +391,71 @@ public class ControllerMain extends Controller {
         }
     }
 
+    private void rememberSaved(List<TreatmentPlanProcedure> saved) {
+        savedValues.clear();
+        for (TreatmentPlanProcedure procedure : saved) {
+            savedValues.put(procedure.getProcedureNumber(), Arrays.asList(procedure.getPriority(), procedure.getDiagnosis()));
+        }
+    }
+
+    /**
+     * Tells whether the shown plan has edits that leaving the patient would lose. In write-behind
+     * mode list edits are already queued, so only ruleset results not yet confirmed with 'Ok' count.
+     */
+    private boolean hasUnsavedChanges() {
+        if (isWriteBehindEnabled()) {
+            return !rulesetChanges.isEmpty();
+        }
+        for (int i = 1; i < procedures.size(); i++) {
+            TreatmentPlanProcedure procedure = procedures.get(i);
+            if (!Arrays.asList(procedure.getPriority(), procedure.getDiagnosis())
+                    .equals(savedValues.get(procedure.getProcedureNumber()))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Asks whether to save unsaved edits before another patient replaces the one shown.
+     *
+     * @param proceed Run after saving successfully or discarding; not run if the user stays
+     */
+    @Override
+    public void confirmLeave(Runnable proceed) {
+        if (!hasUnsavedChanges()) {
+            proceed.run();
+            return;
+        }
+
+        ButtonType save = new ButtonType("Save", ButtonBar.ButtonData.YES);
+        ButtonType discard = new ButtonType("Don't Save", ButtonBar.ButtonData.NO);
+        ButtonType stay = new ButtonType("Cancel", ButtonBar.ButtonData.CANCEL_CLOSE);
+        Alert alert = new Alert(Alert.AlertType.CONFIRMATION, null, save, discard, stay);
+        alert.setTitle("Unsaved Changes");
+        alert.setHeaderText("Save changes to " + patientNameLabel.getText() + "?");
+        alert.setContentText("Another patient was opened from OpenDental. Your changes to this treatment plan "
+                + "are lost unless you save them first.");
+        alert.showAndWait().ifPresent(response -> {
+            if (response == save) {
+                saveChangesToDatabase(proceed);
+            } else if (response == discard) {
+                rulesetChanges.clear();
+                proceed.run();
+            }
+        });
+    }
+
+    private static boolean sameValues(TreatmentPlanProcedure a, TreatmentPlanProcedure b) {
+        return Objects.equals(a.getPriority(), b.getPriority())
+                && Objects.equals(a.getToothNumber(), b.getToothNumber())
+                && Objects.equals(a.getSurface(), b.getSurface())
+                && Objects.equals(a.getProcedureCode(), b.getProcedureCode())
+                && Objects.equals(a.getDiagnosis(), b.getDiagnosis())
+                && Objects.equals(a.getDescription(), b.getDescription())
+                && a.getFee() == b.getFee();
+    }
+
     /**
      * Sets up the priority list view with priorities from the database and configures its click handler.
      */
@@ -260,6 +483,7 @@ public class ControllerMain extends Controller {
                 // Update all selected procedures with the new priority
                 for (TreatmentPlanProcedure procedure : selectedProcedures) {
                     procedure.setPriority(selectedPriority);
+                    queueEdit(procedure, WriteBehindQueue.Column.PRIORITY);
                 }
 
                 // Refresh the list view to show the updated priorities
@@ -279,84 +503,17 @@ public class ControllerMain extends Controller {
         });
     }
 
-    private void sortPriorities(ObservableList<String> priorities) {
-        // Create a new list to append to
-        ObservableList<String> sortedPriorities = FXCollections.observableArrayList();
-
-        // Start by appending "None" as the first priority
-        sortedPriorities.add("None");
-
-        // Then append "Next"
-        sortedPriorities.add("Next");
-
-        // Add all numbered priorities
-        for (int i = 1; i <= 10; i++) {
-            sortedPriorities.add(String.valueOf(i));
-            sortedPriorities.add(i + "A");
-            sortedPriorities.add(i + "B");
-            sortedPriorities.add(i + "C");
-            sortedPriorities.add(i + " Wait");
-            sortedPriorities.add(i + " Decline");
-        }
-
-        // Put all other priorities in
-        for (String priority : priorities) {
-            if (!sortedPriorities.contains(priority)) {
-                sortedPriorities.add(priority);
-            }
-        }
-
-        // Update the original list with sorted priorities
-        priorities.setAll(sortedPriorities);
-    }
-
     /**
-     * Gets the priority order index for sorting treatment plan procedures.
-     * Returns a numeric index that represents the priority order as defined in the SQL database.
-     * Lower numbers indicate higher priority (should appear first in the list).
+     * Sorts the priorities in the order of the practice's priority definitions.
      *
-     * @param priority The priority string
-     * @return The priority order index (lower numbers = higher priority)
+     * @param priorities The list of priorities to sort
      */
-    private int getPriorityOrderIndex(String priority) {
-        if (priority == null || priority.isEmpty()) {
-            return 1000; // Empty priorities go at the end
-        }
-
-        // Special priorities at the beginning
-        switch (priority) {
-            case "None": return 0;
-            case "Next": return 1;
-        }
-
-        // Numbered priorities (1, 1A, 1B, 1C, 1 Wait, 1 Decline, 2, 2A, etc.)
-        for (int i = 1; i <= 10; i++) {
-            if (priority.equals(String.valueOf(i))) {
-                return 2 + (i - 1) * 6; // Base priority: 2, 8, 14, 20, etc.
-            }
-            if (priority.equals(i + "A")) {
-                return 2 + (i - 1) * 6 + 1; // A variant: 3, 9, 15, 21, etc.
-            }
-            if (priority.equals(i + "B")) {
-                return 2 + (i - 1) * 6 + 2; // B variant: 4, 10, 16, 22, etc.
-            }
-            if (priority.equals(i + "C")) {
-                return 2 + (i - 1) * 6 + 3; // C variant: 5, 11, 17, 23, etc.
-            }
-            if (priority.equals(i + " Wait")) {
-                return 2 + (i - 1) * 6 + 4; // Wait variant: 6, 12, 18, 24, etc.
-            }
-            if (priority.equals(i + " Decline")) {
-                return 2 + (i - 1) * 6 + 5; // Decline variant: 7, 13, 19, 25, etc.
-            }
-        }
-
-        // All other priorities go at the end
-        return 2000 + priority.hashCode(); // Use hashCode for consistent ordering of unknown priorities
+    private void sortPriorities(ObservableList<String> priorities) {
+        PriorityOrder.current().sort(priorities);
     }
 
     /**
-     * Sorts treatment plan procedures by priority in the same order as defined in the SQL database.
+     * Sorts treatment plan procedures by priority in the order of the practice's priority definitions.
      * The header item (index 0) is preserved at the top.
      *
      * @param procedures The list of procedures to sort
@@ -370,8 +527,9 @@ public class ControllerMain extends Controller {
         TreatmentPlanProcedure header = procedures.get(0);
         List<TreatmentPlanProcedure> proceduresToSort = new ArrayList<>(procedures.subList(1, procedures.size()));
 
-        // Sort the procedures by priority
-        proceduresToSort.sort(Comparator.comparingInt(procedure -> getPriorityOrderIndex(procedure.getPriority())));
+        // Sort the procedures by priority, ranking each name once per sort
+        PriorityOrder order = PriorityOrder.current();
+        proceduresToSort.sort(Comparator.comparingInt(procedure -> order.rank(procedure.getPriority())));
 
         // Rebuild the list with header first, then sorted procedures
         procedures.clear();
@@ -405,6 +563,7 @@ public class ControllerMain extends Controller {
                 // Update all selected procedures with the new diagnosis
                 for (TreatmentPlanProcedure procedure : selectedProcedures) {
                     procedure.setDiagnosis(selectedDiagnosis);
+                    queueEdit(procedure, WriteBehindQueue.Column.DIAGNOSIS);
                 }
 
                 // Refresh the list view to show the updated diagnoses
@@ -426,32 +585,22 @@ public class ControllerMain extends Controller {
 
     /**
      * Handles the action event triggered by the "Ok" button.
-     * Reads all list items, updates the procedures in the database, and prints the results.
+     * Reads all list items and saves them to the database in the background.
      * This is where database updates happen - changes made by applying rulesets are not saved until this method is called.
      */
     @FXML
     private void handleOkButtonAction() {
         // Call the saveChangesToDatabase method to save all changes
         saveChangesToDatabase();
-
-        // Show a confirmation message to the user
-        Alert alert = new Alert(Alert.AlertType.INFORMATION);
-        alert.setTitle("Changes Saved");
-        alert.setHeaderText(null);
-        alert.setContentText("All changes have been saved to the database.");
-        alert.showAndWait();
     }
 
     /**
-     * Updates the existing treatment plan with the provided procedures.
-     * 
+     * Logs the results of a save and stores the generated queries in the data cache.
+     *
      * @param patientNumber The patient number
-     * @param allProcedures The list of procedures to update
+     * @param results The results returned by RiverGreenDB.updateTreatmentPlanProcedures
      */
-    private void updateExistingTreatmentPlan(int patientNumber, List<TreatmentPlanProcedure> allProcedures) {
-        // Call the RiverGreenDB method to update the procedures
-        Map<String, Object> results = RiverGreenDB.updateTreatmentPlanProcedures(patientNumber, allProcedures);
-
+    private void logSaveResults(int patientNumber, Map<String, Object> results) {
         // Extract results
         int successCount = (int) results.get("successCount");
         int failureCount = (int) results.get("failureCount");
@@ -468,6 +617,78 @@ public class ControllerMain extends Controller {
                 successCount, failureCount, errorMessages);
     }
 
+    /**
+     * Shows the user what actually happened during a save.
+     * A partial or failed save is reported as such, with the database errors attached.
+     *
+     * @param results The results returned by RiverGreenDB.updateTreatmentPlanProcedures
+     */
+    private void showSaveOutcome(Map<String, Object> results) {
+        int successCount = (int) results.get("successCount");
+        int failureCount = (int) results.get("failureCount");
+        @SuppressWarnings("unchecked")
+        List<String> errorMessages = (List<String>) results.get("errorMessages");
+        String status = (String) results.get("status");
+
+        Alert alert;
+        if ("success".equals(status)) {
+            alert = new Alert(Alert.AlertType.INFORMATION);
+            alert.setTitle("Changes Saved");
+            alert.setHeaderText(null);
+            alert.setContentText("All changes have been saved to the database.");
+        } else if ("partial_success".equals(status)) {
+            alert = new Alert(Alert.AlertType.WARNING);
+            alert.setTitle("Changes Partially Saved");
+            alert.setHeaderText("Some changes could not be saved");
+            alert.setContentText(successCount + " of " + (successCount + failureCount)
+                    + " updates were saved. " + failureCount + " failed; press Ok again to retry.");
+        } else {
+            alert = new Alert(Alert.AlertType.ERROR);
+            alert.setTitle("Save Failed");
+            alert.setHeaderText("Changes were not saved");
+            alert.setContentText("No changes were saved to the database (" + status + ").");
+        }
+
+        if (errorMessages != null && !errorMessages.isEmpty()) {
+            TextArea textArea = new TextArea(String.join("\n", errorMessages));
+            textArea.setEditable(false);
+            textArea.setWrapText(true);
+            textArea.setPrefHeight(150);
+            alert.getDialogPane().setExpandableContent(textArea);
+        }
+
+        alert.showAndWait();
+    }
+
+    /**
+     * Shows a small modal window bound to the progress of a background task.
+     *
+     * @param task The task whose progress should be displayed
+     * @param title The window title
+     * @return The progress window, which the caller closes when the task finishes
+     */
+    private Stage showProgressWindow(Task<?> task, String title) {
+        Label messageLabel = new Label();
+        messageLabel.textProperty().bind(task.messageProperty());
+
+        ProgressBar progressBar = new ProgressBar();
+        progressBar.setPrefWidth(300);
+        progressBar.progressProperty().bind(task.progressProperty());
+
+        VBox content = new VBox(10, messageLabel, progressBar);
+        content.setPadding(new Insets(15));
+
+        Stage progressStage = new Stage();
+        progressStage.initOwner(listView.getScene().getWindow());
+        progressStage.initModality(Modality.WINDOW_MODAL);
+        progressStage.setTitle(title);
+        progressStage.setScene(new Scene(content));
+        // The window closes itself when the task is done
+        progressStage.setOnCloseRequest(Event::consume);
+        progressStage.show();
+        return progressStage;
+    }
+
     /**
      * Handles the action event triggered by the "Cancel" button.
      * Navigates back to the main scene.
@@ -497,7 +718,7 @@ public class ControllerMain extends Controller {
 
     /**
      * Handles the Select Patient menu item action.
-     * Opens a dialog to enter a patient number and reloads the application with that patient.
+     * Opens a dialog to enter a patient number and shows that patient in the main window.
      */
     @FXML
     private void handleSelectPatientAction() {
@@ -518,8 +739,8 @@ public class ControllerMain extends Controller {
                 // Store the new patient number in the data cache
                 SceneSwitcher.getInstance().putData("patientNumber", patientNumber);
 
-                // Reload the main scene with the new patient number
-                SceneSwitcher.getInstance().switchScene("main", "RiverGreen Dental Application");
+                // Show the new patient in this window
+                openPatient(patientNumber);
 
             } catch (NumberFormatException e) {
                 // Show an error if the input is not a valid number
@@ -528,8 +749,6 @@ public class ControllerMain extends Controller {
                 alert.setHeaderText("Invalid Patient Number");
                 alert.setContentText("Please enter a valid patient number.");
                 alert.showAndWait();
-            } catch (IOException e) {
-                handleError(e);
             }
         });
     }
@@ -588,6 +807,14 @@ public class ControllerMain extends Controller {
                     procedures.setAll(resetProcedures);
                 }
 
+                // Queue the restored values so edits already written behind are undone too;
+                // ruleset results were never queued and are simply forgotten
+                rulesetChanges.clear();
+                for (int i = 1; i < procedures.size(); i++) {
+                    queueEdit(procedures.get(i), WriteBehindQueue.Column.PRIORITY);
+                    queueEdit(procedures.get(i), WriteBehindQueue.Column.DIAGNOSIS);
+                }
+
                 // Clear the priority and diagnosis list views
                 priorityListView.getItems().clear();
                 diagnosisListView.getItems().clear();
@@ -679,38 +906,7 @@ public class ControllerMain extends Controller {
     private void handleAboutAction() {
         LOGGER.info("About menu item clicked");
 
-        // Create an alert dialog
-        Alert alert = new Alert(Alert.AlertType.INFORMATION);
-        alert.setTitle("About RiverGreen Dental Application");
-        alert.setHeaderText("RiverGreen Dental Application");
-        alert.setContentText("Version 1.0\n\nA dental treatment planning application for automating procedure priorities.");
-
-        // Add more detailed information in an expandable area
-        Label label = new Label("Additional Information:");
-        TextArea textArea = new TextArea(
-            "RiverGreen Dental Application\n" +
-            "Version 1.0\n\n" +
-            "This application helps dental professionals manage treatment plans by automatically prioritizing procedures based on configurable rulesets.\n\n" +
-            "Features:\n" +
-            "- Patient-specific treatment plans\n" +
-            "- Configurable priority rulesets\n" +
-            "- Drag-and-drop procedure reordering\n" +
-            "- Database integration\n\n" +
-            "© 2025 RiverGreen Dental"
-        );
-        textArea.setEditable(false);
-        textArea.setWrapText(true);
-        textArea.setPrefHeight(200);
-
-        GridPane expContent = new GridPane();
-        expContent.setMaxWidth(Double.MAX_VALUE);
-        expContent.add(label, 0, 0);
-        expContent.add(textArea, 0, 1);
-
-        alert.getDialogPane().setExpandableContent(expContent);
-        alert.getDialogPane().setExpanded(true);
-
-        alert.showAndWait();
+        AboutDialog.show();
     }
 
     /**
@@ -718,29 +914,8 @@ public class ControllerMain extends Controller {
      * No longer creates default rulesets if none are found.
      */
     private void loadRulesets() {
-        // Clear existing rulesets
-        rulesets.clear();
-
-        // Migrate ruleset files from the current directory to the ruleset directory
-        FileUtils.migrateRulesetFiles();
-
-        // Look for ruleset files in the ruleset directory
-        File rulesetDir = FileUtils.getRulesetDirectory();
-        File[] files = rulesetDir.listFiles((dir, name) -> name.startsWith("ruleset") && name.endsWith(".csv"));
-
-        if (files != null) {
-            for (File file : files) {
-                String filename = file.getName();
-                // Extract the ruleset name (between "ruleset" and ".csv")
-                String rulesetName = filename.substring(7, filename.length() - 4);
-
-                // Load the ruleset
-                List<RulesetItem> rulesetItems = loadRulesetFromFile(file.getAbsolutePath());
-                if (!rulesetItems.isEmpty()) {
-                    rulesets.put(rulesetName, rulesetItems);
-                }
-            }
-        }
+        // Unchanged files come from the repository's cache, already parsed and compiled
+        rulesets = RulesetRepository.getInstance().snapshot();
 
         // No longer creating default rulesets if none are found
 
@@ -749,145 +924,38 @@ public class ControllerMain extends Controller {
     }
 
     /**
-     * Loads a ruleset from a CSV file.
-     *
-     * @param filepath The path to the CSV file (can be absolute or relative)
-     * @return The list of ruleset items
+     * Sets up the ruleset selection menu.
+     * Adds menu items for each ruleset and sets up the event handlers.
      */
-    private List<RulesetItem> loadRulesetFromFile(String filepath) {
-        List<RulesetItem> items = new ArrayList<>();
-        File file = new File(filepath);
-
-        if (!file.exists()) {
-            // Add a header item
-            items.add(new RulesetItem("Header", "Header", "Description", "Teeth"));
-            return items;
+    private void setupRulesetSelectMenu() {
+        if (rulesetSelectMenuButton == null) {
+            LOGGER.warning("Ruleset select menu button is null");
+            return;
         }
 
-        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-            // Add a header item
-            items.add(new RulesetItem("Header", "Header", "Description", "Teeth"));
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Skip empty lines
-                if (line.trim().isEmpty()) {
-                    continue;
-                }
-
+        populateRulesetMenuItems();
 
-                // Handle quoted fields (for description)
-                List<String> parts = new ArrayList<>();
-                StringBuilder sb = new StringBuilder();
-                boolean inQuotes = false;
-
-                for (int i = 0; i < line.length(); i++) {
-                    char c = line.charAt(i);
-
-                    if (c == '"') {
-                        inQuotes = !inQuotes;
-                        if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
-                            sb.append('"');
-                            i++;
-                        }
-                    } else if (c == ',' && !inQuotes) {
-                        parts.add(sb.toString());
-                        sb.setLength(0);
-                    } else {
-                        sb.append(c);
-                    }
-                }
-                parts.add(sb.toString());
-
-                if (parts.size() >= 2) {
-                    // New format: priority,diagnosis,teeth,codes,description,dependent,conditionalPriority,newPriority
-                    String priority = parts.get(0).trim();
-                    String diagnosis = "";
-                    String teethNumbers = "";
-                    String procedureCode = "";
-                    String description = "";
-
-                    if (parts.size() > 1 && !parts.get(1).trim().isEmpty()) {
-                        diagnosis = parts.get(1).trim();
-                    }
-                    if (parts.size() > 2 && !parts.get(2).trim().isEmpty()) {
-                        teethNumbers = parts.get(2).trim();
-                    }
-                    if (parts.size() > 3 && !parts.get(3).trim().isEmpty()) {
-                        procedureCode = parts.get(3).trim();
-                        if (!procedureCode.isEmpty()) {
-                            char first = Character.toUpperCase(procedureCode.charAt(0));
-                            if (first != 'D' && first != 'N') {
-                                procedureCode = "D" + procedureCode;
-                            }
-                        }
-                    }
-                    if (parts.size() > 4 && !parts.get(4).trim().isEmpty()) {
-                        description = parts.get(4).trim();
-                    }
-
-                    boolean dependent = false;
-                    if (parts.size() > 5 && !parts.get(5).trim().isEmpty()) {
-                        dependent = Boolean.parseBoolean(parts.get(5).trim());
-                    }
-
-                    String conditionalPriority = "";
-                    if (parts.size() > 6 && !parts.get(6).trim().isEmpty()) {
-                        conditionalPriority = parts.get(6).trim();
-                    }
-
-                    String newPriority = "";
-                    if (parts.size() > 7 && !parts.get(7).trim().isEmpty()) {
-                        newPriority = parts.get(7).trim();
-                    }
-
-                    // Handle old format files (priority,procedureCode,teethNumbers,diagnosis)
-                    if ((diagnosis.startsWith("D") || diagnosis.startsWith("N")) &&
-                            (procedureCode.isEmpty() ||
-                             !(procedureCode.startsWith("D") || procedureCode.startsWith("N")))) {
-                        // This is likely the old format
-                        procedureCode = diagnosis;
-                        diagnosis = parts.size() > 3 ? parts.get(3).trim() : "";
-                        teethNumbers = parts.size() > 2 ? parts.get(2).trim() : "";
-                    }
-
-                    if (description.isEmpty()) {
-                        try {
-                            if (!procedureCode.isEmpty()) {
-                                description = RiverGreenDB.getProcedureCodeDescription(procedureCode);
-                            }
-                        } catch (SQLException e) {
-                            LOGGER.log(Level.WARNING, "Error getting procedure description", e);
-                        }
-                    }
+        // Set default text if there are rulesets
+        if (!rulesets.isEmpty()) {
+            // Use the first ruleset as the default
+            String firstRuleset = rulesets.keySet().iterator().next();
+            currentRuleset = firstRuleset;
+            rulesetSelectMenuButton.setText("Ruleset " + firstRuleset);
+            rulesetSelectMenuButton.setDisable(false);
 
-                    RulesetItem item = new RulesetItem(priority, procedureCode, description, teethNumbers);
-                    if (!diagnosis.isEmpty()) {
-                        item.setDiagnosis(diagnosis);
-                    }
-                    item.setDependent(dependent);
-                    item.setConditionalPriority(conditionalPriority);
-                    item.setNewPriority(newPriority);
-                    items.add(item);
-                }
-            }
-        } catch (IOException e) {
-            LOGGER.log(Level.WARNING, "Error loading ruleset from file " + filepath, e);
+            // Don't automatically apply the default ruleset when the application starts
+            // This prevents automatic database updates on startup
+            // applyRuleset(currentRuleset);  // Commented out to prevent automatic application
+        } else {
+            rulesetSelectMenuButton.setText("No Rulesets Available");
+            rulesetSelectMenuButton.setDisable(true);
         }
-
-        return items;
     }
 
     /**
-     * Sets up the ruleset selection menu.
-     * Adds menu items for each ruleset and sets up the event handlers.
+     * Rebuilds the ruleset menu items without changing the selected ruleset.
      */
-    private void setupRulesetSelectMenu() {
-        if (rulesetSelectMenuButton == null) {
-            LOGGER.warning("Ruleset select menu button is null");
-            return;
-        }
-
+    private void populateRulesetMenuItems() {
         rulesetSelectMenuButton.getItems().clear();
 
         // Add menu items for all available rulesets
@@ -906,24 +974,44 @@ public class ControllerMain extends Controller {
             // Add the menu item to the menu button
             rulesetSelectMenuButton.getItems().add(item);
         }
+    }
 
-        // Set default text if there are rulesets
-        if (!rulesets.isEmpty()) {
-            // Use the first ruleset as the default
-            String firstRuleset = rulesets.keySet().iterator().next();
-            currentRuleset = firstRuleset;
-            rulesetSelectMenuButton.setText("Ruleset " + firstRuleset);
-            rulesetSelectMenuButton.setDisable(false);
+    /**
+     * Swaps in a ruleset reloaded by the ruleset watcher and updates the menu.
+     * The selection is kept unless the selected ruleset was removed.
+     *
+     * @param name The ruleset name
+     * @param ruleset The reloaded ruleset, or null if it was removed
+     */
+    private void onRulesetChanged(String name, RulesetRepository.Ruleset ruleset) {
+        SortedMap<String, RulesetRepository.Ruleset> updated = new TreeMap<>(rulesets);
+        if (ruleset != null) {
+            updated.put(name, ruleset);
+        } else {
+            updated.remove(name);
+        }
+        rulesets = Collections.unmodifiableSortedMap(updated);
 
-            // Don't automatically apply the default ruleset when the application starts
-            // This prevents automatic database updates on startup
-            // applyRuleset(currentRuleset);  // Commented out to prevent automatic application
+        if (rulesetSelectMenuButton == null) {
+            return;
+        }
+        if (rulesets.containsKey(currentRuleset)) {
+            populateRulesetMenuItems();
         } else {
-            rulesetSelectMenuButton.setText("No Rulesets Available");
-            rulesetSelectMenuButton.setDisable(true);
+            setupRulesetSelectMenu();
         }
     }
 
+    /**
+     * Gets the compiled form of the ruleset selected in the ruleset menu.
+     *
+     * @return The selected ruleset, or null if there is none
+     */
+    private CompiledRuleset getSelectedRuleset() {
+        RulesetRepository.Ruleset selected = rulesets.get(currentRuleset);
+        return selected != null ? selected.compiled() : null;
+    }
+
     /**
      * Applies the selected ruleset to the procedures list.
      * Updates the priorities and diagnoses of the procedures based on the ruleset.
@@ -932,194 +1020,32 @@ public class ControllerMain extends Controller {
      * @param rulesetName The name of the ruleset to apply
      */
     private void applyRuleset(String rulesetName) {
-        if (!rulesets.containsKey(rulesetName)) {
+        RulesetRepository.Ruleset selected = rulesets.get(rulesetName);
+        if (selected == null) {
             return;
         }
+        CompiledRuleset ruleset = selected.compiled();
 
-        List<RulesetItem> ruleset = rulesets.get(rulesetName);
+        // Check if the "Apply only to None treatments" checkbox is selected
+        boolean applyToNAOnly = applyToNAOnlyCheckBox != null && applyToNAOnlyCheckBox.isSelected();
 
         // Skip the header item (index 0)
-        for (int i = 1; i < ruleset.size(); i++) {
-            RulesetItem item = ruleset.get(i);
-            String procedureCodes = item.getProcedureCodes();
-            String priority = item.getPriority();
-            String diagnosis = item.getDiagnosis();
-            boolean isDependent = item.isDependent();
-            String conditionalPriority = item.getConditionalPriority();
-            String newPriority = item.getNewPriority();
-
-            // Only use diagnosis if it's explicitly specified in the ruleset
-            // Don't use description as fallback
-
-            // Get teeth information from the teethNumbers property
-            List<String> ruleTeeth = new ArrayList<>();
-            String teethNumbers = item.getTeethNumbers();
-            if (teethNumbers != null && !teethNumbers.isEmpty() && !teethNumbers.equalsIgnoreCase("None")) {
-                // Parse the teeth numbers in the new format (using - for ranges and ; as delimiters)
-                ruleTeeth = parseTeethNumbers(teethNumbers);
-            }
-
-            // Parse procedure codes into a list
-            List<String> ruleProcedureCodes = new ArrayList<>();
-            if (procedureCodes != null && !procedureCodes.isEmpty()) {
-                // Parse the procedure codes using the new method
-                ruleProcedureCodes = parseProcedureCodes(procedureCodes);
+        if (procedures.size() > 1) {
+            List<TreatmentPlanProcedure> plan = procedures.subList(1, procedures.size());
+            String[] before = new String[plan.size()];
+            for (int i = 0; i < plan.size(); i++) {
+                before[i] = plan.get(i).getPriority();
             }
 
-            // Counter for tracking how many items this rule is applied to
-            int appliedCount = 0;
-
-            // Update the priority of procedures with matching conditions (procedure code, teeth, and diagnosis)
-            for (int j = 1; j < procedures.size(); j++) { // Skip the header item (index 0)
-                TreatmentPlanProcedure procedure = procedures.get(j);
-
-                // Check if procedure code matches any of the codes in the rule
-                String procedureCode = procedure.getProcedureCode();
+            RulesetEngine.apply(ruleset, plan, applyToNAOnly);
 
-                boolean codeMatches = ruleProcedureCodes.isEmpty() || ruleProcedureCodes.contains(procedureCode);
-                if (codeMatches) {
-
-                    // Check if diagnosis matches (if specified in the rule)
-                    boolean diagnosisMatches = true;
-                    if (diagnosis != null && !diagnosis.isEmpty()) {
-                        String procedureDiagnosis = procedure.getDiagnosis();
-                        diagnosisMatches = diagnosis.equalsIgnoreCase(procedureDiagnosis);
-                    }
-
-                    if (diagnosisMatches) {
-                        // Check if the "Apply only to None treatments" checkbox is selected
-                        boolean applyToNAOnly = applyToNAOnlyCheckBox != null && applyToNAOnlyCheckBox.isSelected();
-                        boolean hasNAPriority = false;
-                        
-                        if (applyToNAOnly) {
-                            // Check if the procedure has none (null, empty, or "none") priority
-                            String currentPriority = procedure.getPriority();
-                            
-                            hasNAPriority = (currentPriority == null || currentPriority.isEmpty() || 
-                                           currentPriority.equalsIgnoreCase("none"));
-                        }
-                        
-                        // Only apply the rule if checkbox is not selected OR if procedure has None priority
-                        if (!applyToNAOnly || hasNAPriority) {
-                            String procedureTooth = procedure.getToothNumber();
-
-                            // If the rule has teeth specified, check if the procedure's tooth matches any of them
-                            if (!ruleTeeth.isEmpty()) {
-                                if (procedureTooth != null && !procedureTooth.isEmpty() && ruleTeeth.contains(procedureTooth)) {
-                                    // Check if this is a dependent rule
-                                    if (isDependent && conditionalPriority != null && !conditionalPriority.isEmpty()) {
-                                        // Look for procedures in treatment plan that would get the conditional priority and have same tooth
-                                        boolean dependencyFound = false;
-                                        
-                                        // Find the rule that assigns the conditional priority
-                                        RulesetItem conditionalRule = null;
-                                        for (int r = 1; r < ruleset.size(); r++) {
-                                            RulesetItem ruleItem = ruleset.get(r);
-                                            if (conditionalPriority.equalsIgnoreCase(ruleItem.getPriority())) {
-                                                conditionalRule = ruleItem;
-                                                break;
-                                            }
-                                        }
-                                        
-                                        if (conditionalRule != null) {
-                                            List<String> conditionalCodes = parseProcedureCodes(conditionalRule.getProcedureCodes());
-                                            List<String> conditionalTeeth = parseTeethNumbers(conditionalRule.getTeethNumbers());
-                                            
-                                            // Check if any procedure with same tooth matches the conditional rule criteria
-                                            for (int k = 1; k < procedures.size(); k++) {
-                                                if (k != j) { // Don't check the same procedure
-                                                    TreatmentPlanProcedure otherProcedure = procedures.get(k);
-                                                    String otherTooth = otherProcedure.getToothNumber();
-                                                    String otherCode = otherProcedure.getProcedureCode();
-                                                    
-                                                    // Check if this procedure matches the conditional rule criteria and has the same tooth
-                                                    boolean codeMatchesConditional = !conditionalCodes.isEmpty() && conditionalCodes.contains(otherCode);
-                                                    boolean toothMatchesConditional = conditionalTeeth.isEmpty() || conditionalTeeth.contains(otherTooth);
-                                                    boolean sameToothAsCurrent = procedureTooth.equals(otherTooth);
-
-                                                    if (codeMatchesConditional && toothMatchesConditional && sameToothAsCurrent) {
-                                                        dependencyFound = true;
-                                                        break;
-                                                    }
-                                                }
-                                            }
-                                        }
-                                        
-                                        if (dependencyFound) {
-                                            // Replace priority with new priority
-                                            procedure.setPriority(newPriority);
-                                            appliedCount++;
-                                        } else {
-                                            // Apply normal priority since dependency not found
-                                            procedure.setPriority(priority);
-                                            appliedCount++;
-                                        }
-                                    } else {
-                                        // Normal rule - Update priority if procedure code, diagnosis, and tooth all match
-                                        procedure.setPriority(priority);
-                                        appliedCount++;
-                                    }
-                                }
-                            } else {
-                                // If the rule doesn't specify teeth, update all procedures with matching code and diagnosis
-                                if (isDependent && conditionalPriority != null && !conditionalPriority.isEmpty()) {
-                                    // Look for procedures in treatment plan that would get the conditional priority on the same tooth
-                                    boolean dependencyFound = false;
-
-                                    // Find the rule that assigns the conditional priority
-                                    RulesetItem conditionalRule = null;
-                                    for (int r = 1; r < ruleset.size(); r++) {
-                                        RulesetItem ruleItem = ruleset.get(r);
-                                        if (conditionalPriority.equalsIgnoreCase(ruleItem.getPriority())) {
-                                            conditionalRule = ruleItem;
-                                            break;
-                                        }
-                                    }
-
-                                    if (conditionalRule != null) {
-                                        List<String> conditionalCodes = parseProcedureCodes(conditionalRule.getProcedureCodes());
-                                        List<String> conditionalTeeth = parseTeethNumbers(conditionalRule.getTeethNumbers());
-
-                                        // Check if any procedure with the same tooth matches the conditional rule criteria
-                                        for (int k = 1; k < procedures.size(); k++) {
-                                            if (k != j) { // Don't check the same procedure
-                                                TreatmentPlanProcedure otherProcedure = procedures.get(k);
-                                                String otherTooth = otherProcedure.getToothNumber();
-                                                String otherCode = otherProcedure.getProcedureCode();
-
-                                                // Check if this procedure matches the conditional rule criteria and has the same tooth
-                                                boolean codeMatchesConditional = !conditionalCodes.isEmpty() && conditionalCodes.contains(otherCode);
-                                                boolean toothMatchesConditional = conditionalTeeth.isEmpty() || conditionalTeeth.contains(otherTooth);
-                                                boolean sameToothAsCurrent = procedureTooth != null && !procedureTooth.isEmpty() && procedureTooth.equals(otherTooth);
-
-                                                if (codeMatchesConditional && toothMatchesConditional && sameToothAsCurrent) {
-                                                    dependencyFound = true;
-                                                    break;
-                                                }
-                                            }
-                                        }
-                                    }
-
-                                    if (dependencyFound) {
-                                        // Replace priority with new priority
-                                        procedure.setPriority(newPriority);
-                                        appliedCount++;
-                                    } else {
-                                        // Apply normal priority since dependency not found
-                                        procedure.setPriority(priority);
-                                        appliedCount++;
-                                    }
-                                } else {
-                                    // Normal rule - No teeth specified in ruleset, applying priority
-                                    procedure.setPriority(priority);
-                                    appliedCount++;
-                                }
-                            }
-                        }
-                    }
+            // Ruleset results stay in the list until 'Ok', even in write-behind mode,
+            // so 'Cancel' and 'Reset' can still discard them
+            for (int i = 0; i < plan.size(); i++) {
+                if (!Objects.equals(before[i], plan.get(i).getPriority())) {
+                    rulesetChanges.add(plan.get(i).getProcedureNumber());
                 }
             }
-
         }
 
         // Refresh the list view to show the updated priorities and diagnoses
@@ -1130,68 +1056,227 @@ public class ControllerMain extends Controller {
     }
 
     /**
-     * Parses teeth numbers from the new format (using - for ranges and ; as delimiters).
-     * Example: "1-3;4;5;6-10" will return a list containing "1", "2", "3", "4", "5", "6", "7", "8", "9", "10"
-     *
-     * @param teethNumbers The teeth numbers in the new format
-     * @return A list of individual tooth numbers
+     * Saves the current procedures to the database.
+     * The save runs on a background thread while a progress window is shown;
+     * the outcome reported to the user reflects the actual database results.
+     * This method is called when the user clicks the 'Ok' button.
      */
-    private List<String> parseTeethNumbers(String teethNumbers) {
-        List<String> result = new ArrayList<>();
-        if (teethNumbers == null || teethNumbers.isEmpty()) {
-            return result;
-        }
-        List<Integer> numbers = TeethNotationUtil.expandTeeth(teethNumbers);
-        for (Integer num : numbers) {
-            result.add(String.valueOf(num));
-        }
-        return result;
+    private void saveChangesToDatabase() {
+        saveChangesToDatabase(null);
     }
 
     /**
-     * Parses procedure codes from a string that may contain ranges.
-     * Example: "3000-3999,4000,5000-5010" will return a list containing "D3000", "D3001", ..., "D3999", "D4000", "D5000", ..., "D5010"
+     * Saves the current procedures to the database, then runs an action if the save succeeded.
      *
-     * @param procedureCodes The procedure codes string that may contain ranges
-     * @return A list of individual procedure codes
+     * @param afterSave Run on the JavaFX thread after a successful save, or null
      */
-    private List<String> parseProcedureCodes(String procedureCodes) {
-        if (procedureCodes == null || procedureCodes.isEmpty()) {
-            return new ArrayList<>();
+    private void saveChangesToDatabase(Runnable afterSave) {
+        // In write-behind mode the list clicks are already queued; saving adds the ruleset's
+        // results and writes them all now
+        if (isWriteBehindEnabled()) {
+            for (int i = 1; i < procedures.size(); i++) {
+                if (rulesetChanges.contains(procedures.get(i).getProcedureNumber())) {
+                    queueEdit(procedures.get(i), WriteBehindQueue.Column.PRIORITY);
+                }
+            }
+            rulesetChanges.clear();
+            flushWriteBehindEdits(afterSave);
+            return;
         }
-        return DentalCodeUtil.expandDentalCodes(procedureCodes);
-    }
 
-    /**
-     * Saves the current procedures to the database.
-     * This method is called when the user clicks the 'Ok' button.
-     */
-    private void saveChangesToDatabase() {
-        // Get the patient number from the data cache
-        Integer patientNumber = (Integer) SceneSwitcher.getInstance().getData("patientNumber");
+        // Save under the patient whose plan is shown; the shared data may already name the next one
+        Integer patientNumber = shownPatientNumber;
         if (patientNumber == null) {
             return;
         }
 
-        // Get all items from the list view (excluding the header)
+        // Snapshot all items from the list view (excluding the header) so the
+        // background thread never reads properties the user is still editing
         List<TreatmentPlanProcedure> allProcedures = new ArrayList<>();
         for (int i = 1; i < listView.getItems().size(); i++) { // Start from 1 to skip header
             TreatmentPlanProcedure procedure = listView.getItems().get(i);
-            allProcedures.add(procedure);
+            allProcedures.add(new TreatmentPlanProcedure(
+                procedure.getPriority(),
+                procedure.getToothNumber(),
+                procedure.getSurface(),
+                procedure.getProcedureCode(),
+                procedure.getDiagnosis(),
+                procedure.getDescription(),
+                procedure.getFee(),
+                procedure.getProcedureNumber()
+            ));
         }
 
         if (allProcedures.isEmpty()) {
+            if (afterSave != null) {
+                afterSave.run();
+            }
             return;
         }
 
-        // Update the existing treatment plan
-        updateExistingTreatmentPlan(patientNumber, allProcedures);
+        Task<Map<String, Object>> saveTask = new Task<>() {
+            @Override
+            protected Map<String, Object> call() {
+                updateMessage("Saving " + allProcedures.size() + " procedures...");
+                return RiverGreenDB.updateTreatmentPlanProcedures(patientNumber, allProcedures,
+                        (completed, total) -> updateProgress(completed, total));
+            }
+        };
 
-        // Don't reload the procedures from the database after saving
-        // This prevents the priorities from being lost during the reload
+        Stage progressStage = showProgressWindow(saveTask, "Saving Changes");
+        okButton.setDisable(true);
 
-        // Instead, just refresh the list view to show the updated priorities
-        listView.refresh();
+        saveTask.setOnSucceeded(event -> {
+            progressStage.close();
+            okButton.setDisable(false);
+
+            Map<String, Object> results = saveTask.getValue();
+            logSaveResults(patientNumber, results);
+
+            // A plan of this patient prefetched before the save is out of date
+            PatientPlanCache.getInstance().invalidate(patientNumber);
+
+            // Don't reload the procedures from the database after saving
+            // This prevents the priorities from being lost during the reload
+            listView.refresh();
+
+            showSaveOutcome(results);
+            if ((int) results.get("failureCount") == 0) {
+                rememberSaved(allProcedures);
+                if (afterSave != null) {
+                    afterSave.run();
+                }
+            }
+        });
+
+        saveTask.setOnFailed(event -> {
+            progressStage.close();
+            okButton.setDisable(false);
+
+            Throwable error = saveTask.getException();
+            LOGGER.log(Level.SEVERE, "Saving changes failed", error);
+
+            Alert alert = new Alert(Alert.AlertType.ERROR);
+            alert.setTitle("Save Failed");
+            alert.setHeaderText("Changes were not saved");
+            alert.setContentText("An unexpected error occurred: " + error.getMessage());
+            alert.showAndWait();
+        });
+
+        BackgroundTasks.writeExecutor().execute(saveTask);
+    }
+
+    /**
+     * Handles the Record Performance Data menu item action.
+     * Starts a Flight Recorder recording, or stops it and saves it to the app data directory.
+     */
+    @FXML
+    private void handleRecordingAction() {
+        RecordingMenu.toggle(recordingMenuItem);
+    }
+
+    /**
+     * Handles the Save Edits Automatically menu item action.
+     * When enabled, priority and diagnosis edits are written in the background shortly after
+     * the user stops editing instead of all at once when 'Ok' is clicked.
+     */
+    @FXML
+    private void handleWriteBehindAction() {
+        boolean enabled = isWriteBehindEnabled();
+        SceneSwitcher.getInstance().putData("writeBehindEnabled", enabled);
+        LOGGER.info("Write-behind edits " + (enabled ? "enabled" : "disabled"));
+    }
+
+    private boolean isWriteBehindEnabled() {
+        return writeBehindMenuItem != null && writeBehindMenuItem.isSelected();
+    }
+
+    /**
+     * Queues the procedure's current value for the column when write-behind mode is enabled,
+     * made over the value the procedure was loaded with.
+     *
+     * @param procedure The edited procedure
+     * @param column The edited column
+     */
+    private void queueEdit(TreatmentPlanProcedure procedure, WriteBehindQueue.Column column) {
+        if (!isWriteBehindEnabled()) {
+            return;
+        }
+        String base = null;
+        for (TreatmentPlanProcedure initial : initialProcedures) {
+            if (initial.getProcedureNumber() == procedure.getProcedureNumber()) {
+                base = columnValue(initial, column);
+                break;
+            }
+        }
+        WriteBehindQueue.getInstance().record(procedure.getProcedureNumber(), column, base, columnValue(procedure, column));
+    }
+
+    private static String columnValue(TreatmentPlanProcedure procedure, WriteBehindQueue.Column column) {
+        return column == WriteBehindQueue.Column.PRIORITY ? procedure.getPriority() : procedure.getDiagnosis();
+    }
+
+    /**
+     * Writes the queued write-behind edits in the background and reports the outcome.
+     *
+     * @param afterSave Run on the JavaFX thread after the edits were written, or null
+     */
+    private void flushWriteBehindEdits(Runnable afterSave) {
+        Task<RiverGreenDB.GuardedWrite> flushTask = new Task<>() {
+            @Override
+            protected RiverGreenDB.GuardedWrite call() throws SQLException {
+                updateMessage("Saving pending edits...");
+                updateProgress(-1, 1);
+                return WriteBehindQueue.getInstance().flush();
+            }
+        };
+
+        Stage progressStage = showProgressWindow(flushTask, "Saving Changes");
+        okButton.setDisable(true);
+
+        flushTask.setOnSucceeded(event -> {
+            progressStage.close();
+            okButton.setDisable(false);
+
+            RiverGreenDB.GuardedWrite result = flushTask.getValue();
+            if (!result.conflicts().isEmpty()) {
+                Alert alert = new Alert(Alert.AlertType.WARNING);
+                alert.setTitle("Edits Not Saved");
+                alert.setHeaderText("Some procedures were changed in OpenDental");
+                alert.setContentText("Edits to " + result.conflicts().size() + " procedures were not saved because "
+                        + "they were changed by someone else after you edited them. Reopen the patient to see their "
+                        + "current values." + (result.updated() > 0
+                        ? "\n\nSaved edits for " + result.updated() + " other procedures." : ""));
+                alert.showAndWait();
+            } else {
+                Alert alert = new Alert(Alert.AlertType.INFORMATION);
+                alert.setTitle("Success");
+                alert.setHeaderText(null);
+                alert.setContentText(result.updated() > 0
+                        ? "Saved pending edits for " + result.updated() + " procedures."
+                        : "All changes have already been saved.");
+                alert.showAndWait();
+            }
+            if (afterSave != null) {
+                afterSave.run();
+            }
+        });
+
+        flushTask.setOnFailed(event -> {
+            progressStage.close();
+            okButton.setDisable(false);
+
+            Throwable error = flushTask.getException();
+            LOGGER.log(Level.SEVERE, "Saving pending edits failed", error);
+
+            Alert alert = new Alert(Alert.AlertType.ERROR);
+            alert.setTitle("Save Failed");
+            alert.setHeaderText("Pending edits were not saved");
+            alert.setContentText(error.getMessage() + "\n\nThe edits are kept and will be retried automatically.");
+            alert.showAndWait();
+        });
+
+        BackgroundTasks.writeExecutor().execute(flushTask);
     }
 
     /**
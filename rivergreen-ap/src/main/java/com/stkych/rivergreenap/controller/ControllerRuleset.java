@@ -4,19 +4,27 @@ import com.stkych.rivergreenap.RiverGreenDB;
 import com.stkych.rivergreenap.DatabaseConfig;
 import com.stkych.rivergreenap.SceneSwitcher;
 import com.stkych.rivergreenap.controller.cells.RulesetItemCellFactory;
+import com.stkych.rivergreenap.engine.CompiledRuleset;
+import com.stkych.rivergreenap.engine.RuleIndex;
+import com.stkych.rivergreenap.engine.RulesetEditLog;
+import com.stkych.rivergreenap.engine.RulesetRepository;
+import com.stkych.rivergreenap.engine.RulesetWatcher;
 import com.stkych.rivergreenap.model.RulesetItem;
 import com.stkych.rivergreenap.util.DentalCodeUtil;
 import com.stkych.rivergreenap.util.FileUtils;
+import com.stkych.rivergreenap.util.PriorityOrder;
 import com.stkych.rivergreenap.util.TeethNotationUtil;
+import javafx.application.Platform;
 import javafx.collections.FXCollections;
+import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
+import javafx.collections.transformation.FilteredList;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
 import javafx.fxml.Initializable;
 import javafx.geometry.Insets;
 import javafx.scene.Parent;
 import javafx.scene.control.*;
-import javafx.scene.layout.GridPane;
 import javafx.stage.Stage;
 
 import java.io.*;
@@ -30,7 +38,7 @@ import java.util.logging.Logger;
  * Controller for the ruleset window.
  * Handles the UI interactions and implements the business logic for the ruleset window.
  */
-public class ControllerRuleset implements Initializable {
+public class ControllerRuleset implements Initializable, SceneSwitcher.ShowHandler {
     private static final Logger LOGGER = Logger.getLogger(ControllerRuleset.class.getName());
 
     @FXML
@@ -42,6 +50,9 @@ public class ControllerRuleset implements Initializable {
     @FXML
     private MenuButton rulesetSelectMenuButton;
 
+    @FXML
+    private TextField filterField;
+
     @FXML
     private Button newButton;
 
@@ -54,8 +65,15 @@ public class ControllerRuleset implements Initializable {
     @FXML
     private Button okButton;
 
+    @FXML
+    private CheckMenuItem recordingMenuItem;
+
     private ObservableList<RulesetItem> rulesetItems = FXCollections.observableArrayList();
-    private Map<String, List<RulesetItem>> rulesets = new HashMap<>();
+    // The items shown in the list view: all of them, or those matching the filter
+    private final FilteredList<RulesetItem> visibleItems = new FilteredList<>(rulesetItems);
+    // Index of the current items for the filter; rebuilt when they change
+    private RuleIndex filterIndex;
+    private Map<String, List<RulesetItem>> rulesets = new LinkedHashMap<>();
     private String currentRuleset = "A";
 
     /**
@@ -69,7 +87,16 @@ public class ControllerRuleset implements Initializable {
     public void initialize(URL location, ResourceBundle resources) {
         // Set up the ListView with the cell factory
         listView.setCellFactory(new RulesetItemCellFactory());
-        listView.setItems(rulesetItems);
+        listView.setItems(visibleItems);
+
+        // Filter the list as the user types, and again after every edit
+        filterField.textProperty().addListener((observable, oldText, newText) -> applyFilter());
+        rulesetItems.addListener((ListChangeListener<RulesetItem>) change -> {
+            filterIndex = null;
+            if (!filterField.getText().isBlank()) {
+                applyFilter();
+            }
+        });
 
         // Set up the button handlers
         setupButtonHandlers();
@@ -83,37 +110,82 @@ public class ControllerRuleset implements Initializable {
         // Load the selected ruleset
         loadRuleset(currentRuleset);
 
+        // Pick up ruleset files added or removed while this window is open
+        RulesetWatcher.getInstance().addListener("ruleset",
+                (name, ruleset) -> Platform.runLater(() -> onRulesetChanged(name, ruleset)));
+
         // Update the window title
         patientNameLabel.setText("Ruleset Configuration");
 
-        // Add a listener to the scene property to set up the focus listener once the scene is available
+        // Refresh after the ruleset configuration popup changed rulesets, once this window regains focus.
+        // The scene gets its window after it is created, so wait for both.
         listView.sceneProperty().addListener((observable, oldScene, newScene) -> {
             if (newScene != null) {
-                // Now that the scene is available, we can get the window and add the focus listener
-                Stage stage = (Stage) newScene.getWindow();
-                stage.focusedProperty().addListener((obs, oldValue, newValue) -> {
-                    if (newValue) { // When the window regains focus
-                        Boolean refreshFlag = (Boolean) SceneSwitcher.getInstance().getData("refreshRulesetWindow");
-                        if (refreshFlag != null && refreshFlag) {
-                            // Refresh the ruleset window
-                            loadRulesets();
-                            setupRulesetSelectMenu();
-                            loadRuleset(currentRuleset);
-
-                            // Clear the flag
-                            SceneSwitcher.getInstance().removeData("refreshRulesetWindow");
-                        }
+                newScene.windowProperty().addListener((windowObservable, oldWindow, newWindow) -> {
+                    if (newWindow != null) {
+                        newWindow.focusedProperty().addListener((obs, oldValue, newValue) -> {
+                            if (newValue) {
+                                refreshIfRequested();
+                            }
+                        });
                     }
                 });
             }
         });
     }
 
+    /**
+     * Called each time the window is shown; picks up changes made by the ruleset configuration popup.
+     * The rulesets themselves are kept current by the ruleset watcher.
+     *
+     * @param data The data passed between scenes
+     */
+    @Override
+    public void onShow(Map<String, Object> data) {
+        RecordingMenu.sync(recordingMenuItem);
+        refreshIfRequested();
+    }
+
+    /**
+     * Reloads the rulesets if the ruleset configuration popup asked for it.
+     */
+    private void refreshIfRequested() {
+        Boolean refreshFlag = (Boolean) SceneSwitcher.getInstance().getData("refreshRulesetWindow");
+        if (refreshFlag != null && refreshFlag) {
+            // Refresh the ruleset window
+            loadRulesets();
+            setupRulesetSelectMenu();
+            loadRuleset(currentRuleset);
+
+            // Clear the flag
+            SceneSwitcher.getInstance().removeData("refreshRulesetWindow");
+        }
+    }
+
     /**
      * Sets up the ruleset selection menu.
      * Adds menu items for each ruleset and sets up the event handlers.
      */
     private void setupRulesetSelectMenu() {
+        populateRulesetMenuItems();
+
+        // Set default text if there are rulesets
+        if (!rulesets.isEmpty()) {
+            // Use the first ruleset as the default
+            String firstRuleset = rulesets.keySet().iterator().next();
+            currentRuleset = firstRuleset;
+            rulesetSelectMenuButton.setText("Ruleset " + firstRuleset);
+            rulesetSelectMenuButton.setDisable(false);
+        } else {
+            rulesetSelectMenuButton.setText("No Rulesets Available");
+            rulesetSelectMenuButton.setDisable(true);
+        }
+    }
+
+    /**
+     * Rebuilds the ruleset menu items without changing the selected ruleset.
+     */
+    private void populateRulesetMenuItems() {
         rulesetSelectMenuButton.getItems().clear();
 
         // Add menu items for all available rulesets
@@ -130,17 +202,28 @@ public class ControllerRuleset implements Initializable {
             // Add the menu item to the menu button
             rulesetSelectMenuButton.getItems().add(item);
         }
+    }
 
-        // Set default text if there are rulesets
-        if (!rulesets.isEmpty()) {
-            // Use the first ruleset as the default
-            String firstRuleset = rulesets.keySet().iterator().next();
-            currentRuleset = firstRuleset;
-            rulesetSelectMenuButton.setText("Ruleset " + firstRuleset);
-            rulesetSelectMenuButton.setDisable(false);
+    /**
+     * Applies a ruleset reloaded by the ruleset watcher.
+     * The ruleset open in this window keeps its in-memory items, since this window's own saves
+     * also arrive here; other rulesets are replaced so switching to them shows the file's contents.
+     *
+     * @param name The ruleset name
+     * @param ruleset The reloaded ruleset, or null if it was removed
+     */
+    private void onRulesetChanged(String name, RulesetRepository.Ruleset ruleset) {
+        if (ruleset == null) {
+            rulesets.remove(name);
+        } else if (!name.equals(currentRuleset) || !rulesets.containsKey(name)) {
+            rulesets.put(name, ruleset.copyItems());
+        }
+
+        if (rulesets.containsKey(currentRuleset)) {
+            populateRulesetMenuItems();
         } else {
-            rulesetSelectMenuButton.setText("No Rulesets Available");
-            rulesetSelectMenuButton.setDisable(true);
+            setupRulesetSelectMenu();
+            loadRuleset(currentRuleset);
         }
     }
 
@@ -252,11 +335,7 @@ public class ControllerRuleset implements Initializable {
 
         // Show the dialog and process the result
         Optional<RulesetItem> result = dialog.showAndWait();
-        result.ifPresent(item -> {
-            rulesetItems.add(item);
-            sortRulesetItems();
-            saveRuleset(currentRuleset);
-        });
+        result.ifPresent(this::addRulesetItem);
     }
 
     /**
@@ -405,10 +484,8 @@ public class ControllerRuleset implements Initializable {
         Optional<RulesetItem> result = dialog.showAndWait();
         result.ifPresent(updatedItem -> {
             // Replace the selected item with the updated item
-            int selectedIndex = listView.getSelectionModel().getSelectedIndex();
-            rulesetItems.set(selectedIndex, updatedItem);
-            sortRulesetItems();
-            saveRuleset(currentRuleset);
+            int selectedIndex = visibleItems.getSourceIndex(listView.getSelectionModel().getSelectedIndex());
+            replaceRulesetItem(selectedIndex, updatedItem);
         });
     }
 
@@ -480,8 +557,9 @@ public class ControllerRuleset implements Initializable {
         // Process the result
         Optional<ButtonType> result = alert.showAndWait();
         if (result.isPresent() && result.get() == ButtonType.OK) {
-            rulesetItems.remove(selectedItem);
-            saveRuleset(currentRuleset);
+            int index = visibleItems.getSourceIndex(listView.getSelectionModel().getSelectedIndex());
+            rulesetItems.remove(index);
+            logEdit(log -> log.remove(index - 1));
         }
     }
 
@@ -491,7 +569,12 @@ public class ControllerRuleset implements Initializable {
      */
     @FXML
     private void handleOkButtonAction() {
-        saveRuleset(currentRuleset);
+        // Write edits still waiting in the edit log so the main window starts from them
+        try {
+            RulesetEditLog.forRuleset(currentRuleset).compact();
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Unexpected error", e);
+        }
         try {
             SceneSwitcher.getInstance().switchScene("main", "RiverGreen AP");
         } catch (IOException e) {
@@ -502,7 +585,7 @@ public class ControllerRuleset implements Initializable {
 
     /**
      * Handles the Select Patient menu item action.
-     * Opens a dialog to enter a patient number and reloads the application with that patient.
+     * Opens a dialog to enter a patient number and shows that patient in the main window.
      */
     @FXML
     private void handleSelectPatientAction() {
@@ -523,7 +606,7 @@ public class ControllerRuleset implements Initializable {
                 // Store the new patient number in the data cache
                 SceneSwitcher.getInstance().putData("patientNumber", patientNumber);
 
-                // Reload the main scene with the new patient number
+                // Show the main scene, which loads the new patient into the existing window
                 SceneSwitcher.getInstance().switchScene("main", "RiverGreen Dental Application");
 
             } catch (NumberFormatException e) {
@@ -675,328 +758,243 @@ public class ControllerRuleset implements Initializable {
     private void handleAboutAction() {
         LOGGER.info("About menu item clicked");
 
-        // Create an alert dialog
-        Alert alert = new Alert(Alert.AlertType.INFORMATION);
-        alert.setTitle("About RiverGreen Dental Application");
-        alert.setHeaderText("RiverGreen Dental Application");
-        alert.setContentText("Version 1.0\n\nA dental treatment planning application for automating procedure priorities.");
-
-        // Add more detailed information in an expandable area
-        Label label = new Label("Additional Information:");
-        TextArea textArea = new TextArea(
-            "RiverGreen Dental Application\n" +
-            "Version 1.0\n\n" +
-            "This application helps dental professionals manage treatment plans by automatically prioritizing procedures based on configurable rulesets.\n\n" +
-            "Features:\n" +
-            "- Patient-specific treatment plans\n" +
-            "- Configurable priority rulesets\n" +
-            "- Drag-and-drop procedure reordering\n" +
-            "- Database integration\n\n" +
-            "© 2025 RiverGreen Dental"
-        );
-        textArea.setEditable(false);
-        textArea.setWrapText(true);
-        textArea.setPrefHeight(200);
-
-        GridPane expContent = new GridPane();
-        expContent.setMaxWidth(Double.MAX_VALUE);
-        expContent.add(label, 0, 0);
-        expContent.add(textArea, 0, 1);
-
-        alert.getDialogPane().setExpandableContent(expContent);
-        alert.getDialogPane().setExpanded(true);
+        AboutDialog.show();
+    }
 
-        alert.showAndWait();
+    /**
+     * Handles the Record Performance Data menu item action.
+     * Starts a Flight Recorder recording, or stops it and saves it to the app data directory.
+     */
+    @FXML
+    private void handleRecordingAction() {
+        RecordingMenu.toggle(recordingMenuItem);
     }
 
     /**
-     * Loads all rulesets from CSV files.
+     * Loads all rulesets from the ruleset repository.
+     * The repository's cached items are shared, so this window edits copies of them.
      * No longer creates default rulesets if none are found.
      */
     private void loadRulesets() {
         // Clear existing rulesets
         rulesets.clear();
 
-        // Migrate ruleset files from the current directory to the ruleset directory
-        FileUtils.migrateRulesetFiles();
-
-        // Look for ruleset files in the ruleset directory
-        File rulesetDir = FileUtils.getRulesetDirectory();
-        File[] files = rulesetDir.listFiles((dir, name) -> name.startsWith("ruleset") && name.endsWith(".csv"));
-
-        if (files != null) {
-            for (File file : files) {
-                String filename = file.getName();
-                // Extract the ruleset name (between "ruleset" and ".csv")
-                String rulesetName = filename.substring(7, filename.length() - 4);
-
-                // Load the ruleset
-                List<RulesetItem> rulesetItems = loadRulesetFromFile(file.getAbsolutePath());
-                if (!rulesetItems.isEmpty()) {
-                    rulesets.put(rulesetName, rulesetItems);
-                }
-            }
+        for (RulesetRepository.Ruleset ruleset : RulesetRepository.getInstance().snapshot().values()) {
+            rulesets.put(ruleset.name(), ruleset.copyItems());
         }
-
-        // No longer creating default rulesets if none are found
     }
 
     /**
-     * Loads a ruleset from a CSV file.
+     * Loads a ruleset into the ListView.
      *
-     * @param filename The name of the CSV file
-     * @return The list of ruleset items
+     * @param rulesetName The name of the ruleset to load
      */
-    private List<RulesetItem> loadRulesetFromFile(String filename) {
-        List<RulesetItem> items = new ArrayList<>();
-        File file = new File(filename);
-
-        if (!file.exists()) {
-            // Add a header item
-            items.add(new RulesetItem("Header", "Header", "Description", "Teeth"));
-            return items;
+    private void loadRuleset(String rulesetName) {
+        rulesetItems.clear();
+        List<RulesetItem> ruleset = rulesets.get(rulesetName);
+        if (ruleset != null) {
+            rulesetItems.addAll(ruleset);
         }
+    }
 
-        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-            // Add a header item
-            items.add(new RulesetItem("Header", "Header", "Description", "Teeth"));
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Skip empty lines
-                if (line.trim().isEmpty()) {
-                    continue;
-                }
-
-
-                // Handle quoted fields (for description)
-                List<String> parts = new ArrayList<>();
-                StringBuilder sb = new StringBuilder();
-                boolean inQuotes = false;
-
-                for (int i = 0; i < line.length(); i++) {
-                    char c = line.charAt(i);
-
-                    if (c == '\"') {
-                        // If we see a quote, toggle the inQuotes flag
-                        inQuotes = !inQuotes;
-                        // If it's a double quote, add a single quote to the field
-                        if (i + 1 < line.length() && line.charAt(i + 1) == '\"') {
-                            sb.append('\"');
-                            i++; // Skip the next quote
-                        }
-                    } else if (c == ',' && !inQuotes) {
-                        // If we see a comma and we're not in quotes, end the current field
-                        parts.add(sb.toString());
-                        sb.setLength(0);
-                    } else {
-                        // Otherwise, add the character to the current field
-                        sb.append(c);
-                    }
-                }
-
-                // Add the last field
-                parts.add(sb.toString());
-
-                if (parts.size() >= 2) {
-                    // New format: priority,diagnosis,teeth,codes,description
-                    String priority = parts.get(0).trim();
-                    String diagnosis = "";
-                    String teethNumbers = "";
-                    String procedureCode = "";
-                    String description = "";
-
-                    // Get diagnosis if present
-                    if (parts.size() > 1 && !parts.get(1).trim().isEmpty()) {
-                        diagnosis = parts.get(1).trim();
-                    }
-
-                    // Get teeth numbers if present
-                    if (parts.size() > 2 && !parts.get(2).trim().isEmpty()) {
-                        teethNumbers = parts.get(2).trim();
-                    }
-
-                    // Get procedure codes if present
-                    if (parts.size() > 3 && !parts.get(3).trim().isEmpty()) {
-                        String rawCodes = parts.get(3).trim();
-
-                        // Process semicolon-separated procedure codes
-                        String[] codes = rawCodes.split(";");
-
-                        StringBuilder formattedCodes = new StringBuilder();
-                        for (int i = 0; i < codes.length; i++) {
-                            String code = codes[i].trim();
-
-                            // Add letter prefix if missing (default to D)
-                            if (!code.isEmpty()) {
-                                char first = Character.toUpperCase(code.charAt(0));
-                                if (first != 'D' && first != 'N') {
-                                    code = "D" + code;
-                                }
-                            }
-                            formattedCodes.append(code);
-                            if (i < codes.length - 1) {
-                                formattedCodes.append(",");
-                            }
-                        }
-                        procedureCode = formattedCodes.toString();
-                    }
-
-                    // Get description if present
-                    if (parts.size() > 4 && !parts.get(4).trim().isEmpty()) {
-                        description = parts.get(4).trim();
-                    }
-
-                    // Get dependent flag if present (position 5)
-                    boolean dependent = false;
-                    if (parts.size() > 5 && !parts.get(5).trim().isEmpty()) {
-                        dependent = Boolean.parseBoolean(parts.get(5).trim());
-                    }
-
-                    // Get conditional priority if present (position 6)
-                    String conditionalPriority = "";
-                    if (parts.size() > 6 && !parts.get(6).trim().isEmpty()) {
-                        conditionalPriority = parts.get(6).trim();
-                    }
-
-                    // Get new priority if present (position 7)
-                    String newPriority = "";
-                    if (parts.size() > 7 && !parts.get(7).trim().isEmpty()) {
-                        newPriority = parts.get(7).trim();
-                    }
+    /**
+     * Saves a whole ruleset to its CSV file, normalizing every item.
+     * Single edits go through {@link #logEdit(RulesetEdit)} instead.
+     *
+     * @param rulesetName The name of the ruleset to save
+     */
+    private void saveRuleset(String rulesetName) {
+        List<String[]> records = new ArrayList<>(rulesetItems.size());
+        for (int i = 1; i < rulesetItems.size(); i++) {
+            records.add(toRecord(rulesetItems.get(i)));
+        }
 
+        try {
+            RulesetEditLog.forRuleset(rulesetName).rewrite(records);
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Unexpected error", e);
+        }
 
-                    // Handle old format files (priority,procedureCode,teethNumbers,diagnosis)
-                    // Check if we have a valid procedure code in the second position
-                    if (diagnosis.startsWith("D") && (procedureCode.isEmpty() || !procedureCode.startsWith("D"))) {
-                        // This is likely the old format
-                        procedureCode = diagnosis;
-                        diagnosis = parts.size() > 3 ? parts.get(3).trim() : "";
-                        teethNumbers = parts.size() > 2 ? parts.get(2).trim() : "";
-                    }
+        // Update the rulesets map
+        List<RulesetItem> items = new ArrayList<>(rulesetItems);
+        rulesets.put(rulesetName, items);
+    }
 
-                    // If description is empty, fetch from the database
-                    if (description.isEmpty()) {
-                        try {
-                            if (!procedureCode.isEmpty()) {
-                                description = RiverGreenDB.getProcedureCodeDescription(procedureCode);
-                            }
-                        } catch (SQLException e) {
-                            // If there's an error, use an empty description
-                            LOGGER.log(Level.SEVERE, "Unexpected error", e);
-                        }
-                    }
+    /**
+     * An edit to the current ruleset's file, expressed as inserts and removals of records.
+     */
+    @FunctionalInterface
+    private interface RulesetEdit {
+        void applyTo(RulesetEditLog log) throws IOException;
+    }
 
-                    RulesetItem item = new RulesetItem(priority, procedureCode, description, teethNumbers);
-                    if (!diagnosis.isEmpty()) {
-                        item.setDiagnosis(diagnosis);
-                    }
-                    item.setDependent(dependent);
-                    // Always set conditional and new priority values (don't check for empty)
-                    item.setConditionalPriority(conditionalPriority);
-                    item.setNewPriority(newPriority);
-                    
-                    items.add(item);
-                }
-            }
+    /**
+     * Records an edit already made to the list in the ruleset's edit log, which writes it to the
+     * CSV file in the background. Falls back to saving the whole ruleset if the edit cannot be logged.
+     *
+     * @param edit The edit, with record indexes that do not count the header item
+     */
+    private void logEdit(RulesetEdit edit) {
+        try {
+            edit.applyTo(RulesetEditLog.forRuleset(currentRuleset));
+            rulesets.put(currentRuleset, new ArrayList<>(rulesetItems));
         } catch (IOException e) {
-            LOGGER.log(Level.SEVERE, "Unexpected error", e);
+            LOGGER.log(Level.WARNING, "Could not log ruleset edit; saving the whole ruleset", e);
+            saveRuleset(currentRuleset);
         }
-
-        return items;
     }
 
     /**
-     * Loads a ruleset into the ListView.
+     * Adds an item at its place in priority order.
      *
-     * @param rulesetName The name of the ruleset to load
+     * @param item The new item
      */
-    private void loadRuleset(String rulesetName) {
-        rulesetItems.clear();
-        List<RulesetItem> ruleset = rulesets.get(rulesetName);
-        if (ruleset != null) {
-            rulesetItems.addAll(ruleset);
+    private void addRulesetItem(RulesetItem item) {
+        if (!isSortedByPriority()) {
+            // Sort and save everything once; later edits keep the order
+            rulesetItems.add(item);
+            sortRulesetItems();
+            saveRuleset(currentRuleset);
+            return;
         }
+        int index = insertionIndex(item.getPriority(), rulesetItems.size());
+        rulesetItems.add(index, item);
+        logEdit(log -> log.insert(index - 1, toRecord(item)));
     }
 
     /**
-     * Saves a ruleset to a CSV file.
+     * Replaces an item and moves it to its place in priority order.
      *
-     * @param rulesetName The name of the ruleset to save
+     * @param index The index of the item to replace
+     * @param item The updated item
      */
-    private void saveRuleset(String rulesetName) {
-        File file = FileUtils.getRulesetFile(rulesetName);
-
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
-            for (int i = 1; i < rulesetItems.size(); i++) {
-                RulesetItem item = rulesetItems.get(i);
-                // Write priority, diagnosis, teeth, codes, description in the new format
-                // Use comma as delimiter
-                StringBuilder line = new StringBuilder();
-                line.append(item.getPriority()).append(",");
-
-                // Add diagnosis if present
-                String diagnosis = item.getDiagnosis();
-                if (diagnosis != null && !diagnosis.isEmpty()) {
-                    line.append(diagnosis);
-                }
-                line.append(",");
-
-                // Add teeth numbers if present
-                String teethNumbers = item.getTeethNumbers();
-                if (teethNumbers != null && !teethNumbers.isEmpty()) {
-                    // Format teeth numbers with ranges using - and ; as delimiters
-                    String formattedTeethNumbers = formatTeethNumbers(teethNumbers);
-                    line.append(formattedTeethNumbers);
-                }
-                line.append(",");
+    private void replaceRulesetItem(int index, RulesetItem item) {
+        if (!isSortedByPriority()) {
+            rulesetItems.set(index, item);
+            sortRulesetItems();
+            saveRuleset(currentRuleset);
+            return;
+        }
+        rulesetItems.remove(index);
+        int newIndex = insertionIndex(item.getPriority(), index);
+        rulesetItems.add(newIndex, item);
+        logEdit(log -> {
+            log.remove(index - 1);
+            log.insert(newIndex - 1, toRecord(item));
+        });
+    }
 
-                // Add procedure codes, preserving letter prefixes and compressing ranges
-                String procedureCodes = item.getProcedureCodes();
+    /**
+     * Checks whether the items after the header are in priority order.
+     */
+    private boolean isSortedByPriority() {
+        for (int i = 2; i < rulesetItems.size(); i++) {
+            if (rulesetItems.get(i - 1).getPriority().compareTo(rulesetItems.get(i).getPriority()) > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
 
-                if (procedureCodes != null && !procedureCodes.isEmpty()) {
-                    String compressed = DentalCodeUtil.compressDentalCodes(procedureCodes);
-                    line.append(compressed);
-                }
-                line.append(",");
-
-                // Add description if present (in quotes to handle commas in description)
-                String description = item.getDescription();
-                if (description != null && !description.isEmpty()) {
-                    // Escape quotes in the description
-                    description = description.replace("\"", "\"\"");
-                    // Wrap the description in quotes
-                    line.append("\"").append(description).append("\"");
-                }
-                line.append(",");
+    /**
+     * Finds where an item goes in the sorted list, keeping its position among items of the same
+     * priority as the stable sort in {@link #sortRulesetItems()} would.
+     *
+     * @param priority The item's priority
+     * @param originalIndex The item's index before the edit, or the list size for a new item
+     * @return The index to insert the item at
+     */
+    private int insertionIndex(String priority, int originalIndex) {
+        int lower = priorityBound(priority, false);
+        int upper = priorityBound(priority, true);
+        return Math.max(lower, Math.min(originalIndex, upper));
+    }
 
-                // Add dependent flag
-                line.append(item.isDependent());
-                line.append(",");
+    /**
+     * Binary search for the first item after the header whose priority is not less than
+     * (or, for the upper bound, greater than) the given priority.
+     */
+    private int priorityBound(String priority, boolean upper) {
+        int low = 1;
+        int high = rulesetItems.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            int comparison = rulesetItems.get(mid).getPriority().compareTo(priority);
+            if (comparison < 0 || (upper && comparison == 0)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
 
-                // Add conditional priority if present
-                String conditionalPriority = item.getConditionalPriority();
-                if (conditionalPriority != null && !conditionalPriority.isEmpty()) {
-                    line.append(conditionalPriority);
-                }
-                line.append(",");
+    /**
+     * Converts an item to the fields written to the CSV file:
+     * priority, diagnosis, teeth, codes, description, dependent, conditional priority, new priority.
+     *
+     * @param item The ruleset item
+     * @return The normalized record
+     */
+    private String[] toRecord(RulesetItem item) {
+        // Format teeth numbers with ranges using - and ; as delimiters
+        String teethNumbers = item.getTeethNumbers();
+        // Preserve letter prefixes and compress ranges of procedure codes
+        String procedureCodes = item.getProcedureCodes();
+        return new String[] {
+                Objects.toString(item.getPriority(), ""),
+                Objects.toString(item.getDiagnosis(), ""),
+                teethNumbers != null && !teethNumbers.isEmpty() ? formatTeethNumbers(teethNumbers) : "",
+                procedureCodes != null && !procedureCodes.isEmpty() ? DentalCodeUtil.compressDentalCodes(procedureCodes) : "",
+                Objects.toString(item.getDescription(), ""),
+                String.valueOf(item.isDependent()),
+                Objects.toString(item.getConditionalPriority(), ""),
+                Objects.toString(item.getNewPriority(), "")
+        };
+    }
 
-                // Add new priority if present
-                String newPriority = item.getNewPriority();
-                if (newPriority != null && !newPriority.isEmpty()) {
-                    line.append(newPriority);
+    /**
+     * Shows only the items matching the filter text, or all items if it is empty.
+     * The text may name a procedure code (D2740, 2740), a tooth (3, #3) and a diagnosis (any other words);
+     * rules without a condition of that kind match too, as they do when the ruleset is applied.
+     */
+    private void applyFilter() {
+        String code = null;
+        String tooth = null;
+        StringBuilder diagnosis = new StringBuilder();
+        for (String token : filterField.getText().trim().split("[\\s,]+")) {
+            if (token.isEmpty()) {
+                continue;
+            }
+            if (token.matches("[DdNn]\\d{1,4}") || token.matches("\\d{4}")) {
+                code = DentalCodeUtil.normalizeToCode4(token);
+            } else if (token.matches("#?\\d{1,3}")) {
+                tooth = token.startsWith("#") ? token.substring(1) : token;
+            } else {
+                if (diagnosis.length() > 0) {
+                    diagnosis.append(' ');
                 }
-
-                writer.write(line.toString());
-                writer.newLine();
+                diagnosis.append(token);
             }
-        } catch (IOException e) {
-            LOGGER.log(Level.SEVERE, "Unexpected error", e);
         }
 
-        // Update the rulesets map
-        List<RulesetItem> items = new ArrayList<>(rulesetItems);
-        rulesets.put(rulesetName, items);
+        if ((code == null && tooth == null && diagnosis.length() == 0) || rulesetItems.isEmpty()) {
+            visibleItems.setPredicate(null);
+            return;
+        }
+
+        if (filterIndex == null) {
+            filterIndex = CompiledRuleset.compile(currentRuleset, rulesetItems).index();
+        }
+        BitSet matches = filterIndex.search(code, tooth, diagnosis.length() > 0 ? diagnosis.toString() : null);
+
+        // Rule r is item r + 1; the header is always shown
+        Set<RulesetItem> shown = Collections.newSetFromMap(new IdentityHashMap<>());
+        shown.add(rulesetItems.get(0));
+        for (int r = matches.nextSetBit(0); r >= 0; r = matches.nextSetBit(r + 1)) {
+            shown.add(rulesetItems.get(r + 1));
+        }
+        visibleItems.setPredicate(shown::contains);
     }
 
     /**
@@ -1074,7 +1072,7 @@ public class ControllerRuleset implements Initializable {
 
     /**
      * Gets all available priorities as an ObservableList.
-     * This method loads priorities from the database and sorts them in a specific order.
+     * This method loads priorities from the database and sorts them in the order of their definitions.
      *
      * @return An ObservableList of priority names
      */
@@ -1094,57 +1092,20 @@ public class ControllerRuleset implements Initializable {
             LOGGER.log(Level.SEVERE, "Unexpected error", e);
         }
 
-        // If the list is empty, add some default priorities
+        // If the list is empty, offer the built-in priorities
         if (priorities.isEmpty()) {
-            priorities.add("Next");
-            for (int i = 1; i <= 10; i++) {
-                priorities.add(String.valueOf(i));
-                priorities.add(i + "A");
-                priorities.add(i + "B");
-                priorities.add(i + "C");
-                priorities.add(i + " Wait");
-                priorities.add(i + " Decline");
-            }
+            priorities.addAll(PriorityOrder.builtInNames());
         }
 
         return priorities;
     }
 
     /**
-     * Sorts the priorities in a specific order.
+     * Sorts the priorities in the order of the practice's priority definitions.
      *
      * @param priorities The list of priorities to sort
      */
     private void sortPriorities(ObservableList<String> priorities) {
-        // Create a new list to append to
-        ObservableList<String> sortedPriorities = FXCollections.observableArrayList();
-
-        // Start by appending "None" if it's not already in the list
-        if (!priorities.contains("None")) {
-            sortedPriorities.add("None");
-        }
-
-        // Then append "Next"
-        sortedPriorities.add("Next");
-
-        // Add all numbered priorities
-        for (int i = 1; i <= 10; i++) {
-            sortedPriorities.add(String.valueOf(i));
-            sortedPriorities.add(i + "A");
-            sortedPriorities.add(i + "B");
-            sortedPriorities.add(i + "C");
-            sortedPriorities.add(i + " Wait");
-            sortedPriorities.add(i + " Decline");
-        }
-
-        // Put all other priorities in
-        for (String priority : priorities) {
-            if (!sortedPriorities.contains(priority)) {
-                sortedPriorities.add(priority);
-            }
-        }
-
-        // Update the original list with sorted priorities
-        priorities.setAll(sortedPriorities);
+        PriorityOrder.current().sort(priorities);
     }
 }
@@ -0,0 +1,66 @@
+package com.stkych.rivergreenap.controller;
+
+import com.stkych.rivergreenap.diagnostics.FlightRecording;
+import javafx.scene.control.Alert;
+import javafx.scene.control.CheckMenuItem;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The Help menu's Record Performance Data item, shared by the windows that have it.
+ * The recording outlives the window it was started from, so each window's item is brought
+ * up to date with {@link #sync} when the window is shown.
+ */
+final class RecordingMenu {
+
+    private static final Logger LOGGER = Logger.getLogger(RecordingMenu.class.getName());
+
+    private RecordingMenu() {
+    }
+
+    /**
+     * Starts or stops the recording to match the item, telling the user where a stopped recording was written.
+     *
+     * @param item The menu item, just toggled by the user
+     */
+    static void toggle(CheckMenuItem item) {
+        FlightRecording recording = FlightRecording.getInstance();
+        if (item.isSelected()) {
+            try {
+                recording.start();
+            } catch (IOException | IllegalStateException e) {
+                LOGGER.log(Level.WARNING, "Cannot start recording", e);
+                Alert alert = new Alert(Alert.AlertType.ERROR);
+                alert.setTitle("Recording Failed");
+                alert.setHeaderText("Performance data cannot be recorded");
+                alert.setContentText(e.getMessage());
+                alert.showAndWait();
+            }
+        } else {
+            Path file = recording.stop();
+            if (file != null) {
+                Alert alert = new Alert(Alert.AlertType.INFORMATION);
+                alert.setTitle("Recording Saved");
+                alert.setHeaderText(null);
+                alert.setContentText("Performance data was saved to:\n" + file
+                        + "\n\nSend this file along with a description of what was slow.");
+                alert.showAndWait();
+            }
+        }
+        sync(item);
+    }
+
+    /**
+     * Shows whether a recording is running.
+     *
+     * @param item The menu item, or null if the window has none
+     */
+    static void sync(CheckMenuItem item) {
+        if (item != null) {
+            item.setSelected(FlightRecording.getInstance().isRecording());
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package com.stkych.rivergreenap.controller;
 
 import com.stkych.rivergreenap.SceneSwitcher;
+import com.stkych.rivergreenap.engine.RulesetEditLog;
+import com.stkych.rivergreenap.engine.RulesetRepository;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.fxml.FXML;
@@ -11,6 +13,7 @@ import javafx.scene.control.ButtonType;
 import javafx.scene.control.ListView;
 import javafx.stage.Stage;
 
+import com.stkych.rivergreenap.util.CsvCodec;
 import com.stkych.rivergreenap.util.FileUtils;
 import java.io.*;
 import java.net.URL;
@@ -22,7 +25,7 @@ import java.util.logging.Level;
  * Controller for the ruleset configuration window.
  * Handles the UI interactions and implements the business logic for managing rulesets.
  */
-public class RulesetConfigController implements Initializable {
+public class RulesetConfigController implements Initializable, SceneSwitcher.ShowHandler {
     private static final Logger LOGGER = Logger.getLogger(RulesetConfigController.class.getName());
 
     @FXML
@@ -55,39 +58,26 @@ public class RulesetConfigController implements Initializable {
         // Set up the ListView with the rulesets
         rulesetListView.setItems(rulesets);
 
-        // Load existing rulesets
-        loadRulesets();
+        // No selection listener needed; the rulesets are loaded by onShow
+    }
 
-        // No selection listener needed
+    /**
+     * Reloads the ruleset names each time the window is shown, since the window is kept once opened.
+     *
+     * @param data The data passed between scenes
+     */
+    @Override
+    public void onShow(Map<String, Object> data) {
+        loadRulesets();
     }
 
     /**
-     * Loads existing rulesets from the filesystem.
-     * Looks for files with the pattern "ruleset*.csv" and extracts the ruleset names.
+     * Loads existing ruleset names from the ruleset repository.
+     * Only the names are needed here, so no ruleset files are parsed.
      * No longer creates default rulesets if none are found.
      */
     private void loadRulesets() {
-        rulesets.clear();
-
-        // Migrate ruleset files from the current directory to the ruleset directory
-        FileUtils.migrateRulesetFiles();
-
-        // Look for ruleset files in the ruleset directory
-        File rulesetDir = FileUtils.getRulesetDirectory();
-        File[] files = rulesetDir.listFiles((dir, name) -> name.startsWith("ruleset") && name.endsWith(".csv"));
-
-        if (files != null) {
-            for (File file : files) {
-                String filename = file.getName();
-                // Extract the ruleset name (between "ruleset" and ".csv")
-                String rulesetName = filename.substring(7, filename.length() - 4);
-
-                // Add to the list
-                rulesets.add(rulesetName);
-            }
-        }
-
-        // No longer creating default rulesets if none are found
+        rulesets.setAll(RulesetRepository.getInstance().names());
     }
 
     /**
@@ -138,8 +128,9 @@ public class RulesetConfigController implements Initializable {
     private void createEmptyRulesetFile(String rulesetName) {
         File file = FileUtils.getRulesetFile(rulesetName);
 
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
+        try {
             // The file is created empty
+            CsvCodec.writeAtomically(file.toPath(), writer -> { });
         } catch (IOException e) {
             LOGGER.log(Level.SEVERE, "Unexpected error", e);
             showAlert("Error", "Failed to create ruleset file: " + e.getMessage());
@@ -205,6 +196,9 @@ public class RulesetConfigController implements Initializable {
         File oldFile = FileUtils.getRulesetFile(oldName);
         File newFile = FileUtils.getRulesetFile(newName);
 
+        // Write pending edits under the old name first
+        RulesetEditLog.release(oldName);
+
         if (oldFile.exists()) {
             if (oldFile.renameTo(newFile)) {
                 LOGGER.info("Ruleset file renamed successfully.");
@@ -253,6 +247,9 @@ public class RulesetConfigController implements Initializable {
     private void deleteRulesetFile(String rulesetName) {
         File file = FileUtils.getRulesetFile(rulesetName);
 
+        // Stop pending edits from recreating the file
+        RulesetEditLog.release(rulesetName);
+
         if (file.exists()) {
             if (file.delete()) {
                 LOGGER.info("Ruleset file deleted successfully.");
@@ -0,0 +1,101 @@
+package com.stkych.rivergreenap.controller.cells;
+
+import javafx.geometry.Insets;
+import javafx.scene.control.ContentDisplay;
+import javafx.scene.control.Label;
+import javafx.scene.layout.ColumnConstraints;
+import javafx.scene.layout.GridPane;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.Region;
+import javafx.scene.layout.RowConstraints;
+
+/**
+ * Builds the row layouts of the procedure and ruleset lists in code.
+ * <p>
+ * A ListView creates a cell per visible row and recreates cells when it is resized, so the rows are
+ * built directly instead of parsing an FXML file per cell. The layouts are those of the former
+ * main_column.fxml and ruleset_column.fxml: a one-row GridPane of padded labels whose columns take
+ * fixed percentages of the width.
+ */
+final class CellLayouts {
+
+    /**
+     * Column titles of the procedure list, in column order.
+     */
+    static final String[] PROCEDURE_COLUMNS = {"Priority", "Tth", "Surface", "Code", "Diagnosis", "Description", "Fee"};
+
+    /**
+     * Column titles of the ruleset list, in column order.
+     */
+    static final String[] RULESET_COLUMNS = {"Priority", "D. Code", "Teeth", "Diagnosis", "Description"};
+
+    private static final double[] PROCEDURE_PERCENTS = {10, 5, 7, 10, 15, 43, 10};
+    private static final double[] PROCEDURE_PREF_WIDTHS = {40, 39, 38, 128, 158, 158, 205};
+    private static final double[] PROCEDURE_MAX_WIDTHS = {308, 586, 586, 586, 586, 586, 586};
+
+    private static final double[] RULESET_PERCENTS = {15, 25, 15, 15, 30};
+
+    private static final double ROW_HEIGHT = 25;
+    private static final Insets LABEL_PADDING = new Insets(4);
+
+    private CellLayouts() {
+    }
+
+    /**
+     * Builds a procedure row.
+     *
+     * @param labels Receives the row's labels in column order; must have one slot per column
+     * @return The row
+     */
+    static GridPane procedureRow(Label[] labels) {
+        GridPane row = newRow(820);
+        for (int i = 0; i < PROCEDURE_COLUMNS.length; i++) {
+            ColumnConstraints column = new ColumnConstraints(10, PROCEDURE_PREF_WIDTHS[i], PROCEDURE_MAX_WIDTHS[i]);
+            column.setPercentWidth(PROCEDURE_PERCENTS[i]);
+            column.setHgrow(Priority.SOMETIMES);
+            row.getColumnConstraints().add(column);
+            labels[i] = addLabel(row, i, PROCEDURE_COLUMNS[i]);
+        }
+        return row;
+    }
+
+    /**
+     * Builds a ruleset row.
+     *
+     * @param labels Receives the row's labels in column order; must have one slot per column
+     * @return The row
+     */
+    static GridPane rulesetRow(Label[] labels) {
+        GridPane row = newRow(800);
+        for (int i = 0; i < RULESET_COLUMNS.length; i++) {
+            ColumnConstraints column = new ColumnConstraints(10, 100, Region.USE_COMPUTED_SIZE);
+            column.setPercentWidth(RULESET_PERCENTS[i]);
+            column.setHgrow(Priority.SOMETIMES);
+            row.getColumnConstraints().add(column);
+            labels[i] = addLabel(row, i, RULESET_COLUMNS[i]);
+        }
+        return row;
+    }
+
+    private static GridPane newRow(double prefWidth) {
+        GridPane row = new GridPane();
+        row.setMinSize(Region.USE_PREF_SIZE, Region.USE_PREF_SIZE);
+        row.setMaxSize(Region.USE_PREF_SIZE, Region.USE_PREF_SIZE);
+        row.setPrefSize(prefWidth, ROW_HEIGHT);
+        RowConstraints rowConstraints = new RowConstraints();
+        rowConstraints.setMinHeight(10);
+        rowConstraints.setPrefHeight(30);
+        rowConstraints.setVgrow(Priority.SOMETIMES);
+        row.getRowConstraints().add(rowConstraints);
+        return row;
+    }
+
+    private static Label addLabel(GridPane row, int column, String text) {
+        Label label = new Label(text);
+        label.setContentDisplay(ContentDisplay.CENTER);
+        label.setPrefHeight(ROW_HEIGHT);
+        label.setPadding(LABEL_PADDING);
+        row.add(label, column, 0);
+        return label;
+    }
+}
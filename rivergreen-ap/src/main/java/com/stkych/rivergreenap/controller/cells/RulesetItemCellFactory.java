@@ -23,9 +23,17 @@ public class RulesetItemCellFactory implements Callback<ListView<RulesetItem>, L
     @Override
     public ListCell<RulesetItem> call(ListView<RulesetItem> listView) {
         return new ListCell<RulesetItem>() {
-            private final RulesetItemHeaderCell headerCell = new RulesetItemHeaderCell();
+            // Only the cell showing row 0 ever needs a header layout
+            private RulesetItemHeaderCell headerCell;
             private final RulesetItemListCell listCell = new RulesetItemListCell();
 
+            private RulesetItemHeaderCell headerCell() {
+                if (headerCell == null) {
+                    headerCell = new RulesetItemHeaderCell();
+                }
+                return headerCell;
+            }
+
             @Override
             public void updateIndex(int index) {
                 super.updateIndex(index);
@@ -38,9 +46,9 @@ public class RulesetItemCellFactory implements Callback<ListView<RulesetItem>, L
 
                 if (index == 0) {
                     // Use the header cell for the first row
-                    headerCell.updateIndex(index);
-                    headerCell.updateItem(getItem(), isEmpty());
-                    setGraphic(headerCell.getGraphic());
+                    headerCell().updateIndex(index);
+                    headerCell().updateItem(getItem(), isEmpty());
+                    setGraphic(headerCell().getGraphic());
                 } else {
                     // Use the regular cell for all other rows
                     listCell.updateIndex(index);
@@ -61,8 +69,8 @@ public class RulesetItemCellFactory implements Callback<ListView<RulesetItem>, L
 
                 if (getIndex() == 0) {
                     // Use the header cell for the first row
-                    headerCell.updateItem(item, false);
-                    setGraphic(headerCell.getGraphic());
+                    headerCell().updateItem(item, false);
+                    setGraphic(headerCell().getGraphic());
                     // Make the header non-selectable
                     setDisable(true);
                     setStyle("-fx-opacity: 1.0; -fx-background-color: #f0f0f0;");
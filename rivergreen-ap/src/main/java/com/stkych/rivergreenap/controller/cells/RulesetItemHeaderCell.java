@@ -1,45 +1,33 @@
 package com.stkych.rivergreenap.controller.cells;
 
 import com.stkych.rivergreenap.model.RulesetItem;
-import javafx.fxml.FXMLLoader;
+import javafx.scene.control.Label;
 import javafx.scene.control.ListCell;
 import javafx.scene.layout.GridPane;
 
-import java.io.IOException;
-import java.util.logging.Level;
-import java.util.logging.Logger;
-
 /**
  * Custom ListCell implementation for displaying a header row in the RulesetItem ListView.
- * This cell is non-selectable and immutable, displaying the default column names from ruleset_column.fxml.
+ * This cell is non-selectable and immutable, displaying the column names of the ruleset row layout in {@link CellLayouts}.
  */
 public class RulesetItemHeaderCell extends ListCell<RulesetItem> {
 
-    private GridPane gridPane;
-    private static final Logger LOGGER = Logger.getLogger(RulesetItemHeaderCell.class.getName());
+    private final GridPane gridPane;
 
     /**
      * Constructs a new RulesetItemHeaderCell.
-     * Loads the ruleset_column.fxml layout.
+     * Builds the ruleset row layout, whose labels start out showing the column names.
      */
     public RulesetItemHeaderCell() {
-        try {
-            // Load the ruleset_column.fxml layout
-            FXMLLoader loader = new FXMLLoader(getClass().getResource("/com/stkych/rivergreenap/ruleset_column.fxml"));
-            gridPane = loader.load();
-
-            // Make the cell non-selectable and visually distinct as a header
-            setDisable(true);
-            setStyle("-fx-opacity: 1.0; -fx-background-color: #e0e0e0; -fx-font-weight: bold; -fx-border-color: #c0c0c0; -fx-border-width: 0 0 1 0;");
+        gridPane = CellLayouts.rulesetRow(new Label[CellLayouts.RULESET_COLUMNS.length]);
 
-        } catch (IOException e) {
-            LOGGER.log(Level.SEVERE, "Failed to load ruleset column FXML", e);
-        }
+        // Make the cell non-selectable and visually distinct as a header
+        setDisable(true);
+        setStyle("-fx-opacity: 1.0; -fx-background-color: #e0e0e0; -fx-font-weight: bold; -fx-border-color: #c0c0c0; -fx-border-width: 0 0 1 0;");
     }
 
     /**
      * Updates the item display.
-     * This cell always displays the default column names from ruleset_column.fxml.
+     * This cell always displays the column names.
      * 
      * @param item The RulesetItem to display (ignored)
      * @param empty Whether the cell is empty (ignored)
@@ -3,50 +3,35 @@ package com.stkych.rivergreenap.controller.cells;
 import com.stkych.rivergreenap.model.RulesetItem;
 import com.stkych.rivergreenap.util.DentalCodeUtil;
 import com.stkych.rivergreenap.util.TeethNotationUtil;
-import javafx.fxml.FXMLLoader;
 import javafx.scene.control.Label;
 import javafx.scene.control.ListCell;
 import javafx.scene.layout.GridPane;
 
-import java.io.IOException;
-import java.util.logging.Level;
-import java.util.logging.Logger;
-
 /**
  * Custom ListCell implementation for displaying RulesetItem objects
- * using the ruleset_column.fxml layout.
+ * in the ruleset row layout of {@link CellLayouts}.
  */
 public class RulesetItemListCell extends ListCell<RulesetItem> {
 
-    private static final Logger LOGGER = Logger.getLogger(RulesetItemListCell.class.getName());
-
-    private GridPane gridPane;
-    private Label priorityLabel;
-    private Label procedureCodeLabel;
-    private Label teethLabel;
-    private Label diagnosisLabel;
-    private Label descriptionLabel;
+    private final GridPane gridPane;
+    private final Label priorityLabel;
+    private final Label procedureCodeLabel;
+    private final Label teethLabel;
+    private final Label diagnosisLabel;
+    private final Label descriptionLabel;
 
     /**
      * Constructs a new RulesetItemListCell.
-     * Loads the ruleset_column.fxml layout and initializes the labels.
+     * Builds the row layout and keeps references to its labels.
      */
     public RulesetItemListCell() {
-        try {
-            // Load the ruleset_column.fxml layout
-            FXMLLoader loader = new FXMLLoader(getClass().getResource("/com/stkych/rivergreenap/ruleset_column.fxml"));
-            gridPane = loader.load();
-
-            // Get references to the labels in the layout
-            priorityLabel = (Label) gridPane.lookup("#priorityLabel");
-            procedureCodeLabel = (Label) gridPane.lookup("#procedureCodeLabel");
-            teethLabel = (Label) gridPane.lookup("#teethLabel");
-            diagnosisLabel = (Label) gridPane.lookup("#diagnosisLabel");
-            descriptionLabel = (Label) gridPane.lookup("#descriptionLabel");
-
-        } catch (IOException e) {
-            LOGGER.log(Level.SEVERE, "Failed to load ruleset column FXML", e);
-        }
+        Label[] labels = new Label[CellLayouts.RULESET_COLUMNS.length];
+        gridPane = CellLayouts.rulesetRow(labels);
+        priorityLabel = labels[0];
+        procedureCodeLabel = labels[1];
+        teethLabel = labels[2];
+        diagnosisLabel = labels[3];
+        descriptionLabel = labels[4];
     }
 
     /**
@@ -1,10 +1,13 @@
 package com.stkych.rivergreenap.controller.cells;
 
+import com.stkych.rivergreenap.engine.CompiledRuleset;
 import com.stkych.rivergreenap.model.TreatmentPlanProcedure;
 import javafx.scene.control.ListCell;
 import javafx.scene.control.ListView;
 import javafx.util.Callback;
 
+import java.util.function.Supplier;
+
 /**
  * Factory class for creating TreatmentPlanProcedureListCell instances.
  * This class implements the Callback interface to be used as a cell factory for ListView.
@@ -12,6 +15,24 @@ import javafx.util.Callback;
  */
 public class TreatmentPlanProcedureCellFactory implements Callback<ListView<TreatmentPlanProcedure>, ListCell<TreatmentPlanProcedure>> {
 
+    private final Supplier<CompiledRuleset> rulesetSupplier;
+
+    /**
+     * Creates a factory whose cells do not show matching rules.
+     */
+    public TreatmentPlanProcedureCellFactory() {
+        this(() -> null);
+    }
+
+    /**
+     * Creates a factory whose cells show the rules of the selected ruleset that match each procedure.
+     *
+     * @param rulesetSupplier Supplies the selected ruleset, or null if none is selected
+     */
+    public TreatmentPlanProcedureCellFactory(Supplier<CompiledRuleset> rulesetSupplier) {
+        this.rulesetSupplier = rulesetSupplier;
+    }
+
     /**
      * Creates a new ListCell for the given ListView.
      * Returns a TreatmentPlanProcedureHeaderCell for the first cell (index 0)
@@ -23,8 +44,16 @@ public class TreatmentPlanProcedureCellFactory implements Callback<ListView<Trea
     @Override
     public ListCell<TreatmentPlanProcedure> call(ListView<TreatmentPlanProcedure> listView) {
         return new ListCell<TreatmentPlanProcedure>() {
-            private final TreatmentPlanProcedureHeaderCell headerCell = new TreatmentPlanProcedureHeaderCell();
-            private final TreatmentPlanProcedureListCell listCell = new TreatmentPlanProcedureListCell();
+            // Only the cell showing row 0 ever needs a header layout
+            private TreatmentPlanProcedureHeaderCell headerCell;
+            private final TreatmentPlanProcedureListCell listCell = new TreatmentPlanProcedureListCell(rulesetSupplier);
+
+            private TreatmentPlanProcedureHeaderCell headerCell() {
+                if (headerCell == null) {
+                    headerCell = new TreatmentPlanProcedureHeaderCell();
+                }
+                return headerCell;
+            }
 
             @Override
             public void updateIndex(int index) {
@@ -38,9 +67,9 @@ public class TreatmentPlanProcedureCellFactory implements Callback<ListView<Trea
 
                 if (index == 0) {
                     // Use the header cell for the first row
-                    headerCell.updateIndex(index);
-                    headerCell.updateItem(getItem(), isEmpty());
-                    setGraphic(headerCell.getGraphic());
+                    headerCell().updateIndex(index);
+                    headerCell().updateItem(getItem(), isEmpty());
+                    setGraphic(headerCell().getGraphic());
                 } else {
                     // Use the regular cell for all other rows
                     listCell.updateIndex(index);
@@ -61,8 +90,8 @@ public class TreatmentPlanProcedureCellFactory implements Callback<ListView<Trea
 
                 if (getIndex() == 0) {
                     // Use the header cell for the first row
-                    headerCell.updateItem(item, false);
-                    setGraphic(headerCell.getGraphic());
+                    headerCell().updateItem(item, false);
+                    setGraphic(headerCell().getGraphic());
                     // Make the header non-selectable
                     setDisable(true);
                     setStyle("-fx-opacity: 1.0; -fx-background-color: #f0f0f0;");
@@ -1,58 +1,71 @@
 package com.stkych.rivergreenap.controller.cells;
 
+import com.stkych.rivergreenap.engine.CompiledRuleset;
 import com.stkych.rivergreenap.model.TreatmentPlanProcedure;
-import javafx.fxml.FXMLLoader;
 import javafx.scene.control.Label;
 import javafx.scene.control.ListCell;
+import javafx.scene.control.Tooltip;
 import javafx.scene.layout.GridPane;
+import javafx.util.Duration;
 
-import java.io.IOException;
 import java.text.NumberFormat;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.util.List;
+import java.util.function.Supplier;
 
 /**
  * Custom ListCell implementation for displaying TreatmentPlanProcedure objects
- * using the main_column.fxml layout.
+ * in the procedure row layout of {@link CellLayouts}.
+ * Hovering over a procedure shows the rules of the selected ruleset that match it.
  */
 public class TreatmentPlanProcedureListCell extends ListCell<TreatmentPlanProcedure> {
 
-    private GridPane gridPane;
-    private Label priorityLabel;
-    private Label toothLabel;
-    private Label surfaceLabel;
-    private Label codeLabel;
-    private Label diagnosisLabel;
-    private Label descriptionLabel;
-    private Label feeLabel;
+    private final GridPane gridPane;
+    private final Label priorityLabel;
+    private final Label toothLabel;
+    private final Label surfaceLabel;
+    private final Label codeLabel;
+    private final Label diagnosisLabel;
+    private final Label descriptionLabel;
+    private final Label feeLabel;
 
-    private static final Logger LOGGER = Logger.getLogger(TreatmentPlanProcedureListCell.class.getName());
+    // Longest list of rules shown in the matching rules popup
+    private static final int MAX_LISTED_RULES = 20;
 
     private final NumberFormat currencyFormat = NumberFormat.getCurrencyInstance();
+    private final Supplier<CompiledRuleset> rulesetSupplier;
 
     /**
-     * Constructs a new TreatmentPlanProcedureListCell.
-     * Loads the main_column.fxml layout and initializes the labels.
+     * Constructs a new TreatmentPlanProcedureListCell without the matching rules popup.
      */
     public TreatmentPlanProcedureListCell() {
-        try {
-            // Load the main_column.fxml layout
-            FXMLLoader loader = new FXMLLoader(getClass().getResource("/com/stkych/rivergreenap/main_column.fxml"));
-            gridPane = loader.load();
-
-            // Get references to the labels in the layout based on their order in the GridPane
-            // The order is determined by the GridPane.columnIndex property in main_column.fxml
-            priorityLabel = (Label) gridPane.getChildren().get(0);
-            toothLabel = (Label) gridPane.getChildren().get(1);
-            surfaceLabel = (Label) gridPane.getChildren().get(2);
-            codeLabel = (Label) gridPane.getChildren().get(3);
-            diagnosisLabel = (Label) gridPane.getChildren().get(4);
-            descriptionLabel = (Label) gridPane.getChildren().get(5);
-            feeLabel = (Label) gridPane.getChildren().get(6);
-
-        } catch (IOException e) {
-            LOGGER.log(Level.SEVERE, "Failed to load main column FXML", e);
-        }
+        this(() -> null);
+    }
+
+    /**
+     * Constructs a new TreatmentPlanProcedureListCell.
+     * Builds the row layout and keeps references to its labels.
+     *
+     * @param rulesetSupplier Supplies the ruleset whose matching rules are shown, or null if none is selected
+     */
+    public TreatmentPlanProcedureListCell(Supplier<CompiledRuleset> rulesetSupplier) {
+        this.rulesetSupplier = rulesetSupplier;
+
+        Label[] labels = new Label[CellLayouts.PROCEDURE_COLUMNS.length];
+        gridPane = CellLayouts.procedureRow(labels);
+        priorityLabel = labels[0];
+        toothLabel = labels[1];
+        surfaceLabel = labels[2];
+        codeLabel = labels[3];
+        diagnosisLabel = labels[4];
+        descriptionLabel = labels[5];
+        feeLabel = labels[6];
+
+        // The text is worked out when the popup opens, so scrolling does no rule lookups
+        Tooltip matchingRules = new Tooltip();
+        matchingRules.setShowDelay(Duration.millis(600));
+        matchingRules.setShowDuration(Duration.INDEFINITE);
+        matchingRules.setOnShowing(event -> matchingRules.setText(describeMatchingRules(getItem())));
+        Tooltip.install(gridPane, matchingRules);
     }
 
     /**
@@ -71,7 +84,6 @@ public class TreatmentPlanProcedureListCell extends ListCell<TreatmentPlanProced
         } else {
 
             // Set the text of each label to the corresponding property of the item
-            // The order matches the visual order in main_column.fxml
             priorityLabel.setText(item.getPriority());
             toothLabel.setText(item.getToothNumber());
             surfaceLabel.setText(item.getSurface());
@@ -84,4 +96,61 @@ public class TreatmentPlanProcedureListCell extends ListCell<TreatmentPlanProced
             setGraphic(gridPane);
         }
     }
+
+    /**
+     * Describes the rules of the selected ruleset that match a procedure.
+     * The last matching rule is the one that sets the priority when the ruleset is applied.
+     *
+     * @param item The procedure
+     * @return The text for the matching rules popup
+     */
+    private String describeMatchingRules(TreatmentPlanProcedure item) {
+        CompiledRuleset ruleset = rulesetSupplier.get();
+        if (item == null) {
+            return "";
+        }
+        if (ruleset == null) {
+            return "No ruleset selected";
+        }
+
+        List<CompiledRuleset.Rule> matches = ruleset.index().rules(ruleset.index()
+                .matchProcedure(item.getProcedureCode(), item.getToothNumber(), item.getDiagnosis()));
+        if (matches.isEmpty()) {
+            return "No rules in ruleset " + ruleset.getName() + " match " + item.getProcedureCode();
+        }
+
+        StringBuilder text = new StringBuilder();
+        text.append(matches.size()).append(matches.size() == 1 ? " rule" : " rules")
+                .append(" in ruleset ").append(ruleset.getName()).append(" match ").append(item.getProcedureCode());
+        if (item.getToothNumber() != null && !item.getToothNumber().isEmpty()) {
+            text.append(" on tooth ").append(item.getToothNumber());
+        }
+        text.append(":");
+
+        // Later rules overwrite earlier ones, so the last match decides; list the last few
+        int first = Math.max(0, matches.size() - MAX_LISTED_RULES);
+        if (first > 0) {
+            text.append("\n  ... ").append(first).append(" earlier");
+        }
+        for (int i = first; i < matches.size(); i++) {
+            CompiledRuleset.Rule rule = matches.get(i);
+            text.append("\n").append(i == matches.size() - 1 ? "> " : "  ").append(rule.getPriority());
+            if (!rule.getProcedureCodesText().isEmpty()) {
+                text.append("  ").append(rule.getProcedureCodesText());
+            }
+            if (!rule.getTeethText().isEmpty()) {
+                text.append("  teeth ").append(rule.getTeethText());
+            }
+            if (!rule.getDiagnosis().isEmpty()) {
+                text.append("  dx ").append(rule.getDiagnosis());
+            }
+            if (rule.isDependent()) {
+                text.append("  (").append(rule.getNewPriority()).append(" with ").append(rule.getConditionalPriority()).append(")");
+            }
+            if (!rule.getDescription().isEmpty()) {
+                text.append("  ").append(rule.getDescription());
+            }
+        }
+        return text.toString();
+    }
 }
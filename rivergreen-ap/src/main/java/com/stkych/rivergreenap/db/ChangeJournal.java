@@ -0,0 +1,349 @@
+package com.stkych.rivergreenap.db;
+
+import com.stkych.rivergreenap.util.FileUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Append-only binary journal of the priority and diagnosis values overwritten by write-backs.
+ * <p>
+ * Each process that writes to the database records its changes in one run file under
+ * {@code journal/} in the app data directory, named by the run ID. A run file holds a small header
+ * (magic, start time, label) followed by fixed-size records of ProcNum, column and the DefNum before
+ * and after the write. Records are written through memory-mapped regions that hold a whole number
+ * of records, so the file never needs to be read back or flushed per write; the zero-filled tail of
+ * the last region marks the end of the data. The regions are mapped in an {@link Arena} that closing
+ * the run closes, which unmaps them at once, so the file can then be truncated to the records written
+ * (Windows does not allow truncating a mapped file).
+ * <p>
+ * A record's column byte is written after the rest of the record, so a record torn by a crash
+ * reads as the end of the journal rather than as garbage.
+ */
+public final class ChangeJournal implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(ChangeJournal.class.getName());
+
+    /**
+     * The journaled procedurelog columns. Values are DefNums; 0 means none.
+     */
+    public enum Column {
+        PRIORITY((byte) 1),
+        DIAGNOSIS((byte) 2);
+
+        private final byte code;
+
+        Column(byte code) {
+            this.code = code;
+        }
+
+        static Column fromCode(byte code) {
+            for (Column column : values()) {
+                if (column.code == code) {
+                    return column;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * One overwritten value.
+     *
+     * @param procNum The procedure number
+     * @param column The changed column
+     * @param before The DefNum before the write
+     * @param after The DefNum after the write
+     */
+    public record Change(int procNum, Column column, long before, long after) {
+    }
+
+    /**
+     * Summary of a journaled run.
+     *
+     * @param runId The run ID
+     * @param startMillis When the run started
+     * @param label What wrote the run (e.g. "interactive", "daemon")
+     * @param changeCount The number of journaled changes
+     */
+    public record RunInfo(String runId, long startMillis, String label, long changeCount) {
+    }
+
+    private static final String JOURNAL_DIRECTORY = "journal";
+    private static final String EXTENSION = ".rgj";
+    private static final int MAGIC = 0x52474A31; // "RGJ1"
+    // column (1) + ProcNum (4) + before DefNum (8) + after DefNum (8)
+    private static final int RECORD_SIZE = 21;
+    // Records per mapped region; regions hold whole records so none straddles a boundary
+    private static final int REGION_RECORDS = 50_000;
+    // Big-endian like the ByteBuffers read() uses; records are not aligned
+    private static final ValueLayout.OfInt INT = ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+    private static final ValueLayout.OfLong LONG = ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+    private static final DateTimeFormatter RUN_ID_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS");
+
+    private static String sessionLabel = "interactive";
+    private static ChangeJournal session;
+
+    private final String runId;
+    private final FileChannel channel;
+    private final Arena arena = Arena.ofShared();
+    private MemorySegment region;
+    private long regionStart;
+    private long regionPosition;
+    private long changeCount;
+
+    private ChangeJournal(String runId, FileChannel channel, long dataStart) {
+        this.runId = runId;
+        this.channel = channel;
+        this.regionStart = dataStart;
+    }
+
+    /**
+     * Sets the label recorded in this process's run. Must be called before the first write-back.
+     *
+     * @param label A short description of what this process is (e.g. "daemon ruleset Default")
+     */
+    public static synchronized void setSessionLabel(String label) {
+        sessionLabel = label;
+    }
+
+    /**
+     * Gets this process's run, creating its file on first use.
+     *
+     * @return The session journal
+     * @throws IOException If the run file cannot be created
+     */
+    public static synchronized ChangeJournal session() throws IOException {
+        if (session == null) {
+            session = create(sessionLabel);
+            LOGGER.info("Journaling changes as run " + session.getRunId() + " (" + sessionLabel + ")");
+        }
+        return session;
+    }
+
+    /**
+     * Flushes and closes this process's run, if one was started.
+     */
+    public static synchronized void closeSession() {
+        if (session != null) {
+            try {
+                session.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Error closing change journal", e);
+            }
+            session = null;
+        }
+    }
+
+    private static ChangeJournal create(String label) throws IOException {
+        Path directory = getJournalDirectory();
+        Files.createDirectories(directory);
+
+        String baseId = LocalDateTime.now().format(RUN_ID_FORMAT);
+        for (int suffix = 0; ; suffix++) {
+            String runId = suffix == 0 ? baseId : baseId + "-" + suffix;
+            FileChannel channel;
+            try {
+                channel = FileChannel.open(runFile(runId), StandardOpenOption.CREATE_NEW,
+                        StandardOpenOption.READ, StandardOpenOption.WRITE);
+            } catch (FileAlreadyExistsException e) {
+                continue;
+            }
+
+            byte[] labelBytes = label.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer header = ByteBuffer.allocate(4 + 8 + 2 + labelBytes.length);
+            header.putInt(MAGIC).putLong(System.currentTimeMillis()).putShort((short) labelBytes.length).put(labelBytes);
+            header.flip();
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            return new ChangeJournal(runId, channel, channel.position());
+        }
+    }
+
+    /**
+     * Gets the directory holding the run files.
+     *
+     * @return The journal directory
+     */
+    public static Path getJournalDirectory() {
+        return FileUtils.getAppDataDirectory().toPath().resolve(JOURNAL_DIRECTORY);
+    }
+
+    private static Path runFile(String runId) {
+        return getJournalDirectory().resolve(runId + EXTENSION);
+    }
+
+    /**
+     * Gets the ID of this run, used to revert it.
+     *
+     * @return The run ID
+     */
+    public String getRunId() {
+        return runId;
+    }
+
+    /**
+     * Appends one change.
+     *
+     * @param procNum The procedure number
+     * @param column The changed column
+     * @param before The DefNum before the write
+     * @param after The DefNum after the write
+     * @throws IOException If a new region cannot be mapped
+     */
+    public synchronized void append(int procNum, Column column, long before, long after) throws IOException {
+        if (region == null || region.byteSize() - regionPosition < RECORD_SIZE) {
+            if (region != null) {
+                // force() only writes the current region
+                region.force();
+                regionStart += region.byteSize();
+            }
+            // Mapping past the end of the file grows it
+            region = channel.map(FileChannel.MapMode.READ_WRITE, regionStart, (long) REGION_RECORDS * RECORD_SIZE, arena);
+            regionPosition = 0;
+        }
+
+        long position = regionPosition;
+        region.set(INT, position + 1, procNum);
+        region.set(LONG, position + 5, before);
+        region.set(LONG, position + 13, after);
+        // The column byte goes last: until it is written the record reads as end of data
+        region.set(ValueLayout.JAVA_BYTE, position, column.code);
+        regionPosition = position + RECORD_SIZE;
+        changeCount++;
+    }
+
+    /**
+     * Forces the journaled changes to disk. Called once per committed database batch.
+     */
+    public synchronized void force() {
+        if (region != null) {
+            region.force();
+        }
+    }
+
+    /**
+     * Forces the journaled changes to disk, unmaps the regions and truncates the run file after the
+     * last record, so a run of a few changes does not keep a whole region's zero-filled tail.
+     *
+     * @throws IOException If the file cannot be truncated or closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        force();
+        long end = regionStart + regionPosition;
+        region = null;
+        arena.close();
+        try {
+            channel.truncate(end);
+        } finally {
+            channel.close();
+        }
+        LOGGER.info("Closed change journal run " + runId + " with " + changeCount + " changes");
+    }
+
+    /**
+     * Lists the journaled runs, oldest first.
+     *
+     * @return The runs found in the journal directory
+     * @throws IOException If the directory cannot be read
+     */
+    public static List<RunInfo> listRuns() throws IOException {
+        List<RunInfo> runs = new ArrayList<>();
+        Path directory = getJournalDirectory();
+        if (!Files.isDirectory(directory)) {
+            return runs;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + EXTENSION)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                String runId = name.substring(0, name.length() - EXTENSION.length());
+                long[] count = new long[1];
+                RunInfo header = read(runId, change -> count[0]++);
+                runs.add(new RunInfo(runId, header.startMillis(), header.label(), count[0]));
+            }
+        }
+        runs.sort(Comparator.comparing(RunInfo::runId));
+        return runs;
+    }
+
+    /**
+     * Streams the changes of a run in the order they were written.
+     *
+     * @param runId The run ID
+     * @param consumer Receives each change
+     * @return The run's header information
+     * @throws IOException If the run does not exist or is not a journal file
+     */
+    public static RunInfo read(String runId, Consumer<Change> consumer) throws IOException {
+        Path file = runFile(runId);
+        if (!Files.exists(file)) {
+            throw new IOException("No journaled run " + runId + " in " + getJournalDirectory());
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(4 + 8 + 2);
+            readFully(channel, header);
+            header.flip();
+            if (header.remaining() < header.capacity() || header.getInt() != MAGIC) {
+                throw new IOException("Not a change journal: " + file);
+            }
+            long startMillis = header.getLong();
+            ByteBuffer label = ByteBuffer.allocate(header.getShort() & 0xFFFF);
+            readFully(channel, label);
+            label.flip();
+            String labelText = StandardCharsets.UTF_8.decode(label).toString();
+
+            long count = 0;
+            ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * 4096);
+            scan:
+            while (readFully(channel, buffer) > 0) {
+                buffer.flip();
+                while (buffer.remaining() >= RECORD_SIZE) {
+                    Column column = Column.fromCode(buffer.get());
+                    if (column == null) {
+                        // Zero-filled tail of the last region, or a torn record
+                        break scan;
+                    }
+                    consumer.accept(new Change(buffer.getInt(), column, buffer.getLong(), buffer.getLong()));
+                    count++;
+                }
+                buffer.compact();
+            }
+            return new RunInfo(runId, startMillis, labelText, count);
+        }
+    }
+
+    private static int readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,87 @@
+package com.stkych.rivergreenap.db;
+
+import com.stkych.rivergreenap.RiverGreenDB;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds procedurelog changes that were committed after a reader's watermark had already passed
+ * their DateTStamp.
+ * <p>
+ * Readers of the change stream keep a (DateTStamp, ProcNum) watermark and only ask for rows after
+ * it. A transaction that stamps a row and commits a moment later makes the row visible behind the
+ * watermark, where the reader never looks again. This filter reads the last {@link #WINDOW_MILLIS}
+ * before the watermark again and returns only the rows, or row versions, it has not been told about
+ * with {@link #processed}. Processing a change twice is harmless, since evaluation is deterministic, so
+ * a filter that starts empty, for example after a restart, only costs one extra pass over the window.
+ */
+public final class LateChangeFilter {
+
+    /**
+     * How far behind the watermark changes are looked for.
+     */
+    public static final long WINDOW_MILLIS = 60_000;
+
+    private final boolean treatmentPlannedOnly;
+    // DateTStamp of the version of each procedure already processed, for changes inside the window
+    private final Map<Integer, Long> processed = new HashMap<>();
+
+    /**
+     * Creates a filter.
+     *
+     * @param treatmentPlannedOnly Whether the reader follows only treatment-planned procedures
+     */
+    public LateChangeFilter(boolean treatmentPlannedOnly) {
+        this.treatmentPlannedOnly = treatmentPlannedOnly;
+    }
+
+    /**
+     * Notes changes that were processed, so they are not returned as late.
+     *
+     * @param changes The changes
+     */
+    public void processed(List<RiverGreenDB.ChangedProcedure> changes) {
+        for (RiverGreenDB.ChangedProcedure change : changes) {
+            processed.merge(change.procNum(), change.dateTStamp().getTime(), Math::max);
+        }
+    }
+
+    /**
+     * Reads the window behind a watermark again and returns the changes not processed yet.
+     * The caller processes them and passes them to {@link #processed}.
+     *
+     * @param watermark The DateTStamp of the reader's watermark
+     * @param watermarkProcNum The ProcNum of the reader's watermark
+     * @return The late changes, in watermark order
+     * @throws SQLException If a database error occurs
+     */
+    public List<RiverGreenDB.ChangedProcedure> findLate(Timestamp watermark, int watermarkProcNum) throws SQLException {
+        long from = watermark.getTime() - WINDOW_MILLIS;
+        // Changes older than the window are no longer looked for
+        processed.values().removeIf(stamp -> stamp < from);
+        return unprocessed(RiverGreenDB.getProceduresChangedBefore(new Timestamp(from), watermark, watermarkProcNum,
+                treatmentPlannedOnly));
+    }
+
+    /**
+     * Drops the changes that were already processed.
+     *
+     * @param window The changes read from the window
+     * @return The changes whose version was not processed
+     */
+    List<RiverGreenDB.ChangedProcedure> unprocessed(List<RiverGreenDB.ChangedProcedure> window) {
+        List<RiverGreenDB.ChangedProcedure> late = new ArrayList<>();
+        for (RiverGreenDB.ChangedProcedure change : window) {
+            Long stamp = processed.get(change.procNum());
+            if (stamp == null || stamp < change.dateTStamp().getTime()) {
+                late.add(change);
+            }
+        }
+        return late;
+    }
+}
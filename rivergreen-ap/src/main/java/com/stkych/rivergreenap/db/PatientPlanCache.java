@@ -0,0 +1,276 @@
+package com.stkych.rivergreenap.db;
+
+import com.stkych.rivergreenap.RiverGreenDB;
+import com.stkych.rivergreenap.model.TreatmentPlanProcedure;
+import com.stkych.rivergreenap.util.BackgroundTasks;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Loads patients' treatment plans on worker threads and keeps a few loaded ahead of time,
+ * so switching to a patient in the main window rarely waits for the database.
+ * <p>
+ * A plan is handed out once: {@link #take} removes it from the cache, since the window edits the
+ * procedures it shows. Before a cached plan is handed out its {@link RiverGreenDB.PlanStamp} is read
+ * again, and the plan is loaded again if it was changed in OpenDental meanwhile; plans older than
+ * {@link #MAX_AGE_MINUTES} minutes are not checked but loaded again. A patient the user just left is
+ * loaded again once the {@link WriteBehindQueue} reports that their edits were written, and cached
+ * plans of procedures it writes are dropped, so going back to a patient is fast and shows their
+ * saved values.
+ */
+public final class PatientPlanCache {
+
+    private static final Logger LOGGER = Logger.getLogger(PatientPlanCache.class.getName());
+
+    private static final PatientPlanCache INSTANCE = new PatientPlanCache();
+
+    // Most plans kept; the least recently prefetched or taken is dropped first
+    private static final int MAX_PLANS = 16;
+
+    private static final long MAX_AGE_MINUTES = 2;
+
+    // How often today's schedule is read again for patients to prefetch
+    private static final long SCHEDULE_REFRESH_MINUTES = 5;
+
+    /**
+     * A patient's treatment plan as loaded from the database.
+     *
+     * @param patientNumber The patient
+     * @param fullName The patient's name, or null if it could not be read
+     * @param procedures The treatment-planned procedures, unsorted and without a header item
+     * @param stamp The plan's fingerprint, read before the procedures, or null if it was not read from the database
+     * @param loadedAtNanos When the plan was read, as {@link System#nanoTime()}
+     */
+    public record PatientPlan(int patientNumber, String fullName, List<TreatmentPlanProcedure> procedures,
+                              RiverGreenDB.PlanStamp stamp, long loadedAtNanos) {
+
+        boolean contains(Set<Integer> procNums) {
+            for (TreatmentPlanProcedure procedure : procedures) {
+                if (procNums.contains(procedure.getProcedureNumber())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private final Map<Integer, CompletableFuture<PatientPlan>> plans = new LinkedHashMap<>(32, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, CompletableFuture<PatientPlan>> eldest) {
+            return size() > MAX_PLANS;
+        }
+    };
+
+    // Patients left with edits still to be written, and the procedures of their plan
+    private final Map<Integer, Set<Integer>> awaitingWrites = new HashMap<>();
+
+    private boolean schedulePrefetched;
+    private long schedulePrefetchedAtNanos;
+
+    private PatientPlanCache() {
+    }
+
+    public static PatientPlanCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Gets a patient's plan for editing, from the cache if a fresh one was prefetched and the plan has
+     * not changed since, otherwise by loading it now. The plan is removed from the cache.
+     *
+     * @param patientNumber The patient
+     * @return The plan; completes on a worker thread, or has already completed
+     */
+    public CompletableFuture<PatientPlan> take(int patientNumber) {
+        CompletableFuture<PatientPlan> plan;
+        synchronized (plans) {
+            plan = plans.remove(patientNumber);
+        }
+        if (plan == null || !isUsable(plan)) {
+            return load(patientNumber);
+        }
+        return plan.thenCompose(cached -> cached.stamp() == null
+                ? CompletableFuture.completedFuture(cached)
+                : revalidate(cached));
+    }
+
+    /**
+     * Hands out a cached plan if its fingerprint is unchanged, otherwise loads the plan again.
+     */
+    private static CompletableFuture<PatientPlan> revalidate(PatientPlan cached) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return RiverGreenDB.getPlanStamp(cached.patientNumber()).equals(cached.stamp());
+            } catch (SQLException e) {
+                LOGGER.log(Level.FINE, "Could not check cached plan of patient " + cached.patientNumber(), e);
+                return false;
+            }
+        }, BackgroundTasks.executor()).thenCompose(current -> current
+                ? CompletableFuture.completedFuture(cached)
+                : load(cached.patientNumber()));
+    }
+
+    /**
+     * Starts loading a patient's plan unless a usable one is cached or loading.
+     *
+     * @param patientNumber The patient
+     * @return The cached or loading plan
+     */
+    public CompletableFuture<PatientPlan> prefetch(int patientNumber) {
+        synchronized (plans) {
+            CompletableFuture<PatientPlan> plan = plans.get(patientNumber);
+            if (plan == null || !isUsable(plan)) {
+                plan = load(patientNumber);
+                plans.put(patientNumber, plan);
+            }
+            return plan;
+        }
+    }
+
+    /**
+     * Caches a plan that was not read by this cache, replacing any cached for the same patient.
+     * Used by the startup training run, which opens a synthetic patient without the database.
+     *
+     * @param plan The plan
+     */
+    public void offer(PatientPlan plan) {
+        synchronized (plans) {
+            plans.put(plan.patientNumber(), CompletableFuture.completedFuture(plan));
+        }
+    }
+
+    /**
+     * Prefetches the plans of the next patients on today's schedule, in the background. The schedule
+     * is read at most once every {@link #SCHEDULE_REFRESH_MINUTES} minutes, however often patients are
+     * switched; plans prefetched from it stay cached until they expire or change.
+     *
+     * @param limit The most patients to prefetch
+     */
+    public void prefetchSchedule(int limit) {
+        synchronized (this) {
+            long now = System.nanoTime();
+            if (schedulePrefetched && now - schedulePrefetchedAtNanos < TimeUnit.MINUTES.toNanos(SCHEDULE_REFRESH_MINUTES)) {
+                return;
+            }
+            schedulePrefetched = true;
+            schedulePrefetchedAtNanos = now;
+        }
+        BackgroundTasks.submit(() -> {
+            try {
+                // One at a time, so prefetching never competes with the user for database connections
+                for (int patientNumber : RiverGreenDB.getPatientsScheduledLaterToday(limit)) {
+                    prefetch(patientNumber).exceptionally(error -> null).join();
+                }
+            } catch (SQLException e) {
+                LOGGER.log(Level.FINE, "Could not read today's schedule for prefetching", e);
+            }
+        });
+    }
+
+    /**
+     * Loads a patient's plan again once their pending edits have been written, or now if there are none.
+     * Used for the patient the user just switched away from.
+     *
+     * @param patientNumber The patient
+     * @param procNums The procedures of the plan the user left
+     */
+    public void prefetchRevisit(int patientNumber, Collection<Integer> procNums) {
+        invalidate(patientNumber);
+        synchronized (awaitingWrites) {
+            if (WriteBehindQueue.getInstance().hasPending(procNums)) {
+                awaitingWrites.put(patientNumber, Set.copyOf(procNums));
+                return;
+            }
+            awaitingWrites.remove(patientNumber);
+        }
+        prefetch(patientNumber);
+    }
+
+    /**
+     * Drops cached plans of procedures that were just written and loads the left patients whose edits
+     * have all been written. Registered as a {@link WriteBehindQueue} flush listener.
+     *
+     * @param procNums The procedures the flush wrote
+     */
+    public void written(Set<Integer> procNums) {
+        List<Integer> reload = new ArrayList<>();
+        synchronized (plans) {
+            for (Map.Entry<Integer, CompletableFuture<PatientPlan>> entry : plans.entrySet()) {
+                CompletableFuture<PatientPlan> plan = entry.getValue();
+                if (plan.isDone() && !plan.isCompletedExceptionally() && plan.join().contains(procNums)) {
+                    reload.add(entry.getKey());
+                }
+            }
+            reload.forEach(plans::remove);
+        }
+        synchronized (awaitingWrites) {
+            Iterator<Map.Entry<Integer, Set<Integer>>> awaiting = awaitingWrites.entrySet().iterator();
+            while (awaiting.hasNext()) {
+                Map.Entry<Integer, Set<Integer>> entry = awaiting.next();
+                if (!WriteBehindQueue.getInstance().hasPending(entry.getValue())) {
+                    awaiting.remove();
+                    reload.add(entry.getKey());
+                }
+            }
+        }
+        for (int patientNumber : reload) {
+            prefetch(patientNumber);
+        }
+    }
+
+    /**
+     * Drops a patient's cached plan, e.g. after their changes were saved.
+     *
+     * @param patientNumber The patient
+     */
+    public void invalidate(int patientNumber) {
+        synchronized (plans) {
+            plans.remove(patientNumber);
+        }
+    }
+
+    /**
+     * A plan can be shown if it is still loading or was loaded recently; failed loads are retried.
+     */
+    private static boolean isUsable(CompletableFuture<PatientPlan> plan) {
+        if (!plan.isDone()) {
+            return true;
+        }
+        if (plan.isCompletedExceptionally()) {
+            return false;
+        }
+        return System.nanoTime() - plan.join().loadedAtNanos() < TimeUnit.MINUTES.toNanos(MAX_AGE_MINUTES);
+    }
+
+    private static CompletableFuture<PatientPlan> load(int patientNumber) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                // Read first, so a change made while the procedures are read makes the stamp differ later
+                RiverGreenDB.PlanStamp stamp = RiverGreenDB.getPlanStamp(patientNumber);
+                List<TreatmentPlanProcedure> procedures = RiverGreenDB.getProceduresForPatient(patientNumber);
+                String fullName = null;
+                try {
+                    fullName = RiverGreenDB.getPatientFullName(patientNumber);
+                } catch (SQLException e) {
+                    LOGGER.log(Level.WARNING, "Error getting patient full name", e);
+                }
+                return new PatientPlan(patientNumber, fullName, procedures, stamp, System.nanoTime());
+            } catch (SQLException e) {
+                throw new CompletionException(e);
+            }
+        }, BackgroundTasks.executor());
+    }
+}
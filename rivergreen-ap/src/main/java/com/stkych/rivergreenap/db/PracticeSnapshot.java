@@ -0,0 +1,641 @@
+package com.stkych.rivergreenap.db;
+
+import com.stkych.rivergreenap.RiverGreenDB;
+import com.stkych.rivergreenap.model.PlannedProcedure;
+import com.stkych.rivergreenap.util.FileUtils;
+import com.stkych.rivergreenap.util.PriorityOrder;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.logging.Logger;
+
+/**
+ * Every patient's treatment-planned procedures, held outside the Java heap.
+ * <p>
+ * The procedures are stored as int columns in a {@link MemorySegment}: patient number, procedure
+ * number, and ids of the code, tooth, diagnosis and priority names, sorted by patient. Only the
+ * distinct names and the patients' row offsets are kept on the heap, so a long-running daemon
+ * can hold a large practice without the collector scanning it. The snapshot is mapped from its
+ * file, so a restart maps the last snapshot instead of reading every plan from MySQL again.
+ * {@link #plan} reads a patient's plan straight from the columns, which is how the daemon gets the
+ * plans it evaluates, and {@link #priorityCounts} reports from the priority column.
+ * <p>
+ * {@link #refresh} brings the snapshot up to date from the procedurelog change stream: patients
+ * with procedures changed since the stored watermark are read again and their rows replaced.
+ * Changes committed after the watermark passed their DateTStamp are found by reading the last
+ * minute before it again (see {@link LateChangeFilter}).
+ * The first refresh, and one facing a large backlog, reads every plan instead, streaming the rows
+ * into off-heap memory as they arrive rather than collecting the plans on the heap. Each refresh writes
+ * a complete new snapshot and then swaps it in, so readers never see a partly updated one and a
+ * crash leaves the previous file intact. The previous mapping is released by closing its
+ * {@link Arena}, which unmaps the file at once; Windows does not allow replacing a mapped file.
+ * <p>
+ * Plans that leave the active treatment plans without a procedure changing, such as a whole
+ * plan being set inactive, are only dropped by the next full reload; delete the file to force one.
+ */
+public final class PracticeSnapshot implements AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger(PracticeSnapshot.class.getName());
+
+    private static final String SNAPSHOT_FILE = "practice-snapshot.bin";
+
+    // "RGPS"
+    private static final int MAGIC = 0x52475053;
+    private static final int VERSION = 1;
+
+    // Header: magic, version, watermark DateTStamp (long) and ProcNum, row, patient and name counts
+    private static final long MAGIC_OFFSET = 0;
+    private static final long VERSION_OFFSET = 4;
+    private static final long WATERMARK_MILLIS_OFFSET = 8;
+    private static final long WATERMARK_PROC_NUM_OFFSET = 16;
+    private static final long ROW_COUNT_OFFSET = 20;
+    private static final long PATIENT_COUNT_OFFSET = 24;
+    private static final long NAME_COUNT_OFFSET = 28;
+    private static final long HEADER_BYTES = 64;
+
+    // Columns follow the header in this order, each rowCount ints; then the name lengths and the names' UTF-8 bytes
+    private static final int PATIENT_COLUMN = 0;
+    private static final int PROCEDURE_COLUMN = 1;
+    private static final int CODE_COLUMN = 2;
+    private static final int TOOTH_COLUMN = 3;
+    private static final int DIAGNOSIS_COLUMN = 4;
+    private static final int PRIORITY_COLUMN = 5;
+    private static final int COLUMN_COUNT = 6;
+
+    // Changed procedures fetched per query while catching up
+    private static final int FETCH_LIMIT = 1000;
+    // Above this many changed patients, reading every plan at once is cheaper than one query per patient
+    private static final int MAX_INCREMENTAL_PATIENTS = 2000;
+
+    private final Path file;
+    private Arena arena;
+    private MemorySegment segment;
+    private int rowCount;
+    private Timestamp watermarkDate = new Timestamp(0);
+    private int watermarkProcNum;
+    private final LateChangeFilter lateChanges = new LateChangeFilter(false);
+
+    // Name of each id, and the id of each name; id 0 is null
+    private final List<String> names = new ArrayList<>();
+    private final Map<String, Integer> ids = new HashMap<>();
+    private int[] patientNumbers = new int[0];
+    private int[] patientStarts = {0};
+
+    private PracticeSnapshot(Path file) {
+        this.file = file;
+        this.arena = Arena.ofShared();
+        this.segment = MemorySegment.NULL;
+        names.add(null);
+    }
+
+    /**
+     * Gets the file the daemon keeps its snapshot in.
+     *
+     * @return The snapshot file in the application data directory
+     */
+    public static Path defaultFile() {
+        return FileUtils.getAppDataDirectory().toPath().resolve(SNAPSHOT_FILE);
+    }
+
+    /**
+     * Opens a snapshot, mapping the file if it holds one.
+     * A missing, outdated or damaged file gives an empty snapshot, which the next refresh fills.
+     *
+     * @param file The snapshot file
+     * @return The snapshot
+     * @throws IOException If the file exists but cannot be read
+     */
+    public static PracticeSnapshot open(Path file) throws IOException {
+        PracticeSnapshot snapshot = new PracticeSnapshot(file);
+        if (Files.isRegularFile(file)) {
+            Arena mapped = Arena.ofShared();
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                MemorySegment contents = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), mapped);
+                if (snapshot.load(contents)) {
+                    snapshot.arena.close();
+                    snapshot.arena = mapped;
+                    snapshot.segment = contents;
+                    LOGGER.info(() -> "Mapped practice snapshot " + file + ": " + snapshot.rowCount + " procedures, "
+                            + snapshot.patientNumbers.length + " patients");
+                    return snapshot;
+                }
+            } catch (IOException e) {
+                mapped.close();
+                throw e;
+            }
+            mapped.close();
+            LOGGER.warning("Ignoring practice snapshot " + file + " written by another version or damaged; it will be rebuilt");
+        }
+        return snapshot;
+    }
+
+    /**
+     * Reads the header, names and patient offsets of a stored snapshot.
+     *
+     * @return False if the contents are not a complete snapshot of this version
+     */
+    private boolean load(MemorySegment contents) {
+        if (contents.byteSize() < HEADER_BYTES
+                || contents.get(ValueLayout.JAVA_INT, MAGIC_OFFSET) != MAGIC
+                || contents.get(ValueLayout.JAVA_INT, VERSION_OFFSET) != VERSION) {
+            return false;
+        }
+        int rows = contents.get(ValueLayout.JAVA_INT, ROW_COUNT_OFFSET);
+        int patients = contents.get(ValueLayout.JAVA_INT, PATIENT_COUNT_OFFSET);
+        int nameCount = contents.get(ValueLayout.JAVA_INT, NAME_COUNT_OFFSET);
+        long lengthsOffset = HEADER_BYTES + (long) COLUMN_COUNT * rows * Integer.BYTES;
+        long bytesOffset = lengthsOffset + (long) nameCount * Integer.BYTES;
+        if (rows < 0 || patients < 0 || nameCount < 0 || bytesOffset > contents.byteSize()) {
+            return false;
+        }
+
+        List<String> loadedNames = new ArrayList<>(nameCount + 1);
+        loadedNames.add(null);
+        long offset = bytesOffset;
+        for (int i = 0; i < nameCount; i++) {
+            int length = contents.get(ValueLayout.JAVA_INT, lengthsOffset + (long) i * Integer.BYTES);
+            if (length < 0 || offset + length > contents.byteSize()) {
+                return false;
+            }
+            byte[] bytes = contents.asSlice(offset, length).toArray(ValueLayout.JAVA_BYTE);
+            loadedNames.add(new String(bytes, StandardCharsets.UTF_8));
+            offset += length;
+        }
+
+        int[] numbers = new int[patients];
+        int[] starts = new int[patients + 1];
+        int patient = -1;
+        for (int row = 0; row < rows; row++) {
+            int number = contents.get(ValueLayout.JAVA_INT, columnOffset(rows, PATIENT_COLUMN, row));
+            if (patient < 0 || numbers[patient] != number) {
+                if (++patient >= patients) {
+                    return false;
+                }
+                numbers[patient] = number;
+                starts[patient] = row;
+            }
+        }
+        if (patient + 1 != patients) {
+            return false;
+        }
+        starts[patients] = rows;
+
+        rowCount = rows;
+        watermarkDate = new Timestamp(contents.get(ValueLayout.JAVA_LONG, WATERMARK_MILLIS_OFFSET));
+        watermarkProcNum = contents.get(ValueLayout.JAVA_INT, WATERMARK_PROC_NUM_OFFSET);
+        names.clear();
+        ids.clear();
+        names.addAll(loadedNames);
+        for (int id = 1; id < names.size(); id++) {
+            ids.put(names.get(id), id);
+        }
+        patientNumbers = numbers;
+        patientStarts = starts;
+        return true;
+    }
+
+    private static long columnOffset(int rows, int column, int row) {
+        return HEADER_BYTES + ((long) column * rows + row) * Integer.BYTES;
+    }
+
+    /**
+     * Brings the snapshot up to date with the database.
+     *
+     * @return The number of patients whose plans were read
+     * @throws SQLException If the database cannot be read
+     * @throws IOException If the new snapshot cannot be written
+     */
+    public synchronized int refresh() throws SQLException, IOException {
+        if (watermarkDate.getTime() == 0 && watermarkProcNum == 0) {
+            return reloadAll();
+        }
+
+        Set<Integer> patients = new TreeSet<>();
+        Timestamp since = watermarkDate;
+        int afterProcNum = watermarkProcNum;
+        List<RiverGreenDB.ChangedProcedure> changes;
+        do {
+            changes = RiverGreenDB.getChangedProcedures(since, afterProcNum, FETCH_LIMIT);
+            lateChanges.processed(changes);
+            for (RiverGreenDB.ChangedProcedure change : changes) {
+                patients.add(change.patientNumber());
+            }
+            if (!changes.isEmpty()) {
+                RiverGreenDB.ChangedProcedure last = changes.get(changes.size() - 1);
+                since = last.dateTStamp();
+                afterProcNum = last.procNum();
+            }
+            if (patients.size() > MAX_INCREMENTAL_PATIENTS) {
+                LOGGER.info("Practice snapshot is more than " + MAX_INCREMENTAL_PATIENTS + " patients behind; reloading every plan");
+                return reloadAll();
+            }
+        } while (changes.size() == FETCH_LIMIT);
+
+        // Changes committed after the watermark passed them
+        List<RiverGreenDB.ChangedProcedure> late = lateChanges.findLate(since, afterProcNum);
+        for (RiverGreenDB.ChangedProcedure change : late) {
+            patients.add(change.patientNumber());
+        }
+
+        if (patients.isEmpty()) {
+            return 0;
+        }
+        Map<Integer, List<PlannedProcedure>> plans = new TreeMap<>();
+        for (int patientNumber : patients) {
+            plans.put(patientNumber, RiverGreenDB.getPlannedProcedures(patientNumber));
+        }
+        replace(plans, since, afterProcNum);
+        lateChanges.processed(late);
+        return patients.size();
+    }
+
+    private int reloadAll() throws SQLException, IOException {
+        // Read first, so changes made while the plans are read are picked up again by the next refresh
+        RiverGreenDB.ChangedProcedure latest = RiverGreenDB.getLatestProcedureChange();
+        try (RowBuffer rows = new RowBuffer()) {
+            RiverGreenDB.forEachPlannedProcedure((procedure, patientNumber) ->
+                    rows.add(patientNumber, procedure.procedureNumber(), id(procedure.procedureCode()),
+                            id(procedure.toothNumber()), id(procedure.diagnosis()), id(procedure.priority())));
+            write(rows.size(), rows.patientCount(), latest != null ? latest.dateTStamp() : new Timestamp(0),
+                    latest != null ? latest.procNum() : 0, rows::copyTo);
+            return rows.patientCount();
+        }
+    }
+
+    /**
+     * Writes a new snapshot in which the given patients' rows are replaced by their plans, and swaps it in.
+     *
+     * @param plans The plans keyed by patient number, in ascending order; an empty plan removes the patient
+     * @param since The watermark's DateTStamp
+     * @param afterProcNum The watermark's ProcNum
+     */
+    synchronized void replace(Map<Integer, List<PlannedProcedure>> plans, Timestamp since, int afterProcNum)
+            throws IOException {
+        // Names are only added, since the current snapshot's ids must stay valid until the new one is in place.
+        // A practice has a few thousand distinct codes, teeth, diagnoses and priorities, so the list stays small.
+
+        // Rows kept: every row of the patients not replaced
+        int newRows = 0;
+        int newPatients = 0;
+        for (int patient = 0; patient < patientNumbers.length; patient++) {
+            if (!plans.containsKey(patientNumbers[patient])) {
+                newRows += patientStarts[patient + 1] - patientStarts[patient];
+                newPatients++;
+            }
+        }
+        for (List<PlannedProcedure> plan : plans.values()) {
+            newRows += plan.size();
+            newPatients += plan.isEmpty() ? 0 : 1;
+            for (PlannedProcedure procedure : plan) {
+                id(procedure.procedureCode());
+                id(procedure.toothNumber());
+                id(procedure.diagnosis());
+                id(procedure.priority());
+            }
+        }
+
+        write(newRows, newPatients, since, afterProcNum, (target, targetRows, numbers, starts) -> {
+            // Merge the kept patients' rows with the new plans, both in patient number order
+            int row = 0;
+            int patient = 0;
+            int oldPatient = 0;
+            for (Map.Entry<Integer, List<PlannedProcedure>> plan : plans.entrySet()) {
+                int patientNumber = plan.getKey();
+                for (; oldPatient < patientNumbers.length && patientNumbers[oldPatient] < patientNumber; oldPatient++) {
+                    if (!plans.containsKey(patientNumbers[oldPatient])) {
+                        numbers[patient] = patientNumbers[oldPatient];
+                        starts[patient++] = row;
+                        row = copyOldRows(target, targetRows, row, oldPatient);
+                    }
+                }
+                if (!plan.getValue().isEmpty()) {
+                    numbers[patient] = patientNumber;
+                    starts[patient++] = row;
+                    for (PlannedProcedure procedure : plan.getValue()) {
+                        writeRow(target, targetRows, row++, patientNumber, procedure.procedureNumber(),
+                                id(procedure.procedureCode()), id(procedure.toothNumber()),
+                                id(procedure.diagnosis()), id(procedure.priority()));
+                    }
+                }
+            }
+            for (; oldPatient < patientNumbers.length; oldPatient++) {
+                if (!plans.containsKey(patientNumbers[oldPatient])) {
+                    numbers[patient] = patientNumbers[oldPatient];
+                    starts[patient++] = row;
+                    row = copyOldRows(target, targetRows, row, oldPatient);
+                }
+            }
+        });
+    }
+
+    /**
+     * Fills a new snapshot's columns.
+     */
+    @FunctionalInterface
+    private interface RowSource {
+        /**
+         * Writes every row, sorted by patient number.
+         *
+         * @param target The new snapshot
+         * @param targetRows The new snapshot's row count
+         * @param numbers Receives the patient numbers, in ascending order
+         * @param starts Receives each patient's first row
+         */
+        void copyTo(MemorySegment target, int targetRows, int[] numbers, int[] starts);
+    }
+
+    /**
+     * Writes a complete new snapshot to a temporary file, then moves it over the snapshot file and maps it.
+     * Every name the rows use must already have an id.
+     */
+    private void write(int newRows, int newPatients, Timestamp since, int afterProcNum, RowSource rows)
+            throws IOException {
+        byte[][] encodedNames = new byte[names.size() - 1][];
+        long nameBytes = 0;
+        for (int id = 1; id < names.size(); id++) {
+            encodedNames[id - 1] = names.get(id).getBytes(StandardCharsets.UTF_8);
+            nameBytes += encodedNames[id - 1].length;
+        }
+        long lengthsOffset = HEADER_BYTES + (long) COLUMN_COUNT * newRows * Integer.BYTES;
+        long bytesOffset = lengthsOffset + (long) encodedNames.length * Integer.BYTES;
+        long totalBytes = bytesOffset + nameBytes;
+
+        int[] numbers = new int[newPatients];
+        int[] starts = new int[newPatients + 1];
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Arena writeArena = Arena.ofConfined();
+        try {
+            MemorySegment target;
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                target = channel.map(FileChannel.MapMode.READ_WRITE, 0, totalBytes, writeArena);
+            }
+            rows.copyTo(target, newRows, numbers, starts);
+            starts[newPatients] = newRows;
+
+            long offset = bytesOffset;
+            for (int i = 0; i < encodedNames.length; i++) {
+                target.set(ValueLayout.JAVA_INT, lengthsOffset + (long) i * Integer.BYTES, encodedNames[i].length);
+                MemorySegment.copy(encodedNames[i], 0, target, ValueLayout.JAVA_BYTE, offset, encodedNames[i].length);
+                offset += encodedNames[i].length;
+            }
+
+            target.set(ValueLayout.JAVA_LONG, WATERMARK_MILLIS_OFFSET, since.getTime());
+            target.set(ValueLayout.JAVA_INT, WATERMARK_PROC_NUM_OFFSET, afterProcNum);
+            target.set(ValueLayout.JAVA_INT, ROW_COUNT_OFFSET, newRows);
+            target.set(ValueLayout.JAVA_INT, PATIENT_COUNT_OFFSET, newPatients);
+            target.set(ValueLayout.JAVA_INT, NAME_COUNT_OFFSET, encodedNames.length);
+            target.set(ValueLayout.JAVA_INT, VERSION_OFFSET, VERSION);
+            // Written last, so a file cut short by a crash is not taken for a snapshot
+            target.set(ValueLayout.JAVA_INT, MAGIC_OFFSET, MAGIC);
+
+            target.force();
+            writeArena.close();
+            arena.close();
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            writeArena = Arena.ofShared();
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                target = channel.map(FileChannel.MapMode.READ_ONLY, 0, totalBytes, writeArena);
+            }
+            arena = writeArena;
+            segment = target;
+        } catch (IOException | RuntimeException e) {
+            if (writeArena.scope().isAlive()) {
+                writeArena.close();
+            }
+            if (!arena.scope().isAlive()) {
+                // The old mapping was already released; the next refresh reads every plan again
+                arena = Arena.ofShared();
+                segment = MemorySegment.NULL;
+                rowCount = 0;
+                patientNumbers = new int[0];
+                patientStarts = new int[]{0};
+                watermarkDate = new Timestamp(0);
+                watermarkProcNum = 0;
+            }
+            throw e;
+        }
+
+        rowCount = newRows;
+        patientNumbers = numbers;
+        patientStarts = starts;
+        watermarkDate = since;
+        watermarkProcNum = afterProcNum;
+        LOGGER.fine(() -> "Practice snapshot now has " + rowCount + " procedures of " + numbers.length + " patients");
+    }
+
+    private int copyOldRows(MemorySegment target, int targetRows, int targetRow, int oldPatient) {
+        int start = patientStarts[oldPatient];
+        int count = patientStarts[oldPatient + 1] - start;
+        for (int column = 0; column < COLUMN_COUNT; column++) {
+            MemorySegment.copy(segment, columnOffset(rowCount, column, start),
+                    target, columnOffset(targetRows, column, targetRow), (long) count * Integer.BYTES);
+        }
+        return targetRow + count;
+    }
+
+    private static void writeRow(MemorySegment target, int rows, int row, int patientNumber, int procedureNumber,
+                                 int code, int tooth, int diagnosis, int priority) {
+        target.set(ValueLayout.JAVA_INT, columnOffset(rows, PATIENT_COLUMN, row), patientNumber);
+        target.set(ValueLayout.JAVA_INT, columnOffset(rows, PROCEDURE_COLUMN, row), procedureNumber);
+        target.set(ValueLayout.JAVA_INT, columnOffset(rows, CODE_COLUMN, row), code);
+        target.set(ValueLayout.JAVA_INT, columnOffset(rows, TOOTH_COLUMN, row), tooth);
+        target.set(ValueLayout.JAVA_INT, columnOffset(rows, DIAGNOSIS_COLUMN, row), diagnosis);
+        target.set(ValueLayout.JAVA_INT, columnOffset(rows, PRIORITY_COLUMN, row), priority);
+    }
+
+    private int id(String name) {
+        if (name == null) {
+            return 0;
+        }
+        Integer id = ids.get(name);
+        if (id == null) {
+            id = names.size();
+            ids.put(name, id);
+            names.add(name);
+        }
+        return id;
+    }
+
+    private int column(int column, int row) {
+        return segment.get(ValueLayout.JAVA_INT, columnOffset(rowCount, column, row));
+    }
+
+    /**
+     * Gets the number of procedures in the snapshot.
+     *
+     * @return The procedure count
+     */
+    public synchronized int size() {
+        return rowCount;
+    }
+
+    /**
+     * Gets the number of patients with procedures in the snapshot.
+     *
+     * @return The patient count
+     */
+    public synchronized int patientCount() {
+        return patientNumbers.length;
+    }
+
+    /**
+     * Gets the procedurelog change the snapshot is current up to.
+     *
+     * @return The watermark's DateTStamp; the epoch if the snapshot has never been filled
+     */
+    public synchronized Timestamp getWatermark() {
+        return watermarkDate;
+    }
+
+    /**
+     * Counts the procedures with each priority, read straight from the priority column.
+     *
+     * @return The number of procedures per priority name, in priority order
+     */
+    public synchronized Map<String, Integer> priorityCounts() {
+        int[] counts = new int[names.size()];
+        for (int row = 0; row < rowCount; row++) {
+            counts[column(PRIORITY_COLUMN, row)]++;
+        }
+        List<String> priorities = new ArrayList<>();
+        for (int id = 0; id < counts.length; id++) {
+            if (counts[id] > 0) {
+                priorities.add(names.get(id));
+            }
+        }
+        PriorityOrder.current().sort(priorities);
+        Map<String, Integer> result = new LinkedHashMap<>();
+        for (String priority : priorities) {
+            result.put(priority, counts[id(priority)]);
+        }
+        return result;
+    }
+
+    /**
+     * Reads a patient's plan from the snapshot. Only the fields rules look at are kept: the procedures
+     * have no surface or description, and a fee of 0.
+     *
+     * @param patientNumber The patient number
+     * @return The patient's procedures, in the order they were read; empty if the patient has none
+     */
+    public synchronized List<PlannedProcedure> plan(int patientNumber) {
+        int patient = Arrays.binarySearch(patientNumbers, patientNumber);
+        if (patient < 0) {
+            return List.of();
+        }
+        List<PlannedProcedure> plan = new ArrayList<>(patientStarts[patient + 1] - patientStarts[patient]);
+        for (int row = patientStarts[patient]; row < patientStarts[patient + 1]; row++) {
+            plan.add(new PlannedProcedure(column(PROCEDURE_COLUMN, row), names.get(column(PRIORITY_COLUMN, row)),
+                    names.get(column(TOOTH_COLUMN, row)), null, names.get(column(CODE_COLUMN, row)),
+                    names.get(column(DIAGNOSIS_COLUMN, row)), null, 0));
+        }
+        return plan;
+    }
+
+    /**
+     * Releases the snapshot's memory or mapping. A file-backed snapshot stays on disk.
+     */
+    @Override
+    public synchronized void close() {
+        if (arena.scope().isAlive()) {
+            arena.close();
+        }
+        segment = MemorySegment.NULL;
+        rowCount = 0;
+        patientNumbers = new int[0];
+        patientStarts = new int[]{0};
+    }
+
+    /**
+     * Rows streamed from the database during a full reload, held off the heap in row order until
+     * their count is known and the columns can be laid out. Grows by doubling.
+     */
+    private static final class RowBuffer implements AutoCloseable {
+        private static final int INITIAL_ROWS = 4096;
+
+        private Arena arena = Arena.ofConfined();
+        private MemorySegment rows = arena.allocate((long) INITIAL_ROWS * COLUMN_COUNT * Integer.BYTES, Integer.BYTES);
+        private long capacity = INITIAL_ROWS;
+        private int size;
+        private int patientCount;
+
+        void add(int patientNumber, int procedureNumber, int code, int tooth, int diagnosis, int priority) {
+            if (size == capacity) {
+                Arena grown = Arena.ofConfined();
+                MemorySegment larger = grown.allocate(capacity * 2 * COLUMN_COUNT * Integer.BYTES, Integer.BYTES);
+                MemorySegment.copy(rows, 0, larger, 0, rows.byteSize());
+                arena.close();
+                arena = grown;
+                rows = larger;
+                capacity *= 2;
+            }
+            if (size == 0 || get(size - 1, PATIENT_COLUMN) != patientNumber) {
+                if (size > 0 && get(size - 1, PATIENT_COLUMN) > patientNumber) {
+                    throw new IllegalStateException("Plans are not in patient number order");
+                }
+                patientCount++;
+            }
+            set(size, PATIENT_COLUMN, patientNumber);
+            set(size, PROCEDURE_COLUMN, procedureNumber);
+            set(size, CODE_COLUMN, code);
+            set(size, TOOTH_COLUMN, tooth);
+            set(size, DIAGNOSIS_COLUMN, diagnosis);
+            set(size, PRIORITY_COLUMN, priority);
+            size++;
+        }
+
+        private void set(int row, int column, int value) {
+            rows.set(ValueLayout.JAVA_INT, ((long) row * COLUMN_COUNT + column) * Integer.BYTES, value);
+        }
+
+        private int get(int row, int column) {
+            return rows.get(ValueLayout.JAVA_INT, ((long) row * COLUMN_COUNT + column) * Integer.BYTES);
+        }
+
+        int size() {
+            return size;
+        }
+
+        int patientCount() {
+            return patientCount;
+        }
+
+        void copyTo(MemorySegment target, int targetRows, int[] numbers, int[] starts) {
+            int patient = -1;
+            for (int row = 0; row < size; row++) {
+                int patientNumber = get(row, PATIENT_COLUMN);
+                if (patient < 0 || numbers[patient] != patientNumber) {
+                    numbers[++patient] = patientNumber;
+                    starts[patient] = row;
+                }
+                writeRow(target, targetRows, row, patientNumber, get(row, PROCEDURE_COLUMN), get(row, CODE_COLUMN),
+                        get(row, TOOTH_COLUMN), get(row, DIAGNOSIS_COLUMN), get(row, PRIORITY_COLUMN));
+            }
+        }
+
+        @Override
+        public void close() {
+            arena.close();
+        }
+    }
+}
@@ -0,0 +1,444 @@
+package com.stkych.rivergreenap.db;
+
+import com.stkych.rivergreenap.RiverGreenDB;
+import com.stkych.rivergreenap.util.BackgroundTasks;
+import com.stkych.rivergreenap.util.FileUtils;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Coalescing write-behind queue for interactive priority and diagnosis edits.
+ * <p>
+ * Edits are kept per ProcNum, so clicking through several priorities on the same procedure
+ * only writes the last one. Pending edits are flushed in the background once the user has been
+ * idle for {@link #IDLE_FLUSH_MILLIS}, or immediately on an explicit save, and each flush goes
+ * out as one batched statement through {@link RiverGreenDB#updateProcedureEdits(Map, Map)}.
+ * <p>
+ * Each edit carries its base: the value the procedure had when it was edited. An edit is only
+ * written while the procedure still has its base, so an edit that waited, for example in the
+ * journal until the next start, never overwrites a newer change made in OpenDental; such edits
+ * are dropped and reported as conflicts.
+ * <p>
+ * Every edit is also appended to a local journal file before it is acknowledged. The journal is
+ * rewritten after each successful flush and replayed when the queue is created, so edits made
+ * just before a crash or a closed window are written on the next start.
+ */
+public final class WriteBehindQueue {
+
+    private static final Logger LOGGER = Logger.getLogger(WriteBehindQueue.class.getName());
+
+    /**
+     * Columns an interactive edit can change.
+     */
+    public enum Column {
+        PRIORITY('P'),
+        DIAGNOSIS('D');
+
+        private final char code;
+
+        Column(char code) {
+            this.code = code;
+        }
+
+        static Column fromCode(char code) {
+            for (Column column : values()) {
+                if (column.code == code) {
+                    return column;
+                }
+            }
+            throw new IllegalArgumentException("Unknown column code: " + code);
+        }
+    }
+
+    private static final String JOURNAL_FILE = "pending-edits.journal";
+    // How long the user has to be idle before pending edits are written
+    private static final long IDLE_FLUSH_MILLIS = 3000;
+
+    private static WriteBehindQueue instance;
+
+    // A queued value and the value the procedure had when it was edited
+    private record Edit(String base, String value) {
+    }
+
+    /**
+     * Writes a batch of edits, each as {base, value}, like {@link RiverGreenDB#updateProcedureEdits(Map, Map)}.
+     */
+    @FunctionalInterface
+    interface EditWriter {
+        RiverGreenDB.GuardedWrite write(Map<Integer, String[]> priorities, Map<Integer, String[]> diagnoses)
+                throws SQLException;
+    }
+
+    // Pending edits keyed by ProcNum, then by column; insertion order keeps the journal readable
+    private final Map<Integer, Map<Column, Edit>> pending = new LinkedHashMap<>();
+    // Values this queue has written, the base of later edits to the same procedure and column
+    private final Map<Integer, Map<Column, String>> written = new HashMap<>();
+    // Procedures of the batch being written
+    private Set<Integer> writing = Set.of();
+    private final List<Consumer<Set<Integer>>> flushListeners = new CopyOnWriteArrayList<>();
+    private final Path journalFile;
+    private final EditWriter writer;
+    private final ScheduledExecutorService scheduler =
+            Executors.newSingleThreadScheduledExecutor(BackgroundTasks.daemonThreadFactory("rivergreen-write-behind"));
+    // Serializes flushes so an explicit save and the idle timer never write concurrently
+    private final Object flushLock = new Object();
+    private BufferedWriter journal;
+    private ScheduledFuture<?> scheduledFlush;
+
+    /**
+     * Creates a queue journaling to the given file and replays the edits left in it.
+     *
+     * @param journalFile The journal file
+     * @param writer Writes flushed edits; the database outside of tests
+     */
+    WriteBehindQueue(Path journalFile, EditWriter writer) {
+        this.journalFile = journalFile;
+        this.writer = writer;
+        replayJournal();
+    }
+
+    /**
+     * Gets the process-wide queue, replaying any journaled edits on first use.
+     *
+     * @return The write-behind queue
+     */
+    public static synchronized WriteBehindQueue getInstance() {
+        if (instance == null) {
+            instance = new WriteBehindQueue(FileUtils.getAppDataDirectory().toPath().resolve(JOURNAL_FILE),
+                    RiverGreenDB::updateProcedureEdits);
+        }
+        return instance;
+    }
+
+    /**
+     * Queues an edit and restarts the idle timer.
+     * A later edit to the same procedure and column replaces this one but keeps its base.
+     *
+     * @param procNum The procedure number
+     * @param column The edited column
+     * @param base The display value the procedure had when it was loaded; a value this queue has
+     *             written since, or the base of an edit still queued, takes precedence
+     * @param value The new display value (e.g. a priority name or "No diagnosis")
+     */
+    public synchronized void record(int procNum, Column column, String base, String value) {
+        if (procNum <= 0) {
+            return;
+        }
+        Map<Column, Edit> edits = pending.computeIfAbsent(procNum, k -> new HashMap<>());
+        Edit queued = edits.get(column);
+        Map<Column, String> lastWritten = written.get(procNum);
+        String rowValue;
+        if (queued != null) {
+            rowValue = queued.base();
+        } else if (lastWritten != null && lastWritten.containsKey(column)) {
+            rowValue = lastWritten.get(column);
+        } else {
+            rowValue = base != null ? base : "";
+        }
+        Edit edit = new Edit(rowValue, value != null ? value : "");
+        edits.put(column, edit);
+        appendToJournal(procNum, column, edit);
+        scheduleFlush(IDLE_FLUSH_MILLIS);
+    }
+
+    /**
+     * Adds a listener told which procedures each flush wrote, or found changed by someone else, once
+     * the write has committed. Called on the thread that flushed.
+     *
+     * @param listener Receives the ProcNums of the flushed batch
+     */
+    public void addFlushListener(Consumer<Set<Integer>> listener) {
+        flushListeners.add(listener);
+    }
+
+    /**
+     * Tells whether any of the procedures have edits not yet committed, queued or being written.
+     *
+     * @param procNums The procedure numbers
+     * @return True if a flush has yet to write one of them
+     */
+    public synchronized boolean hasPending(Collection<Integer> procNums) {
+        for (Integer procNum : procNums) {
+            if (pending.containsKey(procNum) || writing.contains(procNum)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the number of procedures with unwritten edits.
+     *
+     * @return The number of pending procedures
+     */
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Writes all pending edits now. Called on explicit saves and by the idle timer.
+     * On failure the edits stay queued and journaled; edits recorded while the flush
+     * was running take precedence over the failed ones. Edits whose procedure was changed
+     * since they were made are dropped.
+     *
+     * @return The number of procedures written and the procedures whose edits were dropped
+     * @throws SQLException If the edits cannot be written
+     */
+    public RiverGreenDB.GuardedWrite flush() throws SQLException {
+        synchronized (flushLock) {
+            Map<Integer, Map<Column, Edit>> batch;
+            synchronized (this) {
+                if (scheduledFlush != null) {
+                    scheduledFlush.cancel(false);
+                    scheduledFlush = null;
+                }
+                if (pending.isEmpty()) {
+                    return new RiverGreenDB.GuardedWrite(0, List.of());
+                }
+                batch = new LinkedHashMap<>(pending);
+                pending.clear();
+                writing = Set.copyOf(batch.keySet());
+            }
+
+            Map<Integer, String[]> priorities = new HashMap<>();
+            Map<Integer, String[]> diagnoses = new HashMap<>();
+            for (Map.Entry<Integer, Map<Column, Edit>> entry : batch.entrySet()) {
+                Edit priority = entry.getValue().get(Column.PRIORITY);
+                if (priority != null) {
+                    priorities.put(entry.getKey(), new String[] {priority.base(), priority.value()});
+                }
+                Edit diagnosis = entry.getValue().get(Column.DIAGNOSIS);
+                if (diagnosis != null) {
+                    diagnoses.put(entry.getKey(), new String[] {diagnosis.base(), diagnosis.value()});
+                }
+            }
+
+            RiverGreenDB.GuardedWrite result;
+            try {
+                result = writer.write(priorities, diagnoses);
+            } catch (SQLException | RuntimeException e) {
+                synchronized (this) {
+                    // Put the batch back underneath anything recorded since it was taken,
+                    // whose base is still the failed edit's
+                    for (Map.Entry<Integer, Map<Column, Edit>> entry : batch.entrySet()) {
+                        Map<Column, Edit> current = pending.computeIfAbsent(entry.getKey(), k -> new HashMap<>());
+                        entry.getValue().forEach((column, failed) -> current.merge(column, failed,
+                                (newer, older) -> new Edit(older.base(), newer.value())));
+                    }
+                    rewriteJournal();
+                    writing = Set.of();
+                }
+                throw e;
+            }
+
+            Set<Integer> conflicts = new HashSet<>(result.conflicts());
+            synchronized (this) {
+                for (Map.Entry<Integer, Map<Column, Edit>> entry : batch.entrySet()) {
+                    if (conflicts.contains(entry.getKey())) {
+                        // Whatever the procedure holds now, it is not a value written here
+                        written.remove(entry.getKey());
+                        continue;
+                    }
+                    Map<Column, String> values = written.computeIfAbsent(entry.getKey(), k -> new HashMap<>());
+                    Map<Column, Edit> newer = pending.get(entry.getKey());
+                    entry.getValue().forEach((column, edit) -> {
+                        values.put(column, edit.value());
+                        // An edit recorded during the write was made over the value just written
+                        if (newer != null && newer.containsKey(column)) {
+                            newer.put(column, new Edit(edit.value(), newer.get(column).value()));
+                        }
+                    });
+                }
+                // The written edits no longer need to survive a crash
+                rewriteJournal();
+                writing = Set.of();
+            }
+            for (Consumer<Set<Integer>> listener : flushListeners) {
+                try {
+                    listener.accept(batch.keySet());
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "Flush listener failed", e);
+                }
+            }
+            if (!conflicts.isEmpty()) {
+                LOGGER.warning("Dropped edits to " + conflicts.size()
+                        + " procedures changed by someone else since they were edited: " + result.conflicts());
+            }
+            int writtenCount = batch.size() - conflicts.size();
+            LOGGER.info("Wrote pending edits for " + writtenCount + " procedures");
+            return new RiverGreenDB.GuardedWrite(writtenCount, result.conflicts());
+        }
+    }
+
+    /**
+     * Flushes pending edits and stops the idle timer. Edits that cannot be written stay in the journal.
+     */
+    public void close() {
+        scheduler.shutdownNow();
+        try {
+            flush();
+        } catch (SQLException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Pending edits could not be written; they will be retried on next start", e);
+        }
+        synchronized (this) {
+            closeJournal();
+        }
+    }
+
+    private void scheduleFlush(long delayMillis) {
+        if (scheduler.isShutdown()) {
+            return;
+        }
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+        }
+        scheduledFlush = scheduler.schedule(this::flushQuietly, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (SQLException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Background write of pending edits failed; will retry", e);
+            synchronized (this) {
+                if (scheduledFlush == null || scheduledFlush.isDone()) {
+                    scheduleFlush(IDLE_FLUSH_MILLIS);
+                }
+            }
+        }
+    }
+
+    /**
+     * Loads edits left in the journal by a previous run and schedules them to be written.
+     */
+    private synchronized void replayJournal() {
+        if (!Files.exists(journalFile)) {
+            return;
+        }
+        try {
+            List<String> lines = Files.readAllLines(journalFile, StandardCharsets.UTF_8);
+            for (String line : lines) {
+                // procNum \t column code \t base \t value; a torn last line from a crash is skipped
+                String[] parts = line.split("\t", 4);
+                if (parts.length < 4 || parts[1].length() != 1) {
+                    LOGGER.fine("Skipping malformed journal line: " + line);
+                    continue;
+                }
+                try {
+                    int procNum = Integer.parseInt(parts[0]);
+                    Column column = Column.fromCode(parts[1].charAt(0));
+                    Edit edit = new Edit(unescape(parts[2]), unescape(parts[3]));
+                    pending.computeIfAbsent(procNum, k -> new HashMap<>())
+                            .merge(column, edit, (first, later) -> new Edit(first.base(), later.value()));
+                } catch (IllegalArgumentException e) {
+                    LOGGER.fine("Skipping malformed journal line: " + line);
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not read pending edits journal " + journalFile, e);
+            return;
+        }
+
+        if (!pending.isEmpty()) {
+            LOGGER.info("Recovered pending edits for " + pending.size() + " procedures; writing them now");
+            rewriteJournal();
+            scheduleFlush(0);
+        }
+    }
+
+    private void appendToJournal(int procNum, Column column, Edit edit) {
+        try {
+            if (journal == null) {
+                journal = Files.newBufferedWriter(journalFile, StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+            journal.write(journalLine(procNum, column, edit));
+            journal.newLine();
+            journal.flush();
+        } catch (IOException e) {
+            // The edit is still queued; it just will not survive a crash
+            LOGGER.log(Level.WARNING, "Could not journal edit for procedure " + procNum, e);
+            closeJournal();
+        }
+    }
+
+    /**
+     * Replaces the journal with the edits still pending, or removes it when there are none.
+     */
+    private void rewriteJournal() {
+        closeJournal();
+        try {
+            if (pending.isEmpty()) {
+                Files.deleteIfExists(journalFile);
+                return;
+            }
+            Path temp = journalFile.resolveSibling(journalFile.getFileName() + ".tmp");
+            try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                for (Map.Entry<Integer, Map<Column, Edit>> entry : pending.entrySet()) {
+                    for (Map.Entry<Column, Edit> edit : entry.getValue().entrySet()) {
+                        writer.write(journalLine(entry.getKey(), edit.getKey(), edit.getValue()));
+                        writer.newLine();
+                    }
+                }
+            }
+            Files.move(temp, journalFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not rewrite pending edits journal " + journalFile, e);
+        }
+    }
+
+    private void closeJournal() {
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Error closing pending edits journal", e);
+            }
+            journal = null;
+        }
+    }
+
+    private static String journalLine(int procNum, Column column, Edit edit) {
+        return procNum + "\t" + column.code + "\t" + escape(edit.base()) + "\t" + escape(edit.value());
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n");
+    }
+
+    private static String unescape(String value) {
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char next = value.charAt(++i);
+                sb.append(next == 't' ? '\t' : next == 'n' ? '\n' : next);
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
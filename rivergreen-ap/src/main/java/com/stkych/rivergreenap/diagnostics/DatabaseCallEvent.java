@@ -0,0 +1,57 @@
+package com.stkych.rivergreenap.diagnostics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event for one {@link com.stkych.rivergreenap.RiverGreenDB} operation, from
+ * opening its connection to reading the last row or committing. Connecting is recorded as an
+ * operation of its own, so the time spent opening connections shows up nested in the others.
+ * <p>
+ * Every operation is also timed for {@link DatabaseMetrics}, so it is ended with {@link #finish}
+ * rather than {@code commit}.
+ */
+@Name("rivergreen.DatabaseCall")
+@Label("Database Call")
+@Category({"RiverGreen", "Database"})
+@Description("An OpenDental database operation")
+public final class DatabaseCallEvent extends jdk.jfr.Event {
+
+    @Label("Operation")
+    public String operation;
+
+    @Label("Rows")
+    @Description("Rows read or updated; 0 for operations without rows")
+    public int rows;
+
+    // Not an event field: Flight Recorder has its own timing, this one is for the metrics
+    private final transient long startNanos = System.nanoTime();
+
+    private DatabaseCallEvent(String operation) {
+        this.operation = operation;
+    }
+
+    /**
+     * Starts timing an operation.
+     *
+     * @param operation The operation, named after its method
+     * @return The started event; finish it in a {@code finally} block, so a failed operation is
+     *         recorded too, with the rows it got through
+     */
+    public static DatabaseCallEvent start(String operation) {
+        DatabaseCallEvent event = new DatabaseCallEvent(operation);
+        DatabaseMetrics.started(operation);
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Ends the operation, adding its latency to {@link DatabaseMetrics} and committing the event.
+     */
+    public void finish() {
+        DatabaseMetrics.finished(operation, System.nanoTime() - startNanos);
+        commit();
+    }
+}
@@ -0,0 +1,55 @@
+package com.stkych.rivergreenap.diagnostics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Latency of the {@link com.stkych.rivergreenap.RiverGreenDB} operations by operation, and how many
+ * are running, for the metrics endpoint. Fed by {@link DatabaseCallEvent}, which times every operation
+ * whether or not Flight Recorder is recording.
+ */
+public final class DatabaseMetrics {
+
+    private static final Map<String, Histogram> LATENCIES = new ConcurrentHashMap<>();
+    private static final AtomicInteger IN_FLIGHT = new AtomicInteger();
+    // Operations running on each thread, so one that runs others (opening its connection, or
+    // updateTreatmentPlanProcedures writing through executeUpdateQueries) is in flight once
+    private static final ThreadLocal<int[]> DEPTH = ThreadLocal.withInitial(() -> new int[1]);
+
+    private DatabaseMetrics() {
+    }
+
+    static void started(String operation) {
+        if (DEPTH.get()[0]++ == 0) {
+            IN_FLIGHT.incrementAndGet();
+        }
+    }
+
+    static void finished(String operation, long nanos) {
+        if (--DEPTH.get()[0] == 0) {
+            IN_FLIGHT.decrementAndGet();
+        }
+        LATENCIES.computeIfAbsent(operation, name -> new Histogram(Histogram.SECONDS)).observe(nanos / 1e9);
+    }
+
+    /**
+     * Gets the number of operations running. Operations started while another runs on the same thread
+     * are part of it and are not counted, so this is the number of threads using the database.
+     *
+     * @return The number of outermost operations started and not yet finished
+     */
+    public static int getInFlightCount() {
+        return IN_FLIGHT.get();
+    }
+
+    /**
+     * Gets the latency histograms of the operations run so far.
+     *
+     * @return The histograms in seconds, by operation name in alphabetical order
+     */
+    public static Map<String, Histogram> getLatencies() {
+        return new TreeMap<>(LATENCIES);
+    }
+}
@@ -0,0 +1,106 @@
+package com.stkych.rivergreenap.diagnostics;
+
+import com.stkych.rivergreenap.util.FileUtils;
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.logging.Logger;
+
+/**
+ * Starts and stops a Flight Recorder recording from the application, for the Help menu's
+ * Record Performance Data item.
+ * <p>
+ * The recording uses the JDK's "default" settings, which are meant to be left on in production,
+ * plus the application's own events (see this package). It is written to a {@code .jfr} file in the
+ * {@code recordings} folder of the app data directory when it is stopped, or when the application
+ * exits while it is still running, and can be opened with JDK Mission Control.
+ */
+public final class FlightRecording {
+
+    private static final Logger LOGGER = Logger.getLogger(FlightRecording.class.getName());
+
+    private static final String RECORDINGS_DIRECTORY = "recordings";
+    private static final DateTimeFormatter FILE_NAME_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+    private static final FlightRecording INSTANCE = new FlightRecording();
+
+    private Recording recording;
+    private Path file;
+
+    private FlightRecording() {
+    }
+
+    public static FlightRecording getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Checks whether a recording started here is running.
+     *
+     * @return True between {@link #start} and {@link #stop}
+     */
+    public synchronized boolean isRecording() {
+        return recording != null;
+    }
+
+    /**
+     * Starts a recording. Does nothing if one is already running.
+     *
+     * @return The file the recording will be written to
+     * @throws IOException If the recordings folder cannot be created or the settings cannot be read
+     * @throws IllegalStateException If Flight Recorder is not available in this JVM
+     */
+    public synchronized Path start() throws IOException {
+        if (recording != null) {
+            return file;
+        }
+
+        Path directory = FileUtils.getAppDataDirectory().toPath().resolve(RECORDINGS_DIRECTORY);
+        Files.createDirectories(directory);
+        Path destination = directory.resolve("rivergreen-" + LocalDateTime.now().format(FILE_NAME_FORMAT) + ".jfr");
+
+        Configuration settings;
+        try {
+            settings = Configuration.getConfiguration("default");
+        } catch (ParseException e) {
+            throw new IOException("Cannot read the default recording settings", e);
+        }
+        Recording started = new Recording(settings);
+        started.setName("RiverGreen");
+        started.setToDisk(true);
+        // Written at stop, or at exit if the recording is never stopped
+        started.setDestination(destination);
+        started.start();
+
+        recording = started;
+        file = destination;
+        LOGGER.info("Started recording to " + destination);
+        return destination;
+    }
+
+    /**
+     * Stops the running recording and writes it to its file.
+     *
+     * @return The file, or null if no recording was running
+     */
+    public synchronized Path stop() {
+        if (recording == null) {
+            return null;
+        }
+        Path written = file;
+        try {
+            recording.stop();
+        } finally {
+            recording.close();
+            recording = null;
+            file = null;
+        }
+        LOGGER.info("Wrote recording to " + written);
+        return written;
+    }
+}
@@ -0,0 +1,68 @@
+package com.stkych.rivergreenap.diagnostics;
+
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram with fixed bucket bounds, for the metrics endpoint (see {@link MetricsEndpoint}).
+ * Observations are counted without locking, so it can be updated on hot paths and read by a scrape at
+ * the same time; a scrape may see an observation in the count but not yet in the sum.
+ */
+public final class Histogram {
+
+    /**
+     * Bounds for durations in seconds, from a millisecond to ten seconds.
+     */
+    public static final double[] SECONDS = {0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+
+    private final double[] bounds;
+    // One more than the bounds, the last for values above every bound
+    private final LongAdder[] buckets;
+    private final DoubleAdder sum = new DoubleAdder();
+
+    /**
+     * Creates a histogram.
+     *
+     * @param bounds The inclusive upper bounds of the buckets, in ascending order
+     */
+    public Histogram(double... bounds) {
+        this.bounds = bounds.clone();
+        this.buckets = new LongAdder[bounds.length + 1];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Counts a value.
+     *
+     * @param value The value
+     */
+    public void observe(double value) {
+        int bucket = 0;
+        while (bucket < bounds.length && value > bounds[bucket]) {
+            bucket++;
+        }
+        buckets[bucket].increment();
+        sum.add(value);
+    }
+
+    /**
+     * Writes the histogram's samples: the cumulative buckets, the sum and the count.
+     *
+     * @param out The writer, after the metric's header
+     * @param name The metric name
+     * @param label The label to add to every sample, or null for none
+     * @param labelValue The label's value
+     */
+    void writeTo(MetricsEndpoint.Writer out, String name, String label, String labelValue) {
+        long cumulative = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            cumulative += buckets[i].sum();
+            String le = i < bounds.length ? MetricsEndpoint.Writer.format(bounds[i]) : "+Inf";
+            out.sample(name + "_bucket", label, labelValue, "le", le, cumulative);
+        }
+        out.sample(name + "_sum", label, labelValue, null, null, sum.sum());
+        out.sample(name + "_count", label, labelValue, null, null, cumulative);
+    }
+}
@@ -0,0 +1,300 @@
+package com.stkych.rivergreenap.diagnostics;
+
+import com.stkych.rivergreenap.RiverGreenDB;
+import com.stkych.rivergreenap.engine.RulesetEngine;
+import com.stkych.rivergreenap.util.BackgroundTasks;
+import com.stkych.rivergreenap.util.LruCache;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Serves the headless modes' metrics at {@code http://localhost:PORT/metrics} in the Prometheus text
+ * format, for the practice's monitoring to scrape.
+ * <p>
+ * The endpoint only listens on the loopback address. Every scrape reads the counters as they are;
+ * nothing is kept between scrapes, so rates are left to Prometheus. Besides the collectors it is
+ * started with, it always reports what the whole process shares: database latency by operation and
+ * operations in flight, lock retries, the worker pool, the conversion caches and rule evaluation.
+ */
+public final class MetricsEndpoint implements AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger(MetricsEndpoint.class.getName());
+
+    private static final String PATH = "/metrics";
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    /**
+     * Adds a mode's own metrics to each scrape.
+     */
+    @FunctionalInterface
+    public interface Collector {
+        /**
+         * Writes the metrics. Called on the endpoint's thread, so values must be safe to read from it.
+         *
+         * @param out The writer
+         */
+        void collect(Writer out);
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final List<Collector> collectors;
+
+    private MetricsEndpoint(HttpServer server, ExecutorService executor, List<Collector> collectors) {
+        this.server = server;
+        this.executor = executor;
+        this.collectors = collectors;
+    }
+
+    /**
+     * Starts serving metrics.
+     *
+     * @param port The port on the loopback address, or 0 for any free port
+     * @param collectors The mode's own metrics
+     * @return The running endpoint; close it to stop
+     * @throws IOException If the port cannot be bound
+     */
+    public static MetricsEndpoint start(int port, Collector... collectors) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        ExecutorService executor = Executors.newSingleThreadExecutor(BackgroundTasks.daemonThreadFactory("rivergreen-metrics"));
+        MetricsEndpoint endpoint = new MetricsEndpoint(server, executor, List.of(collectors));
+        server.createContext(PATH, endpoint::handle);
+        server.setExecutor(executor);
+        server.start();
+        LOGGER.info("Serving metrics at http://localhost:" + endpoint.getPort() + PATH);
+        return endpoint;
+    }
+
+    /**
+     * Gets the port the endpoint listens on.
+     *
+     * @return The port
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stops serving metrics. A scrape in progress is not waited for.
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String method = exchange.getRequestMethod();
+            if (!exchange.getRequestURI().getPath().equals(PATH)) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            if (!method.equals("GET") && !method.equals("HEAD")) {
+                exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+
+            byte[] body;
+            try {
+                body = scrape().getBytes(StandardCharsets.UTF_8);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Cannot collect metrics", e);
+                exchange.sendResponseHeaders(500, -1);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            if (method.equals("HEAD")) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    /**
+     * Collects every metric.
+     *
+     * @return The metrics in the Prometheus text format
+     */
+    String scrape() {
+        Writer out = new Writer();
+        for (Collector collector : collectors) {
+            collector.collect(out);
+        }
+        collectShared(out);
+        return out.toString();
+    }
+
+    private static void collectShared(Writer out) {
+        out.header("rivergreen_db_operation_seconds", "histogram", "Duration of database operations, including opening their connection");
+        for (Map.Entry<String, Histogram> latency : DatabaseMetrics.getLatencies().entrySet()) {
+            latency.getValue().writeTo(out, "rivergreen_db_operation_seconds", "operation", latency.getKey());
+        }
+        out.gauge("rivergreen_db_operations_in_flight", "Database operations running, not counting those run inside another",
+                DatabaseMetrics.getInFlightCount());
+        out.counter("rivergreen_db_lock_retries_total", "Transactions retried after a lock wait timeout or deadlock",
+                RiverGreenDB.getLockRetryCount());
+
+        if (BackgroundTasks.executor() instanceof ThreadPoolExecutor pool) {
+            out.gauge("rivergreen_worker_threads_active", "Worker pool threads running a task", pool.getActiveCount());
+            out.gauge("rivergreen_worker_threads", "Worker pool threads, busy or idle", pool.getPoolSize());
+        }
+
+        List<LruCache<?, ?>> caches = LruCache.all();
+        out.header("rivergreen_cache_hits_total", "counter", "Conversion cache lookups that found the value");
+        for (LruCache<?, ?> cache : caches) {
+            out.sample("rivergreen_cache_hits_total", "cache", cache.getName(), null, null, cache.getHitCount());
+        }
+        out.header("rivergreen_cache_misses_total", "counter", "Conversion cache lookups that computed the value");
+        for (LruCache<?, ?> cache : caches) {
+            out.sample("rivergreen_cache_misses_total", "cache", cache.getName(), null, null, cache.getMissCount());
+        }
+        out.header("rivergreen_cache_hit_ratio", "gauge", "Share of conversion cache lookups that found the value");
+        for (LruCache<?, ?> cache : caches) {
+            out.sample("rivergreen_cache_hit_ratio", "cache", cache.getName(), null, null, cache.getHitRate());
+        }
+        out.header("rivergreen_cache_entries", "gauge", "Values held by the conversion cache");
+        for (LruCache<?, ?> cache : caches) {
+            out.sample("rivergreen_cache_entries", "cache", cache.getName(), null, null, cache.size());
+        }
+
+        out.counter("rivergreen_procedures_evaluated_total", "Procedures a ruleset was applied to",
+                RulesetEngine.getEvaluatedCount());
+        out.counter("rivergreen_rules_matched_total", "Times a rule matched a procedure and set its priority",
+                RulesetEngine.getMatchCount());
+    }
+
+    /**
+     * Builds a response in the Prometheus text exposition format. Each metric is a header followed by
+     * its samples; the single-sample metrics have shortcuts.
+     */
+    public static final class Writer {
+
+        private final StringBuilder text = new StringBuilder();
+
+        Writer() {
+        }
+
+        /**
+         * Writes a metric's HELP and TYPE lines.
+         *
+         * @param name The metric name
+         * @param type counter, gauge or histogram
+         * @param help The description
+         */
+        public void header(String name, String type, String help) {
+            text.append("# HELP ").append(name).append(' ')
+                    .append(help.replace("\\", "\\\\").replace("\n", "\\n")).append('\n');
+            text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        }
+
+        /**
+         * Writes a sample with up to two labels.
+         *
+         * @param name The sample name
+         * @param label The first label, or null for none
+         * @param labelValue Its value
+         * @param secondLabel The second label, or null for none
+         * @param secondValue Its value
+         * @param value The sample value
+         */
+        public void sample(String name, String label, String labelValue, String secondLabel, String secondValue, double value) {
+            text.append(name);
+            if (label != null || secondLabel != null) {
+                text.append('{');
+                if (label != null) {
+                    appendLabel(label, labelValue);
+                }
+                if (secondLabel != null) {
+                    if (label != null) {
+                        text.append(',');
+                    }
+                    appendLabel(secondLabel, secondValue);
+                }
+                text.append('}');
+            }
+            text.append(' ').append(format(value)).append('\n');
+        }
+
+        /**
+         * Writes a counter with a single sample.
+         *
+         * @param name The metric name, ending in {@code _total}
+         * @param help The description
+         * @param value The count
+         */
+        public void counter(String name, String help, double value) {
+            header(name, "counter", help);
+            sample(name, null, null, null, null, value);
+        }
+
+        /**
+         * Writes a gauge with a single sample.
+         *
+         * @param name The metric name
+         * @param help The description
+         * @param value The value
+         */
+        public void gauge(String name, String help, double value) {
+            header(name, "gauge", help);
+            sample(name, null, null, null, null, value);
+        }
+
+        /**
+         * Writes a histogram without labels.
+         *
+         * @param name The metric name
+         * @param help The description
+         * @param histogram The histogram
+         */
+        public void histogram(String name, String help, Histogram histogram) {
+            header(name, "histogram", help);
+            histogram.writeTo(this, name, null, null);
+        }
+
+        private void appendLabel(String label, String value) {
+            text.append(label).append("=\"")
+                    .append(value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"))
+                    .append('"');
+        }
+
+        /**
+         * Formats a sample value, writing whole numbers without a fraction.
+         */
+        static String format(double value) {
+            if (Double.isNaN(value)) {
+                return "NaN";
+            }
+            if (Double.isInfinite(value)) {
+                return value > 0 ? "+Inf" : "-Inf";
+            }
+            if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+                return Long.toString((long) value);
+            }
+            return Double.toString(value);
+        }
+
+        @Override
+        public String toString() {
+            return text.toString();
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.stkych.rivergreenap.diagnostics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event for applying a ruleset, either to one treatment plan or to a batch of all
+ * patients' plans.
+ */
+@Name("rivergreen.RulesetApply")
+@Label("Ruleset Apply")
+@Category({"RiverGreen", "Rules"})
+@Description("Evaluating a ruleset's rules against procedures")
+@StackTrace(false)
+public final class RulesetApplyEvent extends jdk.jfr.Event {
+
+    @Label("Ruleset")
+    public String ruleset;
+
+    @Label("Rules")
+    public int rules;
+
+    @Label("Patients")
+    @Description("1 for a single treatment plan")
+    public int patients;
+
+    @Label("Procedures")
+    public int procedures;
+
+    @Label("Matches")
+    @Description("Rule matches that assigned a priority; a procedure matched by several rules counts once per rule")
+    public int matches;
+
+    @Label("Generated Matcher")
+    @Description("Whether conditions were tested by a class generated for the ruleset")
+    public boolean generatedMatcher;
+}
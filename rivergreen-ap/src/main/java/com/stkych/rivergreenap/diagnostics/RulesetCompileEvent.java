@@ -0,0 +1,25 @@
+package com.stkych.rivergreenap.diagnostics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event for compiling a ruleset's items into a
+ * {@link com.stkych.rivergreenap.engine.CompiledRuleset}.
+ */
+@Name("rivergreen.RulesetCompile")
+@Label("Ruleset Compile")
+@Category({"RiverGreen", "Rules"})
+@Description("Expanding a ruleset's code and teeth ranges and linking its dependent rules")
+@StackTrace(false)
+public final class RulesetCompileEvent extends jdk.jfr.Event {
+
+    @Label("Ruleset")
+    public String ruleset;
+
+    @Label("Rules")
+    public int rules;
+}
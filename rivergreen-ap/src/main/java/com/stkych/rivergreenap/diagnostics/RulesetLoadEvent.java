@@ -0,0 +1,33 @@
+package com.stkych.rivergreenap.diagnostics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event for reading a ruleset CSV file.
+ */
+@Name("rivergreen.RulesetLoad")
+@Label("Ruleset Load")
+@Category({"RiverGreen", "Rules"})
+@Description("Reading a ruleset CSV file, including looking up missing procedure descriptions")
+@StackTrace(false)
+public final class RulesetLoadEvent extends jdk.jfr.Event {
+
+    @Label("File")
+    public String file;
+
+    @Label("Size")
+    @DataAmount
+    public long size;
+
+    @Label("Rules")
+    public int rules;
+
+    @Label("Descriptions Fetched")
+    @Description("Whether missing descriptions were looked up in the database")
+    public boolean fetchDescriptions;
+}
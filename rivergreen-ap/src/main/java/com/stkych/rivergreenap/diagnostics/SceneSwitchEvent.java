@@ -0,0 +1,28 @@
+package com.stkych.rivergreenap.diagnostics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event for a {@link com.stkych.rivergreenap.SceneSwitcher} transition, from
+ * obtaining the scene to showing its window.
+ */
+@Name("rivergreen.SceneSwitch")
+@Label("Scene Switch")
+@Category({"RiverGreen", "User Interface"})
+@Description("Showing a scene in the main window or a popup")
+public final class SceneSwitchEvent extends jdk.jfr.Event {
+
+    @Label("Scene")
+    @Description("The FXML file, without the extension")
+    public String scene;
+
+    @Label("Popup")
+    public boolean popup;
+
+    @Label("Reused")
+    @Description("Whether a kept scene was shown again instead of loading its FXML")
+    public boolean reused;
+}
@@ -0,0 +1,303 @@
+package com.stkych.rivergreenap.diagnostics;
+
+import com.stkych.rivergreenap.util.BackgroundTasks;
+import com.stkych.rivergreenap.util.FileUtils;
+import com.stkych.rivergreenap.util.FxPulse;
+import javafx.application.Platform;
+import javafx.scene.Scene;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Records when each phase of opening the main window was reached, counted from the start of the JVM,
+ * and keeps the timelines of the last {@value #CAPACITY} launches on this workstation in
+ * {@code startup-history.bin} in the app data directory.
+ * <p>
+ * Phases are marked with {@link #mark} as the launch reaches them; only the first mark of a phase counts.
+ * The timeline is written once the main window's first frame has been rendered (see
+ * {@link #recordFirstFrame}), which is the launch's time to interactive. Launches that never show the
+ * main window, such as the daemon, and launches timed by the startup benchmark record nothing.
+ * <p>
+ * A launch started with the {@value #PROBE_PROPERTY} system property is a probe for the startup benchmark
+ * in the tests: instead of being recorded, it prints its time to the first frame and exits (see
+ * {@link #reportFirstFrame}).
+ * <p>
+ * The history is a fixed-size ring: a header followed by {@value #CAPACITY} slots of one launch each,
+ * the oldest being overwritten. It is started over when the phases change between versions.
+ */
+public final class StartupTimeline {
+
+    private static final Logger LOGGER = Logger.getLogger(StartupTimeline.class.getName());
+
+    /**
+     * System property that makes a launch report its first frame and exit, for the startup benchmark.
+     */
+    public static final String PROBE_PROPERTY = "rivergreen.startupProbe";
+
+    /**
+     * Starts the line a probe launch prints, followed by the milliseconds from the JVM start to its first frame.
+     */
+    public static final String FIRST_FRAME_PREFIX = "first-frame-ms=";
+
+    /**
+     * The phases of a launch, in the order they are reached. The JVM start is the timeline's zero.
+     */
+    public enum Phase {
+        APPLICATION_START("Application started"),
+        FXML_LOADED("Main window FXML loaded"),
+        LIST_VIEWS_READY("Lists set up"),
+        RULESETS_LOADED("Rulesets loaded"),
+        CONTROLLER_INITIALIZED("Main window initialized"),
+        WINDOW_SHOWN("Main window shown"),
+        FIRST_FRAME("First frame rendered");
+
+        private final String label;
+
+        Phase(String label) {
+            this.label = label;
+        }
+
+        public String label() {
+            return label;
+        }
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+    private static final String HISTORY_FILE = "startup-history.bin";
+    private static final int CAPACITY = 100;
+    private static final int MAGIC = 0x52475354; // "RGST"
+    private static final int VERSION = 1;
+    // Magic, version, phase count, capacity, then the number of launches ever written
+    private static final int HEADER_SIZE = 4 * Integer.BYTES + Long.BYTES;
+    // Launch time in epoch milliseconds, then each phase's milliseconds since the JVM start, or -1
+    private static final int RECORD_SIZE = Long.BYTES + PHASES.length * Integer.BYTES;
+
+    private static final Instant JVM_START = ProcessHandle.current().info().startInstant().orElse(null);
+
+    private static final int[] marks = new int[PHASES.length];
+    private static boolean recorded;
+
+    static {
+        Arrays.fill(marks, -1);
+    }
+
+    private StartupTimeline() {
+    }
+
+    /**
+     * Notes that this launch reached a phase. Later marks of the same phase, for example when the
+     * main window is loaded again, are ignored, as are all marks once the timeline was recorded.
+     *
+     * @param phase The phase
+     */
+    public static synchronized void mark(Phase phase) {
+        if (recorded || JVM_START == null || marks[phase.ordinal()] >= 0) {
+            return;
+        }
+        marks[phase.ordinal()] = (int) Duration.between(JVM_START, Instant.now()).toMillis();
+    }
+
+    /**
+     * Marks {@link Phase#FIRST_FRAME} once the scene's next frame has been rendered and appends this
+     * launch's timeline to the history on a background thread.
+     *
+     * @param scene The main window's scene
+     */
+    public static void recordFirstFrame(Scene scene) {
+        FxPulse.afterNextPulse(scene, () -> {
+            mark(Phase.FIRST_FRAME);
+            int[] timeline = finish();
+            if (timeline != null) {
+                BackgroundTasks.submit(() -> append(timeline));
+            }
+        });
+    }
+
+    /**
+     * Checks whether this launch is a probe started by the startup benchmark.
+     *
+     * @return True if the application should report its first frame and exit
+     */
+    public static boolean isProbe() {
+        return Boolean.getBoolean(PROBE_PROPERTY);
+    }
+
+    /**
+     * Prints the time since the JVM started once the scene's next frame has been rendered, then exits
+     * the application. Only for probe launches.
+     *
+     * @param scene The main window's scene
+     */
+    public static void reportFirstFrame(Scene scene) {
+        FxPulse.afterNextPulse(scene, () -> {
+            System.out.println(FIRST_FRAME_PREFIX + Duration.between(JVM_START, Instant.now()).toNanos() / 1e6);
+            Platform.exit();
+        });
+    }
+
+    private static synchronized int[] finish() {
+        if (recorded || JVM_START == null) {
+            return null;
+        }
+        recorded = true;
+        return marks.clone();
+    }
+
+    /**
+     * Gets this launch's marks.
+     *
+     * @return Milliseconds since the JVM start by phase ordinal, -1 for phases not reached
+     */
+    public static synchronized int[] currentLaunch() {
+        return marks.clone();
+    }
+
+    private static Path historyFile() {
+        return FileUtils.getAppDataDirectory().toPath().resolve(HISTORY_FILE);
+    }
+
+    private static void append(int[] timeline) {
+        try (FileChannel channel = FileChannel.open(historyFile(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+             FileLock ignored = channel.lock()) {
+            long written = readWritten(channel);
+            if (written < 0) {
+                channel.truncate(0);
+                written = 0;
+            }
+
+            ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+            record.putLong(System.currentTimeMillis());
+            for (int mark : timeline) {
+                record.putInt(mark);
+            }
+            record.flip();
+            channel.write(record, HEADER_SIZE + (written % CAPACITY) * RECORD_SIZE);
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putInt(PHASES.length).putInt(CAPACITY).putLong(written + 1);
+            header.flip();
+            channel.write(header, 0);
+            LOGGER.fine("Time to interactive " + timeline[Phase.FIRST_FRAME.ordinal()] + " ms");
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Cannot write startup history", e);
+        }
+    }
+
+    /**
+     * Reads the number of launches ever written from the header.
+     *
+     * @return The number, or -1 if the file is empty or was written with other phases or capacity
+     */
+    private static long readWritten(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        if (channel.read(header, 0) < HEADER_SIZE) {
+            return -1;
+        }
+        header.flip();
+        if (header.getInt() != MAGIC || header.getInt() != VERSION
+                || header.getInt() != PHASES.length || header.getInt() != CAPACITY) {
+            return -1;
+        }
+        return header.getLong();
+    }
+
+    /**
+     * Reads the timelines in the history, oldest first.
+     *
+     * @return The timelines, milliseconds since the JVM start by phase ordinal; empty if there is no history
+     */
+    public static List<int[]> history() {
+        List<int[]> launches = new ArrayList<>();
+        Path file = historyFile();
+        if (!Files.exists(file)) {
+            return launches;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long written = readWritten(channel);
+            if (written <= 0) {
+                return launches;
+            }
+            int count = (int) Math.min(written, CAPACITY);
+            ByteBuffer slots = ByteBuffer.allocate(count * RECORD_SIZE);
+            while (slots.hasRemaining() && channel.read(slots, HEADER_SIZE + slots.position()) > 0) {
+                // Read until the slots are full or the file ends
+            }
+            slots.flip();
+
+            long oldest = written - count;
+            for (long launch = oldest; launch < written; launch++) {
+                int offset = (int) (launch % CAPACITY) * RECORD_SIZE;
+                if (offset + RECORD_SIZE > slots.limit()) {
+                    continue;
+                }
+                int[] timeline = new int[PHASES.length];
+                for (int phase = 0; phase < timeline.length; phase++) {
+                    timeline[phase] = slots.getInt(offset + Long.BYTES + phase * Integer.BYTES);
+                }
+                launches.add(timeline);
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Cannot read startup history", e);
+        }
+        return launches;
+    }
+
+    /**
+     * Describes the time to interactive over the launches in the history, and this launch's phases.
+     *
+     * @return Lines for the About dialog, or null if no launch has been recorded
+     */
+    public static String summary() {
+        int[] times = history().stream()
+                .mapToInt(timeline -> timeline[Phase.FIRST_FRAME.ordinal()])
+                .filter(millis -> millis >= 0)
+                .sorted()
+                .toArray();
+        if (times.length == 0) {
+            return null;
+        }
+
+        StringBuilder text = new StringBuilder();
+        text.append("Time to interactive over the last ").append(times.length)
+                .append(times.length == 1 ? " launch" : " launches").append(" on this workstation:\n")
+                .append("- Median (p50): ").append(percentile(times, 50)).append(" ms\n")
+                .append("- p95: ").append(percentile(times, 95)).append(" ms\n");
+
+        int[] current = currentLaunch();
+        if (current[Phase.FIRST_FRAME.ordinal()] >= 0) {
+            text.append("\nThis launch, from the JVM start:\n");
+            for (Phase phase : PHASES) {
+                int mark = current[phase.ordinal()];
+                if (mark >= 0) {
+                    text.append("- ").append(phase.label()).append(": ").append(mark).append(" ms\n");
+                }
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * Gets a percentile by the nearest-rank method.
+     *
+     * @param sorted The values, in ascending order; not empty
+     * @param percent The percentile, 1 to 100
+     */
+    private static int percentile(int[] sorted, int percent) {
+        int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+        return sorted[Math.max(rank, 1) - 1];
+    }
+}
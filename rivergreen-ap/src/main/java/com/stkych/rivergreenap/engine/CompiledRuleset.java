@@ -0,0 +1,245 @@
+package com.stkych.rivergreenap.engine;
+
+import com.stkych.rivergreenap.diagnostics.RulesetCompileEvent;
+import com.stkych.rivergreenap.model.RulesetItem;
+import com.stkych.rivergreenap.util.DentalCodeUtil;
+import com.stkych.rivergreenap.util.TeethNotationUtil;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A ruleset prepared for evaluation.
+ * Procedure code ranges and teeth ranges are expanded once at compile time,
+ * and dependent rules are linked to the rule that assigns their conditional priority,
+ * so applying the ruleset does no string parsing.
+ * Instances are immutable and safe to share between threads.
+ */
+public final class CompiledRuleset {
+
+    private final String name;
+    private final List<Rule> rules;
+    private volatile RuleIndex index;
+    private volatile RuleMatcher matcher;
+    private volatile boolean matcherCompiled;
+
+    private CompiledRuleset(String name, List<Rule> rules) {
+        this.name = name;
+        this.rules = Collections.unmodifiableList(rules);
+    }
+
+    /**
+     * Compiles a ruleset as loaded from a CSV file.
+     * The first item is the header row and is skipped, matching the lists used by the controllers.
+     *
+     * @param name The name of the ruleset
+     * @param items The ruleset items, header first
+     * @return The compiled ruleset
+     */
+    public static CompiledRuleset compile(String name, List<RulesetItem> items) {
+        RulesetCompileEvent event = new RulesetCompileEvent();
+        event.begin();
+
+        List<Rule> rules = new ArrayList<>();
+        for (int i = 1; i < items.size(); i++) {
+            rules.add(new Rule(items.get(i)));
+        }
+
+        // Link dependent rules to the first rule that assigns their conditional priority
+        for (Rule rule : rules) {
+            if (rule.dependent) {
+                for (Rule candidate : rules) {
+                    if (rule.conditionalPriority.equalsIgnoreCase(candidate.priority)) {
+                        rule.conditionalRule = candidate;
+                        break;
+                    }
+                }
+            }
+        }
+
+        event.ruleset = name;
+        event.rules = rules.size();
+        event.commit();
+        return new CompiledRuleset(name, rules);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public List<Rule> getRules() {
+        return rules;
+    }
+
+    /**
+     * Gets the index used to find matching rules, building it on first use.
+     *
+     * @return The rule index
+     */
+    public RuleIndex index() {
+        RuleIndex result = index;
+        if (result == null) {
+            // Building twice under a race is harmless; both indexes are equal
+            result = new RuleIndex(rules);
+            index = result;
+        }
+        return result;
+    }
+
+    /**
+     * Gets the generated matcher for this ruleset, generating it on first use.
+     *
+     * @return The matcher, or null if the ruleset cannot be compiled to one
+     */
+    RuleMatcher matcher() {
+        if (!matcherCompiled) {
+            // Unlike the index, generate once: each attempt defines a class
+            synchronized (this) {
+                if (!matcherCompiled) {
+                    matcher = RuleMatcherCompiler.compile(this);
+                    matcherCompiled = true;
+                }
+            }
+        }
+        return matcher;
+    }
+
+    /**
+     * Checks whether conditions can be tested by a generated matcher, generating it if needed.
+     *
+     * @return True if a matcher class was generated for this ruleset
+     */
+    public boolean hasGeneratedMatcher() {
+        return matcher() != null;
+    }
+
+    /**
+     * A single compiled rule.
+     */
+    public static final class Rule {
+        private final String priority;
+        private final Set<String> codes;
+        private final Set<String> teeth;
+        private final String diagnosis;
+        private final boolean dependent;
+        private final String conditionalPriority;
+        private final String newPriority;
+        private final String procedureCodesText;
+        private final String teethText;
+        private final String description;
+        private Rule conditionalRule;
+
+        private Rule(RulesetItem item) {
+            this.priority = item.getPriority();
+            this.codes = expandCodes(item.getProcedureCodes());
+            this.teeth = expandTeeth(item.getTeethNumbers());
+            this.diagnosis = item.getDiagnosis() == null ? "" : item.getDiagnosis();
+            String conditional = item.getConditionalPriority();
+            // A rule only behaves as dependent when it names the priority it depends on
+            this.dependent = item.isDependent() && conditional != null && !conditional.isEmpty();
+            this.conditionalPriority = conditional == null ? "" : conditional;
+            this.newPriority = item.getNewPriority();
+            this.procedureCodesText = item.getProcedureCodes() == null ? "" : item.getProcedureCodes();
+            this.teethText = item.getTeethNumbers() == null ? "" : item.getTeethNumbers();
+            this.description = item.getDescription() == null ? "" : item.getDescription();
+        }
+
+        private static Set<String> expandCodes(String procedureCodes) {
+            if (procedureCodes == null || procedureCodes.isEmpty()) {
+                return Collections.emptySet();
+            }
+            return Collections.unmodifiableSet(new HashSet<>(DentalCodeUtil.expandDentalCodes(procedureCodes)));
+        }
+
+        private static Set<String> expandTeeth(String teethNumbers) {
+            if (teethNumbers == null || teethNumbers.isEmpty() || teethNumbers.equalsIgnoreCase("None")) {
+                return Collections.emptySet();
+            }
+            Set<String> result = new HashSet<>();
+            for (Integer tooth : TeethNotationUtil.expandTeeth(teethNumbers)) {
+                result.add(String.valueOf(tooth));
+            }
+            return Collections.unmodifiableSet(result);
+        }
+
+        /**
+         * Checks the procedure code condition. A rule without codes matches every code.
+         */
+        public boolean matchesCode(String procedureCode) {
+            return codes.isEmpty() || codes.contains(procedureCode);
+        }
+
+        /**
+         * Checks the diagnosis condition. A rule without a diagnosis matches every diagnosis.
+         */
+        public boolean matchesDiagnosis(String procedureDiagnosis) {
+            return diagnosis.isEmpty() || diagnosis.equalsIgnoreCase(procedureDiagnosis);
+        }
+
+        /**
+         * Checks the tooth condition. A rule without teeth matches every procedure,
+         * including procedures without a tooth.
+         */
+        public boolean matchesTooth(String toothNumber) {
+            return teeth.isEmpty() || (toothNumber != null && !toothNumber.isEmpty() && teeth.contains(toothNumber));
+        }
+
+        public String getPriority() {
+            return priority;
+        }
+
+        public Set<String> getCodes() {
+            return codes;
+        }
+
+        public Set<String> getTeeth() {
+            return teeth;
+        }
+
+        public String getDiagnosis() {
+            return diagnosis;
+        }
+
+        public boolean isDependent() {
+            return dependent;
+        }
+
+        public String getConditionalPriority() {
+            return conditionalPriority;
+        }
+
+        public String getNewPriority() {
+            return newPriority;
+        }
+
+        /**
+         * Gets the procedure codes as written in the ruleset, with ranges unexpanded.
+         */
+        public String getProcedureCodesText() {
+            return procedureCodesText;
+        }
+
+        /**
+         * Gets the teeth as written in the ruleset, with ranges unexpanded.
+         */
+        public String getTeethText() {
+            return teethText;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+
+        /**
+         * Gets the rule that assigns this rule's conditional priority.
+         *
+         * @return The conditional rule, or null if the rule is not dependent or no such rule exists
+         */
+        public Rule getConditionalRule() {
+            return conditionalRule;
+        }
+    }
+}
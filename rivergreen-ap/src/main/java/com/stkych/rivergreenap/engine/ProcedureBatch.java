@@ -0,0 +1,526 @@
+package com.stkych.rivergreenap.engine;
+
+import com.stkych.rivergreenap.diagnostics.RulesetApplyEvent;
+import com.stkych.rivergreenap.model.PlannedProcedure;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Many patients' treatment plans held as primitive columns, for practice-wide ruleset runs.
+ * <p>
+ * Procedure codes, teeth, diagnoses and priorities are stored as ids into per-batch dictionaries,
+ * and the patients as offsets into the rows. {@link #apply} evaluates a ruleset one rule at a time
+ * over whole columns: each rule is first turned into match tables indexed by those ids, built by
+ * asking the {@link CompiledRuleset.Rule} itself about every dictionary entry, so a rule matches
+ * here exactly when it matches in {@link RulesetEngine}. The per-row work is then a few array loads.
+ * Rules only look at other procedures of the same patient, so the result per patient is the same
+ * as running {@link RulesetEngine#prioritize} on each plan; the {@code rules} benchmark checks that.
+ * <p>
+ * Each rule first narrows the rows to candidates with plain integer comparisons: code ids are
+ * assigned in code order, so a range such as D2391-D2394 is one id interval, and numbered teeth are
+ * also stored as bits, so a rule's teeth are one mask. When the JVM is started with
+ * {@code --add-modules jdk.incubator.vector}, that scan runs on the Vector API ({@link VectorRowScan})
+ * several rows per instruction; otherwise the same scan runs one row at a time. Candidates are then
+ * checked against the match tables, so the result does not depend on which scan ran.
+ * <p>
+ * A batch is not thread-safe.
+ */
+public final class ProcedureBatch {
+
+    private static final Logger LOGGER = Logger.getLogger(ProcedureBatch.class.getName());
+
+    // The incubator module is only in the boot layer when the JVM was started with it
+    private static final boolean VECTOR_AVAILABLE = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()
+            && !Boolean.getBoolean("rivergreen.scalarRules");
+
+    static {
+        LOGGER.fine(VECTOR_AVAILABLE ? "Rule scans use the Vector API" : "Rule scans are scalar");
+    }
+
+    private final int[] patientNumbers;
+    // Row offsets: patient i's procedures are rows patientStarts[i] to patientStarts[i + 1] - 1
+    private final int[] patientStarts;
+    private final int[] rowPatients;
+    private final int[] procedureNumbers;
+    private final int[] codes;
+    private final int[] teeth;
+    // Bit n - 1 for tooth n from 1 to 32, 0 for no tooth, all bits for teeth with other names
+    private final int[] toothBits;
+    private final int[] diagnoses;
+    private final int[] priorities;
+    private final int[] loadedPriorities;
+
+    private final Dictionary codeNames;
+    private final Dictionary toothNames;
+    private final Dictionary diagnosisNames;
+    private final Dictionary priorityNames;
+
+    private ProcedureBatch(Builder builder) {
+        this.patientNumbers = Arrays.copyOf(builder.patientNumbers, builder.patientCount);
+        this.patientStarts = Arrays.copyOf(builder.patientStarts, builder.patientCount + 1);
+        this.patientStarts[builder.patientCount] = builder.size;
+        this.rowPatients = Arrays.copyOf(builder.rowPatients, builder.size);
+        this.procedureNumbers = Arrays.copyOf(builder.procedureNumbers, builder.size);
+        this.codes = Arrays.copyOf(builder.codes, builder.size);
+        remap(codes, builder.codeNames.sort(Comparator.naturalOrder()));
+        this.teeth = Arrays.copyOf(builder.teeth, builder.size);
+        int[] bitsByTooth = new int[builder.toothNames.size()];
+        for (int id = 0; id < bitsByTooth.length; id++) {
+            bitsByTooth[id] = toothBit(builder.toothNames.name(id));
+        }
+        this.toothBits = new int[builder.size];
+        for (int row = 0; row < toothBits.length; row++) {
+            toothBits[row] = bitsByTooth[teeth[row]];
+        }
+        this.diagnoses = Arrays.copyOf(builder.diagnoses, builder.size);
+        // Diagnoses match ignoring case, so names differing only in case must be adjacent
+        remap(diagnoses, builder.diagnosisNames.sort(String.CASE_INSENSITIVE_ORDER));
+        this.priorities = Arrays.copyOf(builder.priorities, builder.size);
+        this.loadedPriorities = priorities.clone();
+        this.codeNames = builder.codeNames;
+        this.toothNames = builder.toothNames;
+        this.diagnosisNames = builder.diagnosisNames;
+        this.priorityNames = builder.priorityNames;
+    }
+
+    /**
+     * Creates a batch from the plans of several patients.
+     *
+     * @param plans The procedures keyed by patient number, as returned by
+     *              {@link com.stkych.rivergreenap.RiverGreenDB#getAllPlannedProcedures()}
+     * @return The batch
+     */
+    public static ProcedureBatch of(Map<Integer, List<PlannedProcedure>> plans) {
+        Builder builder = new Builder();
+        for (Map.Entry<Integer, List<PlannedProcedure>> plan : plans.entrySet()) {
+            builder.addPatient(plan.getKey(), plan.getValue());
+        }
+        return builder.build();
+    }
+
+    private static void remap(int[] column, int[] newIds) {
+        for (int row = 0; row < column.length; row++) {
+            column[row] = newIds[column[row]];
+        }
+    }
+
+    private static int toothBit(String tooth) {
+        if (tooth == null || tooth.isEmpty()) {
+            return 0;
+        }
+        for (int number = 1; number <= 32; number++) {
+            if (tooth.equals(String.valueOf(number))) {
+                return 1 << (number - 1);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Checks whether rule scans can use the Vector API in this JVM.
+     *
+     * @return True if {@code jdk.incubator.vector} is loaded and not disabled with
+     *         {@code -Drivergreen.scalarRules=true}
+     */
+    public static boolean isVectorAvailable() {
+        return VECTOR_AVAILABLE;
+    }
+
+    /**
+     * Applies the ruleset to every patient's procedures, updating the priority column.
+     * Uses the Vector API if it is available.
+     *
+     * @param ruleset The compiled ruleset
+     * @param applyToNoneOnly If true, only procedures whose priority is empty or "None" are changed
+     * @return The number of times a rule was applied
+     */
+    public int apply(CompiledRuleset ruleset, boolean applyToNoneOnly) {
+        return apply(ruleset, applyToNoneOnly, VECTOR_AVAILABLE);
+    }
+
+    /**
+     * Applies the ruleset to every patient's procedures, updating the priority column.
+     *
+     * @param ruleset The compiled ruleset
+     * @param applyToNoneOnly If true, only procedures whose priority is empty or "None" are changed
+     * @param vectorized Whether to scan for candidate rows with the Vector API
+     * @return The number of times a rule was applied
+     * @throws IllegalStateException If vectorized is true but the Vector API is not available
+     */
+    public int apply(CompiledRuleset ruleset, boolean applyToNoneOnly, boolean vectorized) {
+        if (vectorized && !VECTOR_AVAILABLE) {
+            throw new IllegalStateException("The Vector API is not available; start the JVM with --add-modules jdk.incubator.vector");
+        }
+        RulesetApplyEvent event = new RulesetApplyEvent();
+        event.begin();
+
+        List<ColumnRule> rules = new ArrayList<>(ruleset.getRules().size());
+        for (CompiledRuleset.Rule rule : ruleset.getRules()) {
+            rules.add(new ColumnRule(rule));
+        }
+        // After compiling, so priorities only the rules assign are included
+        boolean[] noPriority = new boolean[priorityNames.size()];
+        for (int id = 0; id < noPriority.length; id++) {
+            noPriority[id] = RulesetEngine.hasNoPriority(priorityNames.name(id));
+        }
+
+        int appliedCount = 0;
+        int[] candidates = new int[procedureNumbers.length];
+        for (ColumnRule rule : rules) {
+            if (rule.codeLow > rule.codeHigh || rule.diagnosisLow > rule.diagnosisHigh) {
+                continue;
+            }
+            int count = vectorized
+                    ? VectorRowScan.select(codes, rule.codeLow, rule.codeHigh, diagnoses, rule.diagnosisLow,
+                            rule.diagnosisHigh, toothBits, rule.toothMask, candidates)
+                    : select(rule, candidates);
+
+            boolean[] codeMatch = rule.codeMatch;
+            boolean[] diagnosisMatch = rule.diagnosisMatch;
+            boolean[] toothMatch = rule.toothMatch;
+            for (int i = 0; i < count; i++) {
+                int row = candidates[i];
+                if (codeMatch[codes[row]] && diagnosisMatch[diagnoses[row]]
+                        && (!applyToNoneOnly || noPriority[priorities[row]])
+                        && toothMatch[teeth[row]]) {
+                    priorities[row] = rule.dependent ? resolveDependent(rule, row) : rule.priority;
+                    appliedCount++;
+                }
+            }
+        }
+
+        if (event.shouldCommit()) {
+            event.ruleset = ruleset.getName();
+            event.rules = rules.size();
+            event.patients = patientCount();
+            event.procedures = size();
+            event.matches = appliedCount;
+            event.commit();
+        }
+        return appliedCount;
+    }
+
+    /**
+     * Finds the rows within a rule's code and diagnosis id intervals whose tooth bits meet its tooth
+     * mask, one row at a time; {@link VectorRowScan#select} is the vectorized form.
+     */
+    private int select(ColumnRule rule, int[] candidates) {
+        int count = 0;
+        for (int row = 0; row < codes.length; row++) {
+            int code = codes[row];
+            int diagnosis = diagnoses[row];
+            if (code >= rule.codeLow && code <= rule.codeHigh
+                    && diagnosis >= rule.diagnosisLow && diagnosis <= rule.diagnosisHigh
+                    && (rule.toothMask == 0 || (toothBits[row] & rule.toothMask) != 0)) {
+                candidates[count++] = row;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Resolves a dependent rule the way {@link RulesetEngine} does: its new priority if another
+     * procedure of the same patient on the same tooth matches the rule it depends on.
+     */
+    private int resolveDependent(ColumnRule rule, int row) {
+        int tooth = teeth[row];
+        if (rule.blankTooth[tooth]) {
+            return rule.priority;
+        }
+        int patient = rowPatients[row];
+        for (int other = patientStarts[patient]; other < patientStarts[patient + 1]; other++) {
+            if (other != row && teeth[other] == tooth
+                    && rule.conditionalCodeMatch[codes[other]] && rule.conditionalToothMatch[tooth]) {
+                return rule.newPriority;
+            }
+        }
+        return rule.priority;
+    }
+
+    /**
+     * Restores the priorities the batch was created with.
+     */
+    public void reset() {
+        System.arraycopy(loadedPriorities, 0, priorities, 0, priorities.length);
+    }
+
+    public int size() {
+        return procedureNumbers.length;
+    }
+
+    public int patientCount() {
+        return patientNumbers.length;
+    }
+
+    public int patientNumber(int row) {
+        return patientNumbers[rowPatients[row]];
+    }
+
+    public int procedureNumber(int row) {
+        return procedureNumbers[row];
+    }
+
+    /**
+     * Gets a procedure's current priority.
+     *
+     * @param row The row
+     * @return The priority name
+     */
+    public String priority(int row) {
+        return priorityNames.name(priorities[row]);
+    }
+
+    /**
+     * Checks whether applying rulesets changed a procedure's priority.
+     *
+     * @param row The row
+     * @return True if the priority differs from the one the batch was created with
+     */
+    public boolean isChanged(int row) {
+        return priorities[row] != loadedPriorities[row];
+    }
+
+    /**
+     * A rule turned into lookups by dictionary id.
+     */
+    private final class ColumnRule {
+        final boolean[] codeMatch;
+        final boolean[] diagnosisMatch;
+        final boolean[] toothMatch;
+        // Bounds for the candidate scan: the smallest id intervals holding every matching code and diagnosis,
+        // and the tooth bits of every matching tooth, 0 when the rule matches every tooth
+        final int codeLow;
+        final int codeHigh;
+        final int diagnosisLow;
+        final int diagnosisHigh;
+        final int toothMask;
+        final int priority;
+        final boolean dependent;
+        final int newPriority;
+        final boolean[] blankTooth;
+        final boolean[] conditionalCodeMatch;
+        final boolean[] conditionalToothMatch;
+
+        ColumnRule(CompiledRuleset.Rule rule) {
+            codeMatch = new boolean[codeNames.size()];
+            for (int id = 0; id < codeMatch.length; id++) {
+                codeMatch[id] = rule.matchesCode(codeNames.name(id));
+            }
+            diagnosisMatch = new boolean[diagnosisNames.size()];
+            for (int id = 0; id < diagnosisMatch.length; id++) {
+                diagnosisMatch[id] = rule.matchesDiagnosis(diagnosisNames.name(id));
+            }
+            toothMatch = new boolean[toothNames.size()];
+            for (int id = 0; id < toothMatch.length; id++) {
+                toothMatch[id] = rule.matchesTooth(toothNames.name(id));
+            }
+            codeLow = first(codeMatch);
+            codeHigh = last(codeMatch);
+            diagnosisLow = first(diagnosisMatch);
+            diagnosisHigh = last(diagnosisMatch);
+            int mask = 0;
+            boolean everyTooth = true;
+            for (int id = 0; id < toothMatch.length; id++) {
+                if (toothMatch[id]) {
+                    mask |= toothBit(toothNames.name(id));
+                } else {
+                    everyTooth = false;
+                }
+            }
+            toothMask = everyTooth ? 0 : mask;
+            priority = priorityNames.id(rule.getPriority());
+
+            CompiledRuleset.Rule conditionalRule = rule.getConditionalRule();
+            dependent = rule.isDependent() && conditionalRule != null && !conditionalRule.getCodes().isEmpty();
+            newPriority = dependent ? priorityNames.id(rule.getNewPriority()) : priority;
+            blankTooth = new boolean[toothNames.size()];
+            conditionalCodeMatch = new boolean[codeNames.size()];
+            conditionalToothMatch = new boolean[toothNames.size()];
+            if (dependent) {
+                for (int id = 0; id < blankTooth.length; id++) {
+                    String tooth = toothNames.name(id);
+                    blankTooth[id] = tooth == null || tooth.isEmpty();
+                    conditionalToothMatch[id] = conditionalRule.getTeeth().isEmpty() || conditionalRule.getTeeth().contains(tooth);
+                }
+                for (int id = 0; id < conditionalCodeMatch.length; id++) {
+                    conditionalCodeMatch[id] = conditionalRule.getCodes().contains(codeNames.name(id));
+                }
+            }
+        }
+
+        private static int first(boolean[] matches) {
+            for (int id = 0; id < matches.length; id++) {
+                if (matches[id]) {
+                    return id;
+                }
+            }
+            return Integer.MAX_VALUE;
+        }
+
+        private static int last(boolean[] matches) {
+            for (int id = matches.length - 1; id >= 0; id--) {
+                if (matches[id]) {
+                    return id;
+                }
+            }
+            return Integer.MIN_VALUE;
+        }
+    }
+
+    /**
+     * Assigns ids to the distinct values of a column; id 0 is null.
+     */
+    private static final class Dictionary {
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final List<String> names = new ArrayList<>();
+
+        Dictionary() {
+            names.add(null);
+        }
+
+        int id(String name) {
+            if (name == null) {
+                return 0;
+            }
+            Integer id = ids.get(name);
+            if (id == null) {
+                id = names.size();
+                ids.put(name, id);
+                names.add(name);
+            }
+            return id;
+        }
+
+        String name(int id) {
+            return names.get(id);
+        }
+
+        int size() {
+            return names.size();
+        }
+
+        /**
+         * Reassigns the ids in name order, keeping 0 for null.
+         *
+         * @param order The order of the names
+         * @return The new id of each old id
+         */
+        int[] sort(Comparator<String> order) {
+            List<String> sorted = new ArrayList<>(names.subList(1, names.size()));
+            sorted.sort(order);
+            int[] newIds = new int[names.size()];
+            for (int id = 0; id < sorted.size(); id++) {
+                newIds[ids.get(sorted.get(id))] = id + 1;
+                ids.put(sorted.get(id), id + 1);
+            }
+            names.subList(1, names.size()).clear();
+            names.addAll(sorted);
+            return newIds;
+        }
+    }
+
+    /**
+     * Collects patients' plans into columns.
+     */
+    public static final class Builder {
+        private int[] patientNumbers = new int[64];
+        private int[] patientStarts = new int[65];
+        private int patientCount;
+        private int[] rowPatients = new int[1024];
+        private int[] procedureNumbers = new int[1024];
+        private int[] codes = new int[1024];
+        private int[] teeth = new int[1024];
+        private int[] diagnoses = new int[1024];
+        private int[] priorities = new int[1024];
+        private int size;
+
+        private final Dictionary codeNames = new Dictionary();
+        private final Dictionary toothNames = new Dictionary();
+        private final Dictionary diagnosisNames = new Dictionary();
+        private final Dictionary priorityNames = new Dictionary();
+
+        /**
+         * Adds a patient's plan.
+         *
+         * @param patientNumber The patient
+         * @param plan The patient's procedures
+         * @return This builder
+         */
+        public Builder addPatient(int patientNumber, List<PlannedProcedure> plan) {
+            startPatient(patientNumber);
+            for (PlannedProcedure procedure : plan) {
+                addProcedure(procedure.procedureNumber(), procedure.procedureCode(), procedure.toothNumber(),
+                        procedure.diagnosis(), procedure.priority());
+            }
+            return this;
+        }
+
+        /**
+         * Starts a patient; the procedures added next belong to them.
+         *
+         * @param patientNumber The patient
+         * @return This builder
+         */
+        public Builder startPatient(int patientNumber) {
+            if (patientCount == patientNumbers.length) {
+                patientNumbers = Arrays.copyOf(patientNumbers, patientCount * 2);
+                patientStarts = Arrays.copyOf(patientStarts, patientCount * 2 + 1);
+            }
+            patientNumbers[patientCount] = patientNumber;
+            patientStarts[patientCount] = size;
+            patientCount++;
+            return this;
+        }
+
+        /**
+         * Adds a procedure of the patient started last, for callers that do not hold
+         * {@link PlannedProcedure} records.
+         *
+         * @param procedureNumber The procedure number
+         * @param procedureCode The procedure code
+         * @param toothNumber The tooth number
+         * @param diagnosis The diagnosis name
+         * @param priority The priority name
+         * @return This builder
+         * @throws IllegalStateException If no patient has been started
+         */
+        public Builder addProcedure(int procedureNumber, String procedureCode, String toothNumber, String diagnosis,
+                                    String priority) {
+            if (patientCount == 0) {
+                throw new IllegalStateException("No patient started");
+            }
+            if (size == procedureNumbers.length) {
+                int capacity = size * 2;
+                rowPatients = Arrays.copyOf(rowPatients, capacity);
+                procedureNumbers = Arrays.copyOf(procedureNumbers, capacity);
+                codes = Arrays.copyOf(codes, capacity);
+                teeth = Arrays.copyOf(teeth, capacity);
+                diagnoses = Arrays.copyOf(diagnoses, capacity);
+                priorities = Arrays.copyOf(priorities, capacity);
+            }
+            rowPatients[size] = patientCount - 1;
+            procedureNumbers[size] = procedureNumber;
+            codes[size] = codeNames.id(procedureCode);
+            teeth[size] = toothNames.id(toothNumber);
+            diagnoses[size] = diagnosisNames.id(diagnosis);
+            priorities[size] = priorityNames.id(priority);
+            size++;
+            return this;
+        }
+
+        /**
+         * Creates the batch. The builder must not be used afterwards.
+         *
+         * @return The batch
+         */
+        public ProcedureBatch build() {
+            return new ProcedureBatch(this);
+        }
+    }
+}
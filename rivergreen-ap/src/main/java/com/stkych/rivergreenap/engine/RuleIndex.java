@@ -0,0 +1,247 @@
+package com.stkych.rivergreenap.engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Index over the rules of a compiled ruleset for finding the rules that match a procedure code,
+ * tooth and diagnosis without testing every rule.
+ * <p>
+ * Results are bit sets over rule positions. Procedure codes of the form D#### or N#### are mapped
+ * to numbers and each rule's codes are stored as merged intervals; the intervals are cut into
+ * segments at every boundary, so a code is looked up with one binary search. Teeth and diagnoses
+ * are looked up in hash maps of bit sets. Rules without codes, teeth or a diagnosis are kept in
+ * separate "any" sets and match every query on that condition, as in {@link CompiledRuleset.Rule}.
+ * <p>
+ * Built once per compiled ruleset (see {@link CompiledRuleset#index()}); immutable afterwards.
+ */
+public final class RuleIndex {
+
+    // Code numbers are letter * CODE_SPAN + digits, so D and N codes do not overlap
+    private static final int CODE_SPAN = 10_000;
+
+    private final List<CompiledRuleset.Rule> rules;
+    private final BitSet anyCode = new BitSet();
+    private final BitSet anyTooth = new BitSet();
+    private final BitSet anyDiagnosis = new BitSet();
+    // Segment i covers code numbers [segmentStarts[i], segmentStarts[i + 1]) and holds the rules whose codes include it
+    private final int[] segmentStarts;
+    private final int[][] segmentRules;
+    // Codes that are not of the form D#### or N####
+    private final Map<String, BitSet> otherCodes = new HashMap<>();
+    private final Map<String, BitSet> teeth = new HashMap<>();
+    private final Map<String, BitSet> diagnoses = new HashMap<>();
+
+    RuleIndex(List<CompiledRuleset.Rule> rules) {
+        this.rules = rules;
+
+        // Boundary -> rules whose intervals start (positive rule + 1) or end (negative) there
+        TreeMap<Integer, List<Integer>> boundaries = new TreeMap<>();
+        for (int r = 0; r < rules.size(); r++) {
+            CompiledRuleset.Rule rule = rules.get(r);
+            indexCodes(r, rule, boundaries);
+
+            if (rule.getTeeth().isEmpty()) {
+                anyTooth.set(r);
+            }
+            for (String tooth : rule.getTeeth()) {
+                teeth.computeIfAbsent(tooth, key -> new BitSet()).set(r);
+            }
+
+            if (rule.getDiagnosis().isEmpty()) {
+                anyDiagnosis.set(r);
+            } else {
+                diagnoses.computeIfAbsent(diagnosisKey(rule.getDiagnosis()), key -> new BitSet()).set(r);
+            }
+        }
+
+        // Sweep the boundaries, recording the active rules of each segment
+        segmentStarts = new int[boundaries.size()];
+        segmentRules = new int[boundaries.size()][];
+        BitSet active = new BitSet();
+        int segment = 0;
+        for (Map.Entry<Integer, List<Integer>> boundary : boundaries.entrySet()) {
+            for (int change : boundary.getValue()) {
+                if (change > 0) {
+                    active.set(change - 1);
+                } else {
+                    active.clear(-change - 1);
+                }
+            }
+            segmentStarts[segment] = boundary.getKey();
+            segmentRules[segment] = active.stream().toArray();
+            segment++;
+        }
+    }
+
+    private void indexCodes(int r, CompiledRuleset.Rule rule, TreeMap<Integer, List<Integer>> boundaries) {
+        if (rule.getCodes().isEmpty()) {
+            anyCode.set(r);
+            return;
+        }
+
+        int[] numbers = new int[rule.getCodes().size()];
+        int count = 0;
+        for (String code : rule.getCodes()) {
+            int number = codeNumber(code);
+            if (number < 0) {
+                otherCodes.computeIfAbsent(code, key -> new BitSet()).set(r);
+            } else {
+                numbers[count++] = number;
+            }
+        }
+        Arrays.sort(numbers, 0, count);
+
+        // Merge consecutive codes into intervals; an expanded range such as D3000-D3999 becomes one
+        int i = 0;
+        while (i < count) {
+            int start = numbers[i];
+            int end = start;
+            while (i + 1 < count && numbers[i + 1] <= end + 1) {
+                end = numbers[++i];
+            }
+            i++;
+            boundaries.computeIfAbsent(start, key -> new ArrayList<>()).add(r + 1);
+            boundaries.computeIfAbsent(end + 1, key -> new ArrayList<>()).add(-(r + 1));
+        }
+    }
+
+    /**
+     * Finds the rules that would match a procedure, using the same conditions as {@link RulesetEngine}.
+     * A procedure without a tooth or diagnosis only matches rules without one.
+     *
+     * @param procedureCode The procedure code
+     * @param toothNumber The procedure's tooth, or null/empty
+     * @param diagnosis The procedure's diagnosis, or null/empty
+     * @return The positions of the matching rules, in evaluation order
+     */
+    public BitSet matchProcedure(String procedureCode, String toothNumber, String diagnosis) {
+        BitSet result = matchCode(procedureCode);
+        result.and(matchTooth(toothNumber));
+        result.and(matchDiagnosis(diagnosis));
+        return result;
+    }
+
+    /**
+     * Finds the rules that match the given conditions. A null condition is not checked,
+     * so {@code search("D2740", "3", null)} answers "which rules match D2740 on tooth 3?".
+     *
+     * @param procedureCode A procedure code, or null
+     * @param toothNumber A tooth, or null
+     * @param diagnosis A diagnosis, or null
+     * @return The positions of the matching rules, in evaluation order
+     */
+    public BitSet search(String procedureCode, String toothNumber, String diagnosis) {
+        BitSet result = new BitSet();
+        result.set(0, rules.size());
+        if (procedureCode != null) {
+            result.and(matchCode(procedureCode));
+        }
+        if (toothNumber != null) {
+            result.and(matchTooth(toothNumber));
+        }
+        if (diagnosis != null) {
+            result.and(matchDiagnosis(diagnosis));
+        }
+        return result;
+    }
+
+    /**
+     * Gets the rules at the given positions.
+     *
+     * @param positions Rule positions, as returned by the match methods
+     * @return The rules, in evaluation order
+     */
+    public List<CompiledRuleset.Rule> rules(BitSet positions) {
+        List<CompiledRuleset.Rule> result = new ArrayList<>(positions.cardinality());
+        for (int r = positions.nextSetBit(0); r >= 0; r = positions.nextSetBit(r + 1)) {
+            result.add(rules.get(r));
+        }
+        return result;
+    }
+
+    private BitSet matchCode(String procedureCode) {
+        BitSet result = (BitSet) anyCode.clone();
+        if (procedureCode == null) {
+            return result;
+        }
+        int number = codeNumber(procedureCode);
+        if (number >= 0) {
+            int segment = Arrays.binarySearch(segmentStarts, number);
+            if (segment < 0) {
+                segment = -segment - 2;
+            }
+            if (segment >= 0) {
+                for (int r : segmentRules[segment]) {
+                    result.set(r);
+                }
+            }
+        } else {
+            BitSet other = otherCodes.get(procedureCode);
+            if (other != null) {
+                result.or(other);
+            }
+        }
+        return result;
+    }
+
+    private BitSet matchTooth(String toothNumber) {
+        BitSet result = (BitSet) anyTooth.clone();
+        if (toothNumber != null && !toothNumber.isEmpty()) {
+            BitSet rulesForTooth = teeth.get(toothNumber);
+            if (rulesForTooth != null) {
+                result.or(rulesForTooth);
+            }
+        }
+        return result;
+    }
+
+    private BitSet matchDiagnosis(String diagnosis) {
+        BitSet result = (BitSet) anyDiagnosis.clone();
+        if (diagnosis != null && !diagnosis.isEmpty()) {
+            BitSet rulesForDiagnosis = diagnoses.get(diagnosisKey(diagnosis));
+            if (rulesForDiagnosis != null) {
+                result.or(rulesForDiagnosis);
+            }
+        }
+        return result;
+    }
+
+    private static String diagnosisKey(String diagnosis) {
+        return diagnosis.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Maps a code of the exact form D#### or N#### to a number, or returns -1.
+     * Other spellings are looked up as strings, matching the engine's exact comparison.
+     */
+    private static int codeNumber(String code) {
+        if (code.length() != 5) {
+            return -1;
+        }
+        char letter = code.charAt(0);
+        int base;
+        if (letter == 'D') {
+            base = 0;
+        } else if (letter == 'N') {
+            base = CODE_SPAN;
+        } else {
+            return -1;
+        }
+        int digits = 0;
+        for (int i = 1; i < 5; i++) {
+            char c = code.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            digits = digits * 10 + (c - '0');
+        }
+        return base + digits;
+    }
+}
@@ -0,0 +1,84 @@
+package com.stkych.rivergreenap.engine;
+
+/**
+ * The conditions of one ruleset's rules as code, generated by {@link RuleMatcherCompiler}.
+ * <p>
+ * Procedure codes and teeth are passed as int keys ({@link #codeKey}, {@link #toothKey}), so a
+ * rule's codes and teeth become range comparisons and bit tests against constants. A key of -1
+ * stands for a code or tooth no rule can list, which only matches rules without that condition.
+ */
+interface RuleMatcher {
+
+    // Added to the number of N codes, so they sort after every D code
+    int N_CODE_OFFSET = 10_000_000;
+
+    /**
+     * Checks a rule's code, diagnosis and tooth conditions, like {@link CompiledRuleset.Rule#matchesCode},
+     * {@link CompiledRuleset.Rule#matchesDiagnosis} and {@link CompiledRuleset.Rule#matchesTooth} together.
+     *
+     * @param rule The rule's index in the ruleset
+     * @param code The procedure's code key
+     * @param diagnosis The procedure's diagnosis
+     * @param tooth The procedure's tooth key
+     * @return True if the rule applies to the procedure
+     */
+    boolean matches(int rule, int code, String diagnosis, int tooth);
+
+    /**
+     * Checks whether another procedure satisfies a dependent rule's condition: its code is one of the
+     * conditional rule's codes, and its tooth is one of that rule's teeth if it lists any.
+     *
+     * @param rule The dependent rule's index in the ruleset
+     * @param code The other procedure's code key
+     * @param tooth The other procedure's tooth key
+     * @return True if the condition is met; false for rules that are not dependent
+     */
+    boolean matchesConditional(int rule, int code, int tooth);
+
+    /**
+     * Gets the key of a procedure code as written by {@link com.stkych.rivergreenap.util.DentalCodeUtil},
+     * a D or N followed by at least four digits.
+     *
+     * @param code The procedure code
+     * @return The code's number, plus {@link #N_CODE_OFFSET} for N codes; -1 for any other text
+     */
+    static int codeKey(String code) {
+        if (code == null || code.length() < 5 || code.length() > 8) {
+            return -1;
+        }
+        char letter = code.charAt(0);
+        if ((letter != 'D' && letter != 'N') || (code.length() > 5 && code.charAt(1) == '0')) {
+            return -1;
+        }
+        int number = 0;
+        for (int i = 1; i < code.length(); i++) {
+            char digit = code.charAt(i);
+            if (digit < '0' || digit > '9') {
+                return -1;
+            }
+            number = number * 10 + (digit - '0');
+        }
+        return letter == 'N' ? N_CODE_OFFSET + number : number;
+    }
+
+    /**
+     * Gets the key of a tooth number as rules list them, a number without leading zeros.
+     *
+     * @param tooth The tooth number
+     * @return The number; -1 for a blank tooth or any other text
+     */
+    static int toothKey(String tooth) {
+        if (tooth == null || tooth.isEmpty() || tooth.length() > 9 || (tooth.length() > 1 && tooth.charAt(0) == '0')) {
+            return -1;
+        }
+        int number = 0;
+        for (int i = 0; i < tooth.length(); i++) {
+            char digit = tooth.charAt(i);
+            if (digit < '0' || digit > '9') {
+                return -1;
+            }
+            number = number * 10 + (digit - '0');
+        }
+        return number;
+    }
+}
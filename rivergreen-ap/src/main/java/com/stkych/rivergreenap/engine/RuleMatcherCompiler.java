@@ -0,0 +1,310 @@
+package com.stkych.rivergreenap.engine;
+
+import java.lang.classfile.ClassFile;
+import java.lang.classfile.CodeBuilder;
+import java.lang.classfile.Label;
+import java.lang.classfile.instruction.SwitchCase;
+import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDescs;
+import java.lang.constant.MethodTypeDesc;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Generates a {@link RuleMatcher} class for a ruleset with the class-file API.
+ * <p>
+ * Each rule becomes a case of a {@code tableswitch} on the rule index, whose code tests the rule's
+ * conditions against constants: the rule's procedure codes as ranges of code keys, its teeth as a
+ * 64-bit mask (or ranges, for tooth numbers above 63), and its diagnosis as a string constant. The
+ * conditional rule of each dependent rule is compiled the same way into a second method. The class
+ * is defined as a hidden class, which can be unloaded once its ruleset is no longer used; each
+ * {@link CompiledRuleset} generates it once (see {@link CompiledRuleset#matcher()}).
+ * <p>
+ * Rulesets with codes that are not a D or N followed by digits, or with negative tooth numbers, are
+ * left to the table-driven evaluation, as are rulesets too large for a method's 64 KB of bytecode.
+ */
+final class RuleMatcherCompiler {
+
+    private static final Logger LOGGER = Logger.getLogger(RuleMatcherCompiler.class.getName());
+
+    private static final ClassDesc CD_RULE_MATCHER = ClassDesc.of(RuleMatcher.class.getName());
+    private static final ClassDesc CD_GENERATED = ClassDesc.of(RuleMatcher.class.getPackageName(), "GeneratedRuleMatcher");
+    private static final MethodTypeDesc MTD_MATCHES = MethodTypeDesc.of(ConstantDescs.CD_boolean,
+            ConstantDescs.CD_int, ConstantDescs.CD_int, ConstantDescs.CD_String, ConstantDescs.CD_int);
+    private static final MethodTypeDesc MTD_MATCHES_CONDITIONAL = MethodTypeDesc.of(ConstantDescs.CD_boolean,
+            ConstantDescs.CD_int, ConstantDescs.CD_int, ConstantDescs.CD_int);
+    private static final MethodTypeDesc MTD_EQUALS_IGNORE_CASE = MethodTypeDesc.of(ConstantDescs.CD_boolean,
+            ConstantDescs.CD_String);
+
+    // Local variable slots of the parameters; slot 0 is this
+    private static final int RULE_SLOT = 1;
+    private static final int CODE_SLOT = 2;
+    private static final int MATCHES_DIAGNOSIS_SLOT = 3;
+    private static final int MATCHES_TOOTH_SLOT = 4;
+    private static final int CONDITIONAL_TOOTH_SLOT = 3;
+
+    // Upper bounds of the bytecode emitted per rule, range and test, to stay clear of the 65535-byte method limit
+    private static final int BYTES_PER_RULE = 12;
+    private static final int BYTES_PER_RANGE = 16;
+    private static final int BYTES_PER_TEST = 24;
+    private static final int MAX_METHOD_BYTES = 60_000;
+
+    // Set by GraalVM in a native image, where classes cannot be defined at run time
+    private static final boolean NATIVE_IMAGE = System.getProperty("org.graalvm.nativeimage.imagecode") != null;
+
+    private RuleMatcherCompiler() {
+    }
+
+    /**
+     * The keys a condition accepts, as sorted, non-overlapping ranges and, if every key is below 64, as a bit mask.
+     *
+     * @param ranges The ranges, each {low, high} inclusive
+     * @param mask Bit k set for each key k, valid when {@code fitsMask} is true
+     * @param fitsMask Whether every key is below 64
+     */
+    record KeySet(int[][] ranges, long mask, boolean fitsMask) {
+
+        static KeySet of(Collection<Integer> keys) {
+            int[] sorted = keys.stream().mapToInt(Integer::intValue).sorted().distinct().toArray();
+            List<int[]> ranges = new ArrayList<>();
+            long mask = 0;
+            for (int key : sorted) {
+                int[] last = ranges.isEmpty() ? null : ranges.get(ranges.size() - 1);
+                if (last != null && last[1] + 1 == key) {
+                    last[1] = key;
+                } else {
+                    ranges.add(new int[]{key, key});
+                }
+                if (key < 64) {
+                    mask |= 1L << key;
+                }
+            }
+            boolean fitsMask = sorted.length > 0 && sorted[sorted.length - 1] < 64;
+            return new KeySet(ranges.toArray(new int[0][]), mask, fitsMask);
+        }
+
+        int estimatedBytes() {
+            return fitsMask ? BYTES_PER_TEST : BYTES_PER_TEST + ranges.length * BYTES_PER_RANGE;
+        }
+    }
+
+    /**
+     * A rule's conditions in key form. A null condition accepts everything.
+     *
+     * @param codes The procedure codes
+     * @param diagnosis The diagnosis, compared ignoring case
+     * @param teeth The teeth
+     * @param conditionalCodes The conditional rule's codes, if the rule is dependent
+     * @param conditionalTeeth The conditional rule's teeth, if the rule is dependent and that rule lists teeth
+     */
+    record Conditions(KeySet codes, String diagnosis, KeySet teeth, KeySet conditionalCodes, KeySet conditionalTeeth) {
+    }
+
+    /**
+     * Generates and loads the matcher for a ruleset.
+     *
+     * @param ruleset The ruleset
+     * @return The matcher, or null if the ruleset cannot be compiled
+     */
+    static RuleMatcher compile(CompiledRuleset ruleset) {
+        if (NATIVE_IMAGE) {
+            LOGGER.fine("Matchers are not generated in a native image");
+            return null;
+        }
+        List<Conditions> plan = plan(ruleset);
+        if (plan == null) {
+            return null;
+        }
+        try {
+            byte[] bytes = generate(plan);
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+            RuleMatcher matcher = (RuleMatcher) lookup.lookupClass().getDeclaredConstructor().newInstance();
+            LOGGER.fine(() -> "Generated a " + bytes.length + "-byte matcher for ruleset " + ruleset.getName());
+            return matcher;
+        } catch (ReflectiveOperationException | LinkageError | IllegalArgumentException e) {
+            LOGGER.log(Level.WARNING, "Could not generate a matcher for ruleset " + ruleset.getName()
+                    + "; it is evaluated from tables", e);
+            return null;
+        }
+    }
+
+    /**
+     * Converts the ruleset's rules to key conditions.
+     *
+     * @return The conditions in rule order, or null if a rule cannot be expressed with keys
+     */
+    static List<Conditions> plan(CompiledRuleset ruleset) {
+        List<CompiledRuleset.Rule> rules = ruleset.getRules();
+        if (rules.isEmpty()) {
+            return null;
+        }
+        List<Conditions> plan = new ArrayList<>(rules.size());
+        int matchesBytes = 0;
+        int conditionalBytes = 0;
+        for (CompiledRuleset.Rule rule : rules) {
+            KeySet codes = codes(rule);
+            KeySet teeth = teeth(rule);
+            if ((codes == null && !rule.getCodes().isEmpty()) || (teeth == null && !rule.getTeeth().isEmpty())) {
+                LOGGER.fine(() -> "Ruleset " + ruleset.getName() + " has codes or teeth without a key; not generating a matcher");
+                return null;
+            }
+            String diagnosis = rule.getDiagnosis().isEmpty() ? null : rule.getDiagnosis();
+
+            KeySet conditionalCodes = null;
+            KeySet conditionalTeeth = null;
+            CompiledRuleset.Rule conditionalRule = rule.getConditionalRule();
+            if (rule.isDependent() && conditionalRule != null && !conditionalRule.getCodes().isEmpty()) {
+                conditionalCodes = codes(conditionalRule);
+                conditionalTeeth = teeth(conditionalRule);
+                if (conditionalCodes == null || (conditionalTeeth == null && !conditionalRule.getTeeth().isEmpty())) {
+                    return null;
+                }
+                conditionalBytes += BYTES_PER_RULE + conditionalCodes.estimatedBytes()
+                        + (conditionalTeeth != null ? conditionalTeeth.estimatedBytes() : 0);
+            }
+
+            plan.add(new Conditions(codes, diagnosis, teeth, conditionalCodes, conditionalTeeth));
+            matchesBytes += BYTES_PER_RULE + (codes != null ? codes.estimatedBytes() : 0)
+                    + (diagnosis != null ? BYTES_PER_TEST : 0) + (teeth != null ? teeth.estimatedBytes() : 0);
+        }
+        if (matchesBytes > MAX_METHOD_BYTES || conditionalBytes > MAX_METHOD_BYTES) {
+            LOGGER.fine(() -> "Ruleset " + ruleset.getName() + " is too large for a generated matcher");
+            return null;
+        }
+        return plan;
+    }
+
+    private static KeySet codes(CompiledRuleset.Rule rule) {
+        if (rule.getCodes().isEmpty()) {
+            return null;
+        }
+        List<Integer> keys = new ArrayList<>(rule.getCodes().size());
+        for (String code : rule.getCodes()) {
+            int key = RuleMatcher.codeKey(code);
+            if (key < 0) {
+                return null;
+            }
+            keys.add(key);
+        }
+        return KeySet.of(keys);
+    }
+
+    private static KeySet teeth(CompiledRuleset.Rule rule) {
+        if (rule.getTeeth().isEmpty()) {
+            return null;
+        }
+        List<Integer> keys = new ArrayList<>(rule.getTeeth().size());
+        for (String tooth : rule.getTeeth()) {
+            int key = RuleMatcher.toothKey(tooth);
+            if (key < 0) {
+                return null;
+            }
+            keys.add(key);
+        }
+        return KeySet.of(keys);
+    }
+
+    /**
+     * Writes the matcher class.
+     */
+    private static byte[] generate(List<Conditions> plan) {
+        return ClassFile.of().build(CD_GENERATED, clb -> clb
+                .withFlags(ClassFile.ACC_FINAL | ClassFile.ACC_SYNTHETIC)
+                .withSuperclass(ConstantDescs.CD_Object)
+                .withInterfaceSymbols(CD_RULE_MATCHER)
+                .withMethodBody(ConstantDescs.INIT_NAME, ConstantDescs.MTD_void, ClassFile.ACC_PUBLIC, code -> code
+                        .aload(0)
+                        .invokespecial(ConstantDescs.CD_Object, ConstantDescs.INIT_NAME, ConstantDescs.MTD_void)
+                        .return_())
+                .withMethodBody("matches", MTD_MATCHES, ClassFile.ACC_PUBLIC, code -> {
+                    Label fail = code.newLabel();
+                    Label[] cases = switchOnRule(code, plan.size(), fail);
+                    for (int i = 0; i < plan.size(); i++) {
+                        Conditions conditions = plan.get(i);
+                        code.labelBinding(cases[i]);
+                        if (conditions.codes() != null) {
+                            testKey(code, CODE_SLOT, conditions.codes(), fail);
+                        }
+                        if (conditions.diagnosis() != null) {
+                            // Same as rule.getDiagnosis().equalsIgnoreCase(diagnosis), which is false for null
+                            code.loadConstant(conditions.diagnosis())
+                                    .aload(MATCHES_DIAGNOSIS_SLOT)
+                                    .invokevirtual(ConstantDescs.CD_String, "equalsIgnoreCase", MTD_EQUALS_IGNORE_CASE)
+                                    .ifeq(fail);
+                        }
+                        if (conditions.teeth() != null) {
+                            testKey(code, MATCHES_TOOTH_SLOT, conditions.teeth(), fail);
+                        }
+                        code.iconst_1().ireturn();
+                    }
+                    code.labelBinding(fail);
+                    code.iconst_0().ireturn();
+                })
+                .withMethodBody("matchesConditional", MTD_MATCHES_CONDITIONAL, ClassFile.ACC_PUBLIC, code -> {
+                    Label fail = code.newLabel();
+                    Label[] cases = switchOnRule(code, plan.size(), fail);
+                    for (int i = 0; i < plan.size(); i++) {
+                        Conditions conditions = plan.get(i);
+                        code.labelBinding(cases[i]);
+                        if (conditions.conditionalCodes() == null) {
+                            code.goto_(fail);
+                            continue;
+                        }
+                        testKey(code, CODE_SLOT, conditions.conditionalCodes(), fail);
+                        if (conditions.conditionalTeeth() != null) {
+                            testKey(code, CONDITIONAL_TOOTH_SLOT, conditions.conditionalTeeth(), fail);
+                        }
+                        code.iconst_1().ireturn();
+                    }
+                    code.labelBinding(fail);
+                    code.iconst_0().ireturn();
+                }));
+    }
+
+    /**
+     * Emits a {@code tableswitch} on the rule index with one case per rule; other indexes go to {@code fail}.
+     *
+     * @return The label of each rule's case, to be bound by the caller
+     */
+    private static Label[] switchOnRule(CodeBuilder code, int ruleCount, Label fail) {
+        Label[] labels = new Label[ruleCount];
+        List<SwitchCase> cases = new ArrayList<>(ruleCount);
+        for (int i = 0; i < ruleCount; i++) {
+            labels[i] = code.newLabel();
+            cases.add(SwitchCase.of(i, labels[i]));
+        }
+        code.iload(RULE_SLOT).tableswitch(0, ruleCount - 1, fail, cases);
+        return labels;
+    }
+
+    /**
+     * Emits a test of the int key in a local variable that branches to {@code fail} unless the key is in the set.
+     */
+    private static void testKey(CodeBuilder code, int slot, KeySet keys, Label fail) {
+        if (keys.fitsMask()) {
+            // Keys of -1 and out-of-range teeth fail the bounds check; then (mask & (1L << key)) != 0
+            code.iload(slot).iflt(fail)
+                    .iload(slot).loadConstant(64).if_icmpge(fail)
+                    .loadConstant(keys.mask())
+                    .lconst_1().iload(slot).lshl()
+                    .land()
+                    .lconst_0().lcmp()
+                    .ifeq(fail);
+            return;
+        }
+        Label found = code.newLabel();
+        for (int[] range : keys.ranges()) {
+            Label next = code.newLabel();
+            code.iload(slot).loadConstant(range[0]).if_icmplt(next)
+                    .iload(slot).loadConstant(range[1]).if_icmpgt(next)
+                    .goto_(found);
+            code.labelBinding(next);
+        }
+        code.goto_(fail);
+        code.labelBinding(found);
+    }
+}
@@ -0,0 +1,370 @@
+package com.stkych.rivergreenap.engine;
+
+import com.stkych.rivergreenap.util.BackgroundTasks;
+import com.stkych.rivergreenap.util.CsvCodec;
+import com.stkych.rivergreenap.util.FileUtils;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Incremental saving of ruleset edits.
+ * <p>
+ * Instead of rewriting a ruleset file after every edit, each insert or removal of a record is
+ * appended to a small change log next to the file ({@code ruleset<name>.csv.log}) and applied to an
+ * in-memory copy of the file's records. The log is compacted into the CSV file on a background
+ * thread once edits stop for {@link #COMPACT_DELAY_MILLIS}, after which the compiled ruleset is
+ * refreshed in {@link RulesetRepository}. Records are kept as the strings written to the file, so
+ * compaction does not re-normalize rows; only edited rows are normalized, by the caller.
+ * <p>
+ * The log starts with the modification time and size of the file it applies to. A log left behind
+ * by a crash is replayed the next time the ruleset is read if the file is unchanged, and set aside
+ * as {@code .rejected} otherwise.
+ */
+public final class RulesetEditLog {
+
+    private static final Logger LOGGER = Logger.getLogger(RulesetEditLog.class.getName());
+
+    /**
+     * Number of columns in a ruleset record: priority, diagnosis, teeth, codes, description,
+     * dependent, conditional priority, new priority.
+     */
+    public static final int COLUMNS = 8;
+
+    // Descriptions are always quoted, as in files written by earlier versions
+    private static final int DESCRIPTION_COLUMN = 4;
+
+    // How long edits must stop before the log is compacted
+    private static final long COMPACT_DELAY_MILLIS = 2000;
+    // Compact right away once this many edits are pending
+    private static final int COMPACT_THRESHOLD = 256;
+
+    private static final String LOG_SUFFIX = ".log";
+    private static final String REJECTED_SUFFIX = ".rejected";
+    private static final String BASE = "base";
+    private static final String INSERT = "I";
+    private static final String REMOVE = "D";
+    // Last field of every edit, so a line torn by a crash is recognized and ignored
+    private static final String END = ".";
+
+    private static final Map<Path, RulesetEditLog> LOGS = new ConcurrentHashMap<>();
+    private static ScheduledExecutorService scheduler;
+
+    private final String name;
+    private final Path file;
+    private final Path logFile;
+    // The file's records with the logged edits applied; null until first used
+    private List<String[]> records;
+    private FileChannel logChannel;
+    private BufferedWriter logOut;
+    private CsvCodec.Writer logWriter;
+    private int pendingEdits;
+    private ScheduledFuture<?> scheduledCompaction;
+
+    private RulesetEditLog(String name, Path file) {
+        this.name = name;
+        this.file = file;
+        this.logFile = file.resolveSibling(file.getFileName() + LOG_SUFFIX);
+    }
+
+    /**
+     * Gets the edit log of a ruleset.
+     *
+     * @param name The ruleset name
+     * @return The ruleset's edit log
+     */
+    public static RulesetEditLog forRuleset(String name) {
+        return LOGS.computeIfAbsent(FileUtils.getRulesetFile(name).toPath(), file -> new RulesetEditLog(name, file));
+    }
+
+    /**
+     * Compacts a ruleset's pending edits, if it has any, so a reader sees them.
+     * Also replays a log left behind by a process that exited before compacting it.
+     *
+     * @param name The ruleset name
+     */
+    static void compactPending(String name) {
+        Path file = FileUtils.getRulesetFile(name).toPath();
+        if (!LOGS.containsKey(file) && !Files.exists(file.resolveSibling(file.getFileName() + LOG_SUFFIX))) {
+            return;
+        }
+        try {
+            forRuleset(name).compact();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Error compacting edits to ruleset " + name, e);
+        }
+    }
+
+    /**
+     * Compacts the pending edits of every ruleset. Called before the application exits.
+     */
+    public static void compactAll() {
+        for (RulesetEditLog log : LOGS.values()) {
+            try {
+                log.compact();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Error compacting edits to ruleset " + log.name, e);
+            }
+        }
+    }
+
+    /**
+     * Compacts a ruleset's pending edits and forgets its records.
+     * Must be called before the ruleset file is renamed or deleted.
+     *
+     * @param name The ruleset name
+     */
+    public static void release(String name) {
+        RulesetEditLog log = LOGS.remove(FileUtils.getRulesetFile(name).toPath());
+        if (log != null) {
+            try {
+                log.compact();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Error compacting edits to ruleset " + name, e);
+            }
+        }
+    }
+
+    /**
+     * Inserts a record.
+     *
+     * @param index The record index (0 is the first record of the file)
+     * @param record The normalized record, with {@link #COLUMNS} fields
+     * @throws IOException If the edit cannot be logged, or the index does not fit the file's records
+     */
+    public synchronized void insert(int index, String[] record) throws IOException {
+        ensureLoaded();
+        if (index < 0 || index > records.size()) {
+            throw new IOException("Ruleset " + name + " has " + records.size() + " records; cannot insert at " + index);
+        }
+        append(INSERT, index, record);
+        records.add(index, record.clone());
+    }
+
+    /**
+     * Removes a record.
+     *
+     * @param index The record index (0 is the first record of the file)
+     * @throws IOException If the edit cannot be logged, or the index does not fit the file's records
+     */
+    public synchronized void remove(int index) throws IOException {
+        ensureLoaded();
+        if (index < 0 || index >= records.size()) {
+            throw new IOException("Ruleset " + name + " has " + records.size() + " records; cannot remove " + index);
+        }
+        append(REMOVE, index, null);
+        records.remove(index);
+    }
+
+    /**
+     * Replaces all records and writes the file now, discarding any pending edits.
+     *
+     * @param newRecords The normalized records
+     * @throws IOException If the file cannot be written
+     */
+    public synchronized void rewrite(List<String[]> newRecords) throws IOException {
+        records = new ArrayList<>(newRecords);
+        pendingEdits = 0;
+        writeFile();
+    }
+
+    /**
+     * Writes the pending edits to the ruleset file and clears the log.
+     * Does nothing if there are no pending edits.
+     *
+     * @throws IOException If the file cannot be written; the log is then kept
+     */
+    public synchronized void compact() throws IOException {
+        ensureLoaded();
+        if (pendingEdits == 0 && !Files.exists(logFile)) {
+            return;
+        }
+        int edits = pendingEdits;
+        writeFile();
+        LOGGER.info("Compacted " + edits + " edits into ruleset " + name + " (" + records.size() + " records)");
+    }
+
+    private void writeFile() throws IOException {
+        if (scheduledCompaction != null) {
+            scheduledCompaction.cancel(false);
+            scheduledCompaction = null;
+        }
+
+        CsvCodec.writeAtomically(file, writer -> {
+            for (String[] record : records) {
+                for (int i = 0; i < record.length; i++) {
+                    if (i == DESCRIPTION_COLUMN) {
+                        writer.quotedField(record[i]);
+                    } else {
+                        writer.field(record[i]);
+                    }
+                }
+                writer.endRecord();
+            }
+        });
+
+        // The file now holds every edit, so the log can go
+        closeLog();
+        Files.deleteIfExists(logFile);
+        pendingEdits = 0;
+
+        // Refresh the compiled ruleset; the file's time and size may not have changed if it was written twice within the same instant
+        RulesetRepository repository = RulesetRepository.getInstance();
+        repository.invalidate(name);
+        repository.get(name);
+    }
+
+    private void ensureLoaded() throws IOException {
+        if (records != null) {
+            return;
+        }
+        records = RulesetLoader.readRecords(file);
+        if (Files.exists(logFile)) {
+            replay();
+        }
+    }
+
+    /**
+     * Applies a log left behind by an earlier process to the records just read from the file.
+     */
+    private void replay() throws IOException {
+        long[] state = fileState();
+        List<String[]> replayed = new ArrayList<>(records);
+        int edits = 0;
+        boolean applies = false;
+
+        try (CsvCodec.Reader reader = CsvCodec.Reader.open(logFile)) {
+            if (reader.next() && reader.trimmed(0).equals(BASE)) {
+                applies = reader.trimmed(1).equals(Long.toString(state[0]))
+                        && reader.trimmed(2).equals(Long.toString(state[1]));
+            }
+            while (applies && reader.next()) {
+                String op = reader.trimmed(0);
+                boolean insert = op.equals(INSERT);
+                int fields = insert ? COLUMNS + 3 : 3;
+                if (reader.fieldCount() != fields || !reader.trimmed(fields - 1).equals(END)) {
+                    // Torn by a crash while it was being written
+                    break;
+                }
+                int index = Integer.parseInt(reader.trimmed(1));
+                if (insert && index >= 0 && index <= replayed.size()) {
+                    String[] record = new String[COLUMNS];
+                    for (int i = 0; i < COLUMNS; i++) {
+                        record[i] = reader.field(i + 2).toString();
+                    }
+                    replayed.add(index, record);
+                } else if (op.equals(REMOVE) && index >= 0 && index < replayed.size()) {
+                    replayed.remove(index);
+                } else {
+                    applies = false;
+                }
+                edits++;
+            }
+        } catch (NumberFormatException e) {
+            applies = false;
+        }
+
+        if (applies) {
+            records = replayed;
+            pendingEdits = edits;
+            LOGGER.info("Recovered " + edits + " unsaved edits to ruleset " + name);
+        } else {
+            Path rejected = logFile.resolveSibling(logFile.getFileName() + REJECTED_SUFFIX);
+            Files.move(logFile, rejected, StandardCopyOption.REPLACE_EXISTING);
+            LOGGER.warning("Ruleset " + name + " changed since its unsaved edits were logged; edits kept in " + rejected);
+        }
+    }
+
+    private void append(String op, int index, String[] record) throws IOException {
+        if (logWriter == null) {
+            boolean newLog = !Files.exists(logFile);
+            logChannel = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+            logOut = new BufferedWriter(Channels.newWriter(logChannel, StandardCharsets.UTF_8.newEncoder(), -1));
+            logWriter = new CsvCodec.Writer(logOut);
+            if (newLog) {
+                long[] state = fileState();
+                logWriter.field(BASE).field(Long.toString(state[0])).field(Long.toString(state[1]));
+                logWriter.endRecord();
+            }
+        }
+
+        logWriter.field(op).field(Integer.toString(index));
+        if (record != null) {
+            for (String field : record) {
+                logWriter.field(field);
+            }
+        }
+        logWriter.field(END);
+        logWriter.endRecord();
+        logOut.flush();
+        logChannel.force(false);
+
+        pendingEdits++;
+        scheduleCompaction();
+    }
+
+    private void scheduleCompaction() {
+        if (scheduledCompaction != null) {
+            scheduledCompaction.cancel(false);
+        }
+        long delay = pendingEdits >= COMPACT_THRESHOLD ? 0 : COMPACT_DELAY_MILLIS;
+        scheduledCompaction = scheduler().schedule(() -> {
+            try {
+                compact();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Error compacting edits to ruleset " + name + "; will retry after the next edit", e);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void closeLog() {
+        if (logOut != null) {
+            try {
+                logOut.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Error closing ruleset edit log " + logFile, e);
+            }
+        }
+        logOut = null;
+        logWriter = null;
+        logChannel = null;
+    }
+
+    /**
+     * Gets the modification time and size of the ruleset file, or 0 and -1 if it does not exist.
+     */
+    private long[] fileState() {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            return new long[] {attributes.lastModifiedTime().toMillis(), attributes.size()};
+        } catch (IOException e) {
+            return new long[] {0, -1};
+        }
+    }
+
+    private static synchronized ScheduledExecutorService scheduler() {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(BackgroundTasks.daemonThreadFactory("rivergreen-ruleset-compact"));
+        }
+        return scheduler;
+    }
+}
@@ -0,0 +1,328 @@
+package com.stkych.rivergreenap.engine;
+
+import com.stkych.rivergreenap.diagnostics.RulesetApplyEvent;
+import com.stkych.rivergreenap.model.PlannedProcedure;
+import com.stkych.rivergreenap.model.TreatmentPlanProcedure;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Applies a compiled ruleset to a patient's treatment plan procedures.
+ * Rules are evaluated in order and later matching rules overwrite earlier ones.
+ * This is the single implementation of the rule semantics shared by the main screen
+ * and the headless modes; it works on both the windows' {@link TreatmentPlanProcedure} and the
+ * compact {@link PlannedProcedure}. {@link ProcedureBatch} evaluates the same rules over many patients'
+ * plans held as columns; a change to the semantics here must be made there too.
+ * <p>
+ * With generated matchers ({@code -Drivergreen.generatedMatchers=true}, or per call with
+ * {@link #prioritize(CompiledRuleset, List, boolean, boolean)}), a ruleset's conditions are tested by a class
+ * generated for it by {@link RuleMatcherCompiler} instead of by the rules' sets; rulesets it cannot compile are
+ * evaluated as usual.
+ */
+public final class RulesetEngine {
+
+    private static final boolean GENERATED_MATCHERS = Boolean.getBoolean("rivergreen.generatedMatchers");
+    private static final LongAdder EVALUATED_COUNT = new LongAdder();
+    private static final LongAdder MATCH_COUNT = new LongAdder();
+
+    private RulesetEngine() {
+    }
+
+    /**
+     * Checks whether generated matchers are used by default, as set with {@code -Drivergreen.generatedMatchers}.
+     *
+     * @return True if conditions are tested with a class generated per ruleset where possible
+     */
+    public static boolean isGeneratedMatchers() {
+        return GENERATED_MATCHERS;
+    }
+
+    /**
+     * Gets the number of procedures evaluated since the application started, by every plan-at-a-time
+     * evaluation; {@link ProcedureBatch} is not counted.
+     *
+     * @return The procedure count
+     */
+    public static long getEvaluatedCount() {
+        return EVALUATED_COUNT.sum();
+    }
+
+    /**
+     * Gets the number of times a rule was applied since the application started, counted like
+     * {@link #getEvaluatedCount}.
+     *
+     * @return The match count
+     */
+    public static long getMatchCount() {
+        return MATCH_COUNT.sum();
+    }
+
+    /**
+     * Applies the ruleset to the procedures, updating their priorities in place.
+     * The list must contain only procedures; callers strip any header row first.
+     *
+     * @param ruleset The compiled ruleset
+     * @param procedures The procedures of a single patient
+     * @param applyToNoneOnly If true, only procedures whose priority is empty or "None" are changed
+     * @return The number of times a rule was applied
+     */
+    public static int apply(CompiledRuleset ruleset, List<TreatmentPlanProcedure> procedures, boolean applyToNoneOnly) {
+        String[] priorities = new String[procedures.size()];
+        for (int i = 0; i < priorities.length; i++) {
+            priorities[i] = procedures.get(i).getPriority();
+        }
+
+        int appliedCount = evaluate(ruleset, new Rows() {
+            @Override
+            public String code(int index) {
+                return procedures.get(index).getProcedureCode();
+            }
+
+            @Override
+            public String diagnosis(int index) {
+                return procedures.get(index).getDiagnosis();
+            }
+
+            @Override
+            public String tooth(int index) {
+                return procedures.get(index).getToothNumber();
+            }
+        }, priorities, applyToNoneOnly, GENERATED_MATCHERS);
+
+        for (int i = 0; i < priorities.length; i++) {
+            TreatmentPlanProcedure procedure = procedures.get(i);
+            if (!Objects.equals(priorities[i], procedure.getPriority())) {
+                procedure.setPriority(priorities[i]);
+            }
+        }
+        return appliedCount;
+    }
+
+    /**
+     * Applies the ruleset to compact procedures, which cannot be changed in place.
+     *
+     * @param ruleset The compiled ruleset
+     * @param procedures The procedures of a single patient
+     * @param applyToNoneOnly If true, only procedures whose priority is empty or "None" are changed
+     * @return The procedures with their new priorities, in the same order; procedures whose priority
+     *         did not change are the same instances, so changes can be found by identity
+     */
+    public static List<PlannedProcedure> prioritize(CompiledRuleset ruleset, List<PlannedProcedure> procedures,
+                                                    boolean applyToNoneOnly) {
+        return prioritize(ruleset, procedures, applyToNoneOnly, GENERATED_MATCHERS);
+    }
+
+    /**
+     * Applies the ruleset to compact procedures like {@link #prioritize(CompiledRuleset, List, boolean)},
+     * choosing how conditions are tested for this call only.
+     *
+     * @param ruleset The compiled ruleset
+     * @param procedures The procedures of a single patient
+     * @param applyToNoneOnly If true, only procedures whose priority is empty or "None" are changed
+     * @param generatedMatcher Whether to test conditions with the ruleset's generated matcher, if it has one
+     * @return The procedures with their new priorities, as for {@link #prioritize(CompiledRuleset, List, boolean)}
+     */
+    public static List<PlannedProcedure> prioritize(CompiledRuleset ruleset, List<PlannedProcedure> procedures,
+                                                    boolean applyToNoneOnly, boolean generatedMatcher) {
+        String[] priorities = new String[procedures.size()];
+        for (int i = 0; i < priorities.length; i++) {
+            priorities[i] = procedures.get(i).priority();
+        }
+
+        evaluate(ruleset, new Rows() {
+            @Override
+            public String code(int index) {
+                return procedures.get(index).procedureCode();
+            }
+
+            @Override
+            public String diagnosis(int index) {
+                return procedures.get(index).diagnosis();
+            }
+
+            @Override
+            public String tooth(int index) {
+                return procedures.get(index).toothNumber();
+            }
+        }, priorities, applyToNoneOnly, generatedMatcher);
+
+        List<PlannedProcedure> result = new ArrayList<>(priorities.length);
+        for (int i = 0; i < priorities.length; i++) {
+            result.add(procedures.get(i).withPriority(priorities[i]));
+        }
+        return result;
+    }
+
+    /**
+     * The fields rules read, by position in the plan. Priorities are passed separately since rules change them.
+     */
+    private interface Rows {
+        String code(int index);
+
+        String diagnosis(int index);
+
+        String tooth(int index);
+    }
+
+    /**
+     * Runs the rules over a plan, writing assigned priorities into {@code priorities}.
+     */
+    private static int evaluate(CompiledRuleset ruleset, Rows rows, String[] priorities, boolean applyToNoneOnly,
+                                boolean generatedMatcher) {
+        RulesetApplyEvent event = new RulesetApplyEvent();
+        event.begin();
+
+        RuleMatcher matcher = generatedMatcher ? ruleset.matcher() : null;
+        int appliedCount = matcher != null
+                ? evaluate(ruleset, matcher, rows, priorities, applyToNoneOnly)
+                : evaluateWithSets(ruleset, rows, priorities, applyToNoneOnly);
+        EVALUATED_COUNT.add(priorities.length);
+        MATCH_COUNT.add(appliedCount);
+
+        if (event.shouldCommit()) {
+            event.ruleset = ruleset.getName();
+            event.rules = ruleset.getRules().size();
+            event.patients = 1;
+            event.procedures = priorities.length;
+            event.matches = appliedCount;
+            event.generatedMatcher = matcher != null;
+            event.commit();
+        }
+        return appliedCount;
+    }
+
+    /**
+     * Runs the rules over a plan, testing conditions with the rules' sets.
+     */
+    private static int evaluateWithSets(CompiledRuleset ruleset, Rows rows, String[] priorities, boolean applyToNoneOnly) {
+        int appliedCount = 0;
+        int size = priorities.length;
+
+        for (CompiledRuleset.Rule rule : ruleset.getRules()) {
+            for (int j = 0; j < size; j++) {
+                if (!rule.matchesCode(rows.code(j))
+                        || !rule.matchesDiagnosis(rows.diagnosis(j))) {
+                    continue;
+                }
+
+                // Earlier rules in this pass count: once a procedure has a priority it is no longer "None"
+                if (applyToNoneOnly && !hasNoPriority(priorities[j])) {
+                    continue;
+                }
+
+                if (!rule.matchesTooth(rows.tooth(j))) {
+                    continue;
+                }
+
+                priorities[j] = resolvePriority(rule, rows, size, j);
+                appliedCount++;
+            }
+        }
+
+        return appliedCount;
+    }
+
+    /**
+     * Runs the rules over a plan like {@link #evaluateWithSets}, testing
+     * conditions with a generated matcher. Codes and teeth are converted to keys once per plan.
+     */
+    private static int evaluate(CompiledRuleset ruleset, RuleMatcher matcher, Rows rows, String[] priorities,
+                                boolean applyToNoneOnly) {
+        int size = priorities.length;
+        int[] codes = new int[size];
+        int[] teeth = new int[size];
+        String[] toothNumbers = new String[size];
+        String[] diagnoses = new String[size];
+        for (int j = 0; j < size; j++) {
+            codes[j] = RuleMatcher.codeKey(rows.code(j));
+            toothNumbers[j] = rows.tooth(j);
+            teeth[j] = RuleMatcher.toothKey(toothNumbers[j]);
+            diagnoses[j] = rows.diagnosis(j);
+        }
+
+        int appliedCount = 0;
+        List<CompiledRuleset.Rule> rules = ruleset.getRules();
+        for (int r = 0; r < rules.size(); r++) {
+            for (int j = 0; j < size; j++) {
+                if (!matcher.matches(r, codes[j], diagnoses[j], teeth[j])) {
+                    continue;
+                }
+                if (applyToNoneOnly && !hasNoPriority(priorities[j])) {
+                    continue;
+                }
+                priorities[j] = resolvePriority(rules.get(r), r, matcher, codes, toothNumbers, teeth, j);
+                appliedCount++;
+            }
+        }
+        return appliedCount;
+    }
+
+    /**
+     * Checks whether a priority value means "no priority".
+     *
+     * @param priority The priority value
+     * @return true if the priority is null, empty or "None"
+     */
+    public static boolean hasNoPriority(String priority) {
+        return priority == null || priority.isEmpty() || priority.equalsIgnoreCase("none");
+    }
+
+    /**
+     * Resolves the priority a matching rule assigns to the procedure at {@code index}.
+     * A dependent rule assigns its new priority when another procedure on the same tooth
+     * matches the rule that assigns the conditional priority; otherwise it assigns its normal priority.
+     */
+    private static String resolvePriority(CompiledRuleset.Rule rule, Rows rows, int size, int index) {
+        CompiledRuleset.Rule conditionalRule = rule.getConditionalRule();
+        if (!rule.isDependent() || conditionalRule == null || conditionalRule.getCodes().isEmpty()) {
+            return rule.getPriority();
+        }
+
+        String tooth = rows.tooth(index);
+        if (tooth == null || tooth.isEmpty()) {
+            return rule.getPriority();
+        }
+
+        for (int k = 0; k < size; k++) {
+            if (k == index) {
+                continue;
+            }
+            String otherTooth = rows.tooth(k);
+            if (tooth.equals(otherTooth)
+                    && conditionalRule.getCodes().contains(rows.code(k))
+                    && (conditionalRule.getTeeth().isEmpty() || conditionalRule.getTeeth().contains(otherTooth))) {
+                return rule.getNewPriority();
+            }
+        }
+
+        return rule.getPriority();
+    }
+
+    /**
+     * Resolves a matching rule's priority like {@link #resolvePriority(CompiledRuleset.Rule, Rows, int, int)},
+     * testing the conditional rule with the generated matcher.
+     */
+    private static String resolvePriority(CompiledRuleset.Rule rule, int ruleIndex, RuleMatcher matcher, int[] codes,
+                                          String[] toothNumbers, int[] teeth, int index) {
+        CompiledRuleset.Rule conditionalRule = rule.getConditionalRule();
+        if (!rule.isDependent() || conditionalRule == null || conditionalRule.getCodes().isEmpty()) {
+            return rule.getPriority();
+        }
+
+        String tooth = toothNumbers[index];
+        if (tooth == null || tooth.isEmpty()) {
+            return rule.getPriority();
+        }
+
+        for (int k = 0; k < toothNumbers.length; k++) {
+            if (k != index && tooth.equals(toothNumbers[k]) && matcher.matchesConditional(ruleIndex, codes[k], teeth[k])) {
+                return rule.getNewPriority();
+            }
+        }
+
+        return rule.getPriority();
+    }
+}
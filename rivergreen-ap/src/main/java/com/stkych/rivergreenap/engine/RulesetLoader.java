@@ -0,0 +1,227 @@
+package com.stkych.rivergreenap.engine;
+
+import com.stkych.rivergreenap.RiverGreenDB;
+import com.stkych.rivergreenap.diagnostics.RulesetLoadEvent;
+import com.stkych.rivergreenap.model.RulesetItem;
+import com.stkych.rivergreenap.util.CsvCodec;
+import com.stkych.rivergreenap.util.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Parses ruleset CSV files. This is the single parser shared by the main screen, the ruleset
+ * window and the headless modes; callers normally go through {@link RulesetRepository}.
+ */
+public final class RulesetLoader {
+
+    private static final Logger LOGGER = Logger.getLogger(RulesetLoader.class.getName());
+
+    private RulesetLoader() {
+    }
+
+    /**
+     * Lists the ruleset files in the ruleset directory.
+     *
+     * @return The ruleset files, or an empty array if the directory cannot be read
+     */
+    public static File[] listRulesetFiles() {
+        File rulesetDir = FileUtils.getRulesetDirectory();
+        File[] files = rulesetDir.listFiles((dir, name) -> name.startsWith("ruleset") && name.endsWith(".csv"));
+        return files != null ? files : new File[0];
+    }
+
+    /**
+     * Extracts the ruleset name from a ruleset file (between "ruleset" and ".csv").
+     *
+     * @param file The ruleset file
+     * @return The ruleset name
+     */
+    public static String rulesetName(File file) {
+        String filename = file.getName();
+        return filename.substring(7, filename.length() - 4);
+    }
+
+    /**
+     * Loads a ruleset from a CSV file.
+     * <p>
+     * Current files have the columns priority, diagnosis, teeth, codes, description, dependent,
+     * conditionalPriority, newPriority. Old files have priority, procedureCode, teethNumbers, diagnosis;
+     * the layout is decided once from the first record, whose second column holds a procedure code
+     * (a D or N followed by a digit) only in old files.
+     *
+     * @param file The CSV file
+     * @param fetchDescriptions Whether to look up missing descriptions in the database.
+     *                          Headless callers pass false since descriptions do not affect evaluation.
+     * @return The list of ruleset items, starting with a header item
+     */
+    public static List<RulesetItem> load(File file, boolean fetchDescriptions) {
+        RulesetLoadEvent event = new RulesetLoadEvent();
+        event.begin();
+
+        List<RulesetItem> items = read(file, fetchDescriptions);
+
+        if (event.shouldCommit()) {
+            event.file = file.getPath();
+            event.size = file.length();
+            event.rules = items.size() - 1;
+            event.fetchDescriptions = fetchDescriptions;
+            event.commit();
+        }
+        return items;
+    }
+
+    /**
+     * Reads the items of a ruleset file for {@link #load(File, boolean)}.
+     */
+    private static List<RulesetItem> read(File file, boolean fetchDescriptions) {
+        List<RulesetItem> items = new ArrayList<>();
+
+        // Add a header item
+        items.add(new RulesetItem("Header", "Header", "Description", "Teeth"));
+
+        if (!file.exists()) {
+            return items;
+        }
+
+        try (CsvCodec.Reader reader = CsvCodec.Reader.open(file.toPath())) {
+            Boolean legacyLayout = null;
+
+            while (reader.next()) {
+                // Skip empty lines and records without at least a priority and one other column
+                if (reader.isBlankRecord() || reader.fieldCount() < 2) {
+                    continue;
+                }
+                if (legacyLayout == null) {
+                    legacyLayout = isProcedureCode(reader.field(1));
+                }
+
+                String priority = reader.trimmed(0);
+                String diagnosis;
+                String teethNumbers = reader.trimmed(2);
+                String procedureCode;
+                if (legacyLayout) {
+                    procedureCode = formatProcedureCodes(reader.trimmed(1));
+                    diagnosis = reader.trimmed(3);
+                } else {
+                    diagnosis = reader.trimmed(1);
+                    procedureCode = formatProcedureCodes(reader.trimmed(3));
+                }
+                String description = reader.trimmed(4);
+                boolean dependent = !reader.isBlank(5) && Boolean.parseBoolean(reader.trimmed(5));
+                String conditionalPriority = reader.trimmed(6);
+                String newPriority = reader.trimmed(7);
+
+                if (description.isEmpty() && fetchDescriptions && !procedureCode.isEmpty()) {
+                    try {
+                        description = RiverGreenDB.getProcedureCodeDescription(procedureCode);
+                    } catch (SQLException e) {
+                        LOGGER.log(Level.WARNING, "Error getting procedure description", e);
+                    }
+                }
+
+                RulesetItem item = new RulesetItem(priority, procedureCode, description, teethNumbers);
+                if (!diagnosis.isEmpty()) {
+                    item.setDiagnosis(diagnosis);
+                }
+                item.setDependent(dependent);
+                item.setConditionalPriority(conditionalPriority);
+                item.setNewPriority(newPriority);
+                items.add(item);
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Error loading ruleset from file " + file, e);
+        }
+
+        return items;
+    }
+
+    /**
+     * Reads the records of a ruleset file as trimmed fields in the current column layout,
+     * skipping the same records as {@link #load(File, boolean)}. Old-layout records are rearranged
+     * but not otherwise rewritten, so loading the rewritten file gives the same items.
+     *
+     * @param file The CSV file
+     * @return The records, each with {@link RulesetEditLog#COLUMNS} fields; empty if the file does not exist
+     * @throws IOException If the file cannot be read
+     */
+    static List<String[]> readRecords(Path file) throws IOException {
+        List<String[]> records = new ArrayList<>();
+        if (!Files.exists(file)) {
+            return records;
+        }
+
+        try (CsvCodec.Reader reader = CsvCodec.Reader.open(file)) {
+            Boolean legacyLayout = null;
+            while (reader.next()) {
+                if (reader.isBlankRecord() || reader.fieldCount() < 2) {
+                    continue;
+                }
+                if (legacyLayout == null) {
+                    legacyLayout = isProcedureCode(reader.field(1));
+                }
+
+                String[] record = new String[RulesetEditLog.COLUMNS];
+                for (int i = 0; i < record.length; i++) {
+                    record[i] = reader.trimmed(i);
+                }
+                if (legacyLayout) {
+                    // priority, procedureCode, teethNumbers, diagnosis -> priority, diagnosis, teeth, codes
+                    String procedureCode = record[1];
+                    record[1] = record[3];
+                    record[3] = procedureCode;
+                }
+                records.add(record);
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Checks whether a field looks like a procedure code (D or N followed by a digit).
+     */
+    private static boolean isProcedureCode(CharSequence field) {
+        int i = 0;
+        while (i < field.length() && field.charAt(i) <= ' ') {
+            i++;
+        }
+        if (i + 1 >= field.length()) {
+            return false;
+        }
+        char letter = Character.toUpperCase(field.charAt(i));
+        return (letter == 'D' || letter == 'N') && Character.isDigit(field.charAt(i + 1));
+    }
+
+    /**
+     * Formats semicolon-separated procedure codes as a comma-separated list,
+     * adding the letter prefix (default D) where it is missing.
+     */
+    private static String formatProcedureCodes(String rawCodes) {
+        if (rawCodes.isEmpty()) {
+            return rawCodes;
+        }
+        String[] codes = rawCodes.split(";");
+        StringBuilder formattedCodes = new StringBuilder(rawCodes.length() + codes.length);
+        for (int i = 0; i < codes.length; i++) {
+            String code = codes[i].trim();
+            if (!code.isEmpty()) {
+                char first = Character.toUpperCase(code.charAt(0));
+                if (first != 'D' && first != 'N') {
+                    code = "D" + code;
+                }
+            }
+            formattedCodes.append(code);
+            if (i < codes.length - 1) {
+                formattedCodes.append(",");
+            }
+        }
+        return formattedCodes.toString();
+    }
+}
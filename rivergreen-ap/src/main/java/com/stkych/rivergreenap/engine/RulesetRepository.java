@@ -0,0 +1,214 @@
+package com.stkych.rivergreenap.engine;
+
+import com.stkych.rivergreenap.model.RulesetItem;
+import com.stkych.rivergreenap.util.BackgroundTasks;
+import com.stkych.rivergreenap.util.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Process-wide cache of the rulesets in the ruleset directory.
+ * <p>
+ * Each ruleset file is parsed and compiled once and cached under its path, together with the
+ * modification time and size it had when it was read. Every {@link #snapshot()} re-checks those
+ * attributes, so a file edited by the ruleset window, another process or a text editor is parsed
+ * again while unchanged files are reused. Files that need parsing are loaded in parallel. Edits still
+ * pending in a {@link RulesetEditLog} are compacted into the file before it is checked.
+ * <p>
+ * Cached rulesets are shared between controllers and must not be modified;
+ * editors work on {@link Ruleset#copyItems()}.
+ */
+public final class RulesetRepository {
+
+    private static final Logger LOGGER = Logger.getLogger(RulesetRepository.class.getName());
+
+    private static final RulesetRepository INSTANCE = new RulesetRepository();
+
+    /**
+     * A parsed and compiled ruleset file.
+     *
+     * @param name The ruleset name
+     * @param file The ruleset file
+     * @param lastModified The file's modification time when it was read
+     * @param size The file's size when it was read
+     * @param items The ruleset items, starting with a header item; read-only
+     * @param compiled The compiled form used for evaluation
+     */
+    public record Ruleset(String name, Path file, long lastModified, long size,
+                          List<RulesetItem> items, CompiledRuleset compiled) {
+
+        /**
+         * Copies the items so they can be edited without affecting other users of the cache.
+         *
+         * @return Mutable copies of the items, starting with the header item
+         */
+        public List<RulesetItem> copyItems() {
+            List<RulesetItem> copies = new ArrayList<>(items.size());
+            for (RulesetItem item : items) {
+                RulesetItem copy = new RulesetItem(item.getPriority(), item.getProcedureCodes(),
+                        item.getDescription(), item.getTeethNumbers(), item.getDiagnosis());
+                copy.setDependent(item.isDependent());
+                copy.setConditionalPriority(item.getConditionalPriority());
+                copy.setNewPriority(item.getNewPriority());
+                copies.add(copy);
+            }
+            return copies;
+        }
+
+        private boolean isCurrent(BasicFileAttributes attributes) {
+            return attributes.lastModifiedTime().toMillis() == lastModified && attributes.size() == size;
+        }
+    }
+
+    private final Map<Path, Ruleset> cache = new ConcurrentHashMap<>();
+    private volatile boolean fetchDescriptions = true;
+
+    private RulesetRepository() {
+    }
+
+    /**
+     * Gets the process-wide repository.
+     *
+     * @return The ruleset repository
+     */
+    public static RulesetRepository getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Sets whether missing descriptions are looked up in the database when a file is parsed.
+     * Headless modes turn this off since descriptions do not affect evaluation.
+     *
+     * @param fetchDescriptions Whether to look up missing descriptions
+     */
+    public void setFetchDescriptions(boolean fetchDescriptions) {
+        this.fetchDescriptions = fetchDescriptions;
+    }
+
+    /**
+     * Lists the ruleset names without parsing any files.
+     *
+     * @return The ruleset names, sorted
+     */
+    public List<String> names() {
+        FileUtils.migrateRulesetFiles();
+        List<String> names = new ArrayList<>();
+        for (File file : RulesetLoader.listRulesetFiles()) {
+            names.add(RulesetLoader.rulesetName(file));
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    /**
+     * Gets every ruleset, parsing only files that are new or changed since they were cached.
+     *
+     * @return An immutable map of the rulesets keyed by name, sorted by name
+     */
+    public SortedMap<String, Ruleset> snapshot() {
+        FileUtils.migrateRulesetFiles();
+
+        SortedMap<String, Ruleset> rulesets = new TreeMap<>();
+        Map<String, CompletableFuture<Ruleset>> loading = new TreeMap<>();
+        Set<Path> present = new HashSet<>();
+
+        for (File file : RulesetLoader.listRulesetFiles()) {
+            Path path = file.toPath();
+            String name = RulesetLoader.rulesetName(file);
+            present.add(path);
+            RulesetEditLog.compactPending(name);
+
+            BasicFileAttributes attributes;
+            try {
+                attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Cannot read ruleset file " + path, e);
+                continue;
+            }
+
+            Ruleset cached = cache.get(path);
+            if (cached != null && cached.isCurrent(attributes)) {
+                rulesets.put(name, cached);
+            } else {
+                loading.put(name, CompletableFuture.supplyAsync(() -> load(name, path, attributes), BackgroundTasks.executor()));
+            }
+        }
+
+        for (Map.Entry<String, CompletableFuture<Ruleset>> entry : loading.entrySet()) {
+            try {
+                Ruleset ruleset = entry.getValue().join();
+                cache.put(ruleset.file(), ruleset);
+                rulesets.put(entry.getKey(), ruleset);
+            } catch (CompletionException e) {
+                LOGGER.log(Level.WARNING, "Error loading ruleset " + entry.getKey(), e.getCause());
+            }
+        }
+
+        // Forget rulesets that were deleted or renamed
+        cache.keySet().retainAll(present);
+
+        if (!loading.isEmpty()) {
+            LOGGER.info("Loaded " + loading.size() + " ruleset files (" + (rulesets.size() - loading.size()) + " cached)");
+        }
+        return Collections.unmodifiableSortedMap(rulesets);
+    }
+
+    /**
+     * Gets one ruleset, parsing its file only if it is new or changed.
+     *
+     * @param name The ruleset name
+     * @return The ruleset, or null if there is no such ruleset file
+     */
+    public Ruleset get(String name) {
+        RulesetEditLog.compactPending(name);
+        Path path = FileUtils.getRulesetFile(name).toPath();
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (IOException e) {
+            cache.remove(path);
+            return null;
+        }
+
+        Ruleset cached = cache.get(path);
+        if (cached != null && cached.isCurrent(attributes)) {
+            return cached;
+        }
+        Ruleset ruleset = load(name, path, attributes);
+        cache.put(path, ruleset);
+        return ruleset;
+    }
+
+    /**
+     * Drops a ruleset from the cache so it is parsed again on next use.
+     * Writers call this after saving in case the file's time and size did not change.
+     *
+     * @param name The ruleset name
+     */
+    public void invalidate(String name) {
+        cache.remove(FileUtils.getRulesetFile(name).toPath());
+    }
+
+    private Ruleset load(String name, Path path, BasicFileAttributes attributes) {
+        List<RulesetItem> items = RulesetLoader.load(path.toFile(), fetchDescriptions);
+        return new Ruleset(name, path, attributes.lastModifiedTime().toMillis(), attributes.size(),
+                Collections.unmodifiableList(items), CompiledRuleset.compile(name, items));
+    }
+}
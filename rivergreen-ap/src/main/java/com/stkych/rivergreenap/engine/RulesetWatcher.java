@@ -0,0 +1,233 @@
+package com.stkych.rivergreenap.engine;
+
+import com.stkych.rivergreenap.util.BackgroundTasks;
+import com.stkych.rivergreenap.util.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Watches the ruleset directory and reloads rulesets whose files are added, changed or removed.
+ * <p>
+ * File events are collected per ruleset name and handled once the directory has been quiet for
+ * {@link #DEBOUNCE_MILLIS}, so an editor saving in several writes causes one reload. Each changed
+ * file is re-parsed and recompiled through {@link RulesetRepository} on a background thread, and the
+ * new ruleset is then handed to the listeners, which swap it in. Listeners are called off the
+ * JavaFX application thread.
+ */
+public final class RulesetWatcher {
+
+    private static final Logger LOGGER = Logger.getLogger(RulesetWatcher.class.getName());
+
+    private static final RulesetWatcher INSTANCE = new RulesetWatcher();
+
+    // How long the directory must be quiet before changes are reloaded
+    private static final long DEBOUNCE_MILLIS = 300;
+
+    /**
+     * Receives reloaded rulesets.
+     */
+    @FunctionalInterface
+    public interface Listener {
+        /**
+         * Called after a ruleset file changed.
+         *
+         * @param name The ruleset name
+         * @param ruleset The reloaded ruleset, or null if its file was deleted
+         */
+        void rulesetChanged(String name, RulesetRepository.Ruleset ruleset);
+    }
+
+    // Keyed by owner so a recreated controller replaces its predecessor's listener
+    private final Map<String, Listener> listeners = new ConcurrentHashMap<>();
+    private final Set<String> pending = new HashSet<>();
+    private Set<String> knownNames = new HashSet<>();
+    private boolean rescanPending;
+    private WatchService watchService;
+    private ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> scheduledReload;
+
+    private RulesetWatcher() {
+    }
+
+    /**
+     * Gets the process-wide watcher.
+     *
+     * @return The ruleset watcher
+     */
+    public static RulesetWatcher getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Starts watching the ruleset directory. Does nothing if already started.
+     * If the directory cannot be watched, rulesets are still reloaded on the next scene switch.
+     */
+    public synchronized void start() {
+        if (watchService != null) {
+            return;
+        }
+        Path directory = FileUtils.getRulesetDirectory().toPath();
+        try {
+            watchService = directory.getFileSystem().newWatchService();
+            directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Cannot watch ruleset directory " + directory + "; hot reload disabled", e);
+            watchService = null;
+            return;
+        }
+
+        knownNames = new HashSet<>(RulesetRepository.getInstance().names());
+        scheduler = Executors.newSingleThreadScheduledExecutor(BackgroundTasks.daemonThreadFactory("rivergreen-ruleset-reload"));
+        WatchService service = watchService;
+        BackgroundTasks.daemonThreadFactory("rivergreen-ruleset-watcher").newThread(() -> watch(service)).start();
+        LOGGER.info("Watching ruleset directory " + directory);
+    }
+
+    /**
+     * Stops watching the ruleset directory.
+     */
+    public synchronized void stop() {
+        if (watchService == null) {
+            return;
+        }
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Error closing ruleset watch service", e);
+        }
+        scheduler.shutdownNow();
+        watchService = null;
+        scheduler = null;
+    }
+
+    /**
+     * Registers a listener, replacing any listener registered under the same key.
+     *
+     * @param key Identifies the owner (e.g. "main")
+     * @param listener The listener
+     */
+    public void addListener(String key, Listener listener) {
+        listeners.put(key, listener);
+    }
+
+    /**
+     * Removes the listener registered under a key.
+     *
+     * @param key The key the listener was registered under
+     */
+    public void removeListener(String key) {
+        listeners.remove(key);
+    }
+
+    private void watch(WatchService service) {
+        while (true) {
+            WatchKey key;
+            try {
+                key = service.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    // Events were lost; compare the whole directory
+                    queueRescan();
+                    continue;
+                }
+                String fileName = event.context().toString();
+                // Temporary files from atomic saves end in .tmp and are ignored
+                if (fileName.startsWith("ruleset") && fileName.endsWith(".csv")) {
+                    queue(RulesetLoader.rulesetName(new File(fileName)));
+                }
+            }
+
+            if (!key.reset()) {
+                LOGGER.warning("Ruleset directory is no longer accessible; hot reload stopped");
+                return;
+            }
+        }
+    }
+
+    private synchronized void queue(String name) {
+        pending.add(name);
+        scheduleReload();
+    }
+
+    private synchronized void queueRescan() {
+        rescanPending = true;
+        scheduleReload();
+    }
+
+    private void scheduleReload() {
+        if (scheduler == null) {
+            return;
+        }
+        if (scheduledReload != null) {
+            scheduledReload.cancel(false);
+        }
+        scheduledReload = scheduler.schedule(this::reload, DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private void reload() {
+        RulesetRepository repository = RulesetRepository.getInstance();
+        Set<String> names;
+        synchronized (this) {
+            names = new TreeSet<>(pending);
+            pending.clear();
+            if (rescanPending) {
+                names.addAll(knownNames);
+                names.addAll(repository.names());
+                rescanPending = false;
+            }
+        }
+
+        for (String name : names) {
+            RulesetRepository.Ruleset ruleset;
+            try {
+                // Re-parses only this file, and only if its time or size changed
+                ruleset = repository.get(name);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Error reloading ruleset " + name, e);
+                continue;
+            }
+
+            synchronized (this) {
+                if (ruleset != null) {
+                    knownNames.add(name);
+                } else {
+                    knownNames.remove(name);
+                }
+            }
+            LOGGER.info(ruleset != null
+                    ? "Reloaded ruleset " + name + " (" + ruleset.compiled().getRules().size() + " rules)"
+                    : "Ruleset " + name + " was removed");
+
+            for (Listener listener : listeners.values()) {
+                try {
+                    listener.rulesetChanged(name, ruleset);
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "Ruleset listener failed for " + name, e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.stkych.rivergreenap.engine;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The candidate scan of {@link ProcedureBatch} on the Vector API.
+ * <p>
+ * This is the only class that refers to {@code jdk.incubator.vector}. {@link ProcedureBatch} loads it
+ * only after checking that the module is present, so the application runs without the module.
+ */
+final class VectorRowScan {
+
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+    private VectorRowScan() {
+    }
+
+    /**
+     * Finds the rows whose code and diagnosis ids are within the given intervals and whose tooth bits
+     * share a bit with the tooth mask.
+     *
+     * @param codes The code id column
+     * @param codeLow The smallest code id
+     * @param codeHigh The largest code id
+     * @param diagnoses The diagnosis id column
+     * @param diagnosisLow The smallest diagnosis id
+     * @param diagnosisHigh The largest diagnosis id
+     * @param toothBits The tooth bit column
+     * @param toothMask The tooth bits, or 0 to accept every tooth
+     * @param candidates Receives the rows found, in ascending order; as long as the columns
+     * @return The number of rows found
+     */
+    static int select(int[] codes, int codeLow, int codeHigh, int[] diagnoses, int diagnosisLow, int diagnosisHigh,
+                      int[] toothBits, int toothMask, int[] candidates) {
+        int size = codes.length;
+        int count = 0;
+        int row = 0;
+        for (int bound = SPECIES.loopBound(size); row < bound; row += SPECIES.length()) {
+            IntVector code = IntVector.fromArray(SPECIES, codes, row);
+            VectorMask<Integer> match = code.compare(VectorOperators.GE, codeLow)
+                    .and(code.compare(VectorOperators.LE, codeHigh));
+            IntVector diagnosis = IntVector.fromArray(SPECIES, diagnoses, row);
+            match = match.and(diagnosis.compare(VectorOperators.GE, diagnosisLow))
+                    .and(diagnosis.compare(VectorOperators.LE, diagnosisHigh));
+            if (toothMask != 0) {
+                match = match.and(IntVector.fromArray(SPECIES, toothBits, row)
+                        .lanewise(VectorOperators.AND, toothMask)
+                        .compare(VectorOperators.NE, 0));
+            }
+            // Most rows match no given rule, so whole blocks are usually skipped here
+            long lanes = match.toLong();
+            while (lanes != 0) {
+                candidates[count++] = row + Long.numberOfTrailingZeros(lanes);
+                lanes &= lanes - 1;
+            }
+        }
+        for (; row < size; row++) {
+            int code = codes[row];
+            int diagnosis = diagnoses[row];
+            if (code >= codeLow && code <= codeHigh && diagnosis >= diagnosisLow && diagnosis <= diagnosisHigh
+                    && (toothMask == 0 || (toothBits[row] & toothMask) != 0)) {
+                candidates[count++] = row;
+            }
+        }
+        return count;
+    }
+}
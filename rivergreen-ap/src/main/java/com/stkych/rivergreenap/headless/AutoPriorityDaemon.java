@@ -0,0 +1,465 @@
+package com.stkych.rivergreenap.headless;
+
+import com.stkych.rivergreenap.RiverGreenDB;
+import com.stkych.rivergreenap.db.ChangeJournal;
+import com.stkych.rivergreenap.db.LateChangeFilter;
+import com.stkych.rivergreenap.db.PracticeSnapshot;
+import com.stkych.rivergreenap.diagnostics.MetricsEndpoint;
+import com.stkych.rivergreenap.engine.CompiledRuleset;
+import com.stkych.rivergreenap.engine.RulesetEngine;
+import com.stkych.rivergreenap.engine.RulesetRepository;
+import com.stkych.rivergreenap.engine.RulesetWatcher;
+import com.stkych.rivergreenap.model.PlannedProcedure;
+import com.stkych.rivergreenap.util.FileUtils;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Headless mode that keeps treatment plan priorities up to date without anyone opening the application.
+ * <p>
+ * The daemon polls procedurelog for treatment-planned procedures created or modified since a
+ * persisted watermark, groups them by patient, re-evaluates each affected patient's plan with the
+ * compiled ruleset and writes changed priorities back in batches. The watermark is only advanced
+ * after a poll's writes succeed, so a failed poll is simply repeated.
+ * <p>
+ * The daemon's own writes bump DateTStamp and come back on the next poll. Each write reports the
+ * DateTStamp it left on its rows, and a change with the ProcNum and DateTStamp of the daemon's own
+ * write moves the watermark past it without evaluating the patient again. Evaluation is deterministic,
+ * so processing a change twice is harmless; that makes it safe to look behind the watermark: once
+ * caught up, each poll also reads the last minute before the watermark again for changes committed
+ * after it had passed them (see {@link LateChangeFilter}).
+ * <p>
+ * With {@code --snapshot}, the daemon keeps a {@link PracticeSnapshot} of every patient's plan. Each
+ * poll brings it up to date and evaluates the plans held in it instead of reading each patient's plan
+ * from MySQL; after the poll's writes it is updated again and the daemon logs how many procedures have
+ * each priority.
+ * <p>
+ * With {@code --metrics-port}, the daemon serves its metrics and the process's in the Prometheus
+ * format on that port of the loopback address (see {@link MetricsEndpoint}).
+ * <p>
+ * Usage: {@code --daemon [--ruleset NAME] [--interval SECONDS] [--apply-to-all] [--once] [--snapshot] [--metrics-port PORT]}
+ */
+public final class AutoPriorityDaemon {
+
+    private static final Logger LOGGER = Logger.getLogger(AutoPriorityDaemon.class.getName());
+
+    private static final String WATERMARK_FILE = "daemon-watermark.properties";
+    private static final int DEFAULT_POLL_SECONDS = 30;
+    // Changed procedures fetched per poll; a full page means there is more backlog
+    private static final int FETCH_LIMIT = 500;
+    // Procedures written per transaction
+    private static final int WRITE_BATCH_SIZE = 200;
+
+    private final String rulesetName;
+    private final boolean applyToNoneOnly;
+    private final long pollIntervalMillis;
+    private final Path watermarkFile;
+    private volatile boolean running = true;
+    private volatile Thread worker;
+    // Swapped by the ruleset watcher when the ruleset file changes
+    private volatile CompiledRuleset ruleset;
+    private PracticeSnapshot snapshot;
+    // Only used by the polling thread
+    private final LateChangeFilter lateChanges = new LateChangeFilter(true);
+    // DateTStamp left by the daemon's own writes, keyed by ProcNum, until they are seen again
+    private final Map<Integer, Long> ownWrites = new HashMap<>();
+    private final DaemonMetrics metrics = new DaemonMetrics();
+    private volatile MetricsEndpoint metricsEndpoint;
+
+    /**
+     * Creates a daemon.
+     *
+     * @param rulesetName The ruleset to apply, or null to use the first ruleset by name
+     * @param applyToNoneOnly Whether to only set priorities on procedures that have none
+     * @param pollIntervalMillis The delay between polls when there is no backlog
+     */
+    public AutoPriorityDaemon(String rulesetName, boolean applyToNoneOnly, long pollIntervalMillis) {
+        this.rulesetName = rulesetName;
+        this.applyToNoneOnly = applyToNoneOnly;
+        this.pollIntervalMillis = pollIntervalMillis;
+        this.watermarkFile = FileUtils.getAppDataDirectory().toPath().resolve(WATERMARK_FILE);
+    }
+
+    /**
+     * Entry point for the daemon mode.
+     *
+     * @param args Daemon options (see class documentation)
+     */
+    public static void main(String[] args) {
+        String rulesetName = null;
+        boolean applyToNoneOnly = true;
+        long pollSeconds = DEFAULT_POLL_SECONDS;
+        boolean once = false;
+        boolean keepSnapshot = false;
+        int metricsPort = -1;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--ruleset" -> rulesetName = requireValue(args, ++i, "--ruleset");
+                case "--interval" -> pollSeconds = Long.parseLong(requireValue(args, ++i, "--interval"));
+                case "--apply-to-all" -> applyToNoneOnly = false;
+                case "--once" -> once = true;
+                case "--snapshot" -> keepSnapshot = true;
+                case "--metrics-port" -> metricsPort = Integer.parseInt(requireValue(args, ++i, "--metrics-port"));
+                default -> LOGGER.warning("Ignoring unknown daemon option: " + args[i]);
+            }
+        }
+
+        ChangeJournal.setSessionLabel("daemon" + (rulesetName != null ? " ruleset " + rulesetName : ""));
+        AutoPriorityDaemon daemon = new AutoPriorityDaemon(rulesetName, applyToNoneOnly, pollSeconds * 1000);
+        if (keepSnapshot) {
+            try {
+                daemon.setSnapshot(PracticeSnapshot.open(PracticeSnapshot.defaultFile()));
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Cannot open the practice snapshot; continuing without it", e);
+            }
+        }
+        if (metricsPort >= 0) {
+            try {
+                daemon.startMetrics(metricsPort);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Cannot serve metrics on port " + metricsPort + "; continuing without them", e);
+            }
+        }
+        if (once) {
+            try {
+                daemon.drain();
+            } catch (SQLException | IOException e) {
+                LOGGER.log(Level.SEVERE, "Auto-prioritization run failed", e);
+                System.exit(1);
+            } finally {
+                daemon.closeMetrics();
+                daemon.closeSnapshot();
+                ChangeJournal.closeSession();
+            }
+        } else {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                daemon.stop();
+                daemon.closeMetrics();
+                daemon.closeSnapshot();
+                ChangeJournal.closeSession();
+            }, "rivergreen-daemon-shutdown"));
+            RulesetWatcher.getInstance().start();
+            daemon.run();
+        }
+    }
+
+    private static String requireValue(String[] args, int index, String option) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException("Missing value for " + option);
+        }
+        return args[index];
+    }
+
+    /**
+     * Keeps a snapshot of every patient's plan up to date along with the polls.
+     *
+     * @param snapshot The snapshot, or null for none; the daemon closes it in {@link #closeSnapshot}
+     */
+    public synchronized void setSnapshot(PracticeSnapshot snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * Releases the snapshot, if there is one.
+     */
+    public synchronized void closeSnapshot() {
+        if (snapshot != null) {
+            snapshot.close();
+            snapshot = null;
+        }
+    }
+
+    /**
+     * Serves the daemon's metrics until {@link #closeMetrics}.
+     *
+     * @param port The port on the loopback address, or 0 for any free port
+     * @return The port
+     * @throws IOException If the port cannot be bound
+     */
+    public synchronized int startMetrics(int port) throws IOException {
+        if (metricsEndpoint == null) {
+            metricsEndpoint = MetricsEndpoint.start(port, metrics);
+        }
+        return metricsEndpoint.getPort();
+    }
+
+    /**
+     * Stops serving metrics, if they are served.
+     */
+    public synchronized void closeMetrics() {
+        if (metricsEndpoint != null) {
+            metricsEndpoint.close();
+            metricsEndpoint = null;
+        }
+    }
+
+    /**
+     * Polls until stopped. Errors are logged and the poll is retried after the interval.
+     */
+    public void run() {
+        worker = Thread.currentThread();
+        LOGGER.info("AutoPriority daemon started (apply to None only: " + applyToNoneOnly + ")");
+        while (running) {
+            int fetched = 0;
+            try {
+                fetched = pollOnce();
+                refreshSnapshot();
+            } catch (SQLException | IOException | RuntimeException e) {
+                metrics.recordFailedPoll();
+                LOGGER.log(Level.WARNING, "Poll failed; will retry", e);
+            }
+
+            // Keep going without a pause while working through a backlog
+            if (fetched < FETCH_LIMIT) {
+                try {
+                    Thread.sleep(pollIntervalMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        LOGGER.info("AutoPriority daemon stopped");
+    }
+
+    /**
+     * Processes all pending changes and returns.
+     *
+     * @return The number of changed procedures processed
+     * @throws SQLException If a database error occurs
+     * @throws IOException If the watermark cannot be read or written
+     */
+    public int drain() throws SQLException, IOException {
+        int total = 0;
+        int fetched;
+        do {
+            fetched = pollOnce();
+            total += fetched;
+        } while (fetched == FETCH_LIMIT && running);
+        refreshSnapshot();
+        return total;
+    }
+
+    /**
+     * Stops the polling loop.
+     */
+    public void stop() {
+        running = false;
+        Thread current = worker;
+        if (current != null) {
+            current.interrupt();
+        }
+    }
+
+    /**
+     * Processes one page of changed procedures.
+     *
+     * @return The number of changed procedures fetched
+     * @throws SQLException If a database error occurs
+     * @throws IOException If the watermark cannot be read or written
+     */
+    public int pollOnce() throws SQLException, IOException {
+        long started = System.nanoTime();
+        Watermark watermark = Watermark.load(watermarkFile);
+        List<RiverGreenDB.ChangedProcedure> changes =
+                RiverGreenDB.getChangedTreatmentPlanProcedures(watermark.dateTStamp(), watermark.procNum(), FETCH_LIMIT);
+        lateChanges.processed(changes);
+        Watermark next = changes.isEmpty() ? watermark
+                : new Watermark(changes.get(changes.size() - 1).dateTStamp(), changes.get(changes.size() - 1).procNum());
+
+        // Once caught up, pick up changes committed behind the watermark; not while working through a backlog
+        List<RiverGreenDB.ChangedProcedure> late = changes.size() < FETCH_LIMIT && !next.equals(Watermark.START)
+                ? lateChanges.findLate(next.dateTStamp(), next.procNum())
+                : List.of();
+
+        // The daemon's own writes move the watermark but are not evaluated again
+        List<RiverGreenDB.ChangedProcedure> external = withoutOwnWrites(changes);
+        List<RiverGreenDB.ChangedProcedure> externalLate = withoutOwnWrites(late);
+        if (external.isEmpty() && externalLate.isEmpty()) {
+            lateChanges.processed(late);
+            if (!next.equals(watermark)) {
+                next.save(watermarkFile);
+            }
+            metrics.recordIdlePoll();
+            if (!next.equals(Watermark.START)) {
+                metrics.recordPosition(next.dateTStamp().getTime(), 0);
+            }
+            return changes.size();
+        }
+
+        CompiledRuleset compiled = getRuleset();
+        catchUpSnapshot();
+
+        // Re-evaluate each affected patient once, in the order their changes arrived
+        Set<Integer> patients = new LinkedHashSet<>();
+        for (RiverGreenDB.ChangedProcedure change : externalLate) {
+            patients.add(change.patientNumber());
+        }
+        for (RiverGreenDB.ChangedProcedure change : external) {
+            patients.add(change.patientNumber());
+        }
+
+        List<PlannedProcedure> pending = new ArrayList<>();
+        List<RiverGreenDB.ChangedProcedure> written = new ArrayList<>();
+        int evaluated = 0;
+        int updated = 0;
+        for (int patientNumber : patients) {
+            List<PlannedProcedure> plan = readPlan(patientNumber);
+            evaluated += plan.size();
+
+            List<PlannedProcedure> prioritized = RulesetEngine.prioritize(compiled, plan, applyToNoneOnly);
+
+            // Procedures whose priority changed are new instances
+            for (int i = 0; i < plan.size(); i++) {
+                if (prioritized.get(i) != plan.get(i)) {
+                    pending.add(prioritized.get(i));
+                }
+            }
+
+            if (pending.size() >= WRITE_BATCH_SIZE) {
+                metrics.recordWriteBatch(pending.size());
+                updated += RiverGreenDB.updateProcedurePriorities(pending, written);
+                pending.clear();
+            }
+        }
+        if (!pending.isEmpty()) {
+            metrics.recordWriteBatch(pending.size());
+        }
+        updated += RiverGreenDB.updateProcedurePriorities(pending, written);
+        lateChanges.processed(late);
+        rememberOwnWrites(written, next);
+
+        next.save(watermarkFile);
+
+        int changeCount = changes.size() + late.size();
+        metrics.recordPoll(changeCount, patients.size(), updated, System.nanoTime() - started);
+        recordLag(next, changes.size());
+
+        int patientCount = patients.size();
+        int evaluatedCount = evaluated;
+        int updatedCount = updated;
+        int lateCount = late.size();
+        int ownCount = changeCount - external.size() - externalLate.size();
+        LOGGER.info(() -> String.format("Processed %d changed procedures (%d committed late, %d own writes): %d patients, %d procedures evaluated, %d priorities updated",
+                changeCount, lateCount, ownCount, patientCount, evaluatedCount, updatedCount));
+        return changes.size();
+    }
+
+    /**
+     * Drops the changes that are the daemon's own writes coming back. A procedure changed again
+     * since, by anyone, has another DateTStamp and is kept.
+     */
+    private List<RiverGreenDB.ChangedProcedure> withoutOwnWrites(List<RiverGreenDB.ChangedProcedure> changes) {
+        List<RiverGreenDB.ChangedProcedure> external = new ArrayList<>(changes.size());
+        for (RiverGreenDB.ChangedProcedure change : changes) {
+            Long own = ownWrites.remove(change.procNum());
+            if (own == null || own != change.dateTStamp().getTime()) {
+                external.add(change);
+            }
+        }
+        return external;
+    }
+
+    /**
+     * Notes the DateTStamp a poll's writes left on their rows. Writes that never come back, for
+     * example because the procedure was completed before the next poll, are forgotten once the
+     * watermark is a trailing window past them.
+     */
+    private void rememberOwnWrites(List<RiverGreenDB.ChangedProcedure> written, Watermark next) {
+        for (RiverGreenDB.ChangedProcedure write : written) {
+            ownWrites.put(write.procNum(), write.dateTStamp().getTime());
+        }
+        long expired = next.dateTStamp().getTime() - LateChangeFilter.WINDOW_MILLIS;
+        ownWrites.values().removeIf(stamp -> stamp < expired);
+    }
+
+    /**
+     * Notes how far behind the change stream the daemon is after a poll. A page that was not full
+     * reached the end of the stream; after a full one, the newest change is looked up, but only
+     * while metrics are served.
+     */
+    private void recordLag(Watermark last, int fetched) throws SQLException {
+        long lagMillis = 0;
+        if (fetched == FETCH_LIMIT && metricsEndpoint != null) {
+            RiverGreenDB.ChangedProcedure latest = RiverGreenDB.getLatestProcedureChange();
+            if (latest != null) {
+                lagMillis = latest.dateTStamp().getTime() - last.dateTStamp().getTime();
+            }
+        }
+        metrics.recordPosition(last.dateTStamp().getTime(), lagMillis);
+    }
+
+    /**
+     * Brings the snapshot up to date before a poll reads plans from it.
+     */
+    private synchronized void catchUpSnapshot() throws SQLException, IOException {
+        if (snapshot != null) {
+            snapshot.refresh();
+        }
+    }
+
+    /**
+     * Reads a patient's plan from the snapshot, or from the database if the daemon keeps none.
+     */
+    private List<PlannedProcedure> readPlan(int patientNumber) throws SQLException {
+        synchronized (this) {
+            if (snapshot != null) {
+                return snapshot.plan(patientNumber);
+            }
+        }
+        return RiverGreenDB.getPlannedProcedures(patientNumber);
+    }
+
+    /**
+     * Brings the snapshot up to date, including this poll's own writes, and logs the priority counts if it changed.
+     */
+    private synchronized void refreshSnapshot() throws SQLException, IOException {
+        if (snapshot == null) {
+            return;
+        }
+        int patients = snapshot.refresh();
+        if (patients > 0) {
+            LOGGER.info(String.format("Practice snapshot: %d patients read again, %d procedures of %d patients; by priority %s",
+                    patients, snapshot.size(), snapshot.patientCount(), snapshot.priorityCounts()));
+        }
+    }
+
+    /**
+     * Gets the compiled ruleset, loading it on first use.
+     */
+    private CompiledRuleset getRuleset() {
+        if (ruleset == null) {
+            // Descriptions do not affect evaluation, so skip the database lookups
+            RulesetRepository repository = RulesetRepository.getInstance();
+            repository.setFetchDescriptions(false);
+            // Sorted so the default ruleset does not depend on directory order
+            List<String> names = repository.names();
+            String name = rulesetName != null ? rulesetName : names.isEmpty() ? null : names.get(0);
+            RulesetRepository.Ruleset loaded = name != null ? repository.get(name) : null;
+            if (loaded == null) {
+                throw new IllegalStateException("Ruleset not found: " + (name != null ? name : "(no rulesets available)"));
+            }
+            ruleset = loaded.compiled();
+            LOGGER.info("Using ruleset " + name + " (" + ruleset.getRules().size() + " rules)");
+
+            // The next poll uses an edited ruleset; a deleted one keeps the last version
+            RulesetWatcher.getInstance().addListener("daemon", (changedName, changed) -> {
+                if (changedName.equals(name) && changed != null) {
+                    ruleset = changed.compiled();
+                }
+            });
+        }
+        return ruleset;
+    }
+}
@@ -0,0 +1,91 @@
+package com.stkych.rivergreenap.headless;
+
+import com.stkych.rivergreenap.diagnostics.Histogram;
+import com.stkych.rivergreenap.diagnostics.MetricsEndpoint;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The {@link AutoPriorityDaemon}'s own metrics: what its polls processed and wrote, and how far
+ * behind the procedurelog change stream it is. Updated by the polling thread and read by the
+ * metrics endpoint's.
+ */
+final class DaemonMetrics implements MetricsEndpoint.Collector {
+
+    // Around the daemon's write batch size, which a batch can pass by one patient's plan
+    private static final double[] BATCH_SIZES = {1, 5, 10, 25, 50, 100, 200, 400, 800};
+
+    private final LongAdder polls = new LongAdder();
+    private final LongAdder failedPolls = new LongAdder();
+    private final LongAdder changes = new LongAdder();
+    private final LongAdder patients = new LongAdder();
+    private final LongAdder updated = new LongAdder();
+    private final Histogram pollSeconds = new Histogram(Histogram.SECONDS);
+    private final Histogram writeBatchSizes = new Histogram(BATCH_SIZES);
+    private volatile double patientsPerSecond;
+    private volatile long watermarkMillis = -1;
+    private volatile double lagSeconds = Double.NaN;
+
+    /**
+     * Counts a poll that processed a page of changes.
+     *
+     * @param changeCount The changed procedures fetched
+     * @param patientCount The patients whose plans were evaluated
+     * @param updatedCount The priorities written
+     * @param nanos How long the poll took
+     */
+    void recordPoll(int changeCount, int patientCount, int updatedCount, long nanos) {
+        polls.increment();
+        changes.add(changeCount);
+        patients.add(patientCount);
+        updated.add(updatedCount);
+        double seconds = nanos / 1e9;
+        pollSeconds.observe(seconds);
+        patientsPerSecond = seconds > 0 ? patientCount / seconds : 0;
+    }
+
+    /**
+     * Counts a poll that found no changes.
+     */
+    void recordIdlePoll() {
+        polls.increment();
+    }
+
+    void recordFailedPoll() {
+        failedPolls.increment();
+    }
+
+    void recordWriteBatch(int size) {
+        writeBatchSizes.observe(size);
+    }
+
+    /**
+     * Notes the position after a poll and how far the newest change in procedurelog is past it.
+     *
+     * @param watermarkMillis The DateTStamp of the last processed change, in epoch milliseconds
+     * @param lagMillis The time between it and the newest change, 0 when there is no backlog
+     */
+    void recordPosition(long watermarkMillis, long lagMillis) {
+        this.watermarkMillis = watermarkMillis;
+        this.lagSeconds = Math.max(lagMillis, 0) / 1000.0;
+    }
+
+    @Override
+    public void collect(MetricsEndpoint.Writer out) {
+        out.counter("rivergreen_daemon_polls_total", "Polls of the procedurelog change stream", polls.sum());
+        out.counter("rivergreen_daemon_failed_polls_total", "Polls that failed and will be repeated", failedPolls.sum());
+        out.counter("rivergreen_daemon_changes_total", "Changed treatment-planned procedures processed", changes.sum());
+        out.counter("rivergreen_daemon_patients_total", "Patients whose plan was evaluated", patients.sum());
+        out.gauge("rivergreen_daemon_patients_per_second", "Patients evaluated per second by the last poll with changes",
+                patientsPerSecond);
+        out.counter("rivergreen_daemon_priorities_updated_total", "Procedure priorities written back", updated.sum());
+        out.histogram("rivergreen_daemon_poll_seconds", "Duration of polls that had changes", pollSeconds);
+        out.histogram("rivergreen_daemon_write_batch_size", "Procedures written per transaction", writeBatchSizes);
+
+        long watermark = watermarkMillis;
+        out.gauge("rivergreen_daemon_watermark_age_seconds", "Time since the last processed change was made",
+                watermark < 0 ? Double.NaN : (System.currentTimeMillis() - watermark) / 1000.0);
+        out.gauge("rivergreen_daemon_lag_seconds", "Time between the last processed change and the newest one in procedurelog",
+                lagSeconds);
+    }
+}
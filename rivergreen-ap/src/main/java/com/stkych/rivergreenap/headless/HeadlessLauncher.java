@@ -0,0 +1,36 @@
+package com.stkych.rivergreenap.headless;
+
+import java.util.Arrays;
+
+/**
+ * Entry point for the headless build, which has only the modes that do not need JavaFX's windows.
+ * <p>
+ * {@link com.stkych.rivergreenap.Launcher} falls back to opening the application, so everything the
+ * windows use is reachable from it. This class never refers to the windows, which lets the native
+ * image (the {@code native-headless} profile) leave JavaFX out apart from the property classes the
+ * ruleset model uses. The options are the same as the JAR's.
+ * <p>
+ * Usage: {@code --daemon ...}, {@code --list-runs} or {@code --revert RUN_ID [--dry-run]}
+ */
+public final class HeadlessLauncher {
+
+    private HeadlessLauncher() {
+    }
+
+    /**
+     * Runs the requested headless mode.
+     *
+     * @param args The mode flag followed by its options
+     */
+    public static void main(String[] args) {
+        String mode = args.length > 0 ? args[0] : "";
+        switch (mode) {
+            case "--daemon" -> AutoPriorityDaemon.main(Arrays.copyOfRange(args, 1, args.length));
+            case "--list-runs", "--revert" -> RevertRun.main(args);
+            default -> {
+                System.err.println("Usage: --daemon [options] | --list-runs | --revert RUN_ID [--dry-run]");
+                System.exit(2);
+            }
+        }
+    }
+}
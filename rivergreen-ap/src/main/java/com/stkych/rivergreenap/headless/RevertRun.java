@@ -0,0 +1,166 @@
+package com.stkych.rivergreenap.headless;
+
+import com.stkych.rivergreenap.RiverGreenDB;
+import com.stkych.rivergreenap.db.ChangeJournal;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Headless mode that undoes a journaled run by restoring the values it overwrote.
+ * <p>
+ * The run's journal is streamed once to find, for every procedure and column, the value from
+ * before the run's first change to it and the value the run left. Those values are then written back in ProcNum order as
+ * batched CASE updates, so a run that touched hundreds of thousands of procedures is undone with
+ * a few hundred statements. A value that no longer is what the run left has been changed by someone
+ * else since, so it is kept rather than overwritten, and the procedure is reported as skipped. The
+ * revert is journaled as a run of its own.
+ * <p>
+ * Usage: {@code --list-runs} or {@code --revert RUN_ID [--dry-run]}
+ */
+public final class RevertRun {
+
+    private static final Logger LOGGER = Logger.getLogger(RevertRun.class.getName());
+
+    // Procedures restored per statement
+    private static final int REVERT_BATCH_SIZE = 500;
+
+    // Skipped procedures listed in the log, the rest are only counted
+    private static final int MAX_REPORTED_SKIPS = 50;
+
+    private RevertRun() {
+    }
+
+    /**
+     * Entry point for the revert and list-runs modes.
+     *
+     * @param args The mode flag followed by its options (see class documentation)
+     */
+    public static void main(String[] args) {
+        try {
+            if (args.length > 0 && args[0].equals("--list-runs")) {
+                listRuns();
+            } else if (args.length > 1 && args[0].equals("--revert")) {
+                boolean dryRun = args.length > 2 && args[2].equals("--dry-run");
+                revert(args[1], dryRun);
+            } else {
+                System.err.println("Usage: --list-runs | --revert RUN_ID [--dry-run]");
+                System.exit(2);
+            }
+        } catch (IOException | SQLException e) {
+            LOGGER.log(Level.SEVERE, "Revert failed", e);
+            System.exit(1);
+        } finally {
+            ChangeJournal.closeSession();
+        }
+    }
+
+    private static void listRuns() throws IOException {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        for (ChangeJournal.RunInfo run : ChangeJournal.listRuns()) {
+            System.out.printf("%-24s %s  %8d changes  %s%n",
+                    run.runId(), format.format(new Date(run.startMillis())), run.changeCount(), run.label());
+        }
+    }
+
+    /**
+     * Restores the values a run overwrote, where the procedure still has the value the run left.
+     * Values changed since, for example in OpenDental, are kept and the procedures are reported.
+     *
+     * @param runId The run to revert
+     * @param dryRun If true, only report what would be restored
+     * @return The number of procedurelog rows updated
+     * @throws IOException If the journal cannot be read
+     * @throws SQLException If the values cannot be written
+     */
+    public static int revert(String runId, boolean dryRun) throws IOException, SQLException {
+        Map<Integer, long[]> priorities = new TreeMap<>();
+        Map<Integer, long[]> diagnoses = new TreeMap<>();
+        ChangeJournal.RunInfo run = readRestores(runId, priorities, diagnoses);
+
+        TreeSet<Integer> procNums = new TreeSet<>(priorities.keySet());
+        procNums.addAll(diagnoses.keySet());
+        LOGGER.info(String.format("Run %s (%s): %d changes to %d procedures (%d priorities, %d diagnoses)",
+                runId, run.label(), run.changeCount(), procNums.size(), priorities.size(), diagnoses.size()));
+        if (dryRun || procNums.isEmpty()) {
+            return 0;
+        }
+
+        ChangeJournal.setSessionLabel("revert " + runId);
+
+        int updated = 0;
+        int restored = 0;
+        List<Integer> skipped = new ArrayList<>();
+        List<Integer> batch = new ArrayList<>(REVERT_BATCH_SIZE);
+        for (int procNum : procNums) {
+            batch.add(procNum);
+            if (batch.size() == REVERT_BATCH_SIZE) {
+                RiverGreenDB.GuardedWrite result = restoreBatch(batch, priorities, diagnoses);
+                updated += result.updated();
+                skipped.addAll(result.conflicts());
+                restored += batch.size();
+                batch.clear();
+                LOGGER.info("Restored " + restored + " of " + procNums.size() + " procedures");
+            }
+        }
+        RiverGreenDB.GuardedWrite result = restoreBatch(batch, priorities, diagnoses);
+        updated += result.updated();
+        skipped.addAll(result.conflicts());
+
+        if (!skipped.isEmpty()) {
+            LOGGER.warning(String.format("Kept %d procedures changed since run %s: %s",
+                    skipped.size(), runId, skipped.size() <= MAX_REPORTED_SKIPS
+                            ? skipped : skipped.subList(0, MAX_REPORTED_SKIPS) + " and more"));
+        }
+        LOGGER.info("Reverted run " + runId + ": " + updated + " procedures updated, " + skipped.size() + " skipped");
+        return updated;
+    }
+
+    /**
+     * Reads what a run changed, by procedure, as {value the run left, value from before the run}: the
+     * first change to each procedure and column holds the value from before the run, the last one the
+     * value it left.
+     *
+     * @param runId The run
+     * @param priorities Receives the priority DefNums
+     * @param diagnoses Receives the diagnosis DefNums
+     * @return The run's header information
+     * @throws IOException If the journal cannot be read
+     */
+    static ChangeJournal.RunInfo readRestores(String runId, Map<Integer, long[]> priorities,
+                                              Map<Integer, long[]> diagnoses) throws IOException {
+        return ChangeJournal.read(runId, change -> {
+            Map<Integer, long[]> target = change.column() == ChangeJournal.Column.PRIORITY ? priorities : diagnoses;
+            target.computeIfAbsent(change.procNum(), procNum -> new long[] {0, change.before()})[0] = change.after();
+        });
+    }
+
+    private static RiverGreenDB.GuardedWrite restoreBatch(List<Integer> batch, Map<Integer, long[]> priorities,
+                                                          Map<Integer, long[]> diagnoses) throws SQLException {
+        if (batch.isEmpty()) {
+            return new RiverGreenDB.GuardedWrite(0, List.of());
+        }
+        Map<Integer, long[]> batchPriorities = new TreeMap<>();
+        Map<Integer, long[]> batchDiagnoses = new TreeMap<>();
+        for (int procNum : batch) {
+            long[] priority = priorities.get(procNum);
+            if (priority != null) {
+                batchPriorities.put(procNum, priority);
+            }
+            long[] diagnosis = diagnoses.get(procNum);
+            if (diagnosis != null) {
+                batchDiagnoses.put(procNum, diagnosis);
+            }
+        }
+        return RiverGreenDB.restoreProcedureDefNums(batchPriorities, batchDiagnoses);
+    }
+}
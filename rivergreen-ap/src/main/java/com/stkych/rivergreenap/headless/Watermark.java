@@ -0,0 +1,70 @@
+package com.stkych.rivergreenap.headless;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Timestamp;
+import java.util.Properties;
+
+/**
+ * Position of the daemon in the procedurelog change stream.
+ * Stored as the (DateTStamp, ProcNum) pair of the last procedure processed.
+ *
+ * @param dateTStamp The DateTStamp of the last processed procedure
+ * @param procNum The ProcNum of the last processed procedure
+ */
+public record Watermark(Timestamp dateTStamp, int procNum) {
+
+    /**
+     * The watermark before any procedure, used on the first run.
+     */
+    public static final Watermark START = new Watermark(new Timestamp(0), 0);
+
+    private static final String KEY_TIMESTAMP = "dateTStamp";
+    private static final String KEY_PROC_NUM = "procNum";
+
+    /**
+     * Loads a watermark from a properties file.
+     *
+     * @param file The watermark file
+     * @return The stored watermark, or {@link #START} if the file does not exist
+     * @throws IOException If the file exists but cannot be read
+     */
+    public static Watermark load(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return START;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            properties.load(in);
+        }
+        try {
+            long millis = Long.parseLong(properties.getProperty(KEY_TIMESTAMP, "0"));
+            int procNum = Integer.parseInt(properties.getProperty(KEY_PROC_NUM, "0"));
+            return new Watermark(new Timestamp(millis), procNum);
+        } catch (NumberFormatException e) {
+            throw new IOException("Corrupt watermark file: " + file, e);
+        }
+    }
+
+    /**
+     * Saves the watermark, replacing the file atomically so a crash never leaves a partial file.
+     *
+     * @param file The watermark file
+     * @throws IOException If the file cannot be written
+     */
+    public void save(Path file) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(KEY_TIMESTAMP, String.valueOf(dateTStamp.getTime()));
+        properties.setProperty(KEY_PROC_NUM, String.valueOf(procNum));
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            properties.store(out, "AutoPriority daemon watermark (" + dateTStamp + ")");
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,75 @@
+package com.stkych.rivergreenap.model;
+
+import com.stkych.rivergreenap.util.StringPool;
+
+import java.util.Objects;
+
+/**
+ * Compact, immutable form of a treatment-planned procedure for work that does not show it,
+ * such as the auto-prioritization daemon and batch runs over many patients.
+ * <p>
+ * {@link TreatmentPlanProcedure} wraps each field in a JavaFX property so the list cells can bind to
+ * it; that costs eight property objects per row. This record is a single object, and its string
+ * fields are taken from a shared pool, so every procedure with priority "2" or code D2391 refers to
+ * the same String. Convert with {@link #toFx()} only for the rows a window shows.
+ *
+ * @param procedureNumber The procedure number (ProcNum)
+ * @param priority The priority name, "None" if there is none
+ * @param toothNumber The tooth number
+ * @param surface The surface
+ * @param procedureCode The procedure code
+ * @param diagnosis The diagnosis name
+ * @param description The procedure code's description
+ * @param fee The fee
+ */
+public record PlannedProcedure(int procedureNumber, String priority, String toothNumber, String surface,
+                               String procedureCode, String diagnosis, String description, double fee) {
+
+    // Distinct names, codes, teeth, surfaces and descriptions stay in the low thousands for a practice
+    private static final StringPool VALUES = new StringPool(50_000);
+
+    public PlannedProcedure {
+        priority = VALUES.canonical(priority);
+        toothNumber = VALUES.canonical(toothNumber);
+        surface = VALUES.canonical(surface);
+        procedureCode = VALUES.canonical(procedureCode);
+        diagnosis = VALUES.canonical(diagnosis);
+        description = VALUES.canonical(description);
+    }
+
+    /**
+     * Copies a procedure from the model the windows use.
+     *
+     * @param procedure The procedure
+     * @return The compact procedure
+     */
+    public static PlannedProcedure of(TreatmentPlanProcedure procedure) {
+        return new PlannedProcedure(procedure.getProcedureNumber(), procedure.getPriority(), procedure.getToothNumber(),
+                procedure.getSurface(), procedure.getProcedureCode(), procedure.getDiagnosis(),
+                procedure.getDescription(), procedure.getFee());
+    }
+
+    /**
+     * Creates the editable, observable copy the windows use.
+     *
+     * @return A new TreatmentPlanProcedure with this procedure's values
+     */
+    public TreatmentPlanProcedure toFx() {
+        return new TreatmentPlanProcedure(priority, toothNumber, surface, procedureCode, diagnosis, description,
+                fee, procedureNumber);
+    }
+
+    /**
+     * Gets this procedure with another priority.
+     *
+     * @param newPriority The priority name
+     * @return This procedure if the priority is unchanged, otherwise a copy with the new priority
+     */
+    public PlannedProcedure withPriority(String newPriority) {
+        if (Objects.equals(priority, newPriority)) {
+            return this;
+        }
+        return new PlannedProcedure(procedureNumber, newPriority, toothNumber, surface, procedureCode, diagnosis,
+                description, fee);
+    }
+}
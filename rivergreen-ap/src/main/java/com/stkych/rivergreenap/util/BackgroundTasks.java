@@ -0,0 +1,105 @@
+package com.stkych.rivergreenap.util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Shared worker pools for work that must not run on the JavaFX application thread.
+ * Loading and other work that can be abandoned runs on daemon threads, so a pending job never keeps
+ * the application alive. Database writes run on their own non-daemon threads instead, and
+ * {@link #awaitWrites} lets the application wait for them when it stops, so closing the window
+ * during a save does not cut off its transactions.
+ */
+public final class BackgroundTasks {
+
+    private static final Logger LOGGER = Logger.getLogger(BackgroundTasks.class.getName());
+
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+    private static final AtomicInteger WRITE_THREAD_COUNTER = new AtomicInteger();
+
+    private static final ThreadFactory THREAD_FACTORY = runnable -> {
+        Thread thread = new Thread(runnable, "rivergreen-worker-" + THREAD_COUNTER.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    };
+
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(THREAD_FACTORY);
+
+    private static final ExecutorService WRITE_EXECUTOR = Executors.newCachedThreadPool(
+            runnable -> new Thread(runnable, "rivergreen-writer-" + WRITE_THREAD_COUNTER.incrementAndGet()));
+
+    private BackgroundTasks() {
+    }
+
+    /**
+     * Gets the shared executor.
+     *
+     * @return The executor used for background jobs
+     */
+    public static ExecutorService executor() {
+        return EXECUTOR;
+    }
+
+    /**
+     * Submits a job to the shared executor.
+     *
+     * @param task The job to run
+     * @return A future representing the pending job
+     */
+    public static Future<?> submit(Runnable task) {
+        return EXECUTOR.submit(task);
+    }
+
+    /**
+     * Gets the executor for database writes. Its threads are not daemon threads, so a write that has
+     * started is finished even if the application is closed meanwhile.
+     *
+     * @return The executor used for database writes
+     */
+    public static ExecutorService writeExecutor() {
+        return WRITE_EXECUTOR;
+    }
+
+    /**
+     * Stops accepting database writes and waits for those already submitted to finish.
+     * Called once when the application stops.
+     *
+     * @param timeout The longest time to wait
+     * @param unit The unit of the timeout
+     * @return True if every write finished in time
+     */
+    public static boolean awaitWrites(long timeout, TimeUnit unit) {
+        WRITE_EXECUTOR.shutdown();
+        try {
+            if (!WRITE_EXECUTOR.isTerminated()) {
+                LOGGER.info("Waiting for database writes to finish");
+            }
+            return WRITE_EXECUTOR.awaitTermination(timeout, unit);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOGGER.log(Level.WARNING, "Interrupted while waiting for database writes", e);
+            return false;
+        }
+    }
+
+    /**
+     * Creates a thread factory producing named daemon threads.
+     * Useful for components that need their own single-threaded scheduler.
+     *
+     * @param name The thread name
+     * @return A thread factory
+     */
+    public static ThreadFactory daemonThreadFactory(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,468 @@
+package com.stkych.rivergreenap.util;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Streaming RFC 4180 CSV reader and writer for ruleset files.
+ * <p>
+ * The {@link Reader} decodes UTF-8 from a channel into a reusable buffer and exposes the fields of
+ * the current record as views into that buffer, so reading a file allocates nothing per record
+ * beyond the strings the caller asks for. Quoted fields may contain commas, doubled quotes and
+ * line breaks. A leading byte order mark is skipped.
+ * <p>
+ * {@link #writeAtomically(Path, RecordSource)} writes UTF-8 to a temporary file next to the target
+ * and moves it into place, so readers never see a partially written file.
+ */
+public final class CsvCodec {
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final String LINE_END = "\r\n";
+
+    private CsvCodec() {
+    }
+
+    /**
+     * Reads CSV records one at a time. Field views are only valid until the next call to {@link #next()}.
+     */
+    public static final class Reader implements Closeable {
+
+        private final ReadableByteChannel channel;
+        private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+        private final CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+        private boolean endOfInput;
+        private boolean flushed;
+        private boolean started;
+        // A character read ahead while looking for CRLF, or -2 if none
+        private int pushedBack = -2;
+
+        // Contents of the current record; field i spans [starts[i], ends[i]) of row
+        private char[] row = new char[256];
+        private int rowLength;
+        private int[] starts = new int[16];
+        private int[] ends = new int[16];
+        private FieldView[] views = new FieldView[16];
+        private int fieldCount;
+        private long recordNumber;
+
+        /**
+         * Creates a reader over a channel. The channel is closed with the reader.
+         *
+         * @param channel The channel to read UTF-8 from
+         */
+        public Reader(ReadableByteChannel channel) {
+            this.channel = channel;
+            bytes.flip();
+            chars.flip();
+        }
+
+        /**
+         * Opens a reader on a file.
+         *
+         * @param file The CSV file
+         * @return A reader positioned before the first record
+         * @throws IOException If the file cannot be opened
+         */
+        public static Reader open(Path file) throws IOException {
+            return new Reader(FileChannel.open(file, StandardOpenOption.READ));
+        }
+
+        /**
+         * Advances to the next record.
+         *
+         * @return false at the end of the input
+         * @throws IOException If the channel cannot be read
+         */
+        public boolean next() throws IOException {
+            fieldCount = 0;
+            rowLength = 0;
+
+            int c = read();
+            if (c == -1) {
+                return false;
+            }
+            recordNumber++;
+
+            int fieldStart = 0;
+            boolean inQuotes = false;
+            while (true) {
+                if (inQuotes) {
+                    if (c == -1) {
+                        // Unterminated quote: keep what was read
+                        endField(fieldStart);
+                        return true;
+                    }
+                    if (c == '"') {
+                        int following = read();
+                        if (following == '"') {
+                            append('"');
+                        } else {
+                            inQuotes = false;
+                            c = following;
+                            continue;
+                        }
+                    } else {
+                        append((char) c);
+                    }
+                } else {
+                    if (c == -1 || c == '\n') {
+                        endField(fieldStart);
+                        return true;
+                    }
+                    if (c == '\r') {
+                        int following = read();
+                        if (following != '\n' && following != -1) {
+                            pushedBack = following;
+                        }
+                        endField(fieldStart);
+                        return true;
+                    }
+                    if (c == ',') {
+                        endField(fieldStart);
+                        fieldStart = rowLength;
+                    } else if (c == '"' && rowLength == fieldStart) {
+                        inQuotes = true;
+                    } else {
+                        // A quote inside an unquoted field is kept as a literal character
+                        append((char) c);
+                    }
+                }
+                c = read();
+            }
+        }
+
+        /**
+         * Gets the number of fields in the current record.
+         *
+         * @return The field count (at least 1 for any record)
+         */
+        public int fieldCount() {
+            return fieldCount;
+        }
+
+        /**
+         * Gets the 1-based number of the current record.
+         *
+         * @return The record number
+         */
+        public long recordNumber() {
+            return recordNumber;
+        }
+
+        /**
+         * Gets a view of a field of the current record.
+         *
+         * @param index The field index
+         * @return The field, or an empty sequence if the record has fewer fields
+         */
+        public CharSequence field(int index) {
+            if (index >= fieldCount) {
+                return "";
+            }
+            FieldView view = views[index];
+            if (view == null) {
+                view = new FieldView();
+                views[index] = view;
+            }
+            view.start = starts[index];
+            view.end = ends[index];
+            return view;
+        }
+
+        /**
+         * Gets a field with surrounding whitespace removed.
+         *
+         * @param index The field index
+         * @return The trimmed field, or "" if it is blank or missing
+         */
+        public String trimmed(int index) {
+            if (index >= fieldCount) {
+                return "";
+            }
+            int start = starts[index];
+            int end = ends[index];
+            while (start < end && row[start] <= ' ') {
+                start++;
+            }
+            while (end > start && row[end - 1] <= ' ') {
+                end--;
+            }
+            return start == end ? "" : new String(row, start, end - start);
+        }
+
+        /**
+         * Checks whether a field is blank.
+         *
+         * @param index The field index
+         * @return true if the field is missing or only whitespace
+         */
+        public boolean isBlank(int index) {
+            if (index >= fieldCount) {
+                return true;
+            }
+            for (int i = starts[index]; i < ends[index]; i++) {
+                if (row[i] > ' ') {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Checks whether the current record is an empty line.
+         *
+         * @return true if the record has a single blank field
+         */
+        public boolean isBlankRecord() {
+            return fieldCount == 1 && isBlank(0);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        private void append(char c) {
+            if (rowLength == row.length) {
+                row = Arrays.copyOf(row, row.length * 2);
+            }
+            row[rowLength++] = c;
+        }
+
+        private void endField(int fieldStart) {
+            if (fieldCount == starts.length) {
+                starts = Arrays.copyOf(starts, fieldCount * 2);
+                ends = Arrays.copyOf(ends, fieldCount * 2);
+                views = Arrays.copyOf(views, fieldCount * 2);
+            }
+            starts[fieldCount] = fieldStart;
+            ends[fieldCount] = rowLength;
+            fieldCount++;
+        }
+
+        private int read() throws IOException {
+            if (pushedBack != -2) {
+                int c = pushedBack;
+                pushedBack = -2;
+                return c;
+            }
+            if (!chars.hasRemaining() && !fill()) {
+                return -1;
+            }
+            return chars.get();
+        }
+
+        private boolean fill() throws IOException {
+            if (flushed) {
+                return false;
+            }
+            chars.clear();
+            while (chars.position() == 0) {
+                if (!endOfInput) {
+                    // Keep any partial multi-byte sequence left from the previous read
+                    bytes.compact();
+                    endOfInput = channel.read(bytes) < 0;
+                    bytes.flip();
+                }
+                CoderResult result = decoder.decode(bytes, chars, endOfInput);
+                if (result.isError()) {
+                    result.throwException();
+                }
+                if (endOfInput) {
+                    if (!bytes.hasRemaining()) {
+                        decoder.flush(chars);
+                        flushed = true;
+                    }
+                    break;
+                }
+            }
+            chars.flip();
+
+            // Skip a UTF-8 byte order mark at the start of the file
+            if (!started) {
+                started = true;
+                if (chars.hasRemaining() && chars.get(chars.position()) == '\uFEFF') {
+                    chars.get();
+                    if (!chars.hasRemaining()) {
+                        return fill();
+                    }
+                }
+            }
+            return chars.hasRemaining();
+        }
+
+        private final class FieldView implements CharSequence {
+            private int start;
+            private int end;
+
+            @Override
+            public int length() {
+                return end - start;
+            }
+
+            @Override
+            public char charAt(int index) {
+                return row[start + index];
+            }
+
+            @Override
+            public CharSequence subSequence(int from, int to) {
+                return new String(row, start + from, to - from);
+            }
+
+            @Override
+            public String toString() {
+                return new String(row, start, end - start);
+            }
+        }
+    }
+
+    /**
+     * Writes CSV records. Fields are quoted only when they need to be, unless
+     * {@link #quotedField(CharSequence)} is used.
+     */
+    public static final class Writer {
+
+        private final java.io.Writer out;
+        private boolean firstField = true;
+
+        /**
+         * Creates a writer over a character stream. The caller flushes and closes the stream.
+         *
+         * @param out The stream to write records to
+         */
+        public Writer(java.io.Writer out) {
+            this.out = out;
+        }
+
+        /**
+         * Writes a field, quoting it if it contains a comma, quote or line break.
+         *
+         * @param value The field value; null is written as an empty field
+         * @return This writer
+         * @throws IOException If the field cannot be written
+         */
+        public Writer field(CharSequence value) throws IOException {
+            separate();
+            if (value == null) {
+                return this;
+            }
+            if (needsQuotes(value)) {
+                writeQuoted(value);
+            } else {
+                out.append(value);
+            }
+            return this;
+        }
+
+        /**
+         * Writes a field that is always quoted unless empty, for free-text columns.
+         *
+         * @param value The field value; null is written as an empty field
+         * @return This writer
+         * @throws IOException If the field cannot be written
+         */
+        public Writer quotedField(CharSequence value) throws IOException {
+            separate();
+            if (value != null && value.length() > 0) {
+                writeQuoted(value);
+            }
+            return this;
+        }
+
+        /**
+         * Ends the current record.
+         *
+         * @throws IOException If the line end cannot be written
+         */
+        public void endRecord() throws IOException {
+            out.write(LINE_END);
+            firstField = true;
+        }
+
+        private void separate() throws IOException {
+            if (!firstField) {
+                out.write(',');
+            }
+            firstField = false;
+        }
+
+        private void writeQuoted(CharSequence value) throws IOException {
+            out.write('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"') {
+                    out.write('"');
+                }
+                out.write(c);
+            }
+            out.write('"');
+        }
+
+        private static boolean needsQuotes(CharSequence value) {
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == ',' || c == '"' || c == '\r' || c == '\n') {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Produces the records of a file.
+     */
+    @FunctionalInterface
+    public interface RecordSource {
+        void writeTo(Writer writer) throws IOException;
+    }
+
+    /**
+     * Writes a CSV file atomically: records go to a temporary file in the same directory,
+     * which is forced to disk and then moved over the target.
+     *
+     * @param target The file to write
+     * @param source Writes the records
+     * @throws IOException If the file cannot be written; the target is then left unchanged
+     */
+    public static void writeAtomically(Path target, RecordSource source) throws IOException {
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                BufferedWriter out = new BufferedWriter(
+                        Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), BUFFER_SIZE), BUFFER_SIZE);
+                source.writeTo(new Writer(out));
+                out.flush();
+                channel.force(true);
+            }
+            try {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+}
@@ -9,9 +9,16 @@ import java.util.Map;
 /**
  * Utility class for handling dental code conversions.
  * Provides methods to expand ranges and compress lists of dental codes.
+ * Conversions of code strings are cached, since list cells convert the same strings on every scroll.
  */
 public class DentalCodeUtil {
 
+    // Bounded by the codes held rather than by entries: one range such as D0000-D9999 expands to 10,000.
+    // 100,000 codes are a few MB, and each of its eight segments still holds a whole D or N range
+    private static final LruCache<String, List<String>> EXPAND_CACHE =
+            new LruCache<>("expandDentalCodes", 100_000, codes -> codes.size() + 1);
+    private static final LruCache<String, String> COMPRESS_CACHE = new LruCache<>("compressDentalCodes", 1024);
+
     /**
      * Normalizes a single dental code input to the canonical format L#### (four digits), where L is D or N.
      * Accepts values like "D140", "0140", "N0140", returns letter+4 digits. Defaults to D if no letter.
@@ -54,13 +61,18 @@ public class DentalCodeUtil {
      * Example: {@code 3000-3999} becomes a list containing D3000, D3001, ..., D3999.
      *
      * @param dentalCodes The dental codes string
-     * @return A list of individual dental codes, or an empty list if parsing fails
+     * @return An unmodifiable list of individual dental codes, shared between callers, or an empty list if
+     *         parsing fails
      */
     public static List<String> expandDentalCodes(String dentalCodes) {
-        List<String> result = new ArrayList<>();
         if (dentalCodes == null || dentalCodes.isEmpty()) {
-            return result;
+            return List.of();
         }
+        return EXPAND_CACHE.get(dentalCodes, codes -> List.copyOf(expand(codes)));
+    }
+
+    private static List<String> expand(String dentalCodes) {
+        List<String> result = new ArrayList<>();
 
         String[] parts = dentalCodes.split("[,;]"); // Split by both comma and semicolon for backward compatibility
         for (String part : parts) {
@@ -219,7 +231,6 @@ public class DentalCodeUtil {
             return "";
         }
         // First expand to individual codes (handles ranges and letters), then compress
-        List<String> expanded = expandDentalCodes(codesString);
-        return compressDentalCodes(expanded);
+        return COMPRESS_CACHE.get(codesString, codes -> compressDentalCodes(expand(codes)));
     }
 }
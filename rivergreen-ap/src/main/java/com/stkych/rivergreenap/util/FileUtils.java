@@ -2,6 +2,7 @@ package com.stkych.rivergreenap.util;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -13,6 +14,8 @@ public class FileUtils {
 
     private static final String APP_DIR_NAME = "RiverGreenAP";
     private static final String RULESET_DIR_NAME = "rulesets";
+    private static final String MIGRATION_MARKER = ".rulesets-migrated";
+    private static final AtomicBoolean MIGRATION_CHECKED = new AtomicBoolean();
     private static final Logger LOGGER = Logger.getLogger(FileUtils.class.getName());
 
     /**
@@ -28,7 +31,7 @@ public class FileUtils {
 
         // Create the directory if it doesn't exist
         if (!appDir.exists()) {
-            if (!appDir.mkdir()) {
+            if (!appDir.mkdirs()) {
                 LOGGER.severe("Failed to create application data directory: " + appDir.getAbsolutePath());
             }
         }
@@ -70,8 +73,18 @@ public class FileUtils {
     /**
      * Migrates ruleset files from the current directory to the ruleset directory.
      * This is useful when upgrading from an older version of the application that stored ruleset files in the current directory.
+     * The migration runs once per installation: a marker file in the application data directory records that it
+     * has been done, and later calls return immediately.
      */
     public static void migrateRulesetFiles() {
+        if (!MIGRATION_CHECKED.compareAndSet(false, true)) {
+            return;
+        }
+        File marker = new File(getAppDataDirectory(), MIGRATION_MARKER);
+        if (marker.exists()) {
+            return;
+        }
+
         // Look for ruleset files in the current directory
         File currentDir = new File(".");
         File[] files = currentDir.listFiles((dir, name) -> name.startsWith("ruleset") && name.endsWith(".csv"));
@@ -103,5 +116,13 @@ public class FileUtils {
                 }
             }
         }
+
+        try {
+            if (!marker.createNewFile()) {
+                LOGGER.fine("Ruleset migration marker already exists: " + marker.getAbsolutePath());
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to write ruleset migration marker: " + marker.getAbsolutePath(), e);
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,33 @@
+package com.stkych.rivergreenap.util;
+
+import javafx.application.Platform;
+import javafx.scene.Scene;
+
+/**
+ * Schedules work on the JavaFX application thread relative to rendering, e.g. to measure when a
+ * window first appears or to defer work until it has.
+ */
+public final class FxPulse {
+
+    private FxPulse() {
+    }
+
+    /**
+     * Runs an action on the JavaFX thread after the scene's next pulse, which lays it out and renders it.
+     * May be called from any thread.
+     *
+     * @param scene The scene
+     * @param action The action
+     */
+    public static void afterNextPulse(Scene scene, Runnable action) {
+        Runnable[] listener = new Runnable[1];
+        listener[0] = () -> {
+            scene.removePostLayoutPulseListener(listener[0]);
+            Platform.runLater(action);
+        };
+        Platform.runLater(() -> {
+            scene.addPostLayoutPulseListener(listener[0]);
+            Platform.requestNextPulse();
+        });
+    }
+}
@@ -0,0 +1,194 @@
+package com.stkych.rivergreenap.util;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+/**
+ * Small bounded cache that evicts the least recently used entries, with hit and miss counters.
+ * It holds either a number of entries or, with a weigher, entries up to a total weight, such as the
+ * number of elements of list values that vary a lot in length.
+ * <p>
+ * Entries are spread over a few independently locked segments, each an access-ordered
+ * {@link LinkedHashMap}, so list cells rendering on the JavaFX thread and background loaders
+ * rarely wait for each other. Values are computed outside the lock; two threads missing the same
+ * key at once may both compute it. Cached values are shared and must not be modified.
+ *
+ * @param <K> The key type
+ * @param <V> The value type
+ */
+public final class LruCache<K, V> {
+
+    private static final int SEGMENTS = 8;
+    private static final List<LruCache<?, ?>> CACHES = new CopyOnWriteArrayList<>();
+
+    private final String name;
+    private final Segment<K, V>[] segments;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Creates a cache and registers it for {@link #all()}.
+     *
+     * @param name The name shown with the cache's statistics
+     * @param maxSize The most entries kept
+     */
+    public LruCache(String name, int maxSize) {
+        this(name, maxSize, value -> 1);
+    }
+
+    /**
+     * Creates a cache bounded by the total weight of its values and registers it for {@link #all()}.
+     * A value weighing more than an eighth of the total is returned but not cached.
+     *
+     * @param name The name shown with the cache's statistics
+     * @param maxWeight The most total weight kept
+     * @param weigher Gives a value's weight, at least 1
+     */
+    @SuppressWarnings("unchecked")
+    public LruCache(String name, long maxWeight, ToIntFunction<? super V> weigher) {
+        this.name = name;
+        this.segments = new Segment[SEGMENTS];
+        long segmentWeight = Math.max(1, (maxWeight + SEGMENTS - 1) / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment<>(segmentWeight, weigher);
+        }
+        CACHES.add(this);
+    }
+
+    /**
+     * Gets every cache created in this process.
+     *
+     * @return The caches, in creation order
+     */
+    public static List<LruCache<?, ?>> all() {
+        return Collections.unmodifiableList(CACHES);
+    }
+
+    /**
+     * Gets the cached value for a key, computing and caching it on a miss.
+     *
+     * @param key The key
+     * @param loader Computes the value; a null result is returned but not cached
+     * @return The value
+     */
+    public V get(K key, Function<? super K, ? extends V> loader) {
+        Segment<K, V> segment = segments[(key.hashCode() & 0x7fffffff) % SEGMENTS];
+        V value;
+        synchronized (segment) {
+            value = segment.get(key);
+        }
+        if (value != null) {
+            hits.increment();
+            return value;
+        }
+
+        misses.increment();
+        value = loader.apply(key);
+        if (value != null) {
+            synchronized (segment) {
+                segment.add(key, value);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Removes all entries. The counters are kept.
+     */
+    public void clear() {
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Gets the fraction of lookups answered from the cache.
+     *
+     * @return The hit rate between 0 and 1, or 0 before the first lookup
+     */
+    public double getHitRate() {
+        long hitCount = hits.sum();
+        long total = hitCount + misses.sum();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    /**
+     * Gets the number of cached entries.
+     *
+     * @return The entry count
+     */
+    public int size() {
+        int size = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d hits, %d misses (%.1f%% hit rate), %d entries",
+                name, getHitCount(), getMissCount(), getHitRate() * 100, size());
+    }
+
+    private static final class Segment<K, V> extends LinkedHashMap<K, V> {
+        private final long capacity;
+        private final ToIntFunction<? super V> weigher;
+        private long weight;
+
+        Segment(long capacity, ToIntFunction<? super V> weigher) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+            this.weigher = weigher;
+        }
+
+        /**
+         * Adds an entry and evicts the least recently used ones until the segment is within its weight.
+         */
+        void add(K key, V value) {
+            int valueWeight = weigher.applyAsInt(value);
+            if (valueWeight > capacity) {
+                return;
+            }
+            V previous = put(key, value);
+            if (previous != null) {
+                weight -= weigher.applyAsInt(previous);
+            }
+            weight += valueWeight;
+            Iterator<Map.Entry<K, V>> eldest = entrySet().iterator();
+            while (weight > capacity) {
+                weight -= weigher.applyAsInt(eldest.next().getValue());
+                eldest.remove();
+            }
+        }
+
+        @Override
+        public void clear() {
+            super.clear();
+            weight = 0;
+        }
+    }
+}
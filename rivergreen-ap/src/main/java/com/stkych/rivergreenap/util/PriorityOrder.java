@@ -0,0 +1,116 @@
+package com.stkych.rivergreenap.util;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The order in which treatment plan priorities are listed and sorted.
+ * <p>
+ * Each priority name is mapped to its rank once, so comparing two priorities is a pair of hash
+ * lookups. The order follows the ItemOrder of OpenDental's priority definitions (category 20)
+ * and is replaced whenever they are loaded from the database (see
+ * {@link com.stkych.rivergreenap.RiverGreenDB#getAllPriorities}), so a practice's own priorities
+ * sort the way they appear in OpenDental. Until then the built-in scheme is used:
+ * Next, 1, 1A, 1B, 1C, 1 Wait, 1 Decline, 2, ... 10 Decline.
+ * <p>
+ * "None" (no priority) always sorts first. Names without a rank sort after the ranked ones and
+ * blank priorities last; sorting is stable, so unranked names keep their relative order.
+ */
+public final class PriorityOrder {
+
+    private static final String NONE = "None";
+
+    private static volatile PriorityOrder current = builtIn();
+
+    private final Map<String, Integer> ranks;
+    private final int unrankedRank;
+
+    private PriorityOrder(List<String> namesInOrder) {
+        Map<String, Integer> map = new HashMap<>(namesInOrder.size() * 2);
+        map.put(NONE, 0);
+        for (String name : namesInOrder) {
+            map.putIfAbsent(name, map.size());
+        }
+        this.ranks = Map.copyOf(map);
+        this.unrankedRank = map.size();
+    }
+
+    /**
+     * Gets the order currently in effect.
+     *
+     * @return The order from the last loaded priority definitions, or the built-in order
+     */
+    public static PriorityOrder current() {
+        return current;
+    }
+
+    /**
+     * Replaces the current order with the order of the practice's priority definitions.
+     * An empty list keeps the current order.
+     *
+     * @param namesInItemOrder The definitions' names, sorted by ItemOrder
+     */
+    public static void setDefinitions(List<String> namesInItemOrder) {
+        if (!namesInItemOrder.isEmpty()) {
+            current = new PriorityOrder(namesInItemOrder);
+        }
+    }
+
+    private static PriorityOrder builtIn() {
+        return new PriorityOrder(builtInNames());
+    }
+
+    /**
+     * Gets the built-in priorities, for lists shown before or without the practice's definitions.
+     *
+     * @return Next, 1, 1A, 1B, 1C, 1 Wait, 1 Decline, 2, ... 10 Decline, in that order
+     */
+    public static List<String> builtInNames() {
+        List<String> names = new ArrayList<>();
+        names.add("Next");
+        for (int i = 1; i <= 10; i++) {
+            names.add(String.valueOf(i));
+            names.add(i + "A");
+            names.add(i + "B");
+            names.add(i + "C");
+            names.add(i + " Wait");
+            names.add(i + " Decline");
+        }
+        return List.copyOf(names);
+    }
+
+    /**
+     * Gets the rank of a priority; lower ranks sort first.
+     *
+     * @param priority The priority name, or null
+     * @return The rank
+     */
+    public int rank(String priority) {
+        if (priority == null || priority.isEmpty()) {
+            return unrankedRank + 1;
+        }
+        Integer rank = ranks.get(priority);
+        return rank != null ? rank : unrankedRank;
+    }
+
+    /**
+     * Gets a comparator that orders priority names by rank.
+     *
+     * @return The comparator
+     */
+    public Comparator<String> comparator() {
+        return Comparator.comparingInt(this::rank);
+    }
+
+    /**
+     * Sorts a list of priority names by rank, in place.
+     *
+     * @param priorities The priority names
+     */
+    public void sort(List<String> priorities) {
+        priorities.sort(comparator());
+    }
+}
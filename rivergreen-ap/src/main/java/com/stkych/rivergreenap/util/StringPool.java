@@ -0,0 +1,56 @@
+package com.stkych.rivergreenap.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Hands out one shared instance per distinct string value.
+ * <p>
+ * Values read from the database arrive as a new String per row, so a plan with thousands of
+ * procedures would otherwise hold thousands of copies of the same few priority, diagnosis and
+ * procedure code names. The pool stops growing at its maximum size and returns values it does not
+ * hold as they are, so an unusual input cannot make it grow without bound.
+ */
+public final class StringPool {
+
+    private final ConcurrentHashMap<String, String> values = new ConcurrentHashMap<>();
+    private final int maxSize;
+
+    /**
+     * Creates an empty pool.
+     *
+     * @param maxSize The most distinct values kept
+     */
+    public StringPool(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Gets the pool's instance of a value, adding the value if the pool does not have it yet.
+     *
+     * @param value The value, or null
+     * @return An equal string, shared by every caller while the pool has room; null for null
+     */
+    public String canonical(String value) {
+        if (value == null) {
+            return null;
+        }
+        String shared = values.get(value);
+        if (shared != null) {
+            return shared;
+        }
+        if (values.size() >= maxSize) {
+            return value;
+        }
+        shared = values.putIfAbsent(value, value);
+        return shared != null ? shared : value;
+    }
+
+    /**
+     * Gets the number of distinct values held.
+     *
+     * @return The pool size
+     */
+    public int size() {
+        return values.size();
+    }
+}
@@ -5,9 +5,14 @@ import java.util.*;
 /**
  * Utility class for handling teeth notation conversions.
  * Provides methods to convert between teeth numbers and shorthand notations.
+ * Results are kept in small LRU caches ({@link LruCache}) and shared between callers.
  */
 public class TeethNotationUtil {
 
+    private static final LruCache<String, List<Integer>> EXPAND_CACHE = new LruCache<>("expandTeeth", 512);
+    private static final LruCache<String, String> TO_SHORTHAND_CACHE = new LruCache<>("toShorthand", 512);
+    private static final LruCache<String, String> FROM_SHORTHAND_CACHE = new LruCache<>("fromShorthand", 256);
+
     // Type sets - using exact names from shorthand.txt
     private static final Set<Integer> WISDOM = new HashSet<>(Arrays.asList(1, 16, 17, 32));
     private static final Set<Integer> MOLAR = new HashSet<>(Arrays.asList(2, 3, 14, 15, 18, 19, 30, 31));
@@ -90,10 +95,15 @@ public class TeethNotationUtil {
      * @return A list of individual tooth numbers, or an empty list if parsing fails
      */
     public static List<Integer> expandTeeth(String teethNumbers) {
-        List<Integer> result = new ArrayList<>();
         if (teethNumbers == null || teethNumbers.isEmpty()) {
-            return result;
+            return new ArrayList<>();
         }
+        // Callers sort and modify the list, so they get a copy
+        return new ArrayList<>(EXPAND_CACHE.get(teethNumbers, teeth -> List.copyOf(expand(teeth))));
+    }
+
+    private static List<Integer> expand(String teethNumbers) {
+        List<Integer> result = new ArrayList<>();
 
         String[] parts = teethNumbers.split("[;,]");
         for (String part : parts) {
@@ -144,7 +154,10 @@ public class TeethNotationUtil {
         if (teethNumbers == null || teethNumbers.isEmpty()) {
             return "";
         }
+        return TO_SHORTHAND_CACHE.get(teethNumbers, TeethNotationUtil::computeShorthand);
+    }
 
+    private static String computeShorthand(String teethNumbers) {
         List<Integer> numbers = expandTeeth(teethNumbers);
         if (numbers.isEmpty()) {
             return teethNumbers;
@@ -264,6 +277,10 @@ public class TeethNotationUtil {
         if (shorthand == null || shorthand.isEmpty()) {
             return "";
         }
+        return FROM_SHORTHAND_CACHE.get(shorthand, TeethNotationUtil::computeFromShorthand);
+    }
+
+    private static String computeFromShorthand(String shorthand) {
 
         // Check for exact matches with combined sets from shorthand.txt
         if (shorthand.equals("Upper Wisdom")) {
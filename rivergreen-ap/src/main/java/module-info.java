@@ -9,6 +9,11 @@ module com.stkych.rivergreenap {
     requires java.sql;
     requires java.desktop;
     requires org.jetbrains.annotations;
+    requires jdk.jfr;
+    requires jdk.httpserver;
+    // Optional: ProcedureBatch checks for it and falls back to scalar scans. Only for compiling (the pom silences
+    // javac's incubating warning); at run time, on the class path or as a module, only --add-modules loads it
+    requires static jdk.incubator.vector;
 
 
     opens com.stkych.rivergreenap to javafx.fxml;
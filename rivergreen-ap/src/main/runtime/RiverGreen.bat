@@ -0,0 +1,7 @@
+@echo off
+rem Starts RiverGreen from the startup image built with: mvnw.cmd -Pstartup-image package
+rem The class path is relative to this folder so the class-data archive stays valid wherever the folder is copied.
+rem It lists the jars in the order the archive was recorded with; the build fills it in.
+pushd "%~dp0"
+start "" runtime\bin\javaw.exe -XX:SharedArchiveFile=rivergreen.jsa -cp "@CLASSPATH@" com.stkych.rivergreenap.Launcher %*
+popd
@@ -0,0 +1,6 @@
+@echo off
+rem Like RiverGreen.bat, but runs in this console: for --daemon, --revert and reading the log.
+rem Loads the Vector API for practice-wide ruleset runs; the JVM prints a warning that it is an incubator module.
+pushd "%~dp0"
+runtime\bin\java.exe -XX:SharedArchiveFile=rivergreen.jsa --add-modules jdk.incubator.vector -cp "@CLASSPATH@" com.stkych.rivergreenap.Launcher %*
+popd
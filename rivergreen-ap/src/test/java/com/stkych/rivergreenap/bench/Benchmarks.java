@@ -0,0 +1,69 @@
+package com.stkych.rivergreenap.bench;
+
+import java.util.Arrays;
+
+/**
+ * Entry point for the performance measurements. They are test code and not part of the application;
+ * run them on the test class path with the {@code benchmark} Maven profile:
+ * {@code mvnw -Pbenchmark verify -Dbenchmark.args="NAME [options]"}, where NAME is one of:
+ * <ul>
+ *   <li>{@code cells} - rendering and scrolling the procedure and ruleset lists ({@link CellRenderBenchmark})</li>
+ *   <li>{@code startup} - time from starting the JVM to the main window's first frame ({@link StartupBenchmark})</li>
+ *   <li>{@code rules} - applying a ruleset to every patient's plan, one plan at a time and as a batch ({@link RuleEvaluationBenchmark})</li>
+ * </ul>
+ */
+public final class Benchmarks {
+
+    private Benchmarks() {
+    }
+
+    /**
+     * Runs the named benchmark.
+     *
+     * @param args The benchmark name followed by its options
+     * @throws Exception If the benchmark fails
+     */
+    public static void main(String[] args) throws Exception {
+        String name = args.length > 0 ? args[0] : "";
+        String[] options = args.length > 0 ? Arrays.copyOfRange(args, 1, args.length) : args;
+        switch (name) {
+            case "cells" -> CellRenderBenchmark.main(options);
+            case "startup" -> StartupBenchmark.main(options);
+            case "rules" -> RuleEvaluationBenchmark.main(options);
+            default -> {
+                System.err.println("Usage: cells|startup|rules [options]");
+                System.exit(2);
+            }
+        }
+    }
+
+    /**
+     * Reads an integer option such as {@code --rounds 5}.
+     *
+     * @param args The options
+     * @param name The option name
+     * @param defaultValue The value used if the option is absent
+     * @return The option's value
+     */
+    static int intOption(String[] args, String name, int defaultValue) {
+        String value = option(args, name, null);
+        return value != null ? Integer.parseInt(value) : defaultValue;
+    }
+
+    /**
+     * Reads an option such as {@code --archive rivergreen.jsa}.
+     *
+     * @param args The options
+     * @param name The option name
+     * @param defaultValue The value used if the option is absent
+     * @return The option's value
+     */
+    static String option(String[] args, String name, String defaultValue) {
+        for (int i = 0; i + 1 < args.length; i++) {
+            if (args[i].equals(name)) {
+                return args[i + 1];
+            }
+        }
+        return defaultValue;
+    }
+}
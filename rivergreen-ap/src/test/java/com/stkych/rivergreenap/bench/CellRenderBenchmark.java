@@ -0,0 +1,210 @@
+package com.stkych.rivergreenap.bench;
+
+import com.stkych.rivergreenap.controller.cells.RulesetItemCellFactory;
+import com.stkych.rivergreenap.controller.cells.TreatmentPlanProcedureCellFactory;
+import com.stkych.rivergreenap.model.RulesetItem;
+import com.stkych.rivergreenap.model.TreatmentPlanProcedure;
+import javafx.application.Platform;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.fxml.FXMLLoader;
+import javafx.scene.Node;
+import javafx.scene.Scene;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.layout.GridPane;
+import javafx.stage.Stage;
+import javafx.util.Callback;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.function.Function;
+
+/**
+ * Measures how long the procedure and ruleset lists take to render, scroll and refresh.
+ * <p>
+ * Each list is shown in a window with the application's cell factories, which build their rows in
+ * code, and again with cells that load an FXML row per cell as the lists used to. For each the
+ * benchmark reports the median of several rounds of: showing the list, scrolling from top to
+ * bottom one page at a time, and {@link ListView#refresh()}, which recreates every visible cell.
+ * Needs a display.
+ * <p>
+ * Usage: {@code cells [--procedures N] [--rules N] [--rounds N]}
+ */
+public final class CellRenderBenchmark {
+
+    // One row of the former main_column.fxml and ruleset_column.fxml, without the fx:ids and widths Scene Builder added
+    private static final String PROCEDURE_ROW_FXML = rowFxml(820,
+            new double[]{10, 5, 7, 10, 15, 43, 10}, "Priority", "Tth", "Surface", "Code", "Diagnosis", "Description", "Fee");
+    private static final String RULESET_ROW_FXML = rowFxml(800,
+            new double[]{15, 25, 15, 15, 30}, "Priority", "D. Code", "Teeth", "Diagnosis", "Description");
+
+    private static final int WARMUP_ROUNDS = 2;
+
+    private CellRenderBenchmark() {
+    }
+
+    /**
+     * Entry point for the cell rendering benchmark.
+     *
+     * @param args Options (see class documentation)
+     * @throws Exception If the benchmark fails
+     */
+    public static void main(String[] args) throws Exception {
+        int procedureCount = Benchmarks.intOption(args, "--procedures", 300);
+        int ruleCount = Benchmarks.intOption(args, "--rules", 2000);
+        int rounds = Benchmarks.intOption(args, "--rounds", 5);
+
+        ObservableList<TreatmentPlanProcedure> procedures = FXCollections.observableArrayList();
+        procedures.add(new TreatmentPlanProcedure("Priority", "Tth", "Surface", "Code", "Diagnosis", "Description", 0, 0));
+        for (int i = 1; i <= procedureCount; i++) {
+            procedures.add(new TreatmentPlanProcedure(String.valueOf(1 + i % 9), String.valueOf(1 + i % 32), "MOD",
+                    String.format("D%04d", 2000 + i % 1000), i % 3 == 0 ? "Caries" : "",
+                    "Procedure description " + i, 100 + i, i));
+        }
+
+        ObservableList<RulesetItem> rules = FXCollections.observableArrayList();
+        rules.add(new RulesetItem("Priority", "D. Code", "Description", "Teeth", "Diagnosis"));
+        for (int i = 1; i <= ruleCount; i++) {
+            rules.add(new RulesetItem(String.valueOf(1 + i % 9), String.format("D%04d-D%04d", 2000 + i % 900, 2050 + i % 900),
+                    "Rule description " + i, i % 4 == 0 ? "1-16" : "", i % 5 == 0 ? "Caries" : ""));
+        }
+
+        Platform.startup(() -> {
+        });
+        try {
+            System.out.printf("Procedure list, %d procedures%n", procedureCount);
+            run("  code layout", procedures, new TreatmentPlanProcedureCellFactory(), rounds);
+            run("  FXML per cell", procedures, listView -> new FxmlRowCell<>(PROCEDURE_ROW_FXML, procedure -> new String[]{
+                    procedure.getPriority(), procedure.getToothNumber(), procedure.getSurface(), procedure.getProcedureCode(),
+                    procedure.getDiagnosis(), procedure.getDescription(), String.valueOf(procedure.getFee())}), rounds);
+
+            System.out.printf("Ruleset list, %d rules%n", ruleCount);
+            run("  code layout", rules, new RulesetItemCellFactory(), rounds);
+            run("  FXML per cell", rules, listView -> new FxmlRowCell<>(RULESET_ROW_FXML, rule -> new String[]{
+                    rule.getPriority(), rule.getProcedureCodes(), rule.getTeethNumbers(), rule.getDiagnosis(),
+                    rule.getDescription()}), rounds);
+        } finally {
+            Platform.exit();
+        }
+    }
+
+    private static <T> void run(String label, ObservableList<T> items,
+                                Callback<ListView<T>, ListCell<T>> cellFactory, int rounds) throws Exception {
+        double[] show = new double[rounds];
+        double[] scroll = new double[rounds];
+        double[] refresh = new double[rounds];
+        for (int round = -WARMUP_ROUNDS; round < rounds; round++) {
+            double[] times = onFxThread(() -> measure(items, cellFactory));
+            if (round >= 0) {
+                show[round] = times[0];
+                scroll[round] = times[1];
+                refresh[round] = times[2];
+            }
+        }
+        System.out.printf("%-16s show %8.1f ms   scroll %8.1f ms   refresh %8.1f ms%n",
+                label, median(show), median(scroll), median(refresh));
+    }
+
+    private static <T> double[] measure(ObservableList<T> items, Callback<ListView<T>, ListCell<T>> cellFactory) {
+        Stage stage = new Stage();
+        try {
+            long start = System.nanoTime();
+            ListView<T> listView = new ListView<>();
+            listView.setCellFactory(cellFactory);
+            listView.setItems(items);
+            stage.setScene(new Scene(listView, 900, 700));
+            stage.show();
+            listView.applyCss();
+            listView.layout();
+            long shown = System.nanoTime();
+
+            // Page through the list as a user dragging the scroll bar would
+            for (int index = 0; index < items.size(); index += 20) {
+                listView.scrollTo(index);
+                listView.layout();
+            }
+            long scrolled = System.nanoTime();
+
+            listView.refresh();
+            listView.layout();
+            long refreshed = System.nanoTime();
+
+            return new double[]{(shown - start) / 1e6, (scrolled - shown) / 1e6, (refreshed - scrolled) / 1e6};
+        } finally {
+            stage.close();
+        }
+    }
+
+    private static <T> T onFxThread(Callable<T> task) throws Exception {
+        FutureTask<T> future = new FutureTask<>(task);
+        Platform.runLater(future);
+        return future.get();
+    }
+
+    private static double median(double[] values) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private static String rowFxml(double prefWidth, double[] percents, String... titles) {
+        StringBuilder fxml = new StringBuilder("""
+                <?import javafx.geometry.Insets?>
+                <?import javafx.scene.control.Label?>
+                <?import javafx.scene.layout.*?>
+                """);
+        fxml.append("<GridPane maxHeight=\"-Infinity\" maxWidth=\"-Infinity\" minHeight=\"-Infinity\" minWidth=\"-Infinity\" ")
+                .append("prefHeight=\"25.0\" prefWidth=\"").append(prefWidth).append("\" xmlns=\"http://javafx.com/javafx\">\n")
+                .append("<columnConstraints>\n");
+        for (double percent : percents) {
+            fxml.append("<ColumnConstraints hgrow=\"SOMETIMES\" minWidth=\"10.0\" percentWidth=\"").append(percent).append("\" />\n");
+        }
+        fxml.append("</columnConstraints>\n<rowConstraints><RowConstraints minHeight=\"10.0\" prefHeight=\"30.0\" vgrow=\"SOMETIMES\" /></rowConstraints>\n")
+                .append("<children>\n");
+        for (int i = 0; i < titles.length; i++) {
+            fxml.append("<Label contentDisplay=\"CENTER\" prefHeight=\"25.0\" text=\"").append(titles[i])
+                    .append("\" GridPane.columnIndex=\"").append(i).append("\">")
+                    .append("<padding><Insets bottom=\"4.0\" left=\"4.0\" right=\"4.0\" top=\"4.0\" /></padding></Label>\n");
+        }
+        return fxml.append("</children>\n</GridPane>\n").toString();
+    }
+
+    /**
+     * The previous way of building a cell: parse the row's FXML for every cell and look the labels up by position.
+     */
+    private static final class FxmlRowCell<T> extends ListCell<T> {
+        private final GridPane gridPane;
+        private final Function<T, String[]> texts;
+
+        FxmlRowCell(String fxml, Function<T, String[]> texts) {
+            this.texts = texts;
+            try {
+                gridPane = new FXMLLoader().load(new ByteArrayInputStream(fxml.getBytes(StandardCharsets.UTF_8)));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        protected void updateItem(T item, boolean empty) {
+            super.updateItem(item, empty);
+            if (empty || item == null) {
+                setGraphic(null);
+                return;
+            }
+            String[] values = texts.apply(item);
+            for (int i = 0; i < values.length; i++) {
+                Node label = gridPane.getChildren().get(i);
+                ((Label) label).setText(values[i]);
+            }
+            setGraphic(gridPane);
+        }
+    }
+}
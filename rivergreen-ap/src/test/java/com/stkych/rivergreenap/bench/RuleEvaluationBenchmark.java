@@ -0,0 +1,340 @@
+package com.stkych.rivergreenap.bench;
+
+import com.stkych.rivergreenap.RiverGreenDB;
+import com.stkych.rivergreenap.engine.CompiledRuleset;
+import com.stkych.rivergreenap.engine.ProcedureBatch;
+import com.stkych.rivergreenap.engine.RulesetEngine;
+import com.stkych.rivergreenap.engine.RulesetRepository;
+import com.stkych.rivergreenap.model.PlannedProcedure;
+import com.stkych.rivergreenap.model.RulesetItem;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares applying a ruleset to every patient one plan at a time with applying it to a
+ * {@link ProcedureBatch} of all of them, with JMH.
+ * <p>
+ * The per-plan path is what the auto-prioritization daemon does: {@link RulesetEngine#prioritize} on
+ * each patient's list of {@link PlannedProcedure}. The batch path builds the columns and applies the
+ * ruleset over them; building the columns is measured separately, since a what-if run over the same
+ * plans builds them once and applies several rulesets. The batch is applied with its scalar scan and,
+ * if the Vector API is loaded, with its Vector API scan; its priorities are restored before each
+ * application, outside the measured time. The per-plan path is also measured with the matcher class
+ * {@link RulesetEngine#prioritize(CompiledRuleset, List, boolean, boolean) generated} for the ruleset, where
+ * the JDK can generate one. Each fork first compares the priorities both paths assign, and the generated
+ * matcher's with the rules' sets, row by row and fails if any differ. The plans are synthetic unless
+ * {@code --from-database} is given, in which case every patient's treatment-planned procedures are read
+ * from OpenDental. Does not need a display.
+ * <p>
+ * Usage: {@code rules [--patients N] [--ruleset NAME] [--none-only] [--from-database] [--forks N] [--iterations N]}
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class RuleEvaluationBenchmark {
+
+    /**
+     * Entry point for the rule evaluation benchmark. Runs the benchmarks below with JMH, leaving out
+     * the Vector API scan if this JVM has not loaded the module.
+     *
+     * @param args Options (see class documentation)
+     * @throws RunnerException If a benchmark fails
+     */
+    public static void main(String[] args) throws RunnerException {
+        List<String> flags = Arrays.asList(args);
+        List<String> benchmarks = new ArrayList<>(List.of("perPlan", "perPlanGenerated", "batchBuild", "batchApplyScalar"));
+        if (ProcedureBatch.isVectorAvailable()) {
+            benchmarks.add("batchApplyVector");
+        } else {
+            System.out.println("Vector API not available; start the JVM with --add-modules jdk.incubator.vector");
+        }
+
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .include(RuleEvaluationBenchmark.class.getName() + "\\.(" + String.join("|", benchmarks) + ")$")
+                .param("patients", String.valueOf(Benchmarks.intOption(args, "--patients", 20_000)))
+                .param("rulesetName", Benchmarks.option(args, "--ruleset", ""))
+                .param("noneOnly", String.valueOf(flags.contains("--none-only")))
+                .param("fromDatabase", String.valueOf(flags.contains("--from-database")));
+        String forks = Benchmarks.option(args, "--forks", null);
+        if (forks != null) {
+            options.forks(Integer.parseInt(forks));
+        }
+        String iterations = Benchmarks.option(args, "--iterations", null);
+        if (iterations != null) {
+            options.measurementIterations(Integer.parseInt(iterations));
+        }
+        new Runner(options.build()).run();
+    }
+
+    /**
+     * The plans and the ruleset, shared by all threads of a fork.
+     */
+    @State(Scope.Benchmark)
+    public static class Plans {
+
+        @Param("20000")
+        public int patients;
+
+        // Empty for the first ruleset on the machine
+        @Param("")
+        public String rulesetName;
+
+        @Param("false")
+        public boolean noneOnly;
+
+        @Param("false")
+        public boolean fromDatabase;
+
+        Map<Integer, List<PlannedProcedure>> plans;
+        CompiledRuleset ruleset;
+
+        /**
+         * Reads or builds the plans, loads the ruleset and checks that the batch agrees with the per-plan path.
+         *
+         * @throws SQLException If the plans cannot be read from the database
+         */
+        @Setup(Level.Trial)
+        public void load() throws SQLException {
+            plans = fromDatabase ? RiverGreenDB.getAllPlannedProcedures() : syntheticPlans(patients);
+            ruleset = ruleset(rulesetName.isEmpty() ? null : rulesetName);
+            int procedureCount = plans.values().stream().mapToInt(List::size).sum();
+            System.out.printf("Ruleset %s (%d rules), %d patients, %d procedures%n",
+                    ruleset.getName(), ruleset.getRules().size(), plans.size(), procedureCount);
+
+            int differences = compare(ruleset, plans, noneOnly, false)
+                    + (ProcedureBatch.isVectorAvailable() ? compare(ruleset, plans, noneOnly, true) : 0);
+            if (differences > 0) {
+                throw new IllegalStateException(differences + " procedures were given different priorities by the batch");
+            }
+        }
+    }
+
+    /**
+     * Checks that the ruleset has a generated matcher that agrees with the rules' sets.
+     */
+    @State(Scope.Benchmark)
+    public static class GeneratedMatcher {
+
+        /**
+         * Fails the benchmark if no matcher could be generated or if it assigns other priorities.
+         *
+         * @param plans The plans
+         */
+        @Setup(Level.Trial)
+        public void check(Plans plans) {
+            if (!plans.ruleset.hasGeneratedMatcher()) {
+                throw new IllegalStateException("No matcher could be generated for ruleset " + plans.ruleset.getName());
+            }
+            int differences = compareGenerated(plans.ruleset, plans.plans, plans.noneOnly);
+            if (differences > 0) {
+                throw new IllegalStateException(differences
+                        + " procedures were given different priorities by the generated matcher");
+            }
+        }
+    }
+
+    /**
+     * A batch of all plans, given back its original priorities before each application.
+     */
+    @State(Scope.Benchmark)
+    public static class Batch {
+
+        ProcedureBatch batch;
+
+        /**
+         * Builds the batch.
+         *
+         * @param plans The plans
+         */
+        @Setup(Level.Trial)
+        public void build(Plans plans) {
+            batch = ProcedureBatch.of(plans.plans);
+        }
+
+        /**
+         * Restores the priorities the previous application changed.
+         */
+        @Setup(Level.Invocation)
+        public void reset() {
+            batch.reset();
+        }
+    }
+
+    /**
+     * Applies the ruleset plan by plan, as the daemon does.
+     */
+    @Benchmark
+    public void perPlan(Plans plans, Blackhole blackhole) {
+        for (List<PlannedProcedure> plan : plans.plans.values()) {
+            blackhole.consume(RulesetEngine.prioritize(plans.ruleset, plan, plans.noneOnly, false));
+        }
+    }
+
+    /**
+     * Applies the ruleset plan by plan with the matcher class generated for it.
+     */
+    @Benchmark
+    public void perPlanGenerated(Plans plans, GeneratedMatcher generated, Blackhole blackhole) {
+        for (List<PlannedProcedure> plan : plans.plans.values()) {
+            blackhole.consume(RulesetEngine.prioritize(plans.ruleset, plan, plans.noneOnly, true));
+        }
+    }
+
+    /**
+     * Builds the columns of a batch from the plans.
+     */
+    @Benchmark
+    public ProcedureBatch batchBuild(Plans plans) {
+        return ProcedureBatch.of(plans.plans);
+    }
+
+    /**
+     * Applies the ruleset to the batch, scanning one row at a time.
+     */
+    @Benchmark
+    public int batchApplyScalar(Plans plans, Batch batch) {
+        return batch.batch.apply(plans.ruleset, plans.noneOnly, false);
+    }
+
+    /**
+     * Applies the ruleset to the batch, scanning with the Vector API.
+     */
+    @Benchmark
+    public int batchApplyVector(Plans plans, Batch batch) {
+        return batch.batch.apply(plans.ruleset, plans.noneOnly, true);
+    }
+
+    /**
+     * Applies the ruleset both ways and counts the procedures whose priorities differ.
+     */
+    private static int compare(CompiledRuleset ruleset, Map<Integer, List<PlannedProcedure>> plans, boolean noneOnly,
+                               boolean vectorized) {
+        ProcedureBatch batch = ProcedureBatch.of(plans);
+        batch.apply(ruleset, noneOnly, vectorized);
+
+        int differences = 0;
+        int row = 0;
+        for (List<PlannedProcedure> plan : plans.values()) {
+            for (PlannedProcedure procedure : RulesetEngine.prioritize(ruleset, plan, noneOnly, false)) {
+                if (batch.procedureNumber(row) != procedure.procedureNumber()
+                        || !Objects.equals(batch.priority(row), procedure.priority())) {
+                    if (differences++ < 10) {
+                        System.out.printf("  ProcNum %d: per plan %s, %s batch %s%n", procedure.procedureNumber(),
+                                procedure.priority(), vectorized ? "vector" : "scalar", batch.priority(row));
+                    }
+                }
+                row++;
+            }
+        }
+        return differences;
+    }
+
+    /**
+     * Applies the ruleset plan by plan with and without the generated matcher and counts the procedures
+     * whose priorities differ.
+     */
+    private static int compareGenerated(CompiledRuleset ruleset, Map<Integer, List<PlannedProcedure>> plans,
+                                        boolean noneOnly) {
+        int differences = 0;
+        for (List<PlannedProcedure> plan : plans.values()) {
+            List<PlannedProcedure> expected = RulesetEngine.prioritize(ruleset, plan, noneOnly, false);
+            List<PlannedProcedure> actual = RulesetEngine.prioritize(ruleset, plan, noneOnly, true);
+            for (int i = 0; i < expected.size(); i++) {
+                if (!Objects.equals(expected.get(i).priority(), actual.get(i).priority())) {
+                    if (differences++ < 10) {
+                        System.out.printf("  ProcNum %d: per plan %s, generated %s%n", expected.get(i).procedureNumber(),
+                                expected.get(i).priority(), actual.get(i).priority());
+                    }
+                }
+            }
+        }
+        return differences;
+    }
+
+    /**
+     * Uses the named ruleset, or the first one on this machine, or a built-in one if there is none.
+     */
+    private static CompiledRuleset ruleset(String name) {
+        RulesetRepository repository = RulesetRepository.getInstance();
+        repository.setFetchDescriptions(false);
+        List<String> names = name != null ? List.of(name) : repository.names();
+        for (String candidate : names) {
+            RulesetRepository.Ruleset ruleset = repository.get(candidate);
+            if (ruleset != null) {
+                return ruleset.compiled();
+            }
+        }
+        if (name != null) {
+            throw new IllegalArgumentException("No ruleset named " + name);
+        }
+
+        List<RulesetItem> items = new ArrayList<>();
+        items.add(new RulesetItem("Priority", "D. Code", "Description", "Teeth", "Diagnosis"));
+        items.add(new RulesetItem("4", "D0120-D0999", "Diagnostics", "", ""));
+        items.add(new RulesetItem("3", "D1110", "Prophylaxis", "", ""));
+        items.add(new RulesetItem("1", "D2391-D2394", "Composites", "", "Caries"));
+        items.add(new RulesetItem("2", "D2740-D2799", "Crowns", "2-15,18-31", ""));
+        items.add(new RulesetItem("1", "D3310-D3330", "Root canals", "", ""));
+        items.add(new RulesetItem("3", "D4341-D4342", "Scaling", "", ""));
+        items.add(new RulesetItem("2", "D7140-D7210", "Extractions", "1,16,17,32", ""));
+        // Crowns move back when the same tooth also has a composite (the first priority 1 rule) planned
+        RulesetItem crownAfterRootCanal = new RulesetItem("2", "D2740-D2799", "Crowns after composite", "", "");
+        crownAfterRootCanal.setDependent(true);
+        crownAfterRootCanal.setConditionalPriority("1");
+        crownAfterRootCanal.setNewPriority("5");
+        items.add(crownAfterRootCanal);
+        return CompiledRuleset.compile("benchmark", items);
+    }
+
+    /**
+     * Builds plans of 5 to 45 procedures with a spread of codes, teeth, diagnoses and existing priorities.
+     */
+    private static Map<Integer, List<PlannedProcedure>> syntheticPlans(int patientCount) {
+        String[] codes = {"D0120", "D0274", "D1110", "D2391", "D2392", "D2740", "D2750", "D3330", "D4341", "D7140",
+                "D7210", "D9110"};
+        String[] diagnoses = {"", "", "Caries", "Fracture", "Periodontitis"};
+        String[] priorities = {"None", "None", "None", "1", "2", ""};
+        Random random = new Random(42);
+        Map<Integer, List<PlannedProcedure>> plans = new LinkedHashMap<>();
+        int procedureNumber = 1;
+        for (int patient = 1; patient <= patientCount; patient++) {
+            int size = 5 + random.nextInt(41);
+            List<PlannedProcedure> plan = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                String tooth = random.nextInt(5) == 0 ? "" : String.valueOf(1 + random.nextInt(32));
+                plan.add(new PlannedProcedure(procedureNumber++, priorities[random.nextInt(priorities.length)], tooth,
+                        "", codes[random.nextInt(codes.length)], diagnoses[random.nextInt(diagnoses.length)],
+                        "Synthetic procedure", 100));
+            }
+            plans.put(patient, plan);
+        }
+        return plans;
+    }
+}
@@ -0,0 +1,151 @@
+package com.stkych.rivergreenap.bench;
+
+import com.stkych.rivergreenap.Launcher;
+import com.stkych.rivergreenap.diagnostics.StartupTimeline;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long a launch takes from starting the JVM to the main window's first frame.
+ * <p>
+ * Every round starts the application in a new JVM with the startup probe enabled (the
+ * {@value StartupTimeline#PROBE_PROPERTY} system property): the application prints the time since its
+ * JVM started once the main window has been rendered, and exits. Rounds are run without class-data
+ * sharing, with the JDK's default archive, and with the application's archive built by the
+ * {@code startup-image} Maven profile, interleaved so that disk caching and other load affect each
+ * alike. A first round of each is not counted. The new JVM uses the same java executable as the
+ * benchmark, and its class path or, if the application was started as a module, its module path. To
+ * measure the startup image, run {@code StartupBenchmark.bat} next to it, which starts the benchmark
+ * with the image's runtime and class path and itself from the module path. Needs a display and the
+ * database, since the main window reads the priority and diagnosis lists before it is shown.
+ * <p>
+ * With {@code --budget}, the median of the last configuration (the application's archive, if there is
+ * one) is checked against the cold-start budget, and the benchmark exits with status 1 if it is over.
+ * <p>
+ * Usage: {@code startup [--rounds N] [--patient N] [--archive FILE] [--budget MS]}
+ */
+public final class StartupBenchmark {
+
+    // Written next to the runtime by the startup-image profile
+    private static final String ARCHIVE_FILE = "rivergreen.jsa";
+
+    private static final String MAIN_MODULE_CLASS = "com.stkych.rivergreenap/" + Launcher.class.getName();
+
+    // A launch that takes longer is stuck, most likely on an error alert
+    private static final long LAUNCH_TIMEOUT_SECONDS = 60;
+
+    private StartupBenchmark() {
+    }
+
+    /**
+     * Entry point for the startup benchmark.
+     *
+     * @param args Options (see class documentation)
+     * @throws Exception If the benchmark fails
+     */
+    public static void main(String[] args) throws Exception {
+        int rounds = Benchmarks.intOption(args, "--rounds", 10);
+        int patientNumber = Benchmarks.intOption(args, "--patient", 1);
+        int budgetMillis = Benchmarks.intOption(args, "--budget", 0);
+        Path archive = Path.of(Benchmarks.option(args, "--archive", defaultArchive().toString()));
+
+        Map<String, List<String>> configurations = new LinkedHashMap<>();
+        configurations.put("no CDS", List.of("-Xshare:off"));
+        configurations.put("JDK CDS", List.of());
+        if (Files.isRegularFile(archive)) {
+            configurations.put("AppCDS", List.of("-XX:SharedArchiveFile=" + archive));
+        } else {
+            System.out.println("No application archive at " + archive + "; build one with the startup-image profile");
+        }
+
+        Map<String, double[]> times = new LinkedHashMap<>();
+        for (String name : configurations.keySet()) {
+            times.put(name, new double[rounds]);
+        }
+        for (int round = -1; round < rounds; round++) {
+            for (Map.Entry<String, List<String>> configuration : configurations.entrySet()) {
+                double millis = launch(configuration.getValue(), patientNumber);
+                if (round >= 0) {
+                    times.get(configuration.getKey())[round] = millis;
+                }
+            }
+        }
+
+        System.out.printf("JVM start to first frame, %d launches each%n", rounds);
+        double lastMedian = 0;
+        for (Map.Entry<String, double[]> result : times.entrySet()) {
+            double[] sorted = result.getValue().clone();
+            Arrays.sort(sorted);
+            lastMedian = sorted[sorted.length / 2];
+            System.out.printf("  %-8s median %7.0f ms   min %7.0f ms   max %7.0f ms%n",
+                    result.getKey(), lastMedian, sorted[0], sorted[sorted.length - 1]);
+        }
+
+        if (budgetMillis > 0) {
+            boolean within = lastMedian <= budgetMillis;
+            System.out.printf("Cold-start budget %d ms: %s%n", budgetMillis, within ? "met" : "exceeded");
+            if (!within) {
+                System.exit(1);
+            }
+        }
+    }
+
+    /**
+     * Starts the application in a new JVM and waits for it to report its first frame.
+     *
+     * @return Milliseconds from the JVM starting to the first frame
+     */
+    private static double launch(List<String> jvmOptions, int patientNumber) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(ProcessHandle.current().info().command()
+                .orElse(Path.of(System.getProperty("java.home"), "bin", "java").toString()));
+        command.addAll(jvmOptions);
+        command.add("-D" + StartupTimeline.PROBE_PROPERTY + "=true");
+        if (Launcher.class.getModule().isNamed()) {
+            command.addAll(List.of("--module-path", System.getProperty("jdk.module.path"),
+                    "--add-modules", "ALL-MODULE-PATH", "-m", MAIN_MODULE_CLASS));
+        } else {
+            command.addAll(List.of("-cp", System.getProperty("java.class.path"), Launcher.class.getName()));
+        }
+        command.add(String.valueOf(patientNumber));
+
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        process.onExit().orTimeout(LAUNCH_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                .exceptionally(timeout -> process.destroyForcibly());
+
+        Double millis = null;
+        String lastLine = "";
+        try (BufferedReader output = process.inputReader()) {
+            String line;
+            while ((line = output.readLine()) != null) {
+                if (line.startsWith(StartupTimeline.FIRST_FRAME_PREFIX)) {
+                    millis = Double.parseDouble(line.substring(StartupTimeline.FIRST_FRAME_PREFIX.length()));
+                } else if (!line.isBlank() && !Character.isWhitespace(line.charAt(0))) {
+                    // Skips stack frames, so a failed launch is reported by its exception
+                    lastLine = line;
+                }
+            }
+        }
+        int exitCode = process.waitFor();
+        if (millis == null) {
+            throw new IllegalStateException("Launch did not report a first frame (exit code " + exitCode + "): " + lastLine);
+        }
+        return millis;
+    }
+
+    private static Path defaultArchive() {
+        // The image keeps the runtime in runtime/ and the archive beside it
+        Path runtime = Path.of(System.getProperty("java.home")).toAbsolutePath();
+        Path image = runtime.getParent() != null ? runtime.getParent() : runtime;
+        return image.resolve(ARCHIVE_FILE);
+    }
+}
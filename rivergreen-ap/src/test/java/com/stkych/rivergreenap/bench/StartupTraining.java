@@ -0,0 +1,163 @@
+package com.stkych.rivergreenap.bench;
+
+import com.stkych.rivergreenap.SceneSwitcher;
+import com.stkych.rivergreenap.db.PatientPlanCache;
+import com.stkych.rivergreenap.engine.CompiledRuleset;
+import com.stkych.rivergreenap.engine.RulesetEngine;
+import com.stkych.rivergreenap.engine.RulesetRepository;
+import com.stkych.rivergreenap.model.RulesetItem;
+import com.stkych.rivergreenap.model.TreatmentPlanProcedure;
+import com.stkych.rivergreenap.util.FxPulse;
+import javafx.application.Platform;
+import javafx.collections.ListChangeListener;
+import javafx.stage.Stage;
+import javafx.stage.Window;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.FutureTask;
+import java.util.logging.Logger;
+
+/**
+ * The training run from which the {@code startup-image} Maven profile captures the application's
+ * class-data sharing archive.
+ * <p>
+ * Started with {@code -XX:ArchiveClassesAtExit}, it does what a launch from OpenDental does, so the
+ * archive holds the classes a real start loads: it applies a ruleset to a synthetic patient's plan,
+ * opens the patient in the main window, switches to the ruleset window and back, and exits. The
+ * synthetic plan is handed to the {@link PatientPlanCache} rather than read from the database. The
+ * main window still reads the priority and diagnosis lists; error alerts shown when the database
+ * cannot be reached are closed as they open, so the run also completes on a build machine without it.
+ * <p>
+ * The application must be on the class path exactly as the launch scripts give it, since the archive
+ * is only used with the class path it was recorded with. The profile therefore puts this class in a
+ * jar of its own with the automatic module name {@code rivergreen.training} and starts it from the
+ * module path, which leaves the class path alone; as an automatic module it can use the application's
+ * classes on the class path.
+ * <p>
+ * Usage: {@code StartupTraining [--procedures N]}
+ */
+public final class StartupTraining {
+
+    private static final Logger LOGGER = Logger.getLogger(StartupTraining.class.getName());
+
+    // Not a PatNum OpenDental assigns, so the synthetic plan is never taken for a real patient's
+    private static final int SYNTHETIC_PATIENT = 0;
+
+    private static final String TITLE = "RiverGreen Dental Application";
+
+    private StartupTraining() {
+    }
+
+    /**
+     * Entry point for the training run.
+     *
+     * @param args Options (see class documentation)
+     * @throws Exception If a window fails to load
+     */
+    public static void main(String[] args) throws Exception {
+        int procedureCount = Benchmarks.intOption(args, "--procedures", 40);
+
+        List<TreatmentPlanProcedure> procedures = syntheticPlan(procedureCount);
+        CompiledRuleset ruleset = trainingRuleset();
+        int applied = RulesetEngine.apply(ruleset, procedures, false);
+        LOGGER.info("Training with ruleset " + ruleset.getName() + ", " + applied + " rules applied");
+        PatientPlanCache.getInstance().offer(new PatientPlanCache.PatientPlan(SYNTHETIC_PATIENT,
+                "Training Patient", procedures, null, System.nanoTime()));
+
+        Platform.startup(() -> {
+        });
+        try {
+            Stage stage = onFxThread(() -> {
+                Stage mainStage = new Stage();
+                closeDialogsOver(mainStage);
+                SceneSwitcher.getInstance().initialize(mainStage);
+                SceneSwitcher.getInstance().putData("patientNumber", SYNTHETIC_PATIENT);
+                SceneSwitcher.getInstance().switchScene("main", TITLE);
+                return mainStage;
+            });
+            awaitFrame(stage);
+            onFxThread(() -> {
+                SceneSwitcher.getInstance().switchScene("ruleset", "Ruleset Configuration");
+                return null;
+            });
+            awaitFrame(stage);
+            onFxThread(() -> {
+                SceneSwitcher.getInstance().switchScene("main", TITLE);
+                return null;
+            });
+            awaitFrame(stage);
+        } finally {
+            Platform.exit();
+        }
+    }
+
+    /**
+     * Builds a plan with the mix of codes, teeth and diagnoses a typical patient has.
+     */
+    private static List<TreatmentPlanProcedure> syntheticPlan(int procedureCount) {
+        String[] codes = {"D0120", "D0274", "D1110", "D2391", "D2740", "D3330", "D4341", "D7140"};
+        List<TreatmentPlanProcedure> procedures = new ArrayList<>(procedureCount);
+        for (int i = 1; i <= procedureCount; i++) {
+            procedures.add(new TreatmentPlanProcedure("None", String.valueOf(1 + i % 32), i % 3 == 0 ? "MO" : "",
+                    codes[i % codes.length], i % 4 == 0 ? "Caries" : "", "Training procedure " + i, 50 + i * 10, -i));
+        }
+        return procedures;
+    }
+
+    /**
+     * Uses the first ruleset on this machine, or a small built-in one if there is none.
+     */
+    private static CompiledRuleset trainingRuleset() {
+        RulesetRepository repository = RulesetRepository.getInstance();
+        repository.setFetchDescriptions(false);
+        for (String name : repository.names()) {
+            RulesetRepository.Ruleset ruleset = repository.get(name);
+            if (ruleset != null) {
+                return ruleset.compiled();
+            }
+        }
+
+        List<RulesetItem> items = new ArrayList<>();
+        items.add(new RulesetItem("Priority", "D. Code", "Description", "Teeth", "Diagnosis"));
+        items.add(new RulesetItem("1", "D2391-D2394", "Composites", "", "Caries"));
+        items.add(new RulesetItem("2", "D2740", "Crowns", "2-15,18-31", ""));
+        items.add(new RulesetItem("3", "D4341", "Scaling", "", ""));
+        return CompiledRuleset.compile("training", items);
+    }
+
+    /**
+     * Closes every other window as it opens, such as the alerts shown when the database cannot be reached.
+     */
+    private static void closeDialogsOver(Stage mainStage) {
+        Window.getWindows().addListener((ListChangeListener<Window>) change -> {
+            while (change.next()) {
+                for (Window window : change.getAddedSubList()) {
+                    if (window != mainStage) {
+                        Platform.runLater(window::hide);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Waits until the window's current scene has been laid out and rendered.
+     */
+    private static void awaitFrame(Stage stage) throws Exception {
+        CountDownLatch rendered = new CountDownLatch(1);
+        onFxThread(() -> {
+            FxPulse.afterNextPulse(stage.getScene(), rendered::countDown);
+            return null;
+        });
+        rendered.await();
+    }
+
+    private static <T> T onFxThread(Callable<T> task) throws Exception {
+        FutureTask<T> future = new FutureTask<>(task);
+        Platform.runLater(future);
+        return future.get();
+    }
+}
@@ -0,0 +1,104 @@
+package com.stkych.rivergreenap.db;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChangeJournalTest {
+
+    @AfterEach
+    void closeSession() {
+        ChangeJournal.closeSession();
+    }
+
+    @Test
+    void readsBackEveryChangeAcrossRegions() throws IOException {
+        ChangeJournal.setSessionLabel("test run");
+        ChangeJournal journal = ChangeJournal.session();
+        String runId = journal.getRunId();
+        // More than one mapped region of 50,000 records
+        int count = 120_000;
+        for (int i = 0; i < count; i++) {
+            journal.append(i + 1, i % 3 == 0 ? ChangeJournal.Column.DIAGNOSIS : ChangeJournal.Column.PRIORITY,
+                    i, Long.MAX_VALUE - i);
+        }
+        ChangeJournal.closeSession();
+
+        List<ChangeJournal.Change> changes = new ArrayList<>();
+        ChangeJournal.RunInfo run = ChangeJournal.read(runId, changes::add);
+
+        assertEquals("test run", run.label());
+        assertEquals(count, run.changeCount());
+        assertEquals(count, changes.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals(new ChangeJournal.Change(i + 1,
+                    i % 3 == 0 ? ChangeJournal.Column.DIAGNOSIS : ChangeJournal.Column.PRIORITY, i, Long.MAX_VALUE - i),
+                    changes.get(i));
+        }
+        assertTrue(ChangeJournal.listRuns().stream()
+                .anyMatch(listed -> listed.runId().equals(runId) && listed.changeCount() == count));
+    }
+
+    @Test
+    void truncatesTheRunToItsRecordsOnClose() throws IOException {
+        ChangeJournal journal = ChangeJournal.session();
+        String runId = journal.getRunId();
+        journal.append(1, ChangeJournal.Column.PRIORITY, 10, 20);
+        ChangeJournal.closeSession();
+
+        assertEquals(endOfRecords(runId, 1), Files.size(ChangeJournal.getJournalDirectory().resolve(runId + ".rgj")));
+    }
+
+    @Test
+    void endsAtARecordTornByACrash() throws IOException {
+        ChangeJournal journal = ChangeJournal.session();
+        String runId = journal.getRunId();
+        journal.append(1, ChangeJournal.Column.PRIORITY, 10, 20);
+        journal.append(2, ChangeJournal.Column.PRIORITY, 10, 30);
+        ChangeJournal.closeSession();
+
+        // A third record whose fields were written but not yet its column byte, which goes last
+        long end = endOfRecords(runId, 2);
+        try (FileChannel channel = FileChannel.open(ChangeJournal.getJournalDirectory().resolve(runId + ".rgj"),
+                StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(20).putInt(3).putLong(10).putLong(40).flip(), end + 1);
+        }
+
+        List<ChangeJournal.Change> changes = new ArrayList<>();
+        ChangeJournal.read(runId, changes::add);
+
+        assertEquals(List.of(new ChangeJournal.Change(1, ChangeJournal.Column.PRIORITY, 10, 20),
+                new ChangeJournal.Change(2, ChangeJournal.Column.PRIORITY, 10, 30)), changes);
+    }
+
+    @Test
+    void rejectsAnUnknownRun() {
+        assertThrows(IOException.class, () -> ChangeJournal.read("19700101-000000-000", change -> {
+        }));
+    }
+
+    /**
+     * Finds the file offset after the given number of records: the header is magic, start time and a
+     * label length followed by the label.
+     */
+    private static long endOfRecords(String runId, int records) throws IOException {
+        try (FileChannel channel = FileChannel.open(ChangeJournal.getJournalDirectory().resolve(runId + ".rgj"),
+                StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(4 + 8 + 2);
+            channel.read(header, 0);
+            int labelLength = header.getShort(12) & 0xFFFF;
+            return header.capacity() + labelLength + records * 21L;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.stkych.rivergreenap.db;
+
+import com.stkych.rivergreenap.RiverGreenDB;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WriteBehindQueueTest {
+
+    @TempDir
+    Path directory;
+
+    private final List<WriteBehindQueue> queues = new ArrayList<>();
+
+    @AfterEach
+    void closeQueues() {
+        queues.forEach(WriteBehindQueue::close);
+    }
+
+    @Test
+    void writesOnlyTheLastEditOverTheFirstBase() throws SQLException {
+        RecordingWriter writer = new RecordingWriter();
+        WriteBehindQueue queue = queue(directory.resolve("edits.journal"), writer);
+
+        queue.record(10, WriteBehindQueue.Column.PRIORITY, "None", "1");
+        queue.record(10, WriteBehindQueue.Column.PRIORITY, "1", "2");
+        queue.record(10, WriteBehindQueue.Column.PRIORITY, "2", "3 Wait");
+        queue.record(10, WriteBehindQueue.Column.DIAGNOSIS, "", "Caries");
+        queue.record(11, WriteBehindQueue.Column.PRIORITY, "4", "Next");
+        assertEquals(2, queue.getPendingCount());
+        assertTrue(queue.hasPending(List.of(11)));
+
+        RiverGreenDB.GuardedWrite result = queue.flush();
+
+        assertEquals(2, result.updated());
+        assertEquals(List.of("priorities {10=None>3 Wait, 11=4>Next} diagnoses {10=>Caries}"), writer.batches);
+        assertEquals(0, queue.getPendingCount());
+        assertFalse(queue.hasPending(List.of(10, 11)));
+        assertEquals(0, queue.flush().updated());
+    }
+
+    @Test
+    void basesLaterEditsOnTheValueItWrote() throws SQLException {
+        RecordingWriter writer = new RecordingWriter();
+        WriteBehindQueue queue = queue(directory.resolve("edits.journal"), writer);
+
+        queue.record(10, WriteBehindQueue.Column.PRIORITY, "None", "1");
+        queue.flush();
+        // The window still shows the value it loaded
+        queue.record(10, WriteBehindQueue.Column.PRIORITY, "None", "2");
+        queue.flush();
+
+        assertEquals(List.of("priorities {10=None>1} diagnoses {}", "priorities {10=1>2} diagnoses {}"), writer.batches);
+    }
+
+    @Test
+    void keepsEditsWhenAWriteFails() throws SQLException {
+        RecordingWriter writer = new RecordingWriter();
+        WriteBehindQueue queue = queue(directory.resolve("edits.journal"), writer);
+        queue.record(10, WriteBehindQueue.Column.PRIORITY, "None", "1");
+
+        writer.failures = 1;
+        assertThrows(SQLException.class, queue::flush);
+        assertEquals(1, queue.getPendingCount());
+
+        queue.record(10, WriteBehindQueue.Column.PRIORITY, "1", "2");
+        queue.flush();
+
+        assertEquals(List.of("priorities {10=None>2} diagnoses {}"), writer.batches);
+    }
+
+    @Test
+    void dropsEditsToProceduresChangedElsewhere() throws SQLException {
+        RecordingWriter writer = new RecordingWriter();
+        writer.conflicts = List.of(11);
+        WriteBehindQueue queue = queue(directory.resolve("edits.journal"), writer);
+        queue.record(10, WriteBehindQueue.Column.PRIORITY, "None", "1");
+        queue.record(11, WriteBehindQueue.Column.PRIORITY, "None", "1");
+
+        RiverGreenDB.GuardedWrite result = queue.flush();
+
+        assertEquals(1, result.updated());
+        assertEquals(List.of(11), result.conflicts());
+        assertEquals(0, queue.getPendingCount());
+    }
+
+    @Test
+    void replaysTheJournalLeftByACrash() throws IOException, SQLException {
+        Path journal = directory.resolve("edits.journal");
+        WriteBehindQueue crashed = queue(journal, new RecordingWriter());
+        crashed.record(10, WriteBehindQueue.Column.PRIORITY, "None", "1");
+        crashed.record(10, WriteBehindQueue.Column.PRIORITY, "1", "2");
+        crashed.record(12, WriteBehindQueue.Column.DIAGNOSIS, "", "Tab\tand\\backslash");
+        // The journal as the crash left it, with a line torn while it was being written
+        Path leftOver = directory.resolve("left-over.journal");
+        Files.writeString(leftOver, Files.readString(journal) + "13\tP");
+
+        RecordingWriter writer = new RecordingWriter();
+        WriteBehindQueue restarted = queue(leftOver, writer);
+        restarted.flush();
+
+        assertEquals(List.of("priorities {10=None>2} diagnoses {12=>Tab\tand\\backslash}"), writer.batches);
+        assertFalse(Files.exists(leftOver));
+    }
+
+    private WriteBehindQueue queue(Path journal, WriteBehindQueue.EditWriter writer) {
+        WriteBehindQueue queue = new WriteBehindQueue(journal, writer);
+        queues.add(queue);
+        return queue;
+    }
+
+    /**
+     * Records each batch as text, in place of the database.
+     */
+    private static final class RecordingWriter implements WriteBehindQueue.EditWriter {
+
+        final List<String> batches = Collections.synchronizedList(new ArrayList<>());
+        volatile int failures;
+        volatile List<Integer> conflicts = List.of();
+
+        @Override
+        public RiverGreenDB.GuardedWrite write(Map<Integer, String[]> priorities, Map<Integer, String[]> diagnoses)
+                throws SQLException {
+            if (failures > 0) {
+                failures--;
+                throw new SQLException("Lock wait timeout exceeded");
+            }
+            batches.add("priorities " + describe(priorities) + " diagnoses " + describe(diagnoses));
+            Set<Integer> procNums = new TreeSet<>(priorities.keySet());
+            procNums.addAll(diagnoses.keySet());
+            return new RiverGreenDB.GuardedWrite(procNums.size() - conflicts.size(), conflicts);
+        }
+
+        private static String describe(Map<Integer, String[]> edits) {
+            Map<Integer, String> sorted = new TreeMap<>();
+            edits.forEach((procNum, edit) -> sorted.put(procNum, edit[0] + ">" + edit[1]));
+            return sorted.toString();
+        }
+    }
+}
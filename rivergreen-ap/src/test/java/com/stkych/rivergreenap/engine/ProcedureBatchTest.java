@@ -0,0 +1,123 @@
+package com.stkych.rivergreenap.engine;
+
+import com.stkych.rivergreenap.model.PlannedProcedure;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class ProcedureBatchTest {
+
+    @Test
+    void assignsTheSamePrioritiesAsThePlanAtATimeEngine() {
+        assertParity(false);
+    }
+
+    @Test
+    void assignsTheSamePrioritiesWithTheVectorApi() {
+        assumeTrue(ProcedureBatch.isVectorAvailable(), "jdk.incubator.vector is not loaded");
+        assertParity(true);
+    }
+
+    @Test
+    void resetRestoresTheLoadedPriorities() {
+        Map<Integer, List<PlannedProcedure>> plans = RandomRulesets.plans(new Random(3), 50);
+        ProcedureBatch batch = ProcedureBatch.of(plans);
+        List<String> loaded = priorities(batch);
+
+        batch.apply(RandomRulesets.ruleset(new Random(3), 30), false, false);
+        assertTrue(changedRows(batch) > 0);
+        batch.reset();
+
+        assertEquals(loaded, priorities(batch));
+        assertEquals(0, changedRows(batch));
+    }
+
+    @Test
+    void selectsTheSameRowsAsAScalarScan() {
+        assumeTrue(ProcedureBatch.isVectorAvailable(), "jdk.incubator.vector is not loaded");
+        Random random = new Random(11);
+        // Sizes around the vector length leave a scalar tail of every length
+        for (int size = 0; size < 70; size++) {
+            int[] codes = new int[size];
+            int[] diagnoses = new int[size];
+            int[] toothBits = new int[size];
+            for (int row = 0; row < size; row++) {
+                codes[row] = random.nextInt(20);
+                diagnoses[row] = random.nextInt(4);
+                toothBits[row] = random.nextInt(4) == 0 ? 0 : 1 << random.nextInt(32);
+            }
+            for (int i = 0; i < 20; i++) {
+                int codeLow = random.nextInt(20);
+                int codeHigh = codeLow + random.nextInt(5);
+                int diagnosisLow = random.nextInt(4);
+                int diagnosisHigh = diagnosisLow + random.nextInt(2);
+                int toothMask = random.nextInt(3) == 0 ? 0 : random.nextInt();
+
+                int[] candidates = new int[size];
+                int count = VectorRowScan.select(codes, codeLow, codeHigh, diagnoses, diagnosisLow, diagnosisHigh,
+                        toothBits, toothMask, candidates);
+
+                List<Integer> expected = new ArrayList<>();
+                for (int row = 0; row < size; row++) {
+                    if (codes[row] >= codeLow && codes[row] <= codeHigh && diagnoses[row] >= diagnosisLow
+                            && diagnoses[row] <= diagnosisHigh && (toothMask == 0 || (toothBits[row] & toothMask) != 0)) {
+                        expected.add(row);
+                    }
+                }
+                assertArrayEquals(expected.stream().mapToInt(Integer::intValue).toArray(),
+                        Arrays.copyOf(candidates, count));
+            }
+        }
+    }
+
+    private static void assertParity(boolean vectorized) {
+        for (int seed = 0; seed < 10; seed++) {
+            Random random = new Random(seed);
+            CompiledRuleset ruleset = RandomRulesets.ruleset(random, 30);
+            Map<Integer, List<PlannedProcedure>> plans = RandomRulesets.plans(random, 200);
+            for (boolean noneOnly : new boolean[] {false, true}) {
+                ProcedureBatch batch = ProcedureBatch.of(plans);
+                batch.apply(ruleset, noneOnly, vectorized);
+
+                List<String> expected = new ArrayList<>();
+                for (List<PlannedProcedure> plan : plans.values()) {
+                    for (PlannedProcedure procedure : RulesetEngine.prioritize(ruleset, plan, noneOnly, false)) {
+                        expected.add(procedure.procedureNumber() + "=" + procedure.priority());
+                    }
+                }
+                List<String> actual = new ArrayList<>();
+                for (int row = 0; row < batch.size(); row++) {
+                    actual.add(batch.procedureNumber(row) + "=" + batch.priority(row));
+                }
+                assertEquals(expected, actual, "seed " + seed + (noneOnly ? ", None only" : ""));
+            }
+        }
+    }
+
+    private static List<String> priorities(ProcedureBatch batch) {
+        List<String> priorities = new ArrayList<>();
+        for (int row = 0; row < batch.size(); row++) {
+            priorities.add(batch.priority(row));
+        }
+        return priorities;
+    }
+
+    private static int changedRows(ProcedureBatch batch) {
+        int changed = 0;
+        for (int row = 0; row < batch.size(); row++) {
+            if (batch.isChanged(row)) {
+                changed++;
+            }
+        }
+        return changed;
+    }
+}
@@ -0,0 +1,117 @@
+package com.stkych.rivergreenap.engine;
+
+import com.stkych.rivergreenap.model.PlannedProcedure;
+import com.stkych.rivergreenap.model.RulesetItem;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Builds random rulesets and plans over a narrow range of codes, teeth and diagnoses, so that rules overlap
+ * and most procedures match several of them. Includes the spellings the engine compares exactly:
+ * lowercase and malformed codes, primary teeth and diagnoses in another case.
+ */
+final class RandomRulesets {
+
+    private static final String[] PRIORITIES = {"1", "2", "3", "Next", "2 Wait"};
+    private static final String[] RULE_DIAGNOSES = {"", "", "Caries", "caries", "Fracture"};
+    private static final String[] DIAGNOSES = {"", "", "Caries", "CARIES", "Fracture", "Abscess"};
+    private static final String[] LOADED_PRIORITIES = {"None", "None", "", "none", "1", "Next"};
+    private static final String[] ODD_CODES = {"d0120", "D120", "D01200", "X1234", "", "D01A0"};
+    private static final String[] ODD_TEETH = {"A", "01", "33"};
+
+    private RandomRulesets() {
+    }
+
+    /**
+     * Builds a ruleset of random rules, about one in five of them dependent.
+     */
+    static CompiledRuleset ruleset(Random random, int ruleCount) {
+        List<RulesetItem> items = new ArrayList<>();
+        items.add(new RulesetItem("Priority", "D. Code", "Description", "Teeth", "Diagnosis"));
+        for (int i = 0; i < ruleCount; i++) {
+            RulesetItem item = new RulesetItem(pick(random, PRIORITIES), codes(random), "Rule " + i, teeth(random),
+                    pick(random, RULE_DIAGNOSES));
+            if (random.nextInt(5) == 0) {
+                item.setDependent(true);
+                item.setConditionalPriority(pick(random, PRIORITIES));
+                item.setNewPriority("5");
+            }
+            items.add(item);
+        }
+        return CompiledRuleset.compile("random", items);
+    }
+
+    /**
+     * Builds plans of 1 to 30 procedures, with several procedures per tooth so dependent rules apply.
+     */
+    static Map<Integer, List<PlannedProcedure>> plans(Random random, int patientCount) {
+        Map<Integer, List<PlannedProcedure>> plans = new LinkedHashMap<>();
+        int procedureNumber = 1;
+        for (int patient = 1; patient <= patientCount; patient++) {
+            int size = 1 + random.nextInt(30);
+            List<PlannedProcedure> plan = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                plan.add(new PlannedProcedure(procedureNumber++, pick(random, LOADED_PRIORITIES), tooth(random), "",
+                        code(random), pick(random, DIAGNOSES), "Random procedure", 100));
+            }
+            plans.put(patient, plan);
+        }
+        return plans;
+    }
+
+    static String code(Random random) {
+        int kind = random.nextInt(10);
+        if (kind == 0) {
+            return pick(random, ODD_CODES);
+        }
+        if (kind == 1) {
+            return String.format("N%04d", random.nextInt(25));
+        }
+        return String.format("D%04d", 95 + random.nextInt(70));
+    }
+
+    static String tooth(Random random) {
+        int kind = random.nextInt(10);
+        if (kind == 0) {
+            return "";
+        }
+        if (kind == 1) {
+            return pick(random, ODD_TEETH);
+        }
+        // Mostly a few teeth, so procedures share them
+        return String.valueOf(1 + random.nextInt(kind < 6 ? 4 : 32));
+    }
+
+    static String diagnosis(Random random) {
+        return pick(random, DIAGNOSES);
+    }
+
+    private static String codes(Random random) {
+        int low = 100 + random.nextInt(60);
+        return switch (random.nextInt(6)) {
+            case 0 -> "";
+            case 1 -> String.format("D%04d", low);
+            case 2 -> String.format("D%04d-D%04d", low, low + random.nextInt(15));
+            case 3 -> String.format("D%04d, N%04d", low, random.nextInt(25));
+            case 4 -> String.format("N%04d-N%04d", random.nextInt(10), 10 + random.nextInt(10));
+            default -> String.format("%04d-%04d; D%04d", low, low + 3, 100 + random.nextInt(60));
+        };
+    }
+
+    private static String teeth(Random random) {
+        int low = 1 + random.nextInt(8);
+        return switch (random.nextInt(4)) {
+            case 0, 1 -> "";
+            case 2 -> low + "-" + (low + random.nextInt(20));
+            default -> low + "," + (low + 2) + ";" + (20 + random.nextInt(12));
+        };
+    }
+
+    private static String pick(Random random, String[] values) {
+        return values[random.nextInt(values.length)];
+    }
+}
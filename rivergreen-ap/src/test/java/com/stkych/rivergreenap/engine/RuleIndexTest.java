@@ -0,0 +1,71 @@
+package com.stkych.rivergreenap.engine;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RuleIndexTest {
+
+    @Test
+    void matchesTheSameRulesAsTheEngine() {
+        for (int seed = 0; seed < 20; seed++) {
+            Random random = new Random(seed);
+            CompiledRuleset ruleset = RandomRulesets.ruleset(random, 40);
+            RuleIndex index = ruleset.index();
+            for (int i = 0; i < 500; i++) {
+                String code = RandomRulesets.code(random);
+                String tooth = RandomRulesets.tooth(random);
+                String diagnosis = RandomRulesets.diagnosis(random);
+
+                assertEquals(linear(ruleset.getRules(), code, tooth, diagnosis),
+                        index.matchProcedure(code, tooth, diagnosis),
+                        () -> code + " tooth " + tooth + " " + diagnosis);
+            }
+        }
+    }
+
+    @Test
+    void searchesOnlyTheGivenConditions() {
+        for (int seed = 0; seed < 20; seed++) {
+            Random random = new Random(seed);
+            CompiledRuleset ruleset = RandomRulesets.ruleset(random, 40);
+            RuleIndex index = ruleset.index();
+            for (int i = 0; i < 500; i++) {
+                String code = random.nextBoolean() ? RandomRulesets.code(random) : null;
+                String tooth = random.nextBoolean() ? RandomRulesets.tooth(random) : null;
+                String diagnosis = random.nextBoolean() ? RandomRulesets.diagnosis(random) : null;
+
+                assertEquals(linear(ruleset.getRules(), code, tooth, diagnosis), index.search(code, tooth, diagnosis),
+                        () -> code + " tooth " + tooth + " " + diagnosis);
+            }
+        }
+    }
+
+    @Test
+    void returnsTheRulesInEvaluationOrder() {
+        CompiledRuleset ruleset = RandomRulesets.ruleset(new Random(7), 40);
+        BitSet positions = ruleset.index().search(null, null, null);
+
+        assertEquals(ruleset.getRules(), ruleset.index().rules(positions));
+    }
+
+    /**
+     * Tests every rule in turn, as the engine does; a null condition is not checked.
+     */
+    private static BitSet linear(List<CompiledRuleset.Rule> rules, String code, String tooth, String diagnosis) {
+        BitSet result = new BitSet();
+        for (int r = 0; r < rules.size(); r++) {
+            CompiledRuleset.Rule rule = rules.get(r);
+            if ((code == null || rule.matchesCode(code))
+                    && (tooth == null || rule.matchesTooth(tooth))
+                    && (diagnosis == null || rule.matchesDiagnosis(diagnosis))) {
+                result.set(r);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,133 @@
+package com.stkych.rivergreenap.engine;
+
+import com.stkych.rivergreenap.util.CsvCodec;
+import com.stkych.rivergreenap.util.FileUtils;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RulesetEditLogTest {
+
+    @BeforeAll
+    static void offline() {
+        RulesetRepository.getInstance().setFetchDescriptions(false);
+    }
+
+    @Test
+    void compactsLiveEditsIntoTheFile() throws IOException {
+        String name = "EditLogLive";
+        RulesetEditLog log = RulesetEditLog.forRuleset(name);
+        log.rewrite(List.of(record("1", "D0120"), record("2", "D1110")));
+
+        log.insert(1, record("3", "D2391"));
+        log.remove(0);
+        log.insert(2, record("4", "D7140"));
+        assertTrue(Files.exists(logFile(name)));
+        assertThrows(IOException.class, () -> log.remove(3));
+
+        log.compact();
+
+        assertRecords(List.of(record("3", "D2391"), record("2", "D1110"), record("4", "D7140")), name);
+        assertFalse(Files.exists(logFile(name)));
+        RulesetEditLog.release(name);
+    }
+
+    @Test
+    void replaysALogLeftByACrash() throws IOException {
+        String name = "EditLogReplay";
+        writeFile(name, List.of(record("1", "D0120"), record("2", "D1110")));
+        writeLog(name, fileState(name), writer -> {
+            edit(writer, "I", 1, record("3", "D2391, \"quoted\""));
+            edit(writer, "D", 0, null);
+            // Torn by the crash: missing fields and the end marker
+            writer.field("I").field("0").field("5").endRecord();
+        });
+
+        RulesetEditLog.compactPending(name);
+
+        assertRecords(List.of(record("3", "D2391, \"quoted\""), record("2", "D1110")), name);
+        assertFalse(Files.exists(logFile(name)));
+        RulesetEditLog.release(name);
+    }
+
+    @Test
+    void setsAsideALogForAChangedFile() throws IOException {
+        String name = "EditLogRejected";
+        writeFile(name, List.<String[]>of(record("1", "D0120")));
+        String[] state = fileState(name);
+        writeLog(name, state, writer -> edit(writer, "D", 0, null));
+        // Edited elsewhere after the log was started
+        writeFile(name, List.of(record("1", "D0120"), record("2", "D1110")));
+
+        RulesetEditLog.compactPending(name);
+
+        assertRecords(List.of(record("1", "D0120"), record("2", "D1110")), name);
+        assertFalse(Files.exists(logFile(name)));
+        assertTrue(Files.exists(logFile(name).resolveSibling(logFile(name).getFileName() + ".rejected")));
+        RulesetEditLog.release(name);
+    }
+
+    private static String[] record(String priority, String codes) {
+        return new String[] {priority, "", "", codes, "Rule " + priority, "false", "", ""};
+    }
+
+    private static Path file(String name) {
+        return FileUtils.getRulesetFile(name).toPath();
+    }
+
+    private static Path logFile(String name) {
+        return file(name).resolveSibling(file(name).getFileName() + ".log");
+    }
+
+    private static void writeFile(String name, List<String[]> records) throws IOException {
+        CsvCodec.writeAtomically(file(name), writer -> {
+            for (String[] record : records) {
+                for (String field : record) {
+                    writer.field(field);
+                }
+                writer.endRecord();
+            }
+        });
+    }
+
+    private static String[] fileState(String name) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file(name), BasicFileAttributes.class);
+        return new String[] {Long.toString(attributes.lastModifiedTime().toMillis()), Long.toString(attributes.size())};
+    }
+
+    private static void writeLog(String name, String[] state, CsvCodec.RecordSource edits) throws IOException {
+        CsvCodec.writeAtomically(logFile(name), writer -> {
+            writer.field("base").field(state[0]).field(state[1]).endRecord();
+            edits.writeTo(writer);
+        });
+    }
+
+    private static void edit(CsvCodec.Writer writer, String op, int index, String[] record) throws IOException {
+        writer.field(op).field(Integer.toString(index));
+        if (record != null) {
+            for (String field : record) {
+                writer.field(field);
+            }
+        }
+        writer.field(".").endRecord();
+    }
+
+    private static void assertRecords(List<String[]> expected, String name) throws IOException {
+        List<List<String>> actual = new ArrayList<>();
+        for (String[] record : RulesetLoader.readRecords(file(name))) {
+            actual.add(List.of(record));
+        }
+        assertEquals(expected.stream().map(List::of).toList(), actual);
+    }
+}
@@ -0,0 +1,100 @@
+package com.stkych.rivergreenap.engine;
+
+import com.stkych.rivergreenap.model.PlannedProcedure;
+import com.stkych.rivergreenap.model.RulesetItem;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RulesetEngineTest {
+
+    @Test
+    void laterMatchingRulesOverwriteEarlierOnes() {
+        CompiledRuleset ruleset = ruleset(
+                new RulesetItem("3", "D2391-D2394", "Composites", "", ""),
+                new RulesetItem("1", "D2391", "Composites with caries", "", "Caries"),
+                new RulesetItem("2", "", "Front teeth", "6-11", ""));
+
+        List<PlannedProcedure> result = RulesetEngine.prioritize(ruleset, List.of(
+                procedure(1, "None", "3", "D2391", "caries"),
+                procedure(2, "None", "3", "D2392", "Caries"),
+                procedure(3, "None", "8", "D2391", ""),
+                procedure(4, "None", "", "D7140", "")), false);
+
+        assertEquals(List.of("1", "3", "2", "None"), priorities(result));
+    }
+
+    @Test
+    void changesOnlyProceduresWithoutAPriority() {
+        CompiledRuleset ruleset = ruleset(
+                new RulesetItem("3", "D2391", "Composites", "", ""),
+                new RulesetItem("1", "D2391", "Composites again", "", ""));
+        List<PlannedProcedure> plan = List.of(
+                procedure(1, "None", "3", "D2391", ""),
+                procedure(2, "", "4", "D2391", ""),
+                procedure(3, "Next", "5", "D2391", ""));
+
+        List<PlannedProcedure> result = RulesetEngine.prioritize(ruleset, plan, true);
+
+        // The first rule gives them a priority, so the second no longer applies
+        assertEquals(List.of("3", "3", "Next"), priorities(result));
+        assertSame(plan.get(2), result.get(2));
+    }
+
+    @Test
+    void dependentRulesLookForTheConditionalCodeOnTheSameTooth() {
+        RulesetItem crown = new RulesetItem("2", "D2740", "Crowns", "", "");
+        crown.setDependent(true);
+        crown.setConditionalPriority("1");
+        crown.setNewPriority("5");
+        CompiledRuleset ruleset = ruleset(
+                new RulesetItem("1", "D3330", "Root canals", "", ""),
+                crown);
+
+        List<PlannedProcedure> result = RulesetEngine.prioritize(ruleset, List.of(
+                procedure(1, "None", "3", "D3330", ""),
+                procedure(2, "None", "3", "D2740", ""),
+                procedure(3, "None", "4", "D2740", ""),
+                procedure(4, "None", "", "D2740", "")), false);
+
+        assertEquals(List.of("1", "5", "2", "2"), priorities(result));
+    }
+
+    @Test
+    void generatedMatchersAssignTheSamePriorities() {
+        for (int seed = 0; seed < 10; seed++) {
+            Random random = new Random(seed);
+            CompiledRuleset ruleset = RandomRulesets.ruleset(random, 30);
+            assertTrue(ruleset.hasGeneratedMatcher(), "seed " + seed);
+            for (List<PlannedProcedure> plan : RandomRulesets.plans(random, 200).values()) {
+                for (boolean noneOnly : new boolean[] {false, true}) {
+                    assertEquals(priorities(RulesetEngine.prioritize(ruleset, plan, noneOnly, false)),
+                            priorities(RulesetEngine.prioritize(ruleset, plan, noneOnly, true)),
+                            "seed " + seed + (noneOnly ? ", None only" : ""));
+                }
+            }
+        }
+    }
+
+    private static CompiledRuleset ruleset(RulesetItem... rules) {
+        List<RulesetItem> items = new ArrayList<>();
+        items.add(new RulesetItem("Priority", "D. Code", "Description", "Teeth", "Diagnosis"));
+        items.addAll(List.of(rules));
+        return CompiledRuleset.compile("test", items);
+    }
+
+    private static PlannedProcedure procedure(int procedureNumber, String priority, String tooth, String code,
+                                              String diagnosis) {
+        return new PlannedProcedure(procedureNumber, priority, tooth, "", code, diagnosis, "Procedure", 100);
+    }
+
+    private static List<String> priorities(List<PlannedProcedure> procedures) {
+        return procedures.stream().map(PlannedProcedure::priority).toList();
+    }
+}
@@ -0,0 +1,181 @@
+package com.stkych.rivergreenap.headless;
+
+import ch.vorburger.mariadb4j.DB;
+import ch.vorburger.mariadb4j.DBConfiguration;
+import ch.vorburger.mariadb4j.DBConfigurationBuilder;
+import com.stkych.rivergreenap.DatabaseConfig;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Smoke test of the headless modes against a real database.
+ * <p>
+ * Starts an embedded MariaDB, loads the part of OpenDental's schema the daemon uses with three
+ * patients ({@code fixture/opendental.sql}), runs one daemon poll ({@code --daemon --once}) with the
+ * fixture ruleset and checks the priorities it wrote to procedurelog and treatplanattach. The
+ * {@code native-headless} profile runs it against the native executable after building it; with
+ * {@code --main}, the headless modes run on this JVM's class path instead, which checks the fixture
+ * and the daemon without GraalVM. The run uses its own user home, so it neither reads nor moves the
+ * daemon's watermark or rulesets.
+ * <p>
+ * Usage: {@code --executable FILE | --main CLASS} {@code [--home DIR]}
+ */
+public final class HeadlessSmoke {
+
+    private static final String RULESET = "Smoke";
+
+    // A daemon poll of three patients that takes longer is stuck
+    private static final long RUN_TIMEOUT_SECONDS = 120;
+
+    // Priority DefNum of each procedure after the poll: 104 is "4", 101 is "1", 102 is "2".
+    // Procedure 4 already had a priority and procedure 6 is completed, so the daemon leaves both alone
+    private static final Map<Integer, Long> EXPECTED_PRIORITIES =
+            new TreeMap<>(Map.of(1, 104L, 2, 101L, 3, 102L, 4, 101L, 5, 104L, 6, 0L));
+
+    private HeadlessSmoke() {
+    }
+
+    /**
+     * Entry point for the smoke test.
+     *
+     * @param args Options (see class documentation)
+     * @throws Exception If the run fails or wrote other priorities than expected
+     */
+    public static void main(String[] args) throws Exception {
+        String executable = option(args, "--executable");
+        String mainClass = option(args, "--main");
+        if ((executable == null) == (mainClass == null)) {
+            System.err.println("Usage: --executable FILE | --main CLASS [--home DIR]");
+            System.exit(2);
+        }
+        String homeOption = option(args, "--home");
+        Path home = Path.of(homeOption != null ? homeOption : "target/smoke-home").toAbsolutePath();
+        prepareHome(home);
+
+        DBConfigurationBuilder builder = DBConfigurationBuilder.newBuilder();
+        builder.setPort(0);
+        // mariadbd refuses to start as root unless told to, which is how containers and CI runners often run
+        if ("root".equals(System.getProperty("user.name"))) {
+            builder.addArg("--user=root");
+        }
+        DBConfiguration configuration = builder.build();
+        DB db = DB.newEmbeddedDB(configuration);
+        db.start();
+        try {
+            db.createDB("opendental");
+            db.source("fixture/opendental.sql", "opendental");
+            String url = "jdbc:mysql://127.0.0.1:" + configuration.getPort()
+                    + "/opendental?useSSL=false&allowPublicKeyRetrieval=true&serverTimezone=UTC";
+
+            List<String> command = new ArrayList<>();
+            if (executable != null) {
+                command.add(executable);
+            } else {
+                command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+                command.add("-cp");
+                command.add(System.getProperty("java.class.path"));
+            }
+            command.add("-Duser.home=" + home);
+            command.add("-Drivergreen.dbUrl=" + url);
+            if (mainClass != null) {
+                command.add(mainClass);
+            }
+            command.addAll(List.of("--daemon", "--once", "--ruleset", RULESET));
+
+            System.out.println("Running " + String.join(" ", command));
+            Process process = new ProcessBuilder(command).inheritIO().start();
+            if (!process.waitFor(RUN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+                throw new IllegalStateException("The daemon poll did not finish in " + RUN_TIMEOUT_SECONDS + " s");
+            }
+            if (process.exitValue() != 0) {
+                throw new IllegalStateException("The daemon poll exited with " + process.exitValue());
+            }
+
+            checkPriorities(url);
+            System.out.println("Smoke test passed: the daemon wrote the expected priorities to "
+                    + EXPECTED_PRIORITIES.size() + " procedures");
+        } finally {
+            db.stop();
+        }
+    }
+
+    /**
+     * Empties the user home and puts the fixture ruleset in its ruleset directory.
+     */
+    private static void prepareHome(Path home) throws IOException {
+        if (Files.exists(home)) {
+            try (Stream<Path> paths = Files.walk(home)) {
+                for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(path);
+                }
+            }
+        }
+        Path rulesets = Files.createDirectories(home.resolve("RiverGreenAP").resolve("rulesets"));
+        try (InputStream ruleset = HeadlessSmoke.class.getResourceAsStream("/fixture/ruleset" + RULESET + ".csv")) {
+            if (ruleset == null) {
+                throw new IOException("Fixture ruleset not found on the class path");
+            }
+            Files.copy(ruleset, rulesets.resolve("ruleset" + RULESET + ".csv"));
+        }
+    }
+
+    /**
+     * Compares the priority of every procedure, and of its treatment plan attachment, with the expected one.
+     */
+    private static void checkPriorities(String url) throws SQLException {
+        Map<Integer, Long> procedures = new TreeMap<>();
+        Map<Integer, Long> attachments = new TreeMap<>();
+        try (Connection conn = DriverManager.getConnection(url, DatabaseConfig.DB_USER, DatabaseConfig.DB_PASSWORD);
+             Statement stmt = conn.createStatement()) {
+            try (ResultSet rs = stmt.executeQuery("SELECT ProcNum, Priority FROM procedurelog")) {
+                while (rs.next()) {
+                    procedures.put(rs.getInt("ProcNum"), rs.getLong("Priority"));
+                }
+            }
+            try (ResultSet rs = stmt.executeQuery("SELECT ProcNum, Priority FROM treatplanattach")) {
+                while (rs.next()) {
+                    attachments.put(rs.getInt("ProcNum"), rs.getLong("Priority"));
+                }
+            }
+        }
+
+        List<String> differences = new ArrayList<>();
+        for (Map.Entry<Integer, Long> expected : EXPECTED_PRIORITIES.entrySet()) {
+            int procNum = expected.getKey();
+            if (!expected.getValue().equals(procedures.get(procNum))) {
+                differences.add("procedurelog " + procNum + ": " + procedures.get(procNum) + " instead of " + expected.getValue());
+            }
+            if (attachments.containsKey(procNum) && !expected.getValue().equals(attachments.get(procNum))) {
+                differences.add("treatplanattach " + procNum + ": " + attachments.get(procNum) + " instead of " + expected.getValue());
+            }
+        }
+        if (!differences.isEmpty()) {
+            throw new IllegalStateException("Unexpected priorities after the daemon poll: " + differences);
+        }
+    }
+
+    private static String option(String[] args, String name) {
+        for (int i = 0; i + 1 < args.length; i++) {
+            if (args[i].equals(name)) {
+                return args[i + 1];
+            }
+        }
+        return null;
+    }
+}
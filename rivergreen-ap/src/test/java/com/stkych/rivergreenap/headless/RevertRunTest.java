@@ -0,0 +1,43 @@
+package com.stkych.rivergreenap.headless;
+
+import com.stkych.rivergreenap.db.ChangeJournal;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RevertRunTest {
+
+    @AfterEach
+    void closeSession() {
+        ChangeJournal.closeSession();
+    }
+
+    @Test
+    void restoresTheValueFromBeforeTheRunOverTheValueItLeft() throws IOException {
+        ChangeJournal journal = ChangeJournal.session();
+        String runId = journal.getRunId();
+        // Procedure 5's priority was written twice in the run, then its diagnosis once
+        journal.append(5, ChangeJournal.Column.PRIORITY, 100, 200);
+        journal.append(6, ChangeJournal.Column.DIAGNOSIS, 0, 7);
+        journal.append(5, ChangeJournal.Column.PRIORITY, 200, 300);
+        journal.append(5, ChangeJournal.Column.DIAGNOSIS, 1, 2);
+        ChangeJournal.closeSession();
+
+        Map<Integer, long[]> priorities = new TreeMap<>();
+        Map<Integer, long[]> diagnoses = new TreeMap<>();
+        ChangeJournal.RunInfo run = RevertRun.readRestores(runId, priorities, diagnoses);
+
+        assertEquals(4, run.changeCount());
+        assertEquals(1, priorities.size());
+        assertArrayEquals(new long[] {300, 100}, priorities.get(5));
+        assertEquals(2, diagnoses.size());
+        assertArrayEquals(new long[] {2, 1}, diagnoses.get(5));
+        assertArrayEquals(new long[] {7, 0}, diagnoses.get(6));
+    }
+}
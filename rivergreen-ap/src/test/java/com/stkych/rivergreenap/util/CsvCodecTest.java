@@ -0,0 +1,118 @@
+package com.stkych.rivergreenap.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CsvCodecTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void roundTripsFieldsThatNeedQuoting() throws IOException {
+        List<List<String>> records = List.of(
+                List.of("Priority", "D. Code", "Description"),
+                List.of("1", "D2391-D2394", "Composite, one surface"),
+                List.of("2", "", "Said \"urgent\""),
+                List.of("3", "D0120", "First line\r\nsecond line"),
+                List.of("", "", ""),
+                List.of("Wait", "D7140", "Extraction – erupted tooth 🦷"));
+
+        Path file = directory.resolve("ruleset.csv");
+        CsvCodec.writeAtomically(file, writer -> {
+            for (List<String> record : records) {
+                for (String field : record) {
+                    writer.field(field);
+                }
+                writer.endRecord();
+            }
+        });
+
+        assertEquals(records, readAll(file));
+        assertFalse(Files.exists(directory.resolve("ruleset.csv.tmp")));
+    }
+
+    @Test
+    void quotesFreeTextFieldsOnlyWhenNotEmpty() throws IOException {
+        StringWriter out = new StringWriter();
+        CsvCodec.Writer writer = new CsvCodec.Writer(out);
+        writer.field("1").quotedField("Crown").quotedField("").field(null).endRecord();
+
+        assertEquals("1,\"Crown\",,\r\n", out.toString());
+    }
+
+    @Test
+    void readsRecordsLongerThanTheBuffer() throws IOException {
+        // Multi-byte characters end up split across reads of the channel
+        String description = "é€".repeat(10_000);
+        Path file = directory.resolve("long.csv");
+        CsvCodec.writeAtomically(file, writer -> {
+            writer.field("1").quotedField(description).endRecord();
+            writer.field("2").field("short").endRecord();
+        });
+
+        assertEquals(List.of(List.of("1", description), List.of("2", "short")), readAll(file));
+    }
+
+    @Test
+    void acceptsEveryLineEndAndSkipsTheByteOrderMark() throws IOException {
+        Path file = directory.resolve("mixed.csv");
+        Files.write(file, "\uFEFFa,b\nc,d\re,f\r\ng".getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(List.of(List.of("a", "b"), List.of("c", "d"), List.of("e", "f"), List.of("g")), readAll(file));
+    }
+
+    @Test
+    void keepsAnUnterminatedQuotedField() throws IOException {
+        Path file = directory.resolve("torn.csv");
+        Files.writeString(file, "1,\"half a\nfield", StandardCharsets.UTF_8);
+
+        assertEquals(List.of(List.of("1", "half a\nfield")), readAll(file));
+    }
+
+    @Test
+    void trimsAndChecksBlankFields() throws IOException {
+        try (CsvCodec.Reader reader = new CsvCodec.Reader(Channels.newChannel(
+                new ByteArrayInputStream(" 1 ,  ,x\n\n".getBytes(StandardCharsets.UTF_8))))) {
+            assertTrue(reader.next());
+            assertEquals(1, reader.recordNumber());
+            assertEquals("1", reader.trimmed(0));
+            assertTrue(reader.isBlank(1));
+            assertFalse(reader.isBlank(2));
+            assertTrue(reader.isBlank(5));
+            assertEquals("", reader.field(5).toString());
+
+            assertTrue(reader.next());
+            assertTrue(reader.isBlankRecord());
+            assertFalse(reader.next());
+        }
+    }
+
+    private static List<List<String>> readAll(Path file) throws IOException {
+        List<List<String>> records = new ArrayList<>();
+        try (CsvCodec.Reader reader = CsvCodec.Reader.open(file)) {
+            while (reader.next()) {
+                List<String> record = new ArrayList<>();
+                for (int i = 0; i < reader.fieldCount(); i++) {
+                    record.add(reader.field(i).toString());
+                }
+                records.add(record);
+            }
+        }
+        return records;
+    }
+}
@@ -0,0 +1,28 @@
+package com.stkych.rivergreenap.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class DentalCodeUtilTest {
+
+    @Test
+    void sharesExpandedCodesWithoutCopying() {
+        List<String> codes = DentalCodeUtil.expandDentalCodes("D0000-D9999");
+
+        assertEquals(10_000, codes.size());
+        assertEquals("D2391", codes.get(2391));
+        assertSame(codes, DentalCodeUtil.expandDentalCodes("D0000-D9999"));
+        assertThrows(UnsupportedOperationException.class, () -> codes.add("D0001"));
+    }
+
+    @Test
+    void compressesWhatItExpands() {
+        assertEquals("D0120;D2391-D2394;N0010-N0012",
+                DentalCodeUtil.compressDentalCodes(DentalCodeUtil.expandDentalCodes("2391-2394, D0120; N10-N12")));
+    }
+}
@@ -0,0 +1,49 @@
+package com.stkych.rivergreenap.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class LruCacheTest {
+
+    @Test
+    void evictsTheLeastRecentlyUsedEntriesByWeight() {
+        // Eight segments of weight 10; Integer keys that are multiples of 8 share a segment
+        LruCache<Integer, List<Integer>> cache = new LruCache<>("weighted", 80, List::size);
+        AtomicInteger loads = new AtomicInteger();
+
+        cache.get(0, key -> load(loads, 4));
+        cache.get(8, key -> load(loads, 4));
+        cache.get(0, key -> load(loads, 4));
+        cache.get(16, key -> load(loads, 4));
+        assertEquals(3, loads.get());
+
+        // 8 was used least recently, so it went to make room for 16
+        cache.get(0, key -> load(loads, 4));
+        cache.get(16, key -> load(loads, 4));
+        assertEquals(3, loads.get());
+        cache.get(8, key -> load(loads, 4));
+        assertEquals(4, loads.get());
+    }
+
+    @Test
+    void returnsButDoesNotKeepValuesHeavierThanASegment() {
+        LruCache<Integer, List<Integer>> cache = new LruCache<>("oversized", 80, List::size);
+        AtomicInteger loads = new AtomicInteger();
+
+        assertEquals(11, cache.get(0, key -> load(loads, 11)).size());
+        cache.get(0, key -> load(loads, 11));
+
+        assertEquals(2, loads.get());
+        assertEquals(0, cache.size());
+    }
+
+    private static List<Integer> load(AtomicInteger loads, int size) {
+        loads.incrementAndGet();
+        return Collections.nCopies(size, 0);
+    }
+}
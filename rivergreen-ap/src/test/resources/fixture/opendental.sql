@@ -0,0 +1,90 @@
+-- The part of OpenDental's schema the headless modes read and write, with three patients.
+-- Loaded into an embedded MariaDB by HeadlessSmoke; column types follow OpenDental's.
+
+CREATE TABLE definition (
+    DefNum BIGINT NOT NULL AUTO_INCREMENT PRIMARY KEY,
+    Category TINYINT NOT NULL,
+    ItemOrder SMALLINT NOT NULL,
+    ItemName VARCHAR(255) NOT NULL,
+    ItemValue VARCHAR(255) NOT NULL DEFAULT '',
+    IsHidden TINYINT NOT NULL DEFAULT 0
+);
+
+CREATE TABLE procedurecode (
+    CodeNum BIGINT NOT NULL AUTO_INCREMENT PRIMARY KEY,
+    ProcCode VARCHAR(15) NOT NULL,
+    Descript VARCHAR(255) NOT NULL DEFAULT ''
+);
+
+CREATE TABLE patient (
+    PatNum BIGINT NOT NULL AUTO_INCREMENT PRIMARY KEY,
+    LName VARCHAR(100) NOT NULL DEFAULT '',
+    FName VARCHAR(100) NOT NULL DEFAULT '',
+    MiddleI VARCHAR(100) NOT NULL DEFAULT ''
+);
+
+CREATE TABLE procedurelog (
+    ProcNum BIGINT NOT NULL AUTO_INCREMENT PRIMARY KEY,
+    PatNum BIGINT NOT NULL,
+    ProcStatus TINYINT NOT NULL,
+    CodeNum BIGINT NOT NULL,
+    ToothNum VARCHAR(2) NOT NULL DEFAULT '',
+    Surf VARCHAR(10) NOT NULL DEFAULT '',
+    ProcFee DOUBLE NOT NULL DEFAULT 0,
+    Priority BIGINT NOT NULL DEFAULT 0,
+    Dx BIGINT NOT NULL DEFAULT 0,
+    DateTStamp TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+    INDEX (PatNum),
+    INDEX (DateTStamp)
+);
+
+CREATE TABLE treatplan (
+    TreatPlanNum BIGINT NOT NULL AUTO_INCREMENT PRIMARY KEY,
+    PatNum BIGINT NOT NULL,
+    TPStatus TINYINT NOT NULL
+);
+
+CREATE TABLE treatplanattach (
+    TreatPlanAttachNum BIGINT NOT NULL AUTO_INCREMENT PRIMARY KEY,
+    TreatPlanNum BIGINT NOT NULL,
+    ProcNum BIGINT NOT NULL,
+    Priority BIGINT NOT NULL DEFAULT 0
+);
+
+-- Priorities (category 20) and diagnoses (category 16)
+INSERT INTO definition (DefNum, Category, ItemOrder, ItemName) VALUES
+    (101, 20, 0, '1'),
+    (102, 20, 1, '2'),
+    (103, 20, 2, '3'),
+    (104, 20, 3, '4'),
+    (201, 16, 0, 'Caries');
+
+INSERT INTO procedurecode (CodeNum, ProcCode, Descript) VALUES
+    (1, 'D0120', 'Periodic oral evaluation'),
+    (2, 'D2391', 'Resin-based composite, one surface, posterior'),
+    (3, 'D2740', 'Crown, porcelain/ceramic');
+
+INSERT INTO patient (PatNum, LName, FName) VALUES
+    (1, 'Smoke', 'Alice'),
+    (2, 'Smoke', 'Bob'),
+    (3, 'Smoke', 'Carol');
+
+-- 1 and 2 have active treatment plans; 3 only a completed procedure
+INSERT INTO procedurelog (ProcNum, PatNum, ProcStatus, CodeNum, ToothNum, Surf, ProcFee, Priority, Dx) VALUES
+    (1, 1, 1, 1, '', '', 60, 0, 0),
+    (2, 1, 1, 2, '3', 'O', 150, 0, 201),
+    (3, 1, 1, 3, '14', '', 1100, 0, 0),
+    (4, 2, 1, 3, '30', '', 1100, 101, 0),
+    (5, 2, 1, 1, '', '', 60, 0, 0),
+    (6, 3, 2, 1, '', '', 60, 0, 0);
+
+INSERT INTO treatplan (TreatPlanNum, PatNum, TPStatus) VALUES
+    (1, 1, 1),
+    (2, 2, 1);
+
+INSERT INTO treatplanattach (TreatPlanNum, ProcNum, Priority) VALUES
+    (1, 1, 0),
+    (1, 2, 0),
+    (1, 3, 0),
+    (2, 4, 101),
+    (2, 5, 0);
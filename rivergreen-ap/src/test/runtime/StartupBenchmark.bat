@@ -0,0 +1,7 @@
+@echo off
+rem Times launches of the startup image in startup-image\ from starting Java to the first frame (see StartupBenchmark).
+rem Written by: mvnw.cmd -Pstartup-image package. The benchmark is test code and runs from the module path,
+rem so the application's class path is the one RiverGreen.bat uses and the image's archive applies.
+pushd "%~dp0startup-image"
+runtime\bin\java.exe -cp "@CLASSPATH@" --module-path "..\@TRAINING_JAR@" --add-modules ALL-DEFAULT -m rivergreen.training/com.stkych.rivergreenap.bench.Benchmarks startup %*
+popd